@@ -0,0 +1,259 @@
+package com.example.david.simplecamera;
+
+//Description: Hands preview frames to a set of analyzers on their own executor. Only the newest frame waits, so
+//slow analyzers skip frames instead of falling further and further behind.
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AnalysisPipeline {
+
+    private final Executor executor;
+    private final BufferPool pool;
+    private final Clock clock;
+    private final List<FrameAnalyzer> analyzers = new CopyOnWriteArrayList<>();
+    private final AtomicReference<PendingFrame> latest = new AtomicReference<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final AtomicLong offeredCount = new AtomicLong();
+    private final AtomicLong analyzedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong totalAnalyzeNanos = new AtomicLong();
+    private final AtomicLong maxAnalyzeNanos = new AtomicLong();
+    private final AtomicLong firstOfferNanos = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong lastAnalyzedNanos = new AtomicLong(Long.MIN_VALUE);
+
+    private static class PendingFrame {
+
+        final YuvFrame frame;
+        final long timestampNanos;
+
+        PendingFrame(YuvFrame frame, long timestampNanos){
+
+            this.frame = frame;
+            this.timestampNanos = timestampNanos;
+        }
+    }
+
+    private final Runnable drain = new Runnable() {
+
+        @Override
+        public void run() {
+
+            drainFrames();
+        }
+    };
+
+    public AnalysisPipeline(Executor executor, BufferPool pool, Clock clock){
+
+        //The pool may be null if the frames weren't copied into pooled buffers.
+        if(executor == null || clock == null){
+
+            throw new NullPointerException();
+        }
+
+        this.executor = executor;
+        this.pool = pool;
+        this.clock = clock;
+    }
+
+    public void addAnalyzer(FrameAnalyzer analyzer){
+
+        if(analyzer == null){
+
+            throw new NullPointerException();
+        }
+
+        analyzers.add(analyzer);
+    }
+
+    public void removeAnalyzer(FrameAnalyzer analyzer){
+
+        analyzers.remove(analyzer);
+    }
+
+    public boolean hasAnalyzers(){
+
+        return !analyzers.isEmpty();
+    }
+
+    public void offer(YuvFrame frame, long timestampNanos){
+
+        //Never blocks. The pipeline owns the frame from here on and releases it once it has been
+        //analyzed or replaced by a newer one.
+        if(frame == null){
+
+            throw new NullPointerException();
+        }
+
+        offeredCount.incrementAndGet();
+        firstOfferNanos.compareAndSet(Long.MIN_VALUE, clock.nanoTime());
+
+        PendingFrame replaced = latest.getAndSet(new PendingFrame(frame, timestampNanos));
+
+        if(replaced != null){
+
+            droppedCount.incrementAndGet();
+            replaced.frame.release(pool);
+        }
+
+        scheduleDrain();
+    }
+
+    private void scheduleDrain(){
+
+        //At most one drain runs at a time, so the analyzers always see frames in order.
+        if(draining.compareAndSet(false, true)){
+
+            try{
+
+                executor.execute(drain);
+
+            }catch(RejectedExecutionException e){
+
+                draining.set(false);
+                clear();
+            }
+        }
+    }
+
+    private void drainFrames(){
+
+        while(true){
+
+            PendingFrame pending;
+
+            while((pending = latest.getAndSet(null)) != null){
+
+                analyze(pending);
+            }
+
+            draining.set(false);
+
+            //A frame offered after the last check but before the flag was cleared would otherwise wait
+            //for the next offer.
+            if(latest.get() == null || !draining.compareAndSet(false, true)){
+
+                return;
+            }
+        }
+    }
+
+    private void analyze(PendingFrame pending){
+
+        long start = clock.nanoTime();
+
+        try{
+
+            for(FrameAnalyzer analyzer : analyzers){
+
+                analyzer.analyze(pending.frame, pending.timestampNanos);
+            }
+
+        }catch(RuntimeException e){
+
+            //One broken analyzer mustn't stop the frames that follow.
+            e.printStackTrace();
+
+        }finally{
+
+            pending.frame.release(pool);
+        }
+
+        long end = clock.nanoTime();
+        long elapsed = end - start;
+
+        analyzedCount.incrementAndGet();
+        totalAnalyzeNanos.addAndGet(elapsed);
+        lastAnalyzedNanos.set(end);
+        updateMax(maxAnalyzeNanos, elapsed);
+    }
+
+    private static void updateMax(AtomicLong max, long value){
+
+        long current;
+
+        while(value > (current = max.get())){
+
+            if(max.compareAndSet(current, value)){
+
+                return;
+            }
+        }
+    }
+
+    public void clear(){
+
+        //Releases the waiting frame, if any. Used when the camera closes.
+        PendingFrame pending = latest.getAndSet(null);
+
+        if(pending != null){
+
+            droppedCount.incrementAndGet();
+            pending.frame.release(pool);
+        }
+    }
+
+    public long getOfferedCount(){
+
+        return offeredCount.get();
+    }
+
+    public long getAnalyzedCount(){
+
+        return analyzedCount.get();
+    }
+
+    public long getDroppedCount(){
+
+        return droppedCount.get();
+    }
+
+    public double getDropRate(){
+
+        //The share of offered frames that were never analyzed.
+        long offered = offeredCount.get();
+
+        return offered == 0 ? 0 : (double) droppedCount.get() / offered;
+    }
+
+    public double getAnalyzedFramesPerSecond(){
+
+        //From the first offered frame to the last analyzed one.
+        long first = firstOfferNanos.get();
+        long last = lastAnalyzedNanos.get();
+        long analyzed = analyzedCount.get();
+
+        if(first == Long.MIN_VALUE || last == Long.MIN_VALUE || last <= first){
+
+            return 0;
+        }
+
+        return analyzed * 1e9 / (last - first);
+    }
+
+    public long getAverageAnalyzeNanos(){
+
+        long analyzed = analyzedCount.get();
+
+        return analyzed == 0 ? 0 : totalAnalyzeNanos.get() / analyzed;
+    }
+
+    public long getMaxAnalyzeNanos(){
+
+        return maxAnalyzeNanos.get();
+    }
+
+    @Override
+    public String toString(){
+
+        return String.format(Locale.US, "Analysis: %d offered, %d analyzed, %.1f%% dropped, %.1f fps, %.2fms avg, %.2fms max",
+                getOfferedCount(), getAnalyzedCount(), getDropRate() * 100, getAnalyzedFramesPerSecond(), getAverageAnalyzeNanos() / 1e6, getMaxAnalyzeNanos() / 1e6);
+    }
+}
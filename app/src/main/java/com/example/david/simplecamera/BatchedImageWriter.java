@@ -0,0 +1,310 @@
+package com.example.david.simplecamera;
+
+//Description: An ImageSink that writes each image straight to a file through a FileChannel and registers the
+//finished files in batches, so a burst costs one MediaStore transaction instead of one per image. A batch is
+//flushed once it holds enough images or its oldest image has waited long enough.
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BatchedImageWriter implements ImageSink {
+
+    private final File directory;
+    private final ImageRegistry registry;
+    private final int maxBatchSize;
+    private final long maxBatchAgeNanos;
+    private final Clock clock;
+
+    private final Object pendingLock = new Object();
+    //Images whose stream has been closed but that haven't been committed or discarded yet, by title.
+    private final Map<String, ImageRecord> unfinished = new HashMap<>();
+    private List<ImageRecord> pending = new ArrayList<>();
+    private long oldestPendingNanos;
+    private ScheduledExecutorService flushTimer;
+    private volatile boolean closed;
+
+    private final AtomicLong imagesWritten = new AtomicLong();
+    private final AtomicLong imagesRegistered = new AtomicLong();
+    private final AtomicLong batchesFlushed = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    public BatchedImageWriter(File outputDirectory, ImageRegistry imageRegistry, int batchSize, long batchAgeMillis, Clock writerClock){
+
+        if(outputDirectory == null || imageRegistry == null || writerClock == null || batchSize < 1 || batchAgeMillis < 0){
+
+            throw new IllegalArgumentException("Error: invalid batched writer configuration!");
+        }
+
+        directory = outputDirectory;
+        registry = imageRegistry;
+        maxBatchSize = batchSize;
+        maxBatchAgeNanos = TimeUnit.MILLISECONDS.toNanos(batchAgeMillis);
+        clock = writerClock;
+    }
+
+    @Override
+    public OutputStream openStream(final String title, final String mimeType) throws IOException {
+
+        if(!directory.isDirectory() && !directory.mkdirs()){
+
+            throw new IOException("Error: could not create " + directory);
+        }
+
+        final File file = fileFor(title);
+        final FileChannel channel = new FileOutputStream(file).getChannel();
+
+        return new OutputStream() {
+
+            private long written;
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+
+                while(buffer.hasRemaining()){
+
+                    written += channel.write(buffer);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+
+                if(closed){
+
+                    return;
+                }
+
+                closed = true;
+                channel.close();
+
+                //The writer may still find out the image is broken, so it isn't registered before it is committed.
+                synchronized(pendingLock){
+
+                    unfinished.put(title, new ImageRecord(file.getAbsolutePath(), title, mimeType, System.currentTimeMillis(), written));
+                }
+            }
+        };
+    }
+
+    @Override
+    public void commit(String title){
+
+        ImageRecord record;
+
+        synchronized(pendingLock){
+
+            record = unfinished.remove(title);
+        }
+
+        if(record == null){
+
+            throw new IllegalArgumentException("Error: " + title + " has no closed stream to commit!");
+        }
+
+        onImageWritten(record);
+    }
+
+    @Override
+    public void discard(String title){
+
+        File file = fileFor(title);
+        String path = file.getAbsolutePath();
+
+        synchronized(pendingLock){
+
+            unfinished.remove(title);
+
+            for(int i = 0; i < pending.size(); i++){
+
+                if(pending.get(i).path.equals(path)){
+
+                    pending.remove(i);
+                    break;
+                }
+            }
+        }
+
+        if(file.exists() && !file.delete()){
+
+            file.deleteOnExit();
+        }
+    }
+
+    public boolean flushIfDue(){
+
+        //Flushes when the oldest pending image has waited for the maximum batch age.
+        boolean due;
+
+        synchronized(pendingLock){
+
+            due = !pending.isEmpty() && clock.nanoTime() - oldestPendingNanos >= maxBatchAgeNanos;
+        }
+
+        return due && flush() > 0;
+    }
+
+    public int flush(){
+
+        //Registers everything pending in one batch. Returns the number of images registered. Images from
+        //a batch that fails stay pending for the next flush.
+        List<ImageRecord> batch;
+
+        synchronized(pendingLock){
+
+            if(pending.isEmpty()){
+
+                return 0;
+            }
+
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+
+        try{
+
+            int registered = registry.registerAll(batch);
+
+            imagesRegistered.addAndGet(registered);
+            batchesFlushed.incrementAndGet();
+
+            return registered;
+
+        }catch(IOException e){
+
+            failedFlushes.incrementAndGet();
+            e.printStackTrace();
+
+            synchronized(pendingLock){
+
+                batch.addAll(pending);
+                pending = batch;
+                oldestPendingNanos = clock.nanoTime();
+            }
+
+            return 0;
+        }
+    }
+
+    public synchronized void startFlushTimer(long periodMillis){
+
+        //Checks the batch age on a background thread of its own so partial batches don't wait forever.
+
+        if(flushTimer != null){
+
+            return;
+        }
+
+        flushTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "Image Batch Flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        flushTimer.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+
+                flushIfDue();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void close(){
+
+        //Stops the timer and registers whatever is still pending. Images that finish after this are
+        //registered straight away since there is no timer left to pick them up.
+        closed = true;
+
+        if(flushTimer != null){
+
+            flushTimer.shutdown();
+            flushTimer = null;
+        }
+
+        flush();
+    }
+
+    public int getPendingCount(){
+
+        synchronized(pendingLock){
+
+            return pending.size();
+        }
+    }
+
+    public long getImagesWritten(){
+
+        return imagesWritten.get();
+    }
+
+    public long getImagesRegistered(){
+
+        return imagesRegistered.get();
+    }
+
+    public long getBatchesFlushed(){
+
+        return batchesFlushed.get();
+    }
+
+    public long getFailedFlushes(){
+
+        return failedFlushes.get();
+    }
+
+    private void onImageWritten(ImageRecord record){
+
+        boolean full;
+
+        imagesWritten.incrementAndGet();
+
+        synchronized(pendingLock){
+
+            if(pending.isEmpty()){
+
+                oldestPendingNanos = clock.nanoTime();
+            }
+
+            pending.add(record);
+            full = pending.size() >= maxBatchSize || closed;
+        }
+
+        if(full){
+
+            flush();
+        }
+    }
+
+    private File fileFor(String title){
+
+        return new File(directory, title + ".jpg");
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.david.simplecamera;
+
+//Description: A ThermalSource based on the battery temperature, which every API level reports.
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+
+public class BatteryThermalSource implements ThermalSource {
+
+    //Battery temperatures in tenths of a degree Celsius at which each thermal level starts.
+    private final static int[] LEVEL_TEMPERATURES = {380, 410, 440, 470};
+
+    private final Context context;
+    private final IntentFilter batteryFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+
+    public BatteryThermalSource(Context appContext){
+
+        if(appContext == null){
+
+            throw new NullPointerException();
+        }
+
+        context = appContext;
+    }
+
+    @Override
+    public int getThermalLevel() {
+
+        //The battery broadcast is sticky, so this only reads the last one and doesn't register anything.
+        Intent battery = context.registerReceiver(null, batteryFilter);
+
+        if(battery == null){
+
+            return THERMAL_NONE;
+        }
+
+        int temperature = battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+        int level = THERMAL_NONE;
+
+        for(int threshold : LEVEL_TEMPERATURES){
+
+            if(temperature >= threshold){
+
+                level++;
+            }
+        }
+
+        return level;
+    }
+}
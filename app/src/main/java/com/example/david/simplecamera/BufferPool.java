@@ -0,0 +1,163 @@
+package com.example.david.simplecamera;
+
+//Description: A bounded pool of reusable byte arrays bucketed by power of two size classes.
+//Used to stop every saved image from allocating a fresh array the size of a full JPEG.
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+public class BufferPool {
+
+    private final static int MIN_BUCKET_SHIFT = 12;
+    private final static int DEFAULT_MAX_BUCKET_SHIFT = 25;
+    private final static int DEFAULT_BUFFERS_PER_BUCKET = 4;
+
+    private final int maxBucketShift;
+    private final int buffersPerBucket;
+    private final ArrayDeque<byte[]>[] buckets;
+
+    //Every array that has been handed out and not yet released, compared by identity.
+    private final Set<byte[]> borrowed = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+
+    private long hits;
+    private long misses;
+    private long allocatedBytes;
+    private int highWaterMark;
+
+    public BufferPool(){
+
+        this(DEFAULT_MAX_BUCKET_SHIFT, DEFAULT_BUFFERS_PER_BUCKET);
+    }
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(int maxBucketShift, int buffersPerBucket){
+
+        if(maxBucketShift < MIN_BUCKET_SHIFT || maxBucketShift > 30 || buffersPerBucket < 1){
+
+            throw new IllegalArgumentException("Error: invalid pool bounds " + maxBucketShift + ", " + buffersPerBucket);
+        }
+
+        this.maxBucketShift = maxBucketShift;
+        this.buffersPerBucket = buffersPerBucket;
+        this.buckets = new ArrayDeque[maxBucketShift - MIN_BUCKET_SHIFT + 1];
+
+        for(int i = 0; i < buckets.length; i++){
+
+            buckets[i] = new ArrayDeque<>(buffersPerBucket);
+        }
+    }
+
+    public synchronized byte[] acquire(int minimumSize){
+
+        //Returns an array of at least minimumSize bytes. It must be handed back through release().
+
+        if(minimumSize < 0){
+
+            throw new IllegalArgumentException("Error: negative buffer size " + minimumSize);
+        }
+
+        int bucket = bucketFor(minimumSize);
+        byte[] buffer = null;
+
+        if(bucket < buckets.length){
+
+            buffer = buckets[bucket].pollLast();
+        }
+
+        if(buffer != null){
+
+            hits++;
+
+        }else{
+
+            //Sizes above the largest bucket are handed out exactly and never pooled.
+            int size = bucket < buckets.length ? 1 << (bucket + MIN_BUCKET_SHIFT) : minimumSize;
+
+            buffer = new byte[size];
+            misses++;
+            allocatedBytes += size;
+        }
+
+        borrowed.add(buffer);
+        highWaterMark = Math.max(highWaterMark, borrowed.size());
+
+        return buffer;
+    }
+
+    public synchronized void release(byte[] buffer){
+
+        if(buffer == null){
+
+            return;
+        }
+
+        if(!borrowed.remove(buffer)){
+
+            throw new IllegalArgumentException("Error: buffer was not borrowed from this pool or was released twice!");
+        }
+
+        int bucket = bucketFor(buffer.length);
+
+        //Only exact size class arrays are kept, and only up to the bound of each bucket.
+        if(bucket < buckets.length && buffer.length == 1 << (bucket + MIN_BUCKET_SHIFT) && buckets[bucket].size() < buffersPerBucket){
+
+            buckets[bucket].addLast(buffer);
+        }
+    }
+
+    public synchronized int getOutstanding(){
+
+        //Buffers that have been acquired but not released. Anything left here once the
+        //pipeline is idle has leaked.
+        return borrowed.size();
+    }
+
+    public synchronized long getHits(){
+
+        return hits;
+    }
+
+    public synchronized long getMisses(){
+
+        return misses;
+    }
+
+    public synchronized long getAllocatedBytes(){
+
+        return allocatedBytes;
+    }
+
+    public synchronized int getHighWaterMark(){
+
+        return highWaterMark;
+    }
+
+    public synchronized long getPooledBytes(){
+
+        long total = 0;
+
+        for(int i = 0; i < buckets.length; i++){
+
+            total += (long) buckets[i].size() << (i + MIN_BUCKET_SHIFT);
+        }
+
+        return total;
+    }
+
+    public int getMaxPooledSize(){
+
+        return 1 << maxBucketShift;
+    }
+
+    private static int bucketFor(int size){
+
+        if(size <= 1 << MIN_BUCKET_SHIFT){
+
+            return 0;
+        }
+
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_BUCKET_SHIFT;
+    }
+}
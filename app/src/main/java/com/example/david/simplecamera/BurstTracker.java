@@ -0,0 +1,97 @@
+package com.example.david.simplecamera;
+
+//Description: Keeps track of the frames coming back from a single captureBurst call and the
+//frame rate the burst was able to sustain.
+
+import java.util.Locale;
+
+public class BurstTracker {
+
+    private final int burstSize;
+    private final long requestNanos;
+    private int framesReceived;
+    private long firstFrameNanos;
+    private long lastFrameNanos;
+
+    public BurstTracker(int size, long requestTimeNanos){
+
+        if(size < 1){
+
+            throw new IllegalArgumentException("Error: a burst needs at least one frame!");
+        }
+
+        burstSize = size;
+        requestNanos = requestTimeNanos;
+    }
+
+    public boolean onFrame(long frameTimeNanos){
+
+        //Records a frame that has been handed to the save pipeline. Returns true once the whole burst is in.
+
+        if(isComplete()){
+
+            return true;
+        }
+
+        if(framesReceived == 0){
+
+            firstFrameNanos = frameTimeNanos;
+        }
+
+        lastFrameNanos = frameTimeNanos;
+        framesReceived++;
+
+        return isComplete();
+    }
+
+    public boolean isComplete(){
+
+        return framesReceived >= burstSize;
+    }
+
+    public int getBurstSize(){
+
+        return burstSize;
+    }
+
+    public int getFramesReceived(){
+
+        return framesReceived;
+    }
+
+    public double getSustainedFramesPerSecond(){
+
+        //Frame rate between the first and the last frame, which leaves out the time spent
+        //before the first frame came back.
+
+        if(framesReceived < 2 || lastFrameNanos <= firstFrameNanos){
+
+            return 0;
+        }
+
+        return (framesReceived - 1) * 1e9 / (lastFrameNanos - firstFrameNanos);
+    }
+
+    public double getOverallFramesPerSecond(){
+
+        //Frame rate measured from the moment the burst was requested.
+
+        if(framesReceived == 0 || lastFrameNanos <= requestNanos){
+
+            return 0;
+        }
+
+        return framesReceived * 1e9 / (lastFrameNanos - requestNanos);
+    }
+
+    public long getFirstFrameLatencyNanos(){
+
+        return framesReceived == 0 ? 0 : firstFrameNanos - requestNanos;
+    }
+
+    @Override
+    public String toString(){
+
+        return String.format(Locale.US, "Burst %d/%d frames, %.1f fps sustained, %.1f fps overall, first frame after %d ms", framesReceived, burstSize, getSustainedFramesPerSecond(), getOverallFramesPerSecond(), getFirstFrameLatencyNanos() / 1000000);
+    }
+}
@@ -0,0 +1,971 @@
+package com.example.david.simplecamera;
+
+//Description: The CameraBackend on top of camera2. Each backend drives one CameraDevice at a time on the thread of
+//its Handler and gives every stream of a session an ImageReader of its own. A session can also take surfaces the app
+//owns, like the preview or a video encoder. Requests reach those by the stream numbers that follow the backend's own
+//streams.
+
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.NonNull;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class Camera2Backend implements CameraBackend {
+
+    //The app's own settings, which go on top of what a request's variant asks of the 3A routines.
+    public interface RequestSettings {
+
+        //The template the requests of the variant start from.
+        int getTemplate(RequestCache.Variant variant);
+
+        void apply(RequestCache.Variant variant, CaptureRequest.Builder builder);
+    }
+
+    private final CameraManager cameraManager;
+    private final Handler handler;
+    //Only set if the backend started its thread itself, in which case release ends it.
+    private final HandlerThread ownThread;
+    private volatile RequestSettings requestSettings;
+
+    private Device device;
+    private CameraCaptureSession session;
+    private int sessionGeneration;
+    private final List<StreamReader> readers = new ArrayList<>();
+    //The surfaces of the session in stream order, the readers' first.
+    private final List<Surface> outputs = new ArrayList<>();
+    //Keyed by the Request itself, so a Request the app no longer holds on to is forgotten along with its build.
+    private final Map<Request, CaptureRequest> captureRequests = new WeakHashMap<>();
+    //Closes that haven't been answered through onClosed yet.
+    private int closing;
+    private boolean released;
+
+    public Camera2Backend(CameraManager manager, Handler cameraHandler){
+
+        //Runs on a thread the app owns, which other work may share.
+        if(manager == null || cameraHandler == null){
+
+            throw new NullPointerException();
+        }
+
+        cameraManager = manager;
+        handler = cameraHandler;
+        ownThread = null;
+    }
+
+    public Camera2Backend(CameraManager manager, String threadName){
+
+        //Starts a callback thread of its own, which lives until release.
+        if(manager == null || threadName == null){
+
+            throw new NullPointerException();
+        }
+
+        cameraManager = manager;
+        ownThread = new HandlerThread(threadName);
+        ownThread.start();
+        handler = new Handler(ownThread.getLooper());
+    }
+
+    public void setRequestSettings(RequestSettings settings){
+
+        //Used for the requests built from now on. Requests that were built already keep their settings.
+        requestSettings = settings;
+    }
+
+    public Handler getHandler(){
+
+        return handler;
+    }
+
+    @Override
+    public String[] getCameraIds() {
+
+        try{
+
+            return cameraManager.getCameraIdList();
+
+        }catch(CameraAccessException e){
+
+            e.printStackTrace();
+            return new String[0];
+        }
+    }
+
+    @Override
+    public void open(String cameraId, Listener listener) {
+
+        if(cameraId == null || listener == null){
+
+            throw new NullPointerException();
+        }
+
+        Device opening;
+
+        synchronized(this){
+
+            if(released){
+
+                throw new IllegalStateException("Error: the backend has been released!");
+            }
+
+            close();
+            opening = new Device(cameraId, listener);
+            device = opening;
+        }
+
+        //The answer is posted to the handler, so it never arrives while the lock is held.
+        try{
+
+            cameraManager.openCamera(cameraId, opening, handler);
+
+        }catch(CameraAccessException | SecurityException | IllegalArgumentException e){
+
+            opening.failToOpen("Error: couldn't open camera " + cameraId + ": " + e);
+        }
+    }
+
+    @Override
+    public void configureSession(List<Stream> streams) {
+
+        configureSession(streams, Collections.<Surface>emptyList());
+    }
+
+    public synchronized void configureSession(List<Stream> streams, List<Surface> surfaces){
+
+        //The surfaces are numbered after the streams, in their order. Their frames don't go through the backend.
+        if(device == null || device.camera == null || device.failed){
+
+            throw new IllegalStateException("Error: the camera isn't open!");
+        }
+
+        endSession();
+
+        for(Stream stream : streams){
+
+            ImageReader reader = ImageReader.newInstance(stream.width, stream.height, stream.format, stream.maxImages);
+            StreamReader streamReader = new StreamReader(readers.size(), reader, device.listener);
+
+            reader.setOnImageAvailableListener(streamReader, handler);
+            readers.add(streamReader);
+            outputs.add(reader.getSurface());
+        }
+
+        outputs.addAll(surfaces);
+
+        try{
+
+            device.camera.createCaptureSession(new ArrayList<>(outputs), new SessionCallback(device, sessionGeneration), handler);
+
+        }catch(CameraAccessException | IllegalArgumentException | IllegalStateException e){
+
+            device.failSession("Error: couldn't configure a session for camera " + device.cameraId + ": " + e);
+        }
+    }
+
+    public synchronized boolean prepare(Request request){
+
+        //Builds the request ahead of its first use, so the shot that needs it doesn't pay for it. Returns false if
+        //it couldn't be built, because the camera isn't open or the request doesn't fit the session.
+        if(device == null || device.camera == null){
+
+            return false;
+        }
+
+        try{
+
+            getCaptureRequest(request);
+            return true;
+
+        }catch(CameraAccessException | IllegalArgumentException | IllegalStateException e){
+
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public void setRepeatingRequest(Request request) {
+
+        //Like every request, dropped while no session is configured. A session that is replaced takes its requests
+        //with it anyway.
+        CameraCaptureSession target;
+        CaptureRequest captureRequest;
+
+        synchronized(this){
+
+            if(session == null){
+
+                return;
+            }
+
+            target = session;
+            captureRequest = prepareForSession(request);
+        }
+
+        if(captureRequest == null){
+
+            return;
+        }
+
+        //Camera2 calls go out without the lock, since they can block for a while.
+        try{
+
+            target.setRepeatingRequest(captureRequest, captureCallback, handler);
+
+        }catch(CameraAccessException | IllegalStateException e){
+
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void stopRepeating() {
+
+        CameraCaptureSession target;
+
+        synchronized(this){
+
+            target = session;
+        }
+
+        if(target == null){
+
+            return;
+        }
+
+        try{
+
+            target.stopRepeating();
+
+        }catch(CameraAccessException | IllegalStateException e){
+
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void capture(Request request) {
+
+        CameraCaptureSession target;
+        CaptureRequest captureRequest;
+
+        synchronized(this){
+
+            if(session == null){
+
+                return;
+            }
+
+            target = session;
+            captureRequest = prepareForSession(request);
+        }
+
+        if(captureRequest == null){
+
+            return;
+        }
+
+        try{
+
+            target.capture(captureRequest, captureCallback, handler);
+
+        }catch(CameraAccessException | IllegalStateException e){
+
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void captureBurst(List<Request> requests) {
+
+        CameraCaptureSession target;
+        List<CaptureRequest> burst = new ArrayList<>(requests.size());
+
+        synchronized(this){
+
+            if(session == null){
+
+                return;
+            }
+
+            target = session;
+
+            for(Request request : requests){
+
+                CaptureRequest captureRequest = prepareForSession(request);
+
+                if(captureRequest == null){
+
+                    return;
+                }
+
+                burst.add(captureRequest);
+            }
+        }
+
+        //All the frames go to the camera in a single call so it can pipeline them.
+        try{
+
+            target.captureBurst(burst, captureCallback, handler);
+
+        }catch(CameraAccessException | IllegalStateException e){
+
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+
+        Device closed = device;
+        device = null;
+        endSession();
+
+        if(closed != null){
+
+            closed.requestClose();
+        }
+    }
+
+    public synchronized void release(){
+
+        //Closes the camera for good. A backend with a thread of its own ends it once the close has been answered.
+        released = true;
+        close();
+
+        if(closing == 0){
+
+            quit();
+        }
+    }
+
+    public synchronized boolean isClosed(){
+
+        //No camera is open or opening, and every close has been answered.
+        return device == null && closing == 0;
+    }
+
+    private void quit(){
+
+        if(ownThread != null){
+
+            ownThread.quitSafely();
+        }
+    }
+
+    private void endSession(){
+
+        //The next session, or closing the camera, closes the old capture session. Its readers are retired, and
+        //their frames that are still out stay valid until they are closed.
+        session = null;
+        sessionGeneration++;
+
+        for(StreamReader reader : readers){
+
+            reader.retire();
+        }
+
+        readers.clear();
+        outputs.clear();
+        captureRequests.clear();
+    }
+
+    private CaptureRequest prepareForSession(Request request){
+
+        //A request the app couldn't build is dropped, like one made while no session is configured.
+        if(request == null){
+
+            return null;
+        }
+
+        try{
+
+            return getCaptureRequest(request);
+
+        }catch(CameraAccessException | IllegalStateException e){
+
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private CaptureRequest getCaptureRequest(Request request) throws CameraAccessException {
+
+        CaptureRequest captureRequest = captureRequests.get(request);
+
+        if(captureRequest == null){
+
+            captureRequest = build(request);
+            captureRequests.put(request, captureRequest);
+        }
+
+        return captureRequest;
+    }
+
+    private CaptureRequest build(Request request) throws CameraAccessException {
+
+        //Every request starts from a fresh builder, so a trigger set for one request never ends up in another.
+        RequestCache.Variant variant = request.variant;
+        RequestSettings settings = requestSettings;
+        int template = settings != null ? settings.getTemplate(variant) : isStill(variant) ? CameraDevice.TEMPLATE_STILL_CAPTURE : CameraDevice.TEMPLATE_PREVIEW;
+        CaptureRequest.Builder builder = device.camera.createCaptureRequest(template);
+
+        for(int i = 0; i < request.getStreamCount(); i++){
+
+            int stream = request.getStream(i);
+
+            if(stream < 0 || stream >= outputs.size()){
+
+                throw new IllegalArgumentException("Error: the session has no stream " + stream);
+            }
+
+            builder.addTarget(outputs.get(stream));
+        }
+
+        applyVariant(variant, builder);
+
+        //Results are handed back with the Request they came from.
+        builder.setTag(request);
+
+        if(settings != null){
+
+            settings.apply(variant, builder);
+        }
+
+        return builder.build();
+    }
+
+    public static boolean isStill(RequestCache.Variant variant){
+
+        return variant == RequestCache.Variant.STILL || variant == RequestCache.Variant.LOCKED_STILL;
+    }
+
+    private static void applyVariant(RequestCache.Variant variant, CaptureRequest.Builder builder){
+
+        if(isStill(variant)){
+
+            if(variant == RequestCache.Variant.LOCKED_STILL){
+
+                //A focus mode other than the one the lock was taken in would drop the lock.
+                builder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_AUTO);
+                builder.set(CaptureRequest.CONTROL_AE_LOCK, true);
+            }
+
+            return;
+        }
+
+        builder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON_AUTO_FLASH);
+
+        if(variant == RequestCache.Variant.PREVIEW || variant == RequestCache.Variant.FOCUS_CANCEL){
+
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+
+        }else{
+
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_AUTO);
+        }
+
+        switch(variant){
+
+            case FOCUS_TRIGGER:
+                builder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_START);
+                break;
+
+            case PRECAPTURE_TRIGGER:
+                builder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_START);
+                break;
+
+            case PRECAPTURE_CANCEL:
+                builder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_CANCEL);
+                break;
+
+            case FOCUS_CANCEL:
+                builder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
+                break;
+
+            case LOCKED_PREVIEW:
+                builder.set(CaptureRequest.CONTROL_AE_LOCK, true);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    public static Result toResult(CaptureResult result){
+
+        Long sensorTimestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+
+        return new Result(result.getFrameNumber(), valueOf(result.get(CaptureResult.CONTROL_AF_MODE)), valueOf(result.get(CaptureResult.CONTROL_AF_STATE)),
+                valueOf(result.get(CaptureResult.CONTROL_AE_STATE)), toCaptureMetadata(result, sensorTimestamp != null ? sensorTimestamp : CaptureMetadata.UNKNOWN));
+    }
+
+    public static CaptureMetadata toCaptureMetadata(CaptureResult result, long sensorTimestamp){
+
+        Long exposureTime = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+        Integer sensitivity = result.get(CaptureResult.SENSOR_SENSITIVITY);
+        Float focusDistance = result.get(CaptureResult.LENS_FOCUS_DISTANCE);
+        Float aperture = result.get(CaptureResult.LENS_APERTURE);
+        Float focalLength = result.get(CaptureResult.LENS_FOCAL_LENGTH);
+
+        return new CaptureMetadata(sensorTimestamp,
+                exposureTime != null ? exposureTime : CaptureMetadata.UNKNOWN,
+                sensitivity != null ? sensitivity : (int) CaptureMetadata.UNKNOWN,
+                focusDistance != null ? focusDistance : CaptureMetadata.UNKNOWN_FLOAT,
+                aperture != null ? aperture : CaptureMetadata.UNKNOWN_FLOAT,
+                focalLength != null ? focalLength : CaptureMetadata.UNKNOWN_FLOAT,
+                System.currentTimeMillis());
+    }
+
+    private static int valueOf(Integer value){
+
+        return value != null ? value : Result.UNKNOWN;
+    }
+
+    private final CameraCaptureSession.CaptureCallback captureCallback = new CameraCaptureSession.CaptureCallback() {
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession completedSession, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+
+            Listener listener;
+
+            synchronized(Camera2Backend.this){
+
+                //Results of a session that has been replaced or closed are of no use to anyone.
+                if(completedSession != session){
+
+                    return;
+                }
+
+                listener = device.listener;
+            }
+
+            Object tag = request.getTag();
+
+            if(tag instanceof Request){
+
+                listener.onCaptureCompleted((Request) tag, toResult(result));
+            }
+        }
+    };
+
+    //One open of a camera. Its callbacks are dropped once the backend has moved on from it, except for the onClosed
+    //that answers the close.
+    private class Device extends CameraDevice.StateCallback {
+
+        final String cameraId;
+        final Listener listener;
+        CameraDevice camera;
+        boolean closeRequested;
+        //The camera is closed or never opened.
+        boolean closed;
+        boolean failed;
+        boolean answered;
+
+        Device(String cameraId, Listener listener){
+
+            this.cameraId = cameraId;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onOpened(@NonNull CameraDevice openedCamera) {
+
+            synchronized(Camera2Backend.this){
+
+                camera = openedCamera;
+
+                //Closed while it was still opening. The close is answered once the camera is closed again.
+                if(closeRequested){
+
+                    openedCamera.close();
+                    return;
+                }
+            }
+
+            listener.onOpened(cameraId);
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice lostCamera) {
+
+            fail(lostCamera, "Error: camera " + cameraId + " was disconnected");
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice failedCamera, int error) {
+
+            //Also how a camera that can't be opened right now, like one too many, answers the open.
+            fail(failedCamera, "Error: camera " + cameraId + " failed with error " + error);
+        }
+
+        @Override
+        public void onClosed(@NonNull CameraDevice closedCamera) {
+
+            boolean answer;
+
+            synchronized(Camera2Backend.this){
+
+                closed = true;
+                answer = closeRequested;
+            }
+
+            if(answer){
+
+                answerClose();
+            }
+        }
+
+        private void fail(CameraDevice failedCamera, String message){
+
+            boolean deliver;
+
+            synchronized(Camera2Backend.this){
+
+                camera = failedCamera;
+                failedCamera.close();
+                deliver = !closeRequested && !failed;
+                failed = true;
+
+                if(device == this){
+
+                    endSession();
+                }
+            }
+
+            if(deliver){
+
+                listener.onError(message);
+            }
+        }
+
+        void failToOpen(final String message){
+
+            synchronized(Camera2Backend.this){
+
+                closed = true;
+                failed = true;
+            }
+
+            handler.post(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    boolean answer;
+
+                    synchronized(Camera2Backend.this){
+
+                        answer = closeRequested;
+                    }
+
+                    if(answer){
+
+                        answerClose();
+
+                    }else{
+
+                        listener.onError(message);
+                    }
+                }
+            });
+        }
+
+        void failSession(final String message){
+
+            //Called with the backend's lock held, so the error goes out through the handler.
+            failed = true;
+            endSession();
+
+            handler.post(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    boolean deliver;
+
+                    synchronized(Camera2Backend.this){
+
+                        deliver = !closeRequested;
+                    }
+
+                    if(deliver){
+
+                        listener.onError(message);
+                    }
+                }
+            });
+        }
+
+        void requestClose(){
+
+            //Called with the backend's lock held.
+            closeRequested = true;
+            closing++;
+
+            if(closed){
+
+                handler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+
+                        answerClose();
+                    }
+                });
+
+            }else if(camera != null){
+
+                camera.close();
+            }
+
+            //Otherwise it is still opening, and onOpened or the failure to open answers the close.
+        }
+
+        private void answerClose(){
+
+            boolean quit;
+
+            synchronized(Camera2Backend.this){
+
+                if(answered){
+
+                    return;
+                }
+
+                answered = true;
+                closing--;
+                quit = released && closing == 0;
+            }
+
+            listener.onClosed(cameraId);
+
+            if(quit){
+
+                quit();
+            }
+        }
+    }
+
+    private class SessionCallback extends CameraCaptureSession.StateCallback {
+
+        private final Device owner;
+        private final int generation;
+
+        SessionCallback(Device owner, int generation){
+
+            this.owner = owner;
+            this.generation = generation;
+        }
+
+        @Override
+        public void onConfigured(@NonNull CameraCaptureSession configuredSession) {
+
+            synchronized(Camera2Backend.this){
+
+                //A session that was replaced before it was even configured.
+                if(device != owner || generation != sessionGeneration){
+
+                    configuredSession.close();
+                    return;
+                }
+
+                session = configuredSession;
+            }
+
+            owner.listener.onSessionConfigured();
+        }
+
+        @Override
+        public void onConfigureFailed(@NonNull CameraCaptureSession failedSession) {
+
+            synchronized(Camera2Backend.this){
+
+                if(device != owner || generation != sessionGeneration){
+
+                    return;
+                }
+
+                owner.failed = true;
+                endSession();
+            }
+
+            owner.listener.onError("Error: the session of camera " + owner.cameraId + " couldn't be configured");
+        }
+    }
+
+    //The ImageReader of one stream. At most maxImages frames are out at a time. Images that arrive while they are
+    //all out wait in the reader, and once the reader is full the camera drops frames. A stream of a replaced or
+    //closed session is retired and its reader closed once its last frame is back.
+    private class StreamReader implements ImageReader.OnImageAvailableListener, Runnable {
+
+        private final int stream;
+        private final ImageReader reader;
+        private final Listener listener;
+        private int outstanding;
+        private boolean retired;
+
+        StreamReader(int stream, ImageReader reader, Listener listener){
+
+            this.stream = stream;
+            this.reader = reader;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onImageAvailable(ImageReader imageReader) {
+
+            run();
+        }
+
+        @Override
+        public void run() {
+
+            while(true){
+
+                Image image;
+
+                synchronized(Camera2Backend.this){
+
+                    if(retired || outstanding >= reader.getMaxImages()){
+
+                        return;
+                    }
+
+                    image = reader.acquireNextImage();
+
+                    if(image == null){
+
+                        return;
+                    }
+
+                    outstanding++;
+                }
+
+                listener.onFrameAvailable(stream, new ImageFrame(this, image));
+            }
+        }
+
+        void onFrameClosed(){
+
+            synchronized(Camera2Backend.this){
+
+                outstanding--;
+
+                if(retired){
+
+                    if(outstanding == 0){
+
+                        reader.close();
+                    }
+
+                    return;
+                }
+            }
+
+            //Picks up the images that waited in the reader while every frame was out.
+            handler.post(this);
+        }
+
+        void retire(){
+
+            //Called with the backend's lock held.
+            retired = true;
+
+            if(outstanding == 0){
+
+                reader.close();
+            }
+        }
+    }
+
+    private static class ImageFrame implements Frame {
+
+        private final StreamReader stream;
+        private final Image image;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        ImageFrame(StreamReader stream, Image image){
+
+            this.stream = stream;
+            this.image = image;
+        }
+
+        @Override
+        public int getFormat() {
+
+            return image.getFormat();
+        }
+
+        @Override
+        public int getWidth() {
+
+            return image.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+
+            return image.getHeight();
+        }
+
+        @Override
+        public long getTimestamp() {
+
+            return image.getTimestamp();
+        }
+
+        @Override
+        public int getPlaneCount() {
+
+            return image.getPlanes().length;
+        }
+
+        @Override
+        public ByteBuffer getPlane(int plane) {
+
+            return image.getPlanes()[plane].getBuffer();
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+
+            return image.getPlanes()[plane].getRowStride();
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+
+            return image.getPlanes()[plane].getPixelStride();
+        }
+
+        @Override
+        public void close() {
+
+            //Closing twice is harmless, like it is for an Image.
+            if(closed.compareAndSet(false, true)){
+
+                image.close();
+                stream.onFrameClosed();
+            }
+        }
+    }
+}
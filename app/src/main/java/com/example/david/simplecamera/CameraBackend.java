@@ -0,0 +1,170 @@
+package com.example.david.simplecamera;
+
+//Description: The camera as the capture pipeline sees it, cut down to the calls it actually makes: open a camera,
+//configure a session, repeating, single and burst requests, and the images and results that come back. Keeps the
+//pipeline off the camera2 classes, so it can be driven by a simulated camera on a plain JVM.
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public interface CameraBackend {
+
+    //Same values as ImageFormat, so they can be handed straight to an ImageReader.
+    int FORMAT_JPEG = 0x100;
+    int FORMAT_YUV_420_888 = 0x23;
+
+    //Called one at a time on the backend's thread.
+    interface Listener {
+
+        void onOpened(String cameraId);
+
+        void onSessionConfigured();
+
+        //Opening or configuring failed, or the camera went away. Nothing else arrives until it is opened again.
+        void onError(String message);
+
+        //The camera asked to close has been released, so another one can be opened in its place. Also called for
+        //an open that was still pending when the camera was closed.
+        void onClosed(String cameraId);
+
+        void onCaptureCompleted(Request request, Result result);
+
+        //The frame has to be closed once the listener is done with it, which may happen on any thread.
+        void onFrameAvailable(int stream, Frame frame);
+    }
+
+    //An image delivered on one of the session's streams. Like an Image, it becomes invalid once it is closed.
+    interface Frame {
+
+        int getFormat();
+
+        int getWidth();
+
+        int getHeight();
+
+        long getTimestamp();
+
+        //One plane for JPEG, three for YUV.
+        int getPlaneCount();
+
+        ByteBuffer getPlane(int plane);
+
+        int getRowStride(int plane);
+
+        int getPixelStride(int plane);
+
+        //Hands the buffer back to its stream. A stream with all of its buffers out drops new frames.
+        void close();
+    }
+
+    //One output of the session. Streams are numbered by their position in the list the session was configured with.
+    class Stream {
+
+        public final int format;
+        public final int width;
+        public final int height;
+        public final int maxImages;
+
+        public Stream(int format, int width, int height, int maxImages){
+
+            if(format != FORMAT_JPEG && format != FORMAT_YUV_420_888){
+
+                throw new IllegalArgumentException("Error: unsupported stream format " + format);
+            }
+
+            if(width < 2 || height < 2 || maxImages < 1){
+
+                throw new IllegalArgumentException("Error: invalid stream " + width + "x" + height + " with " + maxImages + " images");
+            }
+
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.maxImages = maxImages;
+        }
+    }
+
+    //What the request asks of the camera's 3A routines comes from its variant, the same ones the RequestCache holds.
+    class Request {
+
+        public final RequestCache.Variant variant;
+        private final int[] streams;
+
+        public Request(RequestCache.Variant variant, int... streams){
+
+            if(variant == null){
+
+                throw new NullPointerException();
+            }
+
+            if(streams.length == 0){
+
+                throw new IllegalArgumentException("Error: a request needs at least one stream!");
+            }
+
+            this.variant = variant;
+            this.streams = streams.clone();
+        }
+
+        public int getStreamCount(){
+
+            return streams.length;
+        }
+
+        public int getStream(int index){
+
+            return streams[index];
+        }
+    }
+
+    //The capture result of one frame. The 3A states use the values of CaptureResult and are UNKNOWN if not reported.
+    class Result {
+
+        public final static int UNKNOWN = -1;
+
+        public final long frameNumber;
+        public final int autoFocusMode;
+        public final int autoFocusState;
+        public final int autoExposureState;
+        public final CaptureMetadata metadata;
+
+        public Result(long frameNumber, int autoFocusMode, int autoFocusState, int autoExposureState, CaptureMetadata metadata){
+
+            if(metadata == null){
+
+                throw new NullPointerException();
+            }
+
+            this.frameNumber = frameNumber;
+            this.autoFocusMode = autoFocusMode;
+            this.autoFocusState = autoFocusState;
+            this.autoExposureState = autoExposureState;
+            this.metadata = metadata;
+        }
+
+        public long getTimestamp(){
+
+            return metadata.sensorTimestampNanos;
+        }
+    }
+
+    String[] getCameraIds();
+
+    //Answered through onOpened or onError. A camera that is already open is closed first.
+    void open(String cameraId, Listener listener);
+
+    //Replaces the current session and its requests. Answered through onSessionConfigured or onError.
+    void configureSession(List<Stream> streams);
+
+    void setRepeatingRequest(Request request);
+
+    void stopRepeating();
+
+    //Single captures go ahead of the repeating request, in the order they were issued.
+    void capture(Request request);
+
+    void captureBurst(List<Request> requests);
+
+    //Frames that are still out stay valid until they are closed. Answered through onClosed.
+    void close();
+}
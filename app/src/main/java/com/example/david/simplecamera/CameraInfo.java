@@ -0,0 +1,316 @@
+package com.example.david.simplecamera;
+
+//Description: The parts of a camera's characteristics this app uses, copied out so they can be cached and persisted.
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class CameraInfo {
+
+    //Values match CameraCharacteristics so they can be compared directly.
+    public final static int LENS_FACING_FRONT = 0;
+    public final static int LENS_FACING_BACK = 1;
+    public final static int LENS_FACING_EXTERNAL = 2;
+
+    private final String cameraId;
+    private final int facing;
+    private final int sensorOrientation;
+    private final int hardwareLevel;
+    private final int timestampSource;
+    private final int[] autoFocusModes;
+    private final int[] autoExposureModes;
+    private List<StreamSizeSelector.StreamSize> previewSizes = Collections.emptyList();
+    private final Map<Integer, List<StreamSizeSelector.StreamSize>> stillSizes = new TreeMap<>();
+    private List<StreamSizeSelector.StreamSize> thumbnailSizes = Collections.emptyList();
+
+    public CameraInfo(String cameraId, int facing, int sensorOrientation, int hardwareLevel, int timestampSource, int[] autoFocusModes, int[] autoExposureModes){
+
+        if(cameraId == null || autoFocusModes == null || autoExposureModes == null){
+
+            throw new NullPointerException();
+        }
+
+        this.cameraId = cameraId;
+        this.facing = facing;
+        this.sensorOrientation = sensorOrientation;
+        this.hardwareLevel = hardwareLevel;
+        this.timestampSource = timestampSource;
+        this.autoFocusModes = autoFocusModes.clone();
+        this.autoExposureModes = autoExposureModes.clone();
+    }
+
+    public void setPreviewSizes(List<StreamSizeSelector.StreamSize> sizes){
+
+        previewSizes = Collections.unmodifiableList(new ArrayList<>(sizes));
+    }
+
+    public void setStillSizes(int format, List<StreamSizeSelector.StreamSize> sizes){
+
+        stillSizes.put(format, Collections.unmodifiableList(new ArrayList<>(sizes)));
+    }
+
+    public void setThumbnailSizes(List<StreamSizeSelector.StreamSize> sizes){
+
+        //The sizes of the thumbnail a JPEG can carry in its Exif data, not counting 0x0 for none.
+        thumbnailSizes = Collections.unmodifiableList(new ArrayList<>(sizes));
+    }
+
+    public List<StreamSizeSelector.StreamSize> getThumbnailSizes(){
+
+        return thumbnailSizes;
+    }
+
+    public List<StreamSizeSelector.StreamSize> getPreviewSizes(){
+
+        return previewSizes;
+    }
+
+    public List<StreamSizeSelector.StreamSize> getStillSizes(int format){
+
+        //Empty for formats the camera can't output.
+        List<StreamSizeSelector.StreamSize> sizes = stillSizes.get(format);
+
+        if(sizes == null){
+
+            return Collections.emptyList();
+        }
+
+        return sizes;
+    }
+
+    public boolean supportsAutoFocusMode(int mode){
+
+        return contains(autoFocusModes, mode);
+    }
+
+    public boolean supportsAutoExposureMode(int mode){
+
+        return contains(autoExposureModes, mode);
+    }
+
+    private static boolean contains(int[] values, int value){
+
+        for(int v : values){
+
+            if(v == value){
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public String getCameraId(){
+
+        return cameraId;
+    }
+
+    public int getFacing(){
+
+        return facing;
+    }
+
+    public int getSensorOrientation(){
+
+        return sensorOrientation;
+    }
+
+    public int getHardwareLevel(){
+
+        return hardwareLevel;
+    }
+
+    public int getTimestampSource(){
+
+        return timestampSource;
+    }
+
+    public void writeTo(DataOutputStream data) throws IOException {
+
+        data.writeUTF(cameraId);
+        data.writeInt(facing);
+        data.writeInt(sensorOrientation);
+        data.writeInt(hardwareLevel);
+        data.writeInt(timestampSource);
+        writeInts(data, autoFocusModes);
+        writeInts(data, autoExposureModes);
+        writeSizes(data, previewSizes);
+        data.writeInt(stillSizes.size());
+
+        for(Map.Entry<Integer, List<StreamSizeSelector.StreamSize>> entry : stillSizes.entrySet()){
+
+            data.writeInt(entry.getKey());
+            writeSizes(data, entry.getValue());
+        }
+
+        writeSizes(data, thumbnailSizes);
+    }
+
+    public static CameraInfo readFrom(DataInputStream data) throws IOException {
+
+        String cameraId = data.readUTF();
+        int facing = data.readInt();
+        int sensorOrientation = data.readInt();
+        int hardwareLevel = data.readInt();
+        int timestampSource = data.readInt();
+        int[] autoFocusModes = readInts(data);
+        int[] autoExposureModes = readInts(data);
+
+        CameraInfo info = new CameraInfo(cameraId, facing, sensorOrientation, hardwareLevel, timestampSource, autoFocusModes, autoExposureModes);
+        info.setPreviewSizes(readSizes(data));
+
+        int formats = readCount(data);
+
+        for(int i = 0; i < formats; i++){
+
+            int format = data.readInt();
+            info.setStillSizes(format, readSizes(data));
+        }
+
+        info.setThumbnailSizes(readSizes(data));
+
+        return info;
+    }
+
+    private static void writeInts(DataOutputStream data, int[] values) throws IOException {
+
+        data.writeInt(values.length);
+
+        for(int value : values){
+
+            data.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream data) throws IOException {
+
+        int[] values = new int[readCount(data)];
+
+        for(int i = 0; i < values.length; i++){
+
+            values[i] = data.readInt();
+        }
+
+        return values;
+    }
+
+    private static void writeSizes(DataOutputStream data, List<StreamSizeSelector.StreamSize> sizes) throws IOException {
+
+        data.writeInt(sizes.size());
+
+        for(StreamSizeSelector.StreamSize size : sizes){
+
+            data.writeInt(size.width);
+            data.writeInt(size.height);
+            data.writeLong(size.minFrameDurationNanos);
+            data.writeLong(size.stallDurationNanos);
+        }
+    }
+
+    private static List<StreamSizeSelector.StreamSize> readSizes(DataInputStream data) throws IOException {
+
+        int count = readCount(data);
+        List<StreamSizeSelector.StreamSize> sizes = new ArrayList<>(count);
+
+        for(int i = 0; i < count; i++){
+
+            sizes.add(new StreamSizeSelector.StreamSize(data.readInt(), data.readInt(), data.readLong(), data.readLong()));
+        }
+
+        return sizes;
+    }
+
+    private static int readCount(DataInputStream data) throws IOException {
+
+        //A corrupt snapshot must not turn into a huge allocation.
+        int count = data.readInt();
+
+        if(count < 0 || count > 4096){
+
+            throw new IOException("Error: bad count " + count + " in camera info");
+        }
+
+        return count;
+    }
+
+    @Override
+    public boolean equals(Object other){
+
+        if(this == other){
+
+            return true;
+        }
+
+        if(!(other instanceof CameraInfo)){
+
+            return false;
+        }
+
+        CameraInfo info = (CameraInfo) other;
+
+        return cameraId.equals(info.cameraId) && facing == info.facing && sensorOrientation == info.sensorOrientation
+                && hardwareLevel == info.hardwareLevel && timestampSource == info.timestampSource
+                && Arrays.equals(autoFocusModes, info.autoFocusModes) && Arrays.equals(autoExposureModes, info.autoExposureModes)
+                && sameSizes(previewSizes, info.previewSizes) && sameStillSizes(info) && sameSizes(thumbnailSizes, info.thumbnailSizes);
+    }
+
+    private boolean sameStillSizes(CameraInfo info){
+
+        if(!stillSizes.keySet().equals(info.stillSizes.keySet())){
+
+            return false;
+        }
+
+        for(Map.Entry<Integer, List<StreamSizeSelector.StreamSize>> entry : stillSizes.entrySet()){
+
+            if(!sameSizes(entry.getValue(), info.stillSizes.get(entry.getKey()))){
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean sameSizes(List<StreamSizeSelector.StreamSize> a, List<StreamSizeSelector.StreamSize> b){
+
+        //StreamSize has no equals of its own, so the fields are compared here.
+        if(a.size() != b.size()){
+
+            return false;
+        }
+
+        for(int i = 0; i < a.size(); i++){
+
+            StreamSizeSelector.StreamSize x = a.get(i);
+            StreamSizeSelector.StreamSize y = b.get(i);
+
+            if(x.width != y.width || x.height != y.height || x.minFrameDurationNanos != y.minFrameDurationNanos || x.stallDurationNanos != y.stallDurationNanos){
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode(){
+
+        return cameraId.hashCode() * 31 + facing;
+    }
+
+    @Override
+    public String toString(){
+
+        return "Camera " + cameraId + " facing " + facing + " level " + hardwareLevel + " " + previewSizes.size() + " preview sizes";
+    }
+}
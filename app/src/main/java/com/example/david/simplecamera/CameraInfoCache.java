@@ -0,0 +1,233 @@
+package com.example.david.simplecamera;
+
+//Description: Caches the camera ids and a CameraInfo per camera, so the characteristics are queried once instead of on every resume.
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CameraInfoCache {
+
+    public final static int SNAPSHOT_MAGIC = 0x43414D49;
+    public final static int SNAPSHOT_VERSION = 2;
+
+    public interface Loader {
+
+        //Both return null if the camera service couldn't be reached.
+        String[] loadCameraIds();
+        CameraInfo loadCameraInfo(String cameraId);
+    }
+
+    private final Loader loader;
+    private String[] cameraIds;
+    private final Map<String, CameraInfo> infos = new HashMap<>();
+    private boolean fromSnapshot;
+
+    public CameraInfoCache(Loader loader){
+
+        if(loader == null){
+
+            throw new NullPointerException();
+        }
+
+        this.loader = loader;
+    }
+
+    public synchronized String[] getCameraIds(){
+
+        //Empty if the ids can't be loaded, so callers only have to check the length.
+        if(cameraIds == null){
+
+            cameraIds = loader.loadCameraIds();
+            if(cameraIds == null){
+
+                return new String[0];
+            }
+        }
+
+        return cameraIds.clone();
+    }
+
+    public synchronized CameraInfo get(String cameraId){
+
+        //Loads the camera on the first call. Returns null for unknown cameras.
+        CameraInfo info = infos.get(cameraId);
+
+        if(info == null){
+
+            info = loader.loadCameraInfo(cameraId);
+            if(info != null){
+
+                infos.put(cameraId, info);
+            }
+        }
+
+        return info;
+    }
+
+    public String findCameraId(int facing){
+
+        //The first camera facing that way, or the first camera at all. Null if there are none.
+        String[] ids = getCameraIds();
+
+        for(String id : ids){
+
+            CameraInfo info = get(id);
+
+            if(info != null && info.getFacing() == facing){
+
+                return id;
+            }
+        }
+
+        return ids.length > 0 ? ids[0] : null;
+    }
+
+    public boolean refresh(){
+
+        //Replaces everything with a live query. Slow, so it belongs on a background thread.
+        //Returns true if the live values differ from what was cached.
+        String[] ids = loader.loadCameraIds();
+
+        if(ids == null){
+
+            return false;
+        }
+
+        Map<String, CameraInfo> loaded = new HashMap<>();
+
+        for(String id : ids){
+
+            CameraInfo info = loader.loadCameraInfo(id);
+
+            if(info != null){
+
+                loaded.put(id, info);
+            }
+        }
+
+        synchronized(this){
+
+            boolean changed = cameraIds == null || !Arrays.equals(cameraIds, ids) || !infos.equals(loaded);
+
+            cameraIds = ids;
+            infos.clear();
+            infos.putAll(loaded);
+            fromSnapshot = false;
+
+            return changed;
+        }
+    }
+
+    public synchronized void onCameraAvailable(String cameraId){
+
+        //Cameras we already know about become available every time one is closed, so only a new one
+        //(an external camera being plugged in) drops the cached ids.
+        if(cameraIds != null && !Arrays.asList(cameraIds).contains(cameraId)){
+
+            cameraIds = null;
+            infos.remove(cameraId);
+        }
+    }
+
+    public synchronized void invalidate(String cameraId){
+
+        cameraIds = null;
+        infos.remove(cameraId);
+    }
+
+    public synchronized void invalidateAll(){
+
+        cameraIds = null;
+        infos.clear();
+        fromSnapshot = false;
+    }
+
+    public synchronized boolean isFromSnapshot(){
+
+        //True until a live refresh has replaced what was read from the snapshot.
+        return fromSnapshot;
+    }
+
+    public synchronized void writeSnapshot(OutputStream out) throws IOException {
+
+        //Header: magic, version, camera count. Then every camera's info in id order.
+        DataOutputStream data = new DataOutputStream(out);
+        List<CameraInfo> known = new ArrayList<>();
+
+        if(cameraIds != null){
+
+            for(String id : cameraIds){
+
+                CameraInfo info = infos.get(id);
+
+                if(info != null){
+
+                    known.add(info);
+                }
+            }
+        }
+
+        data.writeInt(SNAPSHOT_MAGIC);
+        data.writeInt(SNAPSHOT_VERSION);
+        data.writeInt(known.size());
+
+        for(CameraInfo info : known){
+
+            info.writeTo(data);
+        }
+
+        data.flush();
+    }
+
+    public synchronized boolean readSnapshot(InputStream in){
+
+        //Seeds the cache from a previous run. Leaves the cache untouched and returns false if the
+        //snapshot is from another version or can't be read.
+        DataInputStream data = new DataInputStream(in);
+
+        try{
+
+            if(data.readInt() != SNAPSHOT_MAGIC || data.readInt() != SNAPSHOT_VERSION){
+
+                return false;
+            }
+
+            int count = data.readInt();
+
+            if(count <= 0 || count > 64){
+
+                return false;
+            }
+
+            String[] ids = new String[count];
+            Map<String, CameraInfo> loaded = new HashMap<>();
+
+            for(int i = 0; i < count; i++){
+
+                CameraInfo info = CameraInfo.readFrom(data);
+                ids[i] = info.getCameraId();
+                loaded.put(ids[i], info);
+            }
+
+            cameraIds = ids;
+            infos.clear();
+            infos.putAll(loaded);
+            fromSnapshot = true;
+
+            return true;
+
+        }catch(IOException e){
+
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.david.simplecamera;
+
+//Description: A CameraInfoCache.Loader that reads the characteristics of each camera from the CameraManager.
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.util.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CameraManagerInfoLoader implements CameraInfoCache.Loader {
+
+    //The still formats the app can capture in.
+    private final static int[] STILL_FORMATS = {ImageFormat.JPEG, ImageFormat.YUV_420_888};
+
+    private final CameraManager cameraManager;
+
+    public CameraManagerInfoLoader(CameraManager manager){
+
+        if(manager == null){
+
+            throw new NullPointerException();
+        }
+
+        cameraManager = manager;
+    }
+
+    @Override
+    public String[] loadCameraIds() {
+
+        try{
+
+            return cameraManager.getCameraIdList();
+
+        }catch(CameraAccessException e){
+
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public CameraInfo loadCameraInfo(String cameraId) {
+
+        CameraCharacteristics characteristics;
+
+        try{
+
+            characteristics = cameraManager.getCameraCharacteristics(cameraId);
+
+        }catch(CameraAccessException | IllegalArgumentException e){
+
+            e.printStackTrace();
+            return null;
+        }
+
+        CameraInfo info = new CameraInfo(cameraId,
+                get(characteristics, CameraCharacteristics.LENS_FACING, CameraInfo.LENS_FACING_BACK),
+                get(characteristics, CameraCharacteristics.SENSOR_ORIENTATION, 0),
+                get(characteristics, CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL, CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY),
+                get(characteristics, CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE, CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_UNKNOWN),
+                getModes(characteristics, CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES),
+                getModes(characteristics, CameraCharacteristics.CONTROL_AE_AVAILABLE_MODES));
+
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+
+        if(map != null){
+
+            info.setPreviewSizes(getPreviewSizes(map));
+
+            for(int format : STILL_FORMATS){
+
+                info.setStillSizes(format, getStillSizes(map, format));
+            }
+        }
+
+        info.setThumbnailSizes(getThumbnailSizes(characteristics));
+
+        return info;
+    }
+
+    private static int get(CameraCharacteristics characteristics, CameraCharacteristics.Key<Integer> key, int fallback){
+
+        Integer value = characteristics.get(key);
+
+        return value != null ? value : fallback;
+    }
+
+    private static int[] getModes(CameraCharacteristics characteristics, CameraCharacteristics.Key<int[]> key){
+
+        int[] modes = characteristics.get(key);
+
+        return modes != null ? modes : new int[0];
+    }
+
+    private static List<StreamSizeSelector.StreamSize> getPreviewSizes(StreamConfigurationMap map){
+
+        List<StreamSizeSelector.StreamSize> sizes = new ArrayList<>();
+        Size[] outputSizes = map.getOutputSizes(SurfaceTexture.class);
+
+        if(outputSizes != null){
+
+            for(Size size : outputSizes){
+
+                sizes.add(new StreamSizeSelector.StreamSize(size.getWidth(), size.getHeight(), map.getOutputMinFrameDuration(SurfaceTexture.class, size), 0));
+            }
+        }
+
+        return sizes;
+    }
+
+    private static List<StreamSizeSelector.StreamSize> getStillSizes(StreamConfigurationMap map, int format){
+
+        List<StreamSizeSelector.StreamSize> sizes = new ArrayList<>();
+
+        if(!map.isOutputSupportedFor(format)){
+
+            return sizes;
+        }
+
+        Size[] outputSizes = map.getOutputSizes(format);
+
+        if(outputSizes != null){
+
+            for(Size size : outputSizes){
+
+                sizes.add(new StreamSizeSelector.StreamSize(size.getWidth(), size.getHeight(), map.getOutputMinFrameDuration(format, size), map.getOutputStallDuration(format, size)));
+            }
+        }
+
+        return sizes;
+    }
+
+    private static List<StreamSizeSelector.StreamSize> getThumbnailSizes(CameraCharacteristics characteristics){
+
+        List<StreamSizeSelector.StreamSize> sizes = new ArrayList<>();
+        Size[] thumbnailSizes = characteristics.get(CameraCharacteristics.JPEG_AVAILABLE_THUMBNAIL_SIZES);
+
+        if(thumbnailSizes != null){
+
+            for(Size size : thumbnailSizes){
+
+                //0x0 is listed to mean no thumbnail at all.
+                if(size.getWidth() > 0 && size.getHeight() > 0){
+
+                    sizes.add(new StreamSizeSelector.StreamSize(size.getWidth(), size.getHeight(), 0, 0));
+                }
+            }
+        }
+
+        return sizes;
+    }
+}
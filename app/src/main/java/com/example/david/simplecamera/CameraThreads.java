@@ -0,0 +1,50 @@
+package com.example.david.simplecamera;
+
+//Description: The camera callback thread and the image save workers. They belong to the process rather than to an
+//activity, so pausing never tears them down and saves that are still queued aren't lost.
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+public class CameraThreads {
+
+    private final static String CAMERA_THREAD_NAME = "Camera Background Thread";
+    private final static String SAVE_THREAD_NAME = "Image Save Worker";
+
+    private static CameraThreads instance;
+
+    private final Handler cameraHandler;
+    private final SaveExecutor saveExecutor;
+
+    private CameraThreads(int saveWorkers, int saveQueueCapacity){
+
+        HandlerThread cameraThread = new HandlerThread(CAMERA_THREAD_NAME);
+        cameraThread.start();
+
+        cameraHandler = new Handler(cameraThread.getLooper());
+        //Saves are submitted from the camera thread, which must never wait for the workers. A full queue turns the
+        //new save away instead, which closes its image or leaves it in the capture journal for the next replay.
+        saveExecutor = new SaveExecutor(SAVE_THREAD_NAME, saveWorkers, saveQueueCapacity, SaveExecutor.BackpressurePolicy.REJECT);
+    }
+
+    public static synchronized CameraThreads get(int saveWorkers, int saveQueueCapacity){
+
+        //The first call starts the threads. Later calls get the same ones, whatever they ask for.
+        if(instance == null){
+
+            instance = new CameraThreads(saveWorkers, saveQueueCapacity);
+        }
+
+        return instance;
+    }
+
+    public Handler getCameraHandler(){
+
+        return cameraHandler;
+    }
+
+    public SaveExecutor getSaveExecutor(){
+
+        return saveExecutor;
+    }
+}
@@ -0,0 +1,437 @@
+package com.example.david.simplecamera;
+
+//Description: A write-ahead journal for captured images. The encoded bytes are appended to a memory mapped spool
+//file as soon as an image arrives, so a shot survives the process dying before it reaches the MediaStore. Entries
+//are marked done once they have been promoted and the journal is trimmed from the front as they finish.
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+public class CaptureJournal implements Closeable {
+
+    public final static int JOURNAL_MAGIC = 0x434A524E;
+    public final static int JOURNAL_VERSION = 1;
+    public final static int RECORD_MAGIC = 0x52454331;
+
+    //File header: magic, version, generation, offset of the first record that isn't known to be done.
+    final static int HEADER_SIZE = 16;
+    private final static int GENERATION_OFFSET = 8;
+    private final static int HEAD_OFFSET = 12;
+
+    //Record header: magic, generation, state, id, title length, payload length, CRC32 of title and payload.
+    //The title and the payload follow straight after it.
+    final static int RECORD_HEADER_SIZE = 32;
+    private final static int STATE_OFFSET = 8;
+    private final static int MAX_TITLE_BYTES = 1024;
+
+    private final static int STATE_PENDING = 1;
+    private final static int STATE_DONE = 2;
+
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static class Entry {
+
+        public final long id;
+        public final String title;
+        private final int offset;
+        private final int payloadOffset;
+        private final int payloadLength;
+        private boolean done;
+        private boolean claimed;
+
+        Entry(long id, String title, int offset, int payloadOffset, int payloadLength){
+
+            this.id = id;
+            this.title = title;
+            this.offset = offset;
+            this.payloadOffset = payloadOffset;
+            this.payloadLength = payloadLength;
+        }
+
+        public int getPayloadLength(){
+
+            return payloadLength;
+        }
+
+        int getEnd(){
+
+            return payloadOffset + payloadLength;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer mapped;
+    private final int capacity;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private int generation;
+    private int tail;
+    private long nextId = 1;
+    private int recovered;
+    private boolean tornRecord;
+    private boolean closed;
+
+    private CaptureJournal(RandomAccessFile file, MappedByteBuffer mapped, int capacity){
+
+        this.file = file;
+        this.mapped = mapped;
+        this.capacity = capacity;
+    }
+
+    public static CaptureJournal open(File path, int capacity) throws IOException {
+
+        //Maps the journal, creating or growing the file to the capacity, and scans it for entries left behind by
+        //the last run. A journal from another version is started over.
+
+        if(path == null){
+
+            throw new NullPointerException();
+        }
+
+        if(capacity < HEADER_SIZE + RECORD_HEADER_SIZE){
+
+            throw new IllegalArgumentException("Error: the journal is too small to hold a record!");
+        }
+
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+
+        try{
+
+            if(file.length() < capacity){
+
+                file.setLength(capacity);
+            }
+
+            MappedByteBuffer mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            CaptureJournal journal = new CaptureJournal(file, mapped, capacity);
+            journal.load();
+
+            return journal;
+
+        }catch(IOException | RuntimeException e){
+
+            file.close();
+            throw e;
+        }
+    }
+
+    private void load(){
+
+        int head = mapped.getInt(HEAD_OFFSET);
+
+        if(mapped.getInt(0) != JOURNAL_MAGIC || mapped.getInt(4) != JOURNAL_VERSION || head < HEADER_SIZE || head > capacity){
+
+            generation = 1;
+            reset();
+            return;
+        }
+
+        generation = mapped.getInt(GENERATION_OFFSET);
+        tail = head;
+
+        //Records are only ever appended, so the first one that doesn't check out marks where the last run stopped.
+        Entry entry;
+
+        while((entry = readRecord(tail)) != null){
+
+            entries.add(entry);
+            tail = entry.getEnd();
+            nextId = Math.max(nextId, entry.id + 1);
+
+            if(!entry.done){
+
+                recovered++;
+            }
+        }
+
+        if(tail + RECORD_HEADER_SIZE <= capacity && mapped.getInt(tail) == RECORD_MAGIC && mapped.getInt(tail + 4) == generation){
+
+            //A record was started but its bytes don't check out.
+            tornRecord = true;
+        }
+
+        trim();
+    }
+
+    private Entry readRecord(int offset){
+
+        if(offset + RECORD_HEADER_SIZE > capacity || mapped.getInt(offset) != RECORD_MAGIC || mapped.getInt(offset + 4) != generation){
+
+            return null;
+        }
+
+        int state = mapped.getInt(offset + STATE_OFFSET);
+        long id = mapped.getLong(offset + 12);
+        int titleLength = mapped.getInt(offset + 20);
+        int payloadLength = mapped.getInt(offset + 24);
+        int crc = mapped.getInt(offset + 28);
+        int titleOffset = offset + RECORD_HEADER_SIZE;
+
+        if((state != STATE_PENDING && state != STATE_DONE) || titleLength < 0 || titleLength > MAX_TITLE_BYTES
+                || payloadLength < 0 || (long) titleOffset + titleLength + payloadLength > capacity){
+
+            return null;
+        }
+
+        if(checksum(titleOffset, titleLength + payloadLength) != crc){
+
+            return null;
+        }
+
+        byte[] title = new byte[titleLength];
+        ByteBuffer view = mapped.duplicate();
+        view.position(titleOffset);
+        view.get(title);
+
+        Entry entry = new Entry(id, new String(title, UTF_8), offset, titleOffset + titleLength, payloadLength);
+        entry.done = state == STATE_DONE;
+
+        return entry;
+    }
+
+    private int checksum(int offset, int length){
+
+        CRC32 crc = new CRC32();
+        ByteBuffer view = mapped.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+
+        byte[] chunk = new byte[Math.min(length, 64 * 1024)];
+
+        while(view.hasRemaining()){
+
+            int count = Math.min(chunk.length, view.remaining());
+
+            view.get(chunk, 0, count);
+            crc.update(chunk, 0, count);
+        }
+
+        return (int) crc.getValue();
+    }
+
+    public synchronized Entry append(String title, ByteBuffer payload){
+
+        //Copies the remaining bytes of the payload into the journal and returns the new entry, already claimed by
+        //the caller. Returns null if the journal has no room, in which case the image has to be saved without it.
+        //The position of the payload is left untouched.
+
+        if(title == null || payload == null){
+
+            throw new NullPointerException();
+        }
+
+        checkOpen();
+
+        byte[] titleBytes = title.getBytes(UTF_8);
+
+        if(titleBytes.length > MAX_TITLE_BYTES){
+
+            throw new IllegalArgumentException("Error: journal titles are limited to " + MAX_TITLE_BYTES + " bytes!");
+        }
+
+        int payloadLength = payload.remaining();
+        long size = (long) RECORD_HEADER_SIZE + titleBytes.length + payloadLength;
+
+        if(tail + size > capacity){
+
+            return null;
+        }
+
+        int offset = tail;
+        int titleOffset = offset + RECORD_HEADER_SIZE;
+        ByteBuffer view = mapped.duplicate();
+
+        //The body goes in before the header and the magic goes in last, so a record cut short by a crash never
+        //checks out on the next scan.
+        view.position(titleOffset);
+        view.put(titleBytes);
+        view.put(payload.duplicate());
+
+        long id = nextId++;
+
+        mapped.putInt(offset + 4, generation);
+        mapped.putInt(offset + STATE_OFFSET, STATE_PENDING);
+        mapped.putLong(offset + 12, id);
+        mapped.putInt(offset + 20, titleBytes.length);
+        mapped.putInt(offset + 24, payloadLength);
+        mapped.putInt(offset + 28, checksum(titleOffset, titleBytes.length + payloadLength));
+        mapped.putInt(offset, RECORD_MAGIC);
+
+        Entry entry = new Entry(id, title, offset, titleOffset + titleBytes.length, payloadLength);
+        entry.claimed = true;
+        entries.add(entry);
+        tail = entry.getEnd();
+
+        return entry;
+    }
+
+    public ByteBuffer getPayload(Entry entry){
+
+        //A read only view of the entry's bytes. Only valid until the entry is marked done.
+        ByteBuffer view = mapped.asReadOnlyBuffer();
+        view.position(entry.payloadOffset);
+        view.limit(entry.payloadOffset + entry.payloadLength);
+
+        return view.slice();
+    }
+
+    public synchronized List<Entry> getPendingEntries(){
+
+        //Entries that haven't been marked done, oldest first. Includes entries someone has claimed.
+        List<Entry> pending = new ArrayList<>();
+
+        for(Entry entry : entries){
+
+            if(!entry.done){
+
+                pending.add(entry);
+            }
+        }
+
+        return pending;
+    }
+
+    public synchronized boolean claim(Entry entry){
+
+        //Returns false if the entry is done or someone else is already promoting it.
+        if(entry.done || entry.claimed || !entries.contains(entry)){
+
+            return false;
+        }
+
+        entry.claimed = true;
+
+        return true;
+    }
+
+    public synchronized void unclaim(Entry entry){
+
+        //Leaves the entry pending for the next replay.
+        entry.claimed = false;
+    }
+
+    public synchronized void markDone(Entry entry){
+
+        if(entry.done || !entries.contains(entry)){
+
+            return;
+        }
+
+        checkOpen();
+        mapped.putInt(entry.offset + STATE_OFFSET, STATE_DONE);
+        entry.done = true;
+        entry.claimed = false;
+    }
+
+    public synchronized int trim(){
+
+        //Drops the finished entries at the front of the journal and returns how many bytes were given back. Once
+        //every entry is done the journal starts over from the beginning.
+        int head = entries.isEmpty() ? tail : entries.get(0).offset;
+        int trimmed = 0;
+
+        while(!entries.isEmpty() && entries.get(0).done){
+
+            entries.remove(0);
+            trimmed++;
+        }
+
+        if(closed){
+
+            return 0;
+        }
+
+        if(entries.isEmpty()){
+
+            int reclaimed = tail - HEADER_SIZE;
+
+            generation++;
+            reset();
+
+            return reclaimed;
+        }
+
+        if(trimmed == 0){
+
+            return 0;
+        }
+
+        int newHead = entries.get(0).offset;
+        mapped.putInt(HEAD_OFFSET, newHead);
+
+        return newHead - head;
+    }
+
+    private void reset(){
+
+        //A new generation invalidates every record written so far, so nothing has to be wiped. The generation is
+        //written before the head, so a crash in between still leaves an empty journal.
+        entries.clear();
+        tail = HEADER_SIZE;
+
+        mapped.putInt(0, JOURNAL_MAGIC);
+        mapped.putInt(4, JOURNAL_VERSION);
+        mapped.putInt(GENERATION_OFFSET, generation);
+        mapped.putInt(HEAD_OFFSET, HEADER_SIZE);
+    }
+
+    public synchronized void sync(){
+
+        //Mapped writes already outlive the process. This also makes them outlive the device losing power.
+        if(!closed){
+
+            mapped.force();
+        }
+    }
+
+    public synchronized int getUsedBytes(){
+
+        return tail - HEADER_SIZE;
+    }
+
+    public int getCapacity(){
+
+        return capacity;
+    }
+
+    public synchronized int getRecoveredCount(){
+
+        //Entries the last run left pending.
+        return recovered;
+    }
+
+    public synchronized boolean hasTornRecord(){
+
+        //True if the last run died part way through an append. A record that never got its magic written
+        //leaves no trace at all.
+        return tornRecord;
+    }
+
+    private void checkOpen(){
+
+        if(closed){
+
+            throw new IllegalStateException("Error: the journal has been closed!");
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+
+        if(!closed){
+
+            mapped.force();
+            closed = true;
+            file.close();
+        }
+    }
+}
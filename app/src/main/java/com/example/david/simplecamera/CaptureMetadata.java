@@ -0,0 +1,40 @@
+package com.example.david.simplecamera;
+
+//Description: The parts of a capture result that end up in a saved image's Exif data, copied out so the result
+//doesn't have to be kept around until the image is saved.
+
+import java.util.Locale;
+
+public class CaptureMetadata {
+
+    //Used for the values the camera didn't report.
+    public final static long UNKNOWN = -1;
+    public final static float UNKNOWN_FLOAT = Float.NaN;
+
+    public final long sensorTimestampNanos;
+    public final long exposureTimeNanos;
+    public final int sensitivityIso;
+    public final float focusDistanceDiopters;
+    public final float apertureFNumber;
+    public final float focalLengthMillimeters;
+    public final long captureTimeMillis;
+
+    public CaptureMetadata(long sensorTimestampNanos, long exposureTimeNanos, int sensitivityIso, float focusDistanceDiopters,
+                           float apertureFNumber, float focalLengthMillimeters, long captureTimeMillis){
+
+        this.sensorTimestampNanos = sensorTimestampNanos;
+        this.exposureTimeNanos = exposureTimeNanos;
+        this.sensitivityIso = sensitivityIso;
+        this.focusDistanceDiopters = focusDistanceDiopters;
+        this.apertureFNumber = apertureFNumber;
+        this.focalLengthMillimeters = focalLengthMillimeters;
+        this.captureTimeMillis = captureTimeMillis;
+    }
+
+    @Override
+    public String toString(){
+
+        return String.format(Locale.US, "Capture %d: exposure %d ns, ISO %d, focus %.2f diopters, f/%.1f, %.1f mm",
+                sensorTimestampNanos, exposureTimeNanos, sensitivityIso, focusDistanceDiopters, apertureFNumber, focalLengthMillimeters);
+    }
+}
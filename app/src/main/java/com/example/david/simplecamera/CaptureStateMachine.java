@@ -0,0 +1,339 @@
+package com.example.david.simplecamera;
+
+//Description: The auto focus / auto exposure precapture sequence that runs before a still is taken.
+//Every waiting state has a timeout, and a timeout takes the picture anyway so the capture button
+//can never get stuck waiting on a camera that never converges.
+
+import android.hardware.camera2.CaptureResult;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CaptureStateMachine {
+
+    public final static int STATE_PREVIEW = 0;
+    public final static int STATE_WAITING_AUTO_FOCUS = 1;
+    public final static int STATE_WAITING_LOCK = 2;
+    public final static int STATE_WAITING_PRECAPTURE = 3;
+    public final static int STATE_WAITING_NON_PRECAPTURE = 4;
+    public final static int STATE_PICTURE_TAKEN = 5;
+
+    private final static long[] DEFAULT_TIMEOUT_MILLIS = {0, 500, 1000, 1000, 1000, 3000};
+
+    //The camera requests that move the sequence along.
+    public interface Actions {
+
+        void startAutoFocus();
+
+        void lockFocus();
+
+        void runPrecapture();
+
+        void captureStill();
+
+        //The still never came back, so the camera should go back to previewing.
+        void abandonCapture();
+    }
+
+    public interface StateListener {
+
+        //timedOut is set when the state gave up waiting rather than seeing what it waited for, so a focus that
+        //never locked isn't taken for one that did.
+        void onStateChanged(int from, int to, boolean timedOut);
+    }
+
+    //The parts of a capture result the sequence looks at. Any of them can be null when the camera
+    //doesn't report it.
+    public interface Result {
+
+        Integer getAutoFocusMode();
+
+        Integer getAutoFocusState();
+
+        Integer getAutoExposureState();
+    }
+
+    private final Actions actions;
+    private final Clock clock;
+    private final long[] timeoutNanos = new long[DEFAULT_TIMEOUT_MILLIS.length];
+    private final AtomicReference<Phase> phase = new AtomicReference<>(new Phase(STATE_PREVIEW, 0));
+    private final AtomicLong timeouts = new AtomicLong();
+    private volatile StateListener stateListener;
+
+    public CaptureStateMachine(Actions captureActions, Clock captureClock){
+
+        if(captureActions == null || captureClock == null){
+
+            throw new NullPointerException();
+        }
+
+        actions = captureActions;
+        clock = captureClock;
+
+        for(int i = 0; i < timeoutNanos.length; i++){
+
+            timeoutNanos[i] = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MILLIS[i]);
+        }
+    }
+
+    public void setTimeout(int forState, long millis){
+
+        if(forState <= STATE_PREVIEW || forState > STATE_PICTURE_TAKEN || millis <= 0){
+
+            throw new IllegalArgumentException("Error: invalid timeout " + millis + " for state " + forState);
+        }
+
+        timeoutNanos[forState] = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    public void setStateListener(StateListener listener){
+
+        stateListener = listener;
+    }
+
+    public boolean start(){
+
+        //Starts a new capture. Returns false if a capture is already running.
+
+        if(!transition(STATE_PREVIEW, STATE_WAITING_AUTO_FOCUS)){
+
+            return false;
+        }
+
+        actions.startAutoFocus();
+
+        return true;
+    }
+
+    public boolean startWithLocks(){
+
+        //Starts a capture whose focus and exposure are already locked, so it goes straight to taking the picture.
+        //Returns false if a capture is already running.
+
+        if(!transition(STATE_PREVIEW, STATE_PICTURE_TAKEN)){
+
+            return false;
+        }
+
+        actions.captureStill();
+
+        return true;
+    }
+
+    public void reset(){
+
+        //Called once the still has been delivered and the camera is back to previewing.
+        int from = phase.getAndSet(new Phase(STATE_PREVIEW, clock.nanoTime())).state;
+        StateListener listener = stateListener;
+
+        if(listener != null && from != STATE_PREVIEW){
+
+            listener.onStateChanged(from, STATE_PREVIEW, false);
+        }
+    }
+
+    public void onCaptureResult(Result result){
+
+        if(checkTimeout()){
+
+            return;
+        }
+
+        int current = phase.get().state;
+
+        switch(current){
+            case STATE_WAITING_AUTO_FOCUS:
+                waitForAutoFocusMode(result);
+                break;
+            case STATE_WAITING_LOCK:
+                waitForFocusLock(result);
+                break;
+            case STATE_WAITING_PRECAPTURE:
+                waitForPrecaptureStart(result);
+                break;
+            case STATE_WAITING_NON_PRECAPTURE:
+                waitForPrecaptureEnd(result);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public boolean checkTimeout(){
+
+        //Returns true if the current state timed out. Waiting states fall back to taking the
+        //picture, a picture that never arrives goes back to the preview.
+
+        //The state and the time it was entered are read together, so a state that was just entered is never
+        //judged by the previous state's entry time.
+        Phase entered = phase.get();
+        int current = entered.state;
+
+        if(current == STATE_PREVIEW || clock.nanoTime() - entered.enteredNanos < timeoutNanos[current]){
+
+            return false;
+        }
+
+        if(current == STATE_PICTURE_TAKEN){
+
+            if(transition(entered, STATE_PREVIEW, true)){
+
+                timeouts.incrementAndGet();
+                actions.abandonCapture();
+                return true;
+            }
+
+            return false;
+        }
+
+        if(transition(entered, STATE_PICTURE_TAKEN, true)){
+
+            timeouts.incrementAndGet();
+            actions.captureStill();
+            return true;
+        }
+
+        return false;
+    }
+
+    public int getState(){
+
+        return phase.get().state;
+    }
+
+    public boolean isCapturing(){
+
+        return phase.get().state != STATE_PREVIEW;
+    }
+
+    public long getTimeoutCount(){
+
+        return timeouts.get();
+    }
+
+    private void waitForAutoFocusMode(Result result){
+
+        //The repeating request has switched to AUTO focus, so the focus can be locked.
+        Integer autoFocusMode = result.getAutoFocusMode();
+        Integer autoFocusState = result.getAutoFocusState();
+
+        if(autoFocusState == null){
+
+            //Focus does not exist for this camera.
+            capture(STATE_WAITING_AUTO_FOCUS);
+
+        }else if(autoFocusMode == null || autoFocusMode == CaptureResult.CONTROL_AF_MODE_AUTO){
+
+            if(transition(STATE_WAITING_AUTO_FOCUS, STATE_WAITING_LOCK)){
+
+                actions.lockFocus();
+            }
+        }
+    }
+
+    private void waitForFocusLock(Result result){
+
+        Integer autoFocusState = result.getAutoFocusState();
+
+        if(autoFocusState == null){
+
+            capture(STATE_WAITING_LOCK);
+
+        }else if(autoFocusState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED || autoFocusState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED){
+
+            Integer autoExposureState = result.getAutoExposureState();
+
+            if(autoExposureState == null || autoExposureState == CaptureResult.CONTROL_AE_STATE_CONVERGED || autoExposureState == CaptureResult.CONTROL_AE_STATE_INACTIVE){
+
+                //The auto exposure has converged and indicates that a flash is not required.
+                capture(STATE_WAITING_LOCK);
+
+            }else if(transition(STATE_WAITING_LOCK, STATE_WAITING_PRECAPTURE)){
+
+                //The auto exposure has determined that more processing needs to be done.
+                actions.runPrecapture();
+            }
+        }
+    }
+
+    private void waitForPrecaptureStart(Result result){
+
+        Integer autoExposureState = result.getAutoExposureState();
+
+        if(autoExposureState == null || autoExposureState == CaptureResult.CONTROL_AE_STATE_CONVERGED || autoExposureState == CaptureResult.CONTROL_AE_STATE_LOCKED){
+
+            capture(STATE_WAITING_PRECAPTURE);
+
+        }else if(autoExposureState == CaptureResult.CONTROL_AE_STATE_PRECAPTURE || autoExposureState == CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED){
+
+            transition(STATE_WAITING_PRECAPTURE, STATE_WAITING_NON_PRECAPTURE);
+        }
+    }
+
+    private void waitForPrecaptureEnd(Result result){
+
+        Integer autoExposureState = result.getAutoExposureState();
+
+        if(autoExposureState == null || autoExposureState != CaptureResult.CONTROL_AE_STATE_PRECAPTURE){
+
+            capture(STATE_WAITING_NON_PRECAPTURE);
+        }
+    }
+
+    private void capture(int from){
+
+        if(transition(from, STATE_PICTURE_TAKEN)){
+
+            actions.captureStill();
+        }
+    }
+
+    private boolean transition(int from, int to){
+
+        Phase current = phase.get();
+
+        while(current.state == from){
+
+            if(transition(current, to, false)){
+
+                return true;
+            }
+
+            current = phase.get();
+        }
+
+        return false;
+    }
+
+    private boolean transition(Phase from, int to, boolean timedOut){
+
+        //Only the thread that wins the compare and set gets to issue the next request. The new state is published
+        //together with the time it was entered.
+        if(phase.compareAndSet(from, new Phase(to, clock.nanoTime()))){
+
+            StateListener listener = stateListener;
+
+            if(listener != null){
+
+                listener.onStateChanged(from.state, to, timedOut);
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private static class Phase {
+
+        final int state;
+        final long enteredNanos;
+
+        Phase(int state, long enteredNanos){
+
+            this.state = state;
+            this.enteredNanos = enteredNanos;
+        }
+    }
+}
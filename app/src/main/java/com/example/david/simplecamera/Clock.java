@@ -0,0 +1,17 @@
+package com.example.david.simplecamera;
+
+//Description: A monotonic time source that can be swapped out for a fake one in tests.
+
+public interface Clock {
+
+    Clock SYSTEM = new Clock() {
+
+        @Override
+        public long nanoTime() {
+
+            return System.nanoTime();
+        }
+    };
+
+    long nanoTime();
+}
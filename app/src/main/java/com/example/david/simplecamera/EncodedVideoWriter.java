@@ -0,0 +1,223 @@
+package com.example.david.simplecamera;
+
+//Description: Moves encoded video from an encoder's output buffers into a muxer. Each sample is written straight
+//from the encoder's own buffer and the buffer is handed back right after, so nothing is copied on the way. Keeps
+//count of the frames written, the frames that never made it to the encoder, and how long the encoder took.
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+public class EncodedVideoWriter<F> {
+
+    public static class Stats {
+
+        public final long frames;
+        public final long keyFrames;
+        public final long bytes;
+        //Frames missing between the presentation times of the frames written, going by the frame interval.
+        public final long droppedFrames;
+        //From a frame's capture to its encoded sample coming out of the encoder.
+        public final long averageLatencyNanos;
+        public final long maxLatencyNanos;
+        public final long p95LatencyNanos;
+
+        Stats(long frames, long keyFrames, long bytes, long droppedFrames, long averageLatencyNanos, long maxLatencyNanos, long p95LatencyNanos){
+
+            this.frames = frames;
+            this.keyFrames = keyFrames;
+            this.bytes = bytes;
+            this.droppedFrames = droppedFrames;
+            this.averageLatencyNanos = averageLatencyNanos;
+            this.maxLatencyNanos = maxLatencyNanos;
+            this.p95LatencyNanos = p95LatencyNanos;
+        }
+
+        @Override
+        public String toString(){
+
+            return String.format(Locale.US, "Video: %d frames, %d key frames, %d bytes, %d dropped, encoder latency avg %.1f ms p95 %.1f ms max %.1f ms",
+                    frames, keyFrames, bytes, droppedFrames, averageLatencyNanos / 1e6, p95LatencyNanos / 1e6, maxLatencyNanos / 1e6);
+        }
+    }
+
+    //Latency in 1 ms buckets up to half a second.
+    private final static int LATENCY_BUCKETS = 500;
+    private final static long NO_FRAME = Long.MIN_VALUE;
+
+    private final EncoderOutput<F> encoder;
+    private final SampleMuxer<F> muxer;
+    private final long frameIntervalMicros;
+    private final Clock clock;
+    private final EncoderOutput.SampleInfo info = new EncoderOutput.SampleInfo();
+    private final Histogram latencyMillis = new Histogram(0, 1, LATENCY_BUCKETS);
+
+    private int track = -1;
+    private boolean finished;
+    private long lastPresentationMicros = NO_FRAME;
+
+    private long frames;
+    private long keyFrames;
+    private long bytes;
+    private long droppedFrames;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    public EncodedVideoWriter(EncoderOutput<F> encoderOutput, SampleMuxer<F> sampleMuxer, long frameIntervalNanos, Clock timestampClock){
+
+        //The clock has to run on the same time base as the presentation times, which for a camera surface are the
+        //sensor timestamps.
+        if(encoderOutput == null || sampleMuxer == null || timestampClock == null){
+
+            throw new NullPointerException();
+        }
+
+        if(frameIntervalNanos < 1000){
+
+            throw new IllegalArgumentException("Error: invalid frame interval of " + frameIntervalNanos + " ns");
+        }
+
+        encoder = encoderOutput;
+        muxer = sampleMuxer;
+        frameIntervalMicros = TimeUnit.NANOSECONDS.toMicros(frameIntervalNanos);
+        clock = timestampClock;
+    }
+
+    public boolean drain(long timeoutMicros){
+
+        //Writes everything the encoder has ready, waiting up to timeoutMicros for the first of it. Returns true once
+        //the end of the stream has been written and the muxer stopped. Only ever called on the encoder's thread.
+        if(finished){
+
+            return true;
+        }
+
+        long timeout = timeoutMicros;
+
+        while(true){
+
+            int index = encoder.dequeueOutputBuffer(info, timeout);
+
+            //Only the first dequeue waits, after that only what is already there is taken.
+            timeout = 0;
+
+            if(index == EncoderOutput.TRY_AGAIN_LATER){
+
+                return false;
+            }
+
+            if(index == EncoderOutput.FORMAT_CHANGED){
+
+                //Comes exactly once, before the first sample, with the codec config the container needs.
+                if(track >= 0){
+
+                    throw new IllegalStateException("Error: the encoder's output format changed after the muxer was started!");
+                }
+
+                track = muxer.addTrack(encoder.getOutputFormat());
+                muxer.start();
+                continue;
+            }
+
+            if(index < 0){
+
+                //Anything else the encoder reports, like the buffers having changed, doesn't concern the muxer.
+                continue;
+            }
+
+            try{
+
+                writeSample(encoder.getOutputBuffer(index));
+
+            }finally{
+
+                encoder.releaseOutputBuffer(index);
+            }
+
+            if(info.hasFlag(EncoderOutput.SampleInfo.FLAG_END_OF_STREAM)){
+
+                finish();
+                return true;
+            }
+        }
+    }
+
+    private void writeSample(ByteBuffer buffer){
+
+        //The codec config already went to the muxer with the output format, and the end of the stream may come
+        //without any data.
+        if(info.hasFlag(EncoderOutput.SampleInfo.FLAG_CODEC_CONFIG) || info.size == 0){
+
+            return;
+        }
+
+        if(track < 0){
+
+            throw new IllegalStateException("Error: the encoder put out a sample before its output format!");
+        }
+
+        buffer.limit(info.offset + info.size);
+        buffer.position(info.offset);
+        muxer.writeSampleData(track, buffer, info);
+
+        long latency = clock.nanoTime() - TimeUnit.MICROSECONDS.toNanos(info.presentationTimeMicros);
+
+        synchronized(this){
+
+            if(lastPresentationMicros != NO_FRAME){
+
+                //A gap of n frame intervals means n - 1 frames never reached the encoder, rounded to the nearest frame.
+                long gap = info.presentationTimeMicros - lastPresentationMicros;
+                droppedFrames += Math.max(0, (gap + frameIntervalMicros / 2) / frameIntervalMicros - 1);
+            }
+
+            lastPresentationMicros = info.presentationTimeMicros;
+            frames++;
+            bytes += info.size;
+
+            if(info.hasFlag(EncoderOutput.SampleInfo.FLAG_KEY_FRAME)){
+
+                keyFrames++;
+            }
+
+            if(latency >= 0){
+
+                totalLatencyNanos += latency;
+                maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+                latencyMillis.record(TimeUnit.NANOSECONDS.toMillis(latency));
+            }
+        }
+    }
+
+    private void finish(){
+
+        finished = true;
+
+        //An encoder that never put out a format never got the muxer started, and a muxer that wasn't started can't
+        //be stopped either.
+        if(track >= 0){
+
+            muxer.stop();
+        }
+    }
+
+    public boolean isFinished(){
+
+        return finished;
+    }
+
+    public synchronized Stats getStats(){
+
+        //Safe to call from any thread while the encoder's thread is writing.
+        long latencies = latencyMillis.getCount();
+
+        return new Stats(frames, keyFrames, bytes, droppedFrames, latencies > 0 ? totalLatencyNanos / latencies : 0, maxLatencyNanos,
+                latencies > 0 ? TimeUnit.MILLISECONDS.toNanos(latencyMillis.getPercentile(95)) : 0);
+    }
+
+    @Override
+    public String toString(){
+
+        return getStats().toString();
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.david.simplecamera;
+
+//Description: The output side of a video encoder, cut down to what the muxing path uses. Mirrors the synchronous
+//MediaCodec calls, so a MediaCodec can be wrapped without any copying, while tests can feed canned samples on a
+//plain JVM. F is the encoder's output format, a MediaFormat on a device.
+
+import java.nio.ByteBuffer;
+
+public interface EncoderOutput<F> {
+
+    //Same values as MediaCodec.INFO_TRY_AGAIN_LATER and INFO_OUTPUT_FORMAT_CHANGED.
+    int TRY_AGAIN_LATER = -1;
+    int FORMAT_CHANGED = -2;
+
+    //Fills in info and returns the index of an output buffer, or one of the values above.
+    int dequeueOutputBuffer(SampleInfo info, long timeoutMicros);
+
+    //The buffer of an index dequeueOutputBuffer returned, valid until it is released.
+    ByteBuffer getOutputBuffer(int index);
+
+    F getOutputFormat();
+
+    void releaseOutputBuffer(int index);
+
+    //Where a sample sits in its output buffer. Reused from sample to sample, so nothing is allocated per frame.
+    class SampleInfo {
+
+        //Same values as the MediaCodec.BUFFER_FLAG constants.
+        public final static int FLAG_KEY_FRAME = 1;
+        public final static int FLAG_CODEC_CONFIG = 2;
+        public final static int FLAG_END_OF_STREAM = 4;
+
+        public int offset;
+        public int size;
+        public long presentationTimeMicros;
+        public int flags;
+
+        public void set(int offset, int size, long presentationTimeMicros, int flags){
+
+            this.offset = offset;
+            this.size = size;
+            this.presentationTimeMicros = presentationTimeMicros;
+            this.flags = flags;
+        }
+
+        public boolean hasFlag(int flag){
+
+            return (flags & flag) != 0;
+        }
+    }
+}
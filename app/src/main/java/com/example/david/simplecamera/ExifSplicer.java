@@ -0,0 +1,333 @@
+package com.example.david.simplecamera;
+
+//Description: Splices an Exif APP1 segment built from a capture result into an encoded JPEG while it is being
+//copied out. The JPEG is never decoded: the new segment goes in after the SOI marker, the camera's own Exif
+//segment is left out, and everything else is copied through unchanged in the same pass.
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+public class ExifSplicer {
+
+    private final static int MAX_SEGMENT_LENGTH = 0xFFFF;
+
+    private final static int TYPE_ASCII = 2;
+    private final static int TYPE_SHORT = 3;
+    private final static int TYPE_LONG = 4;
+    private final static int TYPE_RATIONAL = 5;
+    private final static int TYPE_UNDEFINED = 7;
+
+    private final static int TAG_COMPRESSION = 0x0103;
+    private final static int TAG_ORIENTATION = 0x0112;
+    private final static int TAG_DATE_TIME = 0x0132;
+    private final static int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private final static int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private final static int TAG_EXPOSURE_TIME = 0x829A;
+    private final static int TAG_F_NUMBER = 0x829D;
+    private final static int TAG_EXIF_IFD = 0x8769;
+    private final static int TAG_ISO = 0x8827;
+    private final static int TAG_EXIF_VERSION = 0x9000;
+    private final static int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private final static int TAG_SUBJECT_DISTANCE = 0x9206;
+    private final static int TAG_FOCAL_LENGTH = 0x920A;
+
+    private final static int TIFF_HEADER_SIZE = 8;
+
+    private ExifSplicer(){
+
+    }
+
+    public static long splice(ByteBuffer jpeg, CaptureMetadata metadata, TimeZone timeZone, OutputStream out, byte[] scratch) throws IOException {
+
+        //Writes the JPEG with its Exif data replaced and returns the number of bytes written. The orientation and
+        //the thumbnail of the camera's Exif data are carried over. The position of the buffer is left untouched.
+
+        if(!JpegStreamWriter.isJpeg(jpeg)){
+
+            throw new IOException("Error: can't add Exif data to something that isn't a JPEG!");
+        }
+
+        int oldExif = ExifThumbnail.findExifSegment(jpeg);
+        byte[] segment = buildSegment(metadata, timeZone, ExifThumbnail.readOrientationDegrees(jpeg), ExifThumbnail.find(jpeg));
+
+        out.write(jpeg.get(jpeg.position()) & 0xFF);
+        out.write(jpeg.get(jpeg.position() + 1) & 0xFF);
+        out.write(segment);
+
+        long written = 2 + segment.length;
+
+        if(oldExif < 0){
+
+            written += JpegStreamWriter.copy(range(jpeg, 2, jpeg.remaining()), out, scratch);
+
+        }else{
+
+            written += JpegStreamWriter.copy(range(jpeg, 2, oldExif), out, scratch);
+            written += JpegStreamWriter.copy(range(jpeg, oldExif + 2 + JpegParser.segmentLength(jpeg, oldExif), jpeg.remaining()), out, scratch);
+        }
+
+        return written;
+    }
+
+    private static ByteBuffer range(ByteBuffer jpeg, int from, int to){
+
+        ByteBuffer view = jpeg.duplicate();
+        view.position(jpeg.position() + from);
+        view.limit(jpeg.position() + to);
+
+        return view;
+    }
+
+    public static byte[] buildSegment(CaptureMetadata metadata, TimeZone timeZone, int orientationDegrees, ByteBuffer thumbnail){
+
+        //The whole APP1 segment, marker included. The thumbnail is left out if it would make the segment too big.
+        List<Entry> ifd0 = new ArrayList<>();
+        List<Entry> exifIfd = new ArrayList<>();
+        List<Entry> ifd1 = new ArrayList<>();
+        byte[] dateTime = metadata.captureTimeMillis >= 0 ? formatDateTime(metadata.captureTimeMillis, timeZone) : null;
+
+        //Entries have to be in ascending tag order.
+        ifd0.add(shortEntry(TAG_ORIENTATION, toExifOrientation(orientationDegrees)));
+
+        if(dateTime != null){
+
+            ifd0.add(new Entry(TAG_DATE_TIME, TYPE_ASCII, dateTime.length, dateTime));
+        }
+
+        Entry exifPointer = longEntry(TAG_EXIF_IFD, 0);
+        ifd0.add(exifPointer);
+
+        if(metadata.exposureTimeNanos > 0){
+
+            //Microseconds are as fine as any shutter gets.
+            exifIfd.add(rationalEntry(TAG_EXPOSURE_TIME, Math.max(1, metadata.exposureTimeNanos / 1000), 1000000));
+        }
+
+        if(metadata.apertureFNumber > 0){
+
+            exifIfd.add(rationalEntry(TAG_F_NUMBER, Math.round(metadata.apertureFNumber * 100), 100));
+        }
+
+        if(metadata.sensitivityIso > 0){
+
+            exifIfd.add(shortEntry(TAG_ISO, Math.min(metadata.sensitivityIso, 0xFFFF)));
+        }
+
+        exifIfd.add(new Entry(TAG_EXIF_VERSION, TYPE_UNDEFINED, 4, new byte[]{'0', '2', '3', '0'}));
+
+        if(dateTime != null){
+
+            exifIfd.add(new Entry(TAG_DATE_TIME_ORIGINAL, TYPE_ASCII, dateTime.length, dateTime));
+        }
+
+        if(metadata.focusDistanceDiopters >= 0){
+
+            //Diopters are one over the distance in meters. Zero is focused at infinity, which Exif writes as 0xFFFFFFFF.
+            exifIfd.add(metadata.focusDistanceDiopters == 0 ? rationalEntry(TAG_SUBJECT_DISTANCE, 0xFFFFFFFFL, 1)
+                    : rationalEntry(TAG_SUBJECT_DISTANCE, Math.round(1000 / metadata.focusDistanceDiopters), 1000));
+        }
+
+        if(metadata.focalLengthMillimeters > 0){
+
+            exifIfd.add(rationalEntry(TAG_FOCAL_LENGTH, Math.round(metadata.focalLengthMillimeters * 100), 100));
+        }
+
+        int ifd0Offset = TIFF_HEADER_SIZE;
+        int exifOffset = ifd0Offset + ifdSize(ifd0);
+        int ifd1Offset = exifOffset + ifdSize(exifIfd);
+        exifPointer.setLong(exifOffset);
+
+        int thumbnailLength = thumbnail != null ? thumbnail.remaining() : 0;
+        Entry thumbnailPointer = longEntry(TAG_THUMBNAIL_OFFSET, 0);
+
+        ifd1.add(shortEntry(TAG_COMPRESSION, 6));
+        ifd1.add(thumbnailPointer);
+        ifd1.add(longEntry(TAG_THUMBNAIL_LENGTH, thumbnailLength));
+
+        int thumbnailOffset = ifd1Offset + ifdSize(ifd1);
+        boolean withThumbnail = thumbnailLength > 0 && 2 + 2 + ExifThumbnail.EXIF_HEADER_SIZE + thumbnailOffset + thumbnailLength <= MAX_SEGMENT_LENGTH + 2;
+        int tiffLength = withThumbnail ? thumbnailOffset + thumbnailLength : ifd1Offset;
+        thumbnailPointer.setLong(thumbnailOffset);
+
+        int segmentLength = 2 + ExifThumbnail.EXIF_HEADER_SIZE + tiffLength;
+        ByteBuffer segment = ByteBuffer.allocate(2 + segmentLength);
+
+        segment.put((byte) 0xFF).put((byte) JpegParser.MARKER_APP1).putShort((short) segmentLength);
+        segment.put(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+
+        //Big endian, which is what ByteBuffer writes anyway.
+        int tiffStart = segment.position();
+        segment.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(ifd0Offset);
+
+        writeIfd(segment, tiffStart, ifd0Offset, ifd0, withThumbnail ? ifd1Offset : 0);
+        writeIfd(segment, tiffStart, exifOffset, exifIfd, 0);
+
+        if(withThumbnail){
+
+            writeIfd(segment, tiffStart, ifd1Offset, ifd1, 0);
+            segment.put(thumbnail.duplicate());
+        }
+
+        return segment.array();
+    }
+
+    private static int ifdSize(List<Entry> entries){
+
+        //Entry count, the entries, the next IFD offset, then the values that don't fit in an entry.
+        int size = 2 + entries.size() * 12 + 4;
+
+        for(Entry entry : entries){
+
+            if(entry.value.length > 4){
+
+                size += entry.value.length + (entry.value.length & 1);
+            }
+        }
+
+        return size;
+    }
+
+    private static void writeIfd(ByteBuffer segment, int tiffStart, int ifdOffset, List<Entry> entries, int nextIfdOffset){
+
+        int valueOffset = ifdOffset + 2 + entries.size() * 12 + 4;
+
+        segment.position(tiffStart + ifdOffset);
+        segment.putShort((short) entries.size());
+
+        for(Entry entry : entries){
+
+            segment.putShort((short) entry.tag).putShort((short) entry.type).putInt(entry.count);
+
+            if(entry.value.length <= 4){
+
+                //Values that fit are stored in the entry itself, left aligned.
+                segment.put(entry.value);
+                segment.put(new byte[4 - entry.value.length]);
+
+            }else{
+
+                segment.putInt(valueOffset);
+                valueOffset += entry.value.length + (entry.value.length & 1);
+            }
+        }
+
+        segment.putInt(nextIfdOffset);
+
+        for(Entry entry : entries){
+
+            if(entry.value.length > 4){
+
+                segment.put(entry.value);
+
+                if((entry.value.length & 1) != 0){
+
+                    segment.put((byte) 0);
+                }
+            }
+        }
+    }
+
+    static int toExifOrientation(int degrees){
+
+        switch(((degrees % 360) + 360) % 360){
+            case 90:
+                return 6;
+            case 180:
+                return 3;
+            case 270:
+                return 8;
+            default:
+                return 1;
+        }
+    }
+
+    private static byte[] formatDateTime(long millis, TimeZone timeZone){
+
+        //"YYYY:MM:DD HH:MM:SS" and a terminating zero, in local time as Exif expects.
+        Calendar calendar = new GregorianCalendar(timeZone, Locale.US);
+        calendar.setTimeInMillis(millis);
+
+        String text = String.format(Locale.US, "%04d:%02d:%02d %02d:%02d:%02d", calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+                calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND));
+        byte[] bytes = new byte[text.length() + 1];
+
+        for(int i = 0; i < text.length(); i++){
+
+            bytes[i] = (byte) text.charAt(i);
+        }
+
+        return bytes;
+    }
+
+    private static Entry shortEntry(int tag, int value){
+
+        return new Entry(tag, TYPE_SHORT, 1, new byte[]{(byte) (value >> 8), (byte) value});
+    }
+
+    private static Entry longEntry(int tag, int value){
+
+        Entry entry = new Entry(tag, TYPE_LONG, 1, new byte[4]);
+        entry.setLong(value);
+
+        return entry;
+    }
+
+    private static Entry rationalEntry(int tag, long numerator, long denominator){
+
+        long divisor = gcd(numerator, denominator);
+
+        if(divisor > 1){
+
+            numerator /= divisor;
+            denominator /= divisor;
+        }
+
+        ByteBuffer value = ByteBuffer.allocate(8);
+        value.putInt((int) Math.min(numerator, 0xFFFFFFFFL)).putInt((int) Math.min(denominator, 0xFFFFFFFFL));
+
+        return new Entry(tag, TYPE_RATIONAL, 1, value.array());
+    }
+
+    private static long gcd(long a, long b){
+
+        while(b != 0){
+
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+
+        return a;
+    }
+
+    private static class Entry {
+
+        final int tag;
+        final int type;
+        final int count;
+        final byte[] value;
+
+        Entry(int tag, int type, int count, byte[] value){
+
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+
+        void setLong(int longValue){
+
+            value[0] = (byte) (longValue >> 24);
+            value[1] = (byte) (longValue >> 16);
+            value[2] = (byte) (longValue >> 8);
+            value[3] = (byte) longValue;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.david.simplecamera;
+
+//Description: Finds the small JPEG thumbnail a camera embeds in the Exif APP1 segment, and the Exif orientation,
+//without decoding anything. All offsets are relative to the position of the buffer, which is never moved.
+
+import java.nio.ByteBuffer;
+
+public class ExifThumbnail {
+
+    private final static int TAG_ORIENTATION = 0x0112;
+    private final static int TAG_COMPRESSION = 0x0103;
+    private final static int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private final static int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private final static int COMPRESSION_JPEG = 6;
+
+    final static int EXIF_HEADER_SIZE = 6;
+    private final static int IFD_ENTRY_SIZE = 12;
+
+    private ExifThumbnail(){
+
+    }
+
+    public static ByteBuffer find(ByteBuffer jpeg){
+
+        //Returns a view of the embedded thumbnail's bytes, or null if there isn't a usable JPEG thumbnail.
+        Tiff tiff = Tiff.find(jpeg);
+
+        if(tiff == null){
+
+            return null;
+        }
+
+        int ifd1 = tiff.nextIfd(tiff.firstIfd());
+
+        if(ifd1 < 0){
+
+            return null;
+        }
+
+        int compression = tiff.findValue(ifd1, TAG_COMPRESSION);
+        int offset = tiff.findValue(ifd1, TAG_THUMBNAIL_OFFSET);
+        int length = tiff.findValue(ifd1, TAG_THUMBNAIL_LENGTH);
+
+        //Both come straight from the file, so their sum could overflow.
+        if((compression >= 0 && compression != COMPRESSION_JPEG) || offset <= 0 || length <= 2 || offset > tiff.length - length){
+
+            return null;
+        }
+
+        ByteBuffer thumbnail = jpeg.duplicate();
+        thumbnail.position(tiff.start + offset);
+        thumbnail.limit(tiff.start + offset + length);
+        thumbnail = thumbnail.slice();
+
+        return JpegStreamWriter.isJpeg(thumbnail) ? thumbnail : null;
+    }
+
+    public static int readOrientationDegrees(ByteBuffer jpeg){
+
+        //The clockwise rotation the Exif orientation asks for. 0 if there is none, or it is a mirrored one.
+        Tiff tiff = Tiff.find(jpeg);
+
+        if(tiff == null){
+
+            return 0;
+        }
+
+        switch(tiff.findValue(tiff.firstIfd(), TAG_ORIENTATION)){
+            case 6:
+                return 90;
+            case 3:
+                return 180;
+            case 8:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    static int findExifSegment(ByteBuffer jpeg){
+
+        //The offset of the APP1 segment holding the Exif data, or -1. There can be more than one APP1 segment,
+        //XMP for example, so the first one isn't necessarily Exif. The whole segment is inside the buffer.
+        int offset = JpegParser.findSegment(jpeg, JpegParser.MARKER_APP1);
+
+        while(offset >= 0){
+
+            int segmentEnd = offset + 2 + JpegParser.segmentLength(jpeg, offset);
+
+            if(segmentEnd <= jpeg.remaining() && offset + 4 + EXIF_HEADER_SIZE <= segmentEnd && isExif(jpeg, offset + 4)){
+
+                return offset;
+            }
+
+            offset = JpegParser.findNextSegment(jpeg, JpegParser.MARKER_APP1, offset);
+        }
+
+        return -1;
+    }
+
+    private static boolean isExif(ByteBuffer jpeg, int offset){
+
+        //"Exif" followed by two zero bytes.
+        int base = jpeg.position() + offset;
+
+        return jpeg.get(base) == 'E' && jpeg.get(base + 1) == 'x' && jpeg.get(base + 2) == 'i' && jpeg.get(base + 3) == 'f'
+                && jpeg.get(base + 4) == 0 && jpeg.get(base + 5) == 0;
+    }
+
+    private static class Tiff {
+
+        final ByteBuffer jpeg;
+        //Absolute index of the TIFF header and the number of bytes left in the APP1 segment from there.
+        final int start;
+        final int length;
+        final boolean littleEndian;
+
+        Tiff(ByteBuffer jpeg, int start, int length, boolean littleEndian){
+
+            this.jpeg = jpeg;
+            this.start = start;
+            this.length = length;
+            this.littleEndian = littleEndian;
+        }
+
+        static Tiff find(ByteBuffer jpeg){
+
+            int offset = findExifSegment(jpeg);
+
+            if(offset < 0){
+
+                return null;
+            }
+
+            int segmentEnd = offset + 2 + JpegParser.segmentLength(jpeg, offset);
+            int tiffOffset = offset + 4 + EXIF_HEADER_SIZE;
+
+            if(tiffOffset + 8 > segmentEnd){
+
+                return null;
+            }
+
+            int base = jpeg.position() + tiffOffset;
+            int order = jpeg.getShort(base) & 0xFFFF;
+
+            if(order != 0x4949 && order != 0x4D4D){
+
+                return null;
+            }
+
+            Tiff tiff = new Tiff(jpeg, base, segmentEnd - tiffOffset, order == 0x4949);
+
+            return tiff.readShort(2) == 42 ? tiff : null;
+        }
+
+        int firstIfd(){
+
+            return readInt(4);
+        }
+
+        int nextIfd(int ifd){
+
+            //-1 if the IFD is broken or the last one.
+            int count = readShort(ifd);
+
+            if(count < 0){
+
+                return -1;
+            }
+
+            int next = readInt(ifd + 2 + count * IFD_ENTRY_SIZE);
+
+            return next > 0 ? next : -1;
+        }
+
+        int findValue(int ifd, int tag){
+
+            //The value of a SHORT or LONG entry with a count of one. -1 if the entry is missing or isn't one.
+            int count = readShort(ifd);
+
+            for(int i = 0; i < count; i++){
+
+                int entry = ifd + 2 + i * IFD_ENTRY_SIZE;
+
+                if(entry + IFD_ENTRY_SIZE > length){
+
+                    return -1;
+                }
+
+                if(readShort(entry) != tag){
+
+                    continue;
+                }
+
+                int type = readShort(entry + 2);
+
+                if(readInt(entry + 4) != 1){
+
+                    return -1;
+                }
+
+                //Values that fit are stored in the entry itself, left aligned.
+                if(type == 3){
+
+                    return readShort(entry + 8);
+                }
+
+                return type == 4 ? readInt(entry + 8) : -1;
+            }
+
+            return -1;
+        }
+
+        int readShort(int offset){
+
+            //-1 if the read would run past the segment.
+            if(offset < 0 || offset + 2 > length){
+
+                return -1;
+            }
+
+            int first = jpeg.get(start + offset) & 0xFF;
+            int second = jpeg.get(start + offset + 1) & 0xFF;
+
+            return littleEndian ? (second << 8) | first : (first << 8) | second;
+        }
+
+        int readInt(int offset){
+
+            //-1 if the read would run past the segment. Offsets and lengths never come near 2^31 inside
+            //a 64KB segment, so anything larger is as good as broken.
+            int low = readShort(littleEndian ? offset : offset + 2);
+            int high = readShort(littleEndian ? offset + 2 : offset);
+
+            if(low < 0 || high < 0 || high > 0x7FFF){
+
+                return -1;
+            }
+
+            return (high << 16) | low;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.david.simplecamera;
+
+//Description: Shares one SaveExecutor between several cameras. Every camera queues its saves separately and the
+//queues are served round robin, with only a few saves handed to the executor at a time, so a camera shooting a
+//burst can't push the saves of the others to the back of the line. Counts what each camera got through.
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class FairSaveQueue {
+
+    public static class Stats {
+
+        public final String source;
+        public final long submitted;
+        public final long saved;
+        public final long failed;
+        //Discarded because the camera's queue was full, or by the executor.
+        public final long dropped;
+        public final int queued;
+        //From the first save being submitted to the latest one finishing.
+        public final long elapsedNanos;
+
+        Stats(String source, long submitted, long saved, long failed, long dropped, int queued, long elapsedNanos){
+
+            this.source = source;
+            this.submitted = submitted;
+            this.saved = saved;
+            this.failed = failed;
+            this.dropped = dropped;
+            this.queued = queued;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double getSavesPerSecond(){
+
+            return elapsedNanos > 0 ? saved * 1e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString(){
+
+            return String.format(Locale.US, "Camera %s: %d submitted, %d saved, %d failed, %d dropped, %d queued, %.2f saves/s over %d ms",
+                    source, submitted, saved, failed, dropped, queued, getSavesPerSecond(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        }
+    }
+
+    private final SaveExecutor saveExecutor;
+    private final int maxInFlight;
+    private final int sourceCapacity;
+    private final Clock clock;
+
+    //In the order the sources were first seen, which is also the round robin order.
+    private final Map<String, Source> sources = new LinkedHashMap<>();
+    private final List<Source> order = new ArrayList<>();
+    private int nextSource;
+    private int inFlight;
+
+    public FairSaveQueue(SaveExecutor executor, int maxInFlight, int sourceCapacity, Clock clock){
+
+        //maxInFlight should leave room in the executor's queue, so handing a save over never has to wait.
+        if(executor == null || clock == null){
+
+            throw new NullPointerException();
+        }
+
+        if(maxInFlight < 1 || sourceCapacity < 1){
+
+            throw new IllegalArgumentException("Error: invalid fair save queue of " + maxInFlight + " in flight and " + sourceCapacity + " per camera");
+        }
+
+        saveExecutor = executor;
+        this.maxInFlight = maxInFlight;
+        this.sourceCapacity = sourceCapacity;
+        this.clock = clock;
+    }
+
+    public boolean submit(String source, SaveTask task){
+
+        //Returns false if the camera's queue was full, in which case its oldest save was discarded to make room.
+        if(source == null || task == null){
+
+            throw new NullPointerException();
+        }
+
+        SaveTask dropped = null;
+
+        synchronized(this){
+
+            Source queue = getSource(source);
+
+            if(queue.submitted == 0){
+
+                queue.firstSubmitNanos = clock.nanoTime();
+            }
+
+            queue.submitted++;
+
+            if(queue.tasks.size() >= sourceCapacity){
+
+                dropped = queue.tasks.poll();
+                queue.dropped++;
+            }
+
+            queue.tasks.add(task);
+        }
+
+        if(dropped != null){
+
+            dropped.discard();
+        }
+
+        pump();
+
+        return dropped == null;
+    }
+
+    public void flush(){
+
+        //Hands everything still queued to the executor regardless of the limit, for when the cameras are closing
+        //and the executor is about to be drained.
+        List<Entry> entries = new ArrayList<>();
+
+        synchronized(this){
+
+            Entry entry;
+
+            while((entry = pollNext()) != null){
+
+                entries.add(entry);
+                inFlight++;
+            }
+        }
+
+        for(Entry entry : entries){
+
+            saveExecutor.submit(entry);
+        }
+    }
+
+    private void pump(){
+
+        //Outside the lock, so a blocking executor never holds up another camera's submit.
+        while(true){
+
+            Entry entry;
+
+            synchronized(this){
+
+                if(inFlight >= maxInFlight || (entry = pollNext()) == null){
+
+                    return;
+                }
+
+                inFlight++;
+            }
+
+            saveExecutor.submit(entry);
+        }
+    }
+
+    private Entry pollNext(){
+
+        //The next camera in turn that has something queued.
+        for(int i = 0; i < order.size(); i++){
+
+            Source source = order.get((nextSource + i) % order.size());
+            SaveTask task = source.tasks.poll();
+
+            if(task != null){
+
+                nextSource = (nextSource + i + 1) % order.size();
+
+                return new Entry(source, task);
+            }
+        }
+
+        return null;
+    }
+
+    private Source getSource(String name){
+
+        Source source = sources.get(name);
+
+        if(source == null){
+
+            source = new Source(name);
+            sources.put(name, source);
+            order.add(source);
+        }
+
+        return source;
+    }
+
+    private void finished(Source source, boolean ran, boolean succeeded){
+
+        synchronized(this){
+
+            inFlight--;
+
+            if(!ran){
+
+                source.dropped++;
+
+            }else if(succeeded){
+
+                source.saved++;
+
+            }else{
+
+                source.failed++;
+            }
+
+            source.lastFinishNanos = clock.nanoTime();
+            source.finishedAny = true;
+        }
+
+        pump();
+    }
+
+    public synchronized int getInFlightCount(){
+
+        return inFlight;
+    }
+
+    public synchronized List<String> getSources(){
+
+        return new ArrayList<>(sources.keySet());
+    }
+
+    public synchronized Stats getStats(String name){
+
+        Source source = sources.get(name);
+
+        if(source == null){
+
+            return new Stats(name, 0, 0, 0, 0, 0, 0);
+        }
+
+        long elapsed = source.finishedAny ? source.lastFinishNanos - source.firstSubmitNanos : 0;
+
+        return new Stats(name, source.submitted, source.saved, source.failed, source.dropped, source.tasks.size(), elapsed);
+    }
+
+    private static class Source {
+
+        final String name;
+        final ArrayDeque<SaveTask> tasks = new ArrayDeque<>();
+        long submitted;
+        long saved;
+        long failed;
+        long dropped;
+        long firstSubmitNanos;
+        long lastFinishNanos;
+        boolean finishedAny;
+
+        Source(String name){
+
+            this.name = name;
+        }
+    }
+
+    //Wraps a save on its way through the executor, so the queue knows when its slot is free again.
+    private class Entry implements SaveTask {
+
+        private final Source source;
+        private final SaveTask task;
+
+        Entry(Source source, SaveTask task){
+
+            this.source = source;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+
+            boolean succeeded = false;
+
+            try{
+
+                task.run();
+                succeeded = true;
+
+            }finally{
+
+                finished(source, true, succeeded);
+            }
+        }
+
+        @Override
+        public void discard() {
+
+            try{
+
+                task.discard();
+
+            }finally{
+
+                finished(source, false, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.david.simplecamera;
+
+//Description: Looks at low resolution preview frames. Implementations must not keep the frame after analyze returns,
+//because its planes go back to the buffer pool.
+
+public interface FrameAnalyzer {
+
+    void analyze(YuvFrame frame, long timestampNanos);
+}
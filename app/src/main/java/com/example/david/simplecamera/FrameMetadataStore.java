@@ -0,0 +1,244 @@
+package com.example.david.simplecamera;
+
+//Description: Keeps the 3A state and exposure of the most recent preview frames without boxing anything. Every
+//field is a column of primitives in one direct buffer in native byte order, written as a ring, so recording a
+//frame at 30 fps allocates nothing and queries only touch the columns they need. Frames are addressed by a
+//sequence number that keeps counting up as the ring wraps.
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class FrameMetadataStore {
+
+    public final static long NOT_FOUND = -1;
+    //For fields the capture result didn't report, like CameraBackend.Result.UNKNOWN and CaptureMetadata.UNKNOWN.
+    public final static int UNKNOWN = -1;
+
+    //Same values as CaptureResult.
+    private final static int AF_STATE_PASSIVE_FOCUSED = 2;
+    private final static int AF_STATE_FOCUSED_LOCKED = 4;
+    private final static int AE_STATE_CONVERGED = 2;
+    private final static int AE_STATE_LOCKED = 3;
+    private final static int AE_STATE_FLASH_REQUIRED = 4;
+
+    //Focus has settled and exposure has been metered. FLASH_REQUIRED counts, the exposure is done, it's just dark.
+    public final static int CONVERGED_AF_STATES = stateBit(AF_STATE_PASSIVE_FOCUSED) | stateBit(AF_STATE_FOCUSED_LOCKED);
+    public final static int CONVERGED_AE_STATES = stateBit(AE_STATE_CONVERGED) | stateBit(AE_STATE_LOCKED) | stateBit(AE_STATE_FLASH_REQUIRED);
+
+    //Bytes per frame: timestamp and exposure time as longs, the rest as ints and floats.
+    private final static int FRAME_BYTES = 8 + 8 + 4 + 4 + 4 + 4;
+
+    private final int capacity;
+    private final ByteBuffer columns;
+    private final int timestampColumn;
+    private final int exposureColumn;
+    private final int sensitivityColumn;
+    private final int focusDistanceColumn;
+    private final int autoFocusColumn;
+    private final int autoExposureColumn;
+
+    //Sequence number of the next frame. The ring holds the frames from written - size up to written.
+    private long written;
+    private int size;
+
+    public FrameMetadataStore(int capacity){
+
+        if(capacity < 1 || capacity > Integer.MAX_VALUE / FRAME_BYTES){
+
+            throw new IllegalArgumentException("Error: invalid frame metadata capacity " + capacity);
+        }
+
+        this.capacity = capacity;
+        columns = ByteBuffer.allocateDirect(capacity * FRAME_BYTES).order(ByteOrder.nativeOrder());
+
+        //Widest columns first, so every column starts aligned to the size of its values.
+        timestampColumn = 0;
+        exposureColumn = timestampColumn + capacity * 8;
+        sensitivityColumn = exposureColumn + capacity * 8;
+        focusDistanceColumn = sensitivityColumn + capacity * 4;
+        autoFocusColumn = focusDistanceColumn + capacity * 4;
+        autoExposureColumn = autoFocusColumn + capacity * 4;
+    }
+
+    public static int stateBit(int state){
+
+        //The mask bit of a 3A state for findLast. UNKNOWN has no bit and never matches.
+        return state >= 0 && state < 32 ? 1 << state : 0;
+    }
+
+    public synchronized long record(long timestampNanos, int autoFocusState, int autoExposureState, long exposureTimeNanos, int sensitivityIso, float focusDistanceDiopters){
+
+        //Returns the frame's sequence number. Results come back in frame order, so a frame older than the newest one
+        //can only be a stray and is left out, which is what keeps the timestamp column sorted for findNearest.
+        if(size > 0 && timestampNanos < getLong(timestampColumn, written - 1)){
+
+            return NOT_FOUND;
+        }
+
+        int slot = slot(written);
+
+        columns.putLong(timestampColumn + slot * 8, timestampNanos);
+        columns.putLong(exposureColumn + slot * 8, exposureTimeNanos);
+        columns.putInt(sensitivityColumn + slot * 4, sensitivityIso);
+        columns.putFloat(focusDistanceColumn + slot * 4, focusDistanceDiopters);
+        columns.putInt(autoFocusColumn + slot * 4, autoFocusState);
+        columns.putInt(autoExposureColumn + slot * 4, autoExposureState);
+
+        if(size < capacity){
+
+            size++;
+        }
+
+        return written++;
+    }
+
+    public synchronized long findNewest(){
+
+        return size > 0 ? written - 1 : NOT_FOUND;
+    }
+
+    public synchronized long findLast(int autoFocusStates, int autoExposureStates){
+
+        //The newest frame whose focus and exposure states are both in the given masks of stateBit values.
+        for(long sequence = written - 1; sequence >= written - size; sequence--){
+
+            int slot = slot(sequence);
+
+            if((stateBit(columns.getInt(autoFocusColumn + slot * 4)) & autoFocusStates) != 0
+                    && (stateBit(columns.getInt(autoExposureColumn + slot * 4)) & autoExposureStates) != 0){
+
+                return sequence;
+            }
+        }
+
+        return NOT_FOUND;
+    }
+
+    public long findLastConverged(){
+
+        return findLast(CONVERGED_AF_STATES, CONVERGED_AE_STATES);
+    }
+
+    public synchronized long findNearest(long timestampNanos){
+
+        //The frame whose timestamp is closest to the given one, the older frame on a tie. Binary search, since the
+        //timestamps only go up.
+        if(size == 0){
+
+            return NOT_FOUND;
+        }
+
+        long low = written - size;
+        long high = written - 1;
+
+        while(low < high){
+
+            long middle = (low + high) >>> 1;
+
+            if(getLong(timestampColumn, middle) < timestampNanos){
+
+                low = middle + 1;
+
+            }else{
+
+                high = middle;
+            }
+        }
+
+        //low is now the first frame at or after the timestamp, or the newest frame if they are all before it.
+        long after = getLong(timestampColumn, low) - timestampNanos;
+
+        if(low > written - size && after >= 0){
+
+            long before = timestampNanos - getLong(timestampColumn, low - 1);
+
+            if(before <= after){
+
+                return low - 1;
+            }
+        }
+
+        return low;
+    }
+
+    public synchronized boolean contains(long sequence){
+
+        return sequence >= written - size && sequence < written;
+    }
+
+    public synchronized long getTimestamp(long sequence){
+
+        return getLong(timestampColumn, checkSequence(sequence));
+    }
+
+    public synchronized long getExposureTime(long sequence){
+
+        return getLong(exposureColumn, checkSequence(sequence));
+    }
+
+    public synchronized int getSensitivity(long sequence){
+
+        return getInt(sensitivityColumn, checkSequence(sequence));
+    }
+
+    public synchronized float getFocusDistance(long sequence){
+
+        return columns.getFloat(focusDistanceColumn + slot(checkSequence(sequence)) * 4);
+    }
+
+    public synchronized int getAutoFocusState(long sequence){
+
+        return getInt(autoFocusColumn, checkSequence(sequence));
+    }
+
+    public synchronized int getAutoExposureState(long sequence){
+
+        return getInt(autoExposureColumn, checkSequence(sequence));
+    }
+
+    public synchronized int size(){
+
+        return size;
+    }
+
+    public int capacity(){
+
+        return capacity;
+    }
+
+    public synchronized long getRecordedCount(){
+
+        return written;
+    }
+
+    public synchronized void clear(){
+
+        //Sequence numbers keep counting, so a number handed out before is never reused for another frame.
+        size = 0;
+    }
+
+    private long checkSequence(long sequence){
+
+        if(!contains(sequence)){
+
+            throw new IllegalArgumentException("Error: frame " + sequence + " is not in the store");
+        }
+
+        return sequence;
+    }
+
+    private int slot(long sequence){
+
+        return (int) (sequence % capacity);
+    }
+
+    private long getLong(int column, long sequence){
+
+        return columns.getLong(column + slot(sequence) * 8);
+    }
+
+    private int getInt(int column, long sequence){
+
+        return columns.getInt(column + slot(sequence) * 4);
+    }
+}
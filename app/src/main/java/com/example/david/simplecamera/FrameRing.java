@@ -0,0 +1,182 @@
+package com.example.david.simplecamera;
+
+//Description: A fixed size ring of the most recent frames for zero shutter lag capture. A frame can only be
+//taken once the capture result with the same sensor timestamp has come back, and frames that fall out of
+//the ring are handed back to a Recycler so the ImageReader never runs out of images.
+
+public class FrameRing<T> {
+
+    public interface Recycler<T> {
+
+        void recycle(T frame);
+    }
+
+    private final Object[] frames;
+    private final long[] timestamps;
+    private final boolean[] matched;
+    private final long[] pendingResults;
+    private final Recycler<T> recycler;
+    private int oldest;
+    private int size;
+    private int nextPendingResult;
+
+    public FrameRing(int capacity, Recycler<T> frameRecycler){
+
+        if(capacity < 1 || frameRecycler == null){
+
+            throw new IllegalArgumentException("Error: invalid frame ring configuration!");
+        }
+
+        frames = new Object[capacity];
+        timestamps = new long[capacity];
+        matched = new boolean[capacity];
+        pendingResults = new long[capacity * 2];
+        recycler = frameRecycler;
+
+        for(int i = 0; i < pendingResults.length; i++){
+
+            pendingResults[i] = -1;
+        }
+    }
+
+    public synchronized void add(T frame, long timestampNanos){
+
+        //Adds the newest frame, recycling the oldest one if the ring is full.
+
+        if(size == frames.length){
+
+            recycle(oldest);
+            oldest = (oldest + 1) % frames.length;
+            size--;
+        }
+
+        int slot = (oldest + size) % frames.length;
+
+        frames[slot] = frame;
+        timestamps[slot] = timestampNanos;
+        matched[slot] = takePendingResult(timestampNanos);
+        size++;
+    }
+
+    public synchronized void onResult(long timestampNanos){
+
+        //Called with the sensor timestamp of every completed capture result. Results can come back before
+        //or after their frame, so unmatched ones are remembered for a while.
+
+        for(int i = 0; i < size; i++){
+
+            int slot = (oldest + i) % frames.length;
+
+            if(timestamps[slot] == timestampNanos){
+
+                matched[slot] = true;
+                return;
+            }
+        }
+
+        pendingResults[nextPendingResult] = timestampNanos;
+        nextPendingResult = (nextPendingResult + 1) % pendingResults.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized T takeClosest(long targetNanos){
+
+        //Removes and returns the matched frame closest in time to the target, or null if there isn't one.
+        //The caller owns the frame that is returned.
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+
+        for(int i = 0; i < size; i++){
+
+            int slot = (oldest + i) % frames.length;
+
+            if(matched[slot]){
+
+                long distance = Math.abs(timestamps[slot] - targetNanos);
+
+                //On a tie the newer frame wins.
+                if(distance <= bestDistance){
+
+                    best = i;
+                    bestDistance = distance;
+                }
+            }
+        }
+
+        if(best < 0){
+
+            return null;
+        }
+
+        int slot = (oldest + best) % frames.length;
+        T frame = (T) frames[slot];
+
+        //Close the gap so the ring stays in time order.
+        for(int i = best; i < size - 1; i++){
+
+            int to = (oldest + i) % frames.length;
+            int from = (oldest + i + 1) % frames.length;
+
+            frames[to] = frames[from];
+            timestamps[to] = timestamps[from];
+            matched[to] = matched[from];
+        }
+
+        size--;
+        frames[(oldest + size) % frames.length] = null;
+
+        return frame;
+    }
+
+    public synchronized void clear(){
+
+        for(int i = 0; i < size; i++){
+
+            recycle((oldest + i) % frames.length);
+        }
+
+        oldest = 0;
+        size = 0;
+
+        for(int i = 0; i < pendingResults.length; i++){
+
+            pendingResults[i] = -1;
+        }
+    }
+
+    public synchronized int size(){
+
+        return size;
+    }
+
+    public int capacity(){
+
+        return frames.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void recycle(int slot){
+
+        T frame = (T) frames[slot];
+        frames[slot] = null;
+
+        if(frame != null){
+
+            recycler.recycle(frame);
+        }
+    }
+
+    private boolean takePendingResult(long timestampNanos){
+
+        for(int i = 0; i < pendingResults.length; i++){
+
+            if(pendingResults[i] == timestampNanos){
+
+                pendingResults[i] = -1;
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
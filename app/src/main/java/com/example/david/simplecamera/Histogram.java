@@ -0,0 +1,193 @@
+package com.example.david.simplecamera;
+
+//Description: Counts values into fixed width buckets, with one more bucket each for values below and above the
+//range. Cheap enough to record every shot into, and small enough to print in one line.
+
+import java.util.Locale;
+
+public class Histogram {
+
+    private final long lowest;
+    private final long bucketWidth;
+    private final long[] counts;
+    private long below;
+    private long above;
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    public Histogram(long lowest, long bucketWidth, int buckets){
+
+        if(bucketWidth < 1 || buckets < 1){
+
+            throw new IllegalArgumentException("Error: invalid histogram of " + buckets + " buckets " + bucketWidth + " wide");
+        }
+
+        this.lowest = lowest;
+        this.bucketWidth = bucketWidth;
+        counts = new long[buckets];
+    }
+
+    public Histogram(Histogram other){
+
+        synchronized(other){
+
+            lowest = other.lowest;
+            bucketWidth = other.bucketWidth;
+            counts = other.counts.clone();
+            below = other.below;
+            above = other.above;
+            count = other.count;
+            sum = other.sum;
+            min = other.min;
+            max = other.max;
+        }
+    }
+
+    public synchronized void record(long value){
+
+        if(value < lowest){
+
+            below++;
+
+        }else{
+
+            long bucket = (value - lowest) / bucketWidth;
+
+            if(bucket >= counts.length){
+
+                above++;
+
+            }else{
+
+                counts[(int) bucket]++;
+            }
+        }
+
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public synchronized long getCount(){
+
+        return count;
+    }
+
+    public synchronized long getBucketCount(int bucket){
+
+        return counts[bucket];
+    }
+
+    public int getBucketTotal(){
+
+        return counts.length;
+    }
+
+    public long getBucketStart(int bucket){
+
+        return lowest + bucket * bucketWidth;
+    }
+
+    public synchronized long getBelowCount(){
+
+        return below;
+    }
+
+    public synchronized long getAboveCount(){
+
+        return above;
+    }
+
+    public synchronized long getMin(){
+
+        return count > 0 ? min : 0;
+    }
+
+    public synchronized long getMax(){
+
+        return count > 0 ? max : 0;
+    }
+
+    public synchronized long getMean(){
+
+        return count > 0 ? sum / count : 0;
+    }
+
+    public synchronized long getPercentile(double percentile){
+
+        //The upper end of the bucket the percentile falls in, so it never understates. Values outside the range
+        //report the minimum or maximum seen.
+        if(count == 0){
+
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        long seen = below;
+
+        if(rank <= seen){
+
+            return min;
+        }
+
+        for(int i = 0; i < counts.length; i++){
+
+            seen += counts[i];
+
+            if(rank <= seen){
+
+                return Math.min(max, getBucketStart(i + 1) - 1);
+            }
+        }
+
+        return max;
+    }
+
+    public synchronized void clear(){
+
+        for(int i = 0; i < counts.length; i++){
+
+            counts[i] = 0;
+        }
+
+        below = 0;
+        above = 0;
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+
+    @Override
+    public synchronized String toString(){
+
+        //Only the buckets that have something in them, as "start:count".
+        StringBuilder builder = new StringBuilder(String.format(Locale.US, "n=%d mean=%d min=%d max=%d [", count, getMean(), getMin(), getMax()));
+        String separator = "";
+
+        if(below > 0){
+
+            builder.append("<").append(lowest).append(":").append(below);
+            separator = " ";
+        }
+
+        for(int i = 0; i < counts.length; i++){
+
+            if(counts[i] > 0){
+
+                builder.append(separator).append(getBucketStart(i)).append(":").append(counts[i]);
+                separator = " ";
+            }
+        }
+
+        if(above > 0){
+
+            builder.append(separator).append(">=").append(getBucketStart(counts.length)).append(":").append(above);
+        }
+
+        return builder.append("]").toString();
+    }
+}
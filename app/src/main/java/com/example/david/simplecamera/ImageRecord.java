@@ -0,0 +1,21 @@
+package com.example.david.simplecamera;
+
+//Description: An image file that has been written to disk and still has to be registered with the MediaStore.
+
+public class ImageRecord {
+
+    public final String path;
+    public final String title;
+    public final String mimeType;
+    public final long dateTakenMillis;
+    public final long sizeBytes;
+
+    public ImageRecord(String path, String title, String mimeType, long dateTakenMillis, long sizeBytes){
+
+        this.path = path;
+        this.title = title;
+        this.mimeType = mimeType;
+        this.dateTakenMillis = dateTakenMillis;
+        this.sizeBytes = sizeBytes;
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.david.simplecamera;
+
+//Description: Registers written image files with the system in batches (the MediaStore on a device).
+
+import java.io.IOException;
+import java.util.List;
+
+public interface ImageRegistry {
+
+    //Registers every record in one transaction and returns how many were accepted.
+    int registerAll(List<ImageRecord> records) throws IOException;
+}
@@ -9,28 +9,68 @@ import android.graphics.ImageFormat;
 import android.media.Image;
 import android.provider.MediaStore;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class ImageSaver implements Runnable {
+public class ImageSaver implements SaveTask {
+
+    public interface ImageClosedListener {
+
+        void onImageClosed(Image image);
+    }
 
     private Image image;
     private ContentResolver contentResolver;
+    private ImageSink imageSink;
+    private BufferPool bufferPool;
+    private ShotLatencyRecorder latencyRecorder;
+    private YuvJpegEncoder yuvEncoder;
+    private CaptureMetadata metadata;
+    private ImageClosedListener imageClosedListener;
+    private long shot = ShotLatencyRecorder.NO_SHOT;
     private Semaphore imageSaveLock = new Semaphore(1);
 
+    private final static int STREAM_CHUNK_SIZE = 64 * 1024;
+    private final static AtomicInteger titleSequence = new AtomicInteger();
+
     public ImageSaver(Image incomingImage, ContentResolver resolver){
 
+        //Decodes the image into a Bitmap and lets the MediaStore re-encode it.
         contentResolver = resolver;
         setImage(incomingImage);
     }
 
+    public ImageSaver(Image incomingImage, ImageSink sink){
+
+        //Streams the already encoded JPEG bytes into the sink.
+        if(sink == null){
+
+            throw new NullPointerException();
+        }
+
+        imageSink = sink;
+        setImage(incomingImage);
+    }
+
     @Override
     public void run() {
 
         if(imageSaveLock.tryAcquire()){
 
-            saveImage();
-            closeImage();
+            //The Image goes back to its reader even if saving it failed.
+            try{
+
+                saveImage();
+
+            }finally{
+
+                closeImage();
+            }
+
+            markStage(ShotLatencyRecorder.Stage.PERSISTED);
             imageSaveLock.release();
 
         }else{
@@ -39,13 +79,96 @@ public class ImageSaver implements Runnable {
         }
     }
 
+    @Override
+    public void discard() {
+
+        //The save executor dropped this image before it was saved.
+        closeImage();
+    }
+
     private void saveImage(){
 
         if(checkForJpeg()){
 
-            Bitmap bitmap = getBitmapFromImage();
+            if(imageSink != null){
 
-            MediaStore.Images.Media.insertImage(contentResolver, bitmap, "img" + System.currentTimeMillis(), " ");
+                streamImage();
+
+            }else{
+
+                Bitmap bitmap = getBitmapFromImage();
+
+                MediaStore.Images.Media.insertImage(contentResolver, bitmap, createTitle(), " ");
+            }
+
+        }else if(checkForYuv()){
+
+            encodeYuvImage();
+        }
+    }
+
+    private void encodeYuvImage(){
+
+        //The planes are copied out once, so the Image can be closed as soon as this returns.
+        YuvFrame frame = new YuvFrame(image.getWidth(), image.getHeight());
+        Image.Plane[] planes = image.getPlanes();
+
+        for(int i = 0; i < planes.length; i++){
+
+            frame.copyPlane(i, planes[i].getBuffer(), planes[i].getRowStride(), planes[i].getPixelStride(), bufferPool);
+        }
+
+        markStage(ShotLatencyRecorder.Stage.COPIED);
+
+        String title = createTitle();
+
+        try{
+
+            OutputStream out = imageSink.openStream(title, JpegStreamWriter.JPEG_MIME_TYPE);
+            boolean finished = false;
+
+            try{
+
+                yuvEncoder.encode(frame, out);
+                out.close();
+                imageSink.commit(title);
+                finished = true;
+
+            }finally{
+
+                if(!finished){
+
+                    out.close();
+                    imageSink.discard(title);
+                }
+            }
+
+        }catch(IOException e){
+
+            e.printStackTrace();
+
+        }finally{
+
+            frame.release(bufferPool);
+        }
+    }
+
+    private void streamImage(){
+
+        ByteBuffer imageBuffer = image.getPlanes()[0].getBuffer();
+        byte[] chunk = acquireBuffer(STREAM_CHUNK_SIZE);
+
+        try{
+
+            new JpegStreamWriter(imageSink, chunk).write(imageBuffer, createTitle(), metadata);
+
+        }catch(IOException e){
+
+            e.printStackTrace();
+
+        }finally{
+
+            releaseBuffer(chunk);
         }
     }
 
@@ -53,16 +176,64 @@ public class ImageSaver implements Runnable {
 
         ByteBuffer imageBuffer = image.getPlanes()[0].getBuffer();
 
-        byte[] imageBytes = new byte[imageBuffer.remaining()];
+        int length = imageBuffer.remaining();
+        byte[] imageBytes = acquireBuffer(length);
+
+        try{
+
+            imageBuffer.get(imageBytes, 0, length);
+
+            Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, length);
+            markStage(ShotLatencyRecorder.Stage.COPIED);
+
+            return bitmap;
+
+        }finally{
+
+            releaseBuffer(imageBytes);
+        }
+    }
+
+    private byte[] acquireBuffer(int size){
+
+        if(bufferPool != null){
+
+            return bufferPool.acquire(size);
+        }
+
+        return new byte[size];
+    }
+
+    private void releaseBuffer(byte[] buffer){
+
+        if(bufferPool != null){
+
+            bufferPool.release(buffer);
+        }
+    }
+
+    private void markStage(ShotLatencyRecorder.Stage stage){
 
-        imageBuffer.get(imageBytes);
+        if(latencyRecorder != null){
 
-        return BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
+            latencyRecorder.mark(shot, stage);
+        }
+    }
+
+    static String createTitle(){
+
+        //Images of a burst can be saved within the same millisecond, so a sequence number keeps the titles unique.
+        return "img" + System.currentTimeMillis() + "_" + titleSequence.incrementAndGet();
     }
 
     private void closeImage(){
 
         image.close();
+
+        if(imageClosedListener != null){
+
+            imageClosedListener.onImageClosed(image);
+        }
     }
 
     private boolean checkForJpeg(){
@@ -70,6 +241,12 @@ public class ImageSaver implements Runnable {
         return (image.getFormat() == ImageFormat.JPEG);
     }
 
+    private boolean checkForYuv(){
+
+        //YUV images can only be saved through a sink, once they have been compressed.
+        return image.getFormat() == ImageFormat.YUV_420_888 && yuvEncoder != null && imageSink != null;
+    }
+
     public void setImage(Image incomingImage){
 
         if(incomingImage != null){
@@ -86,4 +263,35 @@ public class ImageSaver implements Runnable {
 
        return image;
     }
+
+    public void setBufferPool(BufferPool pool){
+
+        //Optional. Without a pool every image allocates its own copy buffers.
+        bufferPool = pool;
+    }
+
+    public void setYuvEncoder(YuvJpegEncoder encoder){
+
+        //Needed to save YUV_420_888 images, which are otherwise dropped.
+        yuvEncoder = encoder;
+    }
+
+    public void setCaptureMetadata(CaptureMetadata captureMetadata){
+
+        //Optional. Spliced into the Exif data of JPEGs that are streamed to a sink.
+        metadata = captureMetadata;
+    }
+
+    public void setImageClosedListener(ImageClosedListener listener){
+
+        //Optional. Told once the Image has been handed back to its reader, whether it was saved or discarded.
+        imageClosedListener = listener;
+    }
+
+    public void setLatencyRecorder(ShotLatencyRecorder recorder, long shotId){
+
+        //Optional. The JPEG streaming path has no separate copy, so it never records COPIED.
+        latencyRecorder = recorder;
+        shot = shotId;
+    }
 }
@@ -0,0 +1,19 @@
+package com.example.david.simplecamera;
+
+//Description: A destination that already encoded images can be streamed into.
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public interface ImageSink {
+
+    //Opens a stream for a new image. Closing the stream only ends the writing. The image is kept once it is
+    //committed, and thrown away with discard.
+    OutputStream openStream(String title, String mimeType) throws IOException;
+
+    //Keeps an image whose stream was written in full and closed.
+    void commit(String title);
+
+    //Removes an image whose stream failed part way through being written, whether or not it was closed.
+    void discard(String title);
+}
@@ -0,0 +1,223 @@
+package com.example.david.simplecamera;
+
+//Description: Decides when the shots of an interval capture are due. Ticks sit on a fixed grid measured from the
+//start, so a late wake up or a slow shot never pushes the following ones back. A tick that finds the save pipeline
+//busy is either skipped or held back and merged with whatever comes due after it, so requests never pile up.
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+public class IntervalScheduler {
+
+    public enum MissPolicy {
+
+        //A tick that finds the pipeline busy is dropped.
+        SKIP,
+
+        //A tick that finds the pipeline busy fires as soon as it is ready, unless the next tick comes first.
+        COALESCE
+    }
+
+    //Jitter in 1 ms buckets, achieved intervals in buckets of a twentieth of the target up to twice the target.
+    private final static int JITTER_BUCKETS = 100;
+    private final static int INTERVAL_BUCKETS = 40;
+
+    private final long intervalNanos;
+    private final long retryNanos;
+    private final MissPolicy missPolicy;
+    private final Clock clock;
+    private final Histogram jitterMillis;
+    private final Histogram intervalMillis;
+
+    private boolean running;
+    private long nextTickNanos;
+    private long pendingTickNanos = -1;
+    private long firstShotNanos;
+    private long lastShotNanos = -1;
+
+    private long ticks;
+    private long shots;
+    private long skipped;
+    private long coalesced;
+
+    public IntervalScheduler(long intervalNanos, long retryNanos, MissPolicy missPolicy, Clock clock){
+
+        if(intervalNanos < TimeUnit.MILLISECONDS.toNanos(1) || retryNanos < 1 || missPolicy == null || clock == null){
+
+            throw new IllegalArgumentException("Error: invalid interval schedule!");
+        }
+
+        this.intervalNanos = intervalNanos;
+        this.retryNanos = retryNanos;
+        this.missPolicy = missPolicy;
+        this.clock = clock;
+
+        long intervalBucket = Math.max(1, TimeUnit.NANOSECONDS.toMillis(intervalNanos) * 2 / INTERVAL_BUCKETS);
+        jitterMillis = new Histogram(0, 1, JITTER_BUCKETS);
+        intervalMillis = new Histogram(0, intervalBucket, INTERVAL_BUCKETS);
+    }
+
+    public synchronized void start(){
+
+        //The first shot is due straight away. Starting again begins a new grid and new statistics.
+        running = true;
+        nextTickNanos = clock.nanoTime();
+        pendingTickNanos = -1;
+        lastShotNanos = -1;
+        ticks = 0;
+        shots = 0;
+        skipped = 0;
+        coalesced = 0;
+        jitterMillis.clear();
+        intervalMillis.clear();
+    }
+
+    public synchronized void stop(){
+
+        running = false;
+        pendingTickNanos = -1;
+    }
+
+    public synchronized boolean isRunning(){
+
+        return running;
+    }
+
+    public synchronized boolean poll(boolean pipelineReady){
+
+        //Called whenever the scheduler wakes up. Returns true if a shot should be taken now.
+        if(!running){
+
+            return false;
+        }
+
+        long now = clock.nanoTime();
+
+        if(now >= nextTickNanos){
+
+            //Every tick that has come due since the last poll, but only the latest one can still be taken.
+            long due = (now - nextTickNanos) / intervalNanos + 1;
+            long missed = due - 1 + (pendingTickNanos >= 0 ? 1 : 0);
+
+            pendingTickNanos = nextTickNanos + (due - 1) * intervalNanos;
+            nextTickNanos += due * intervalNanos;
+            ticks += due;
+
+            if(missPolicy == MissPolicy.SKIP){
+
+                skipped += missed;
+
+            }else{
+
+                coalesced += missed;
+            }
+        }
+
+        if(pendingTickNanos < 0){
+
+            return false;
+        }
+
+        if(pipelineReady){
+
+            recordShot(now, pendingTickNanos);
+            pendingTickNanos = -1;
+
+            return true;
+        }
+
+        if(missPolicy == MissPolicy.SKIP){
+
+            skipped++;
+            pendingTickNanos = -1;
+        }
+
+        return false;
+    }
+
+    private void recordShot(long now, long tick){
+
+        jitterMillis.record(TimeUnit.NANOSECONDS.toMillis(now - tick));
+
+        if(lastShotNanos >= 0){
+
+            intervalMillis.record(TimeUnit.NANOSECONDS.toMillis(now - lastShotNanos));
+
+        }else{
+
+            firstShotNanos = now;
+        }
+
+        lastShotNanos = now;
+        shots++;
+    }
+
+    public synchronized long getDelayNanos(){
+
+        //How long until poll should be called again, or -1 once stopped. A tick waiting for the pipeline is
+        //retried sooner than the next tick.
+        if(!running){
+
+            return -1;
+        }
+
+        long untilTick = nextTickNanos - clock.nanoTime();
+
+        if(pendingTickNanos >= 0){
+
+            untilTick = Math.min(untilTick, retryNanos);
+        }
+
+        return Math.max(0, untilTick);
+    }
+
+    public long getIntervalNanos(){
+
+        return intervalNanos;
+    }
+
+    public synchronized long getAchievedIntervalNanos(){
+
+        //The average from the first shot to the last one, 0 until there are two.
+        return shots > 1 ? (lastShotNanos - firstShotNanos) / (shots - 1) : 0;
+    }
+
+    public synchronized long getTickCount(){
+
+        return ticks;
+    }
+
+    public synchronized long getShotCount(){
+
+        return shots;
+    }
+
+    public synchronized long getSkippedCount(){
+
+        return skipped;
+    }
+
+    public synchronized long getCoalescedCount(){
+
+        return coalesced;
+    }
+
+    public Histogram getJitterMillis(){
+
+        //How late each shot was against its tick.
+        return new Histogram(jitterMillis);
+    }
+
+    public Histogram getIntervalMillis(){
+
+        return new Histogram(intervalMillis);
+    }
+
+    @Override
+    public synchronized String toString(){
+
+        return String.format(Locale.US, "Interval capture: target %d ms, achieved %.1f ms, %d shots of %d ticks, %d skipped, %d coalesced, jitter p50 %d ms p95 %d ms",
+                TimeUnit.NANOSECONDS.toMillis(intervalNanos), getAchievedIntervalNanos() / 1e6, shots, ticks, skipped, coalesced,
+                jitterMillis.getPercentile(50), jitterMillis.getPercentile(95));
+    }
+}
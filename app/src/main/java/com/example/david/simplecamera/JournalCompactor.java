@@ -0,0 +1,139 @@
+package com.example.david.simplecamera;
+
+//Description: Promotes the entries of a CaptureJournal into an ImageSink and trims the journal behind them. Runs on
+//the save workers, both for freshly captured images and to replay whatever an earlier run left pending.
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class JournalCompactor {
+
+    private final static int STREAM_CHUNK_SIZE = 64 * 1024;
+
+    private final CaptureJournal journal;
+    private final ImageSink imageSink;
+    private final BufferPool bufferPool;
+
+    private final AtomicLong promoted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong corrupt = new AtomicLong();
+
+    public JournalCompactor(CaptureJournal captureJournal, ImageSink sink, BufferPool pool){
+
+        if(captureJournal == null || sink == null){
+
+            throw new NullPointerException();
+        }
+
+        journal = captureJournal;
+        imageSink = sink;
+        bufferPool = pool;
+    }
+
+    public boolean promote(CaptureJournal.Entry entry, CaptureMetadata metadata){
+
+        //Writes a claimed entry into the sink, then marks it done and trims the journal. An entry that fails to
+        //write is left pending for the next replay. If the process dies after the write but before the entry is
+        //marked done, the replay writes the image a second time under the same title. The metadata isn't
+        //journaled, so a replayed image keeps the Exif data the camera wrote.
+        ByteBuffer payload = journal.getPayload(entry);
+
+        if(!JpegStreamWriter.isJpeg(payload)){
+
+            //Can never be saved, so there is no point keeping it around.
+            corrupt.incrementAndGet();
+            finish(entry);
+
+            return false;
+        }
+
+        byte[] chunk = bufferPool != null ? bufferPool.acquire(STREAM_CHUNK_SIZE) : new byte[STREAM_CHUNK_SIZE];
+
+        try{
+
+            new JpegStreamWriter(imageSink, chunk).write(payload, entry.title, metadata);
+
+        }catch(IOException e){
+
+            e.printStackTrace();
+            failed.incrementAndGet();
+            journal.unclaim(entry);
+
+            return false;
+
+        }finally{
+
+            if(bufferPool != null){
+
+                bufferPool.release(chunk);
+            }
+        }
+
+        promoted.incrementAndGet();
+        finish(entry);
+
+        return true;
+    }
+
+    private void finish(CaptureJournal.Entry entry){
+
+        journal.markDone(entry);
+        journal.trim();
+    }
+
+    public int replay(){
+
+        //Promotes every pending entry nobody else is working on and returns how many made it into the sink.
+        int count = 0;
+
+        for(CaptureJournal.Entry entry : journal.getPendingEntries()){
+
+            if(journal.claim(entry) && promote(entry, null)){
+
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    public SaveTask newSaveTask(final CaptureJournal.Entry entry, final CaptureMetadata metadata, final ShotLatencyRecorder recorder, final long shot){
+
+        //The entry has to be claimed already. A task the save executor drops leaves its entry for the next replay.
+        return new SaveTask() {
+
+            @Override
+            public void run() {
+
+                promote(entry, metadata);
+
+                if(recorder != null){
+
+                    recorder.mark(shot, ShotLatencyRecorder.Stage.PERSISTED);
+                }
+            }
+
+            @Override
+            public void discard() {
+
+                journal.unclaim(entry);
+            }
+        };
+    }
+
+    public long getPromotedCount(){
+
+        return promoted.get();
+    }
+
+    public long getFailedCount(){
+
+        return failed.get();
+    }
+
+    public long getCorruptCount(){
+
+        return corrupt.get();
+    }
+}
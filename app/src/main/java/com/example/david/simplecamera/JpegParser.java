@@ -0,0 +1,141 @@
+package com.example.david.simplecamera;
+
+//Description: Walks the header segments of an encoded JPEG without decoding it. All offsets are
+//relative to the position of the buffer, and the buffer itself is never moved.
+
+import java.nio.ByteBuffer;
+
+public class JpegParser {
+
+    public final static int MARKER_SOI = 0xD8;
+    public final static int MARKER_EOI = 0xD9;
+    public final static int MARKER_SOS = 0xDA;
+    public final static int MARKER_APP0 = 0xE0;
+    public final static int MARKER_APP1 = 0xE1;
+
+    private final static int ANY_FRAME = -1;
+
+    private JpegParser(){
+
+    }
+
+    public static boolean hasSoi(ByteBuffer jpeg){
+
+        return JpegStreamWriter.isJpeg(jpeg);
+    }
+
+    public static int findSegment(ByteBuffer jpeg, int marker){
+
+        //Returns the offset of the 0xFF that starts the first header segment with this marker,
+        //or -1 if the header ends (or is broken) before one is found.
+        return find(jpeg, marker, 2);
+    }
+
+    public static int findNextSegment(ByteBuffer jpeg, int marker, int previousOffset){
+
+        //Like findSegment, but starts looking after the segment at previousOffset. Used for markers like APP1
+        //that can appear more than once.
+        if(previousOffset < 2 || previousOffset + 4 > jpeg.remaining()){
+
+            return -1;
+        }
+
+        return find(jpeg, marker, previousOffset + 2 + segmentLength(jpeg, previousOffset));
+    }
+
+    public static int segmentLength(ByteBuffer jpeg, int offset){
+
+        //The length stored after the marker, which counts the two length bytes but not the marker.
+        int base = jpeg.position();
+
+        return ((jpeg.get(base + offset + 2) & 0xFF) << 8) | (jpeg.get(base + offset + 3) & 0xFF);
+    }
+
+    public static int[] readDimensions(ByteBuffer jpeg){
+
+        //Returns {width, height} from the start of frame segment, or null if there isn't a valid one.
+        int offset = find(jpeg, ANY_FRAME, 2);
+
+        //The segment may claim more than the buffer holds, if the JPEG was cut off in the middle of it.
+        if(offset < 0 || segmentLength(jpeg, offset) < 7 || offset + 9 > jpeg.remaining()){
+
+            return null;
+        }
+
+        int base = jpeg.position() + offset;
+        int height = ((jpeg.get(base + 5) & 0xFF) << 8) | (jpeg.get(base + 6) & 0xFF);
+        int width = ((jpeg.get(base + 7) & 0xFF) << 8) | (jpeg.get(base + 8) & 0xFF);
+
+        return new int[]{width, height};
+    }
+
+    public static boolean isStartOfFrame(int marker){
+
+        //SOF0 to SOF15, leaving out DHT, JPG and DAC which share the range.
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static int find(ByteBuffer jpeg, int wanted, int start){
+
+        if(!hasSoi(jpeg)){
+
+            return -1;
+        }
+
+        int base = jpeg.position();
+        int limit = jpeg.remaining();
+        int offset = start;
+
+        while(offset + 1 < limit){
+
+            if((jpeg.get(base + offset) & 0xFF) != 0xFF){
+
+                //Header segments have to follow each other directly.
+                return -1;
+            }
+
+            int marker = jpeg.get(base + offset + 1) & 0xFF;
+
+            if(marker == 0xFF){
+
+                //Fill byte before the real marker.
+                offset++;
+                continue;
+            }
+
+            if(marker == wanted || (wanted == ANY_FRAME && isStartOfFrame(marker))){
+
+                return offset + 4 <= limit ? offset : -1;
+            }
+
+            if(marker == MARKER_SOS || marker == MARKER_EOI){
+
+                //The entropy coded data starts here, so there are no more header segments.
+                return -1;
+            }
+
+            if(marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)){
+
+                //Markers that stand on their own without a length.
+                offset += 2;
+                continue;
+            }
+
+            if(offset + 4 > limit){
+
+                return -1;
+            }
+
+            int length = segmentLength(jpeg, offset);
+
+            if(length < 2){
+
+                return -1;
+            }
+
+            offset += 2 + length;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.david.simplecamera;
+
+//Description: Streams the already encoded bytes of a JPEG into an ImageSink without decoding or re-encoding them.
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.TimeZone;
+
+public class JpegStreamWriter {
+
+    public final static String JPEG_MIME_TYPE = "image/jpeg";
+    private final static int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final ImageSink imageSink;
+    private final byte[] chunk;
+
+    public JpegStreamWriter(ImageSink sink){
+
+        this(sink, new byte[DEFAULT_CHUNK_SIZE]);
+    }
+
+    public JpegStreamWriter(ImageSink sink, byte[] scratch){
+
+        if(sink == null || scratch == null || scratch.length == 0){
+
+            throw new IllegalArgumentException("Error: a sink and a non empty scratch buffer are required!");
+        }
+
+        imageSink = sink;
+        chunk = scratch;
+    }
+
+    public long write(ByteBuffer jpegBuffer, String title) throws IOException {
+
+        //Writes the remaining bytes of the buffer as a single image and returns the number of bytes written.
+        //The position of the buffer passed in is left untouched.
+        return write(jpegBuffer, title, null);
+    }
+
+    public long write(ByteBuffer jpegBuffer, String title, CaptureMetadata metadata) throws IOException {
+
+        //With metadata, its Exif data is spliced in on the way through. Without, the bytes are copied unchanged.
+
+        if(!isJpeg(jpegBuffer)){
+
+            throw new IOException("Error: " + title + " does not start with a JPEG SOI marker!");
+        }
+
+        OutputStream out = imageSink.openStream(title, JPEG_MIME_TYPE);
+        boolean finished = false;
+        long written;
+
+        try{
+
+            written = metadata != null ? ExifSplicer.splice(jpegBuffer, metadata, TimeZone.getDefault(), out, chunk) : copy(jpegBuffer, out, chunk);
+            out.close();
+            imageSink.commit(title);
+            finished = true;
+
+        }finally{
+
+            if(!finished){
+
+                closeQuietly(out);
+                imageSink.discard(title);
+            }
+        }
+
+        return written;
+    }
+
+    public static long copy(ByteBuffer source, OutputStream out, byte[] scratch) throws IOException {
+
+        ByteBuffer buffer = source.duplicate();
+        long written = buffer.remaining();
+
+        if(buffer.hasArray()){
+
+            //Heap buffers can be written straight from their backing array.
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+
+        }else{
+
+            //Direct buffers (like the planes of an Image) have to go through the scratch array a chunk at a time.
+            while(buffer.hasRemaining()){
+
+                int length = Math.min(scratch.length, buffer.remaining());
+
+                buffer.get(scratch, 0, length);
+                out.write(scratch, 0, length);
+            }
+        }
+
+        return written;
+    }
+
+    public static boolean isJpeg(ByteBuffer buffer){
+
+        //A JPEG always starts with the SOI marker 0xFFD8.
+        int position = buffer.position();
+
+        return buffer.remaining() >= 2 && (buffer.get(position) & 0xFF) == 0xFF && (buffer.get(position + 1) & 0xFF) == 0xD8;
+    }
+
+    private static void closeQuietly(OutputStream out){
+
+        try{
+
+            out.close();
+
+        }catch(IOException e){
+
+            //The image is being discarded anyway.
+        }
+    }
+}
@@ -8,29 +8,28 @@ package com.example.david.simplecamera;
 import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
 import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.graphics.SurfaceTexture;
-import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
-import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.CaptureRequest;
-import android.hardware.camera2.CaptureResult;
-import android.hardware.camera2.TotalCaptureResult;
-import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
+import android.media.MediaScannerConnection;
 import android.os.Build;
+import android.os.Environment;
 import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.util.Log;
+import android.util.Size;
 import android.view.Display;
 import android.view.Surface;
 import android.view.TextureView;
@@ -38,114 +37,374 @@ import android.view.View;
 import android.view.WindowManager;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
+import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MainActivity extends AppCompatActivity {
 
+    private final static String TAG = "SimpleCamera";
     private final static int CAMERA_PERMISSION = 1;
     private final static int STORAGE_PERMISSION = 2;
     private final static int CAMERA_AND_STORAGE_PERMISSION = 3;
     private final static int MAX_PREVIEW_WIDTH = 1920;
     private final static int MAX_PREVIEW_HEIGHT = 1080;
-
-    private final static int STATE_PREVIEW = 0;
-    private final static int STATE_WAITING_AUTO_FOCUS = 1;
-    private final static int STATE_WAITING_LOCK = 2;
-    private final static int STATE_WAITING_PRECAPTURE = 3;
-    private final static int STATE_WAITING_NON_PRECAPTURE = 4;
-    private final static int STATE_PICTURE_TAKEN = 5;
+    private final static int PREVIEW_FPS = 30;
+    private final static int BURST_FPS = 5;
+    private final static int BURST_SIZE = 8;
+    private final static int IMAGE_READER_HEADROOM = 2;
+    private final static int SAVE_WORKERS = 2;
+    private final static int SAVE_QUEUE_CAPACITY = BURST_SIZE * 2;
+    private final static long SAVE_DRAIN_GRACE_MILLIS = 1000;
+    private final static long QUALITY_CHECK_MILLIS = 500;
+    private final static int MAX_JPEG_QUALITY = 95;
+    private final static int MIN_JPEG_QUALITY = 70;
+    private final static int JPEG_QUALITY_STEP = 5;
+    private final static int MIN_BURST_SIZE = 3;
+    private final static int MAX_STILL_SIZE_STEPS = 2;
+    private final static long SAVE_LATENCY_BUDGET_MILLIS = 1500;
+    private final static int QUALITY_DEGRADE_AFTER = 2;
+    private final static int QUALITY_RECOVER_AFTER = 6;
+
+    private final static long CAPTURE_TIMEOUT_CHECK_MILLIS = 100;
+    private final static int LATENCY_HISTORY = 256;
+    private final static String LATENCY_DUMP_NAME = "shot_latency.csv";
+    private final static int ZERO_SHUTTER_LAG_FRAMES = 4;
+    private final static String PICTURE_DIRECTORY_NAME = "SimpleCamera";
+    private final static int IMAGE_BATCH_SIZE = BURST_SIZE;
+    private final static long IMAGE_BATCH_AGE_MILLIS = 1000;
+    public final static String EXTRA_YUV_CAPTURE = "com.example.david.simplecamera.YUV_CAPTURE";
+    private final static int YUV_MIN_STRIP_ROWS = 64;
+    private final static String CAMERA_INFO_SNAPSHOT_NAME = "camera_info.bin";
+    private final static long STARTUP_BUDGET_MILLIS = 500;
+    private final static String STARTUP_TRACE_NAME = "startup_trace.csv";
+    public final static String EXTRA_MEASURE_STARTUP = "com.example.david.simplecamera.MEASURE_STARTUP";
+    public final static String EXTRA_INTERVAL_MILLIS = "com.example.david.simplecamera.INTERVAL_MILLIS";
+    private final static int STARTUP_CAMERA_READY = 1;
+    private final static int STARTUP_SURFACE_READY = 2;
+    public final static String EXTRA_PREVIEW_ANALYSIS = "com.example.david.simplecamera.PREVIEW_ANALYSIS";
+    private final static int ANALYSIS_MIN_LONG_EDGE = 320;
+    private final static int ANALYSIS_READER_IMAGES = 2;
+    private final static int MEAN_LUMA_STEP = 4;
+    private final static String CAPTURE_JOURNAL_NAME = "capture_journal.bin";
+    private final static int CAPTURE_JOURNAL_CAPACITY = 64 * 1024 * 1024;
+    private final static int THUMBNAIL_LONG_EDGE = 256;
+    private final static int THUMBNAIL_CACHE_BYTES = 4 * 1024 * 1024;
+    private final static long METADATA_WAIT_MILLIS = 300;
+    private final static int METADATA_MATCHER_CAPACITY = SAVE_QUEUE_CAPACITY;
+    private final static long INTERVAL_RETRY_MILLIS = 50;
+    private final static int INTERVAL_MAX_QUEUE_DEPTH = SAVE_WORKERS;
+    private final static int FRAME_METADATA_FRAMES = PREVIEW_FPS * 4;
+    public final static String EXTRA_VIDEO_RECORDING = "com.example.david.simplecamera.VIDEO_RECORDING";
+    private final static int VIDEO_BIT_RATE = 10000000;
+    private final static long VIDEO_STOP_TIMEOUT_MILLIS = 2000;
+    public final static String EXTRA_MULTI_CAMERA = "com.example.david.simplecamera.MULTI_CAMERA";
+    private final static int MULTI_CAMERA_MIN_LONG_EDGE = 640;
+    private final static int MULTI_CAMERA_DEFAULT_WIDTH = 640;
+    private final static int MULTI_CAMERA_DEFAULT_HEIGHT = 480;
+    private final static double MULTI_CAMERA_ASPECT_RATIO = 4.0 / 3.0;
+    private final static int MULTI_CAMERA_FPS = 15;
+    private final static int MULTI_CAMERA_QUEUE_CAPACITY = 4;
+    private final static int MULTI_CAMERA_FRAMES_PER_TURN = 30;
+    private final static int MULTI_CAMERA_CHUNK_SIZE = 64 * 1024;
 
     private String cameraId;
-    private CameraDevice camera;
+    private Camera2Backend cameraBackend;
+    private volatile boolean sessionReady;
     private CameraManager cameraManager;
-    private CameraCharacteristics thisCameraCharacteristics;
-    private int cameraCaptureRequestState = STATE_PREVIEW;
-    private StreamConfigurationMap cameraConfigurationMap;
-    private String[] cameraIds;
+    private CameraInfoCache cameraInfoCache;
+    private CameraInfo cameraInfo;
+    private boolean cameraInfoSnapshotRead;
+    private volatile boolean cameraInfoRefreshed;
 
-    private final String backgroundThreadName = "Camera Background Thread";
-    private HandlerThread backgroundThread;
     private Handler backgroundHandler;
+    private final String analysisThreadName = "Preview Analyzer";
+    private final String thumbnailThreadName = "Thumbnail Decoder";
+    private SaveExecutor saveExecutor;
     private Semaphore cameraLock = new Semaphore(1);
-    private Semaphore captureRequestLock = new Semaphore(1);
-    private boolean capturing = false;
+    private CaptureStateMachine captureStateMachine;
+    private final CaptureResultAdapter captureResultAdapter = new CaptureResultAdapter();
+    private final ShotLatencyRecorder latencyRecorder = new ShotLatencyRecorder(LATENCY_HISTORY, Clock.SYSTEM);
+    private final FrameMetadataStore frameMetadata = new FrameMetadataStore(FRAME_METADATA_FRAMES);
+    private volatile long currentShot = ShotLatencyRecorder.NO_SHOT;
+    private int requestedBurstSize = 1;
+    private BurstTracker burstTracker;
+    private volatile IntervalScheduler intervalScheduler;
+    private boolean intervalLocksHeld;
+    private boolean videoMode;
+    private boolean multiCameraMode;
+    //Only touched on the camera thread.
+    private MultiCameraSession multiCameraSession;
+    private final List<Camera2Backend> multiCameraBackends = new ArrayList<>();
+    private boolean multiCameraPending;
+    private volatile VideoRecorder videoRecorder;
+    //Recordings whose camera is still closing. They are finished once the close has been answered.
+    private final List<VideoRecorder> closingRecorders = new ArrayList<>();
+
+    private final RequestCache<CameraBackend.Request> requestCache = new RequestCache<>(new RequestCache.Factory<CameraBackend.Request>() {
+
+        @Override
+        public CameraBackend.Request build(RequestCache.Variant variant) {
 
-    private CaptureRequest.Builder captureRequestBuilder;
-    private CaptureRequest captureRequest;
-    private CameraCaptureSession cameraCaptureSession;
+            return buildRequest(variant);
+        }
+    });
+    //The session's streams in the order createCameraPreview hands them to the backend.
+    private int[] previewStreams;
+    private int[] stillStreams;
     private TextureView cameraTextureView;
     private ImageReader cameraImageReader;
+    private StreamSizeSelector.StreamSize previewSize;
+    private StreamSizeSelector.StreamSize stillSize;
+    private ImageReader zeroShutterLagImageReader;
+    private boolean realtimeSensorTimestamps;
+    private final FrameRing<Image> zeroShutterLagFrames = new FrameRing<>(ZERO_SHUTTER_LAG_FRAMES, new FrameRing.Recycler<Image>() {
+
+        @Override
+        public void recycle(Image frame) {
+
+            frame.close();
+        }
+    });
+    private ImageSink imageSink;
+    private BatchedImageWriter batchedImageWriter;
+    private int captureFormat = ImageFormat.JPEG;
+    private YuvJpegEncoder yuvEncoder;
+    private final BufferPool bufferPool = new BufferPool();
+    private static volatile CaptureJournal captureJournal;
+    //Shared by every instance of the activity for the life of the process. Saves still converting when an
+    //activity is destroyed keep their workers.
+    private static ForkJoinPool yuvPool;
+    //Set once the journal has been loaded on a save worker. Until then images are saved straight from the reader.
+    private volatile JournalCompactor journalCompactor;
+    private final AtomicLong captureIds = new AtomicLong();
+    private final ThumbnailCache<Bitmap> thumbnailCache = new ThumbnailCache<>(THUMBNAIL_CACHE_BYTES, ThumbnailGenerator.BITMAP_SIZER);
+    private ThumbnailGenerator thumbnailGenerator;
+    private StreamSizeSelector.StreamSize thumbnailSize;
+    private ImageView lastShotThumbnail;
+    private final QualityController qualityController = new QualityController(new QualityController.Limits(MAX_JPEG_QUALITY, MIN_JPEG_QUALITY, JPEG_QUALITY_STEP,
+            BURST_SIZE, MIN_BURST_SIZE, MAX_STILL_SIZE_STEPS, SAVE_QUEUE_CAPACITY / 2, 1, SAVE_LATENCY_BUDGET_MILLIS * 1000000L), QUALITY_DEGRADE_AFTER, QUALITY_RECOVER_AFTER);
+    private ThermalSource thermalSource;
+    private ExecutorService analysisExecutor;
+    private ExecutorService thumbnailExecutor;
+    private AnalysisPipeline analysisPipeline;
+    private ImageReader analysisImageReader;
     private Surface surface;
-    private int textureViewHeight;
-    private int textureViewWidth;
+    private volatile int textureViewHeight;
+    private volatile int textureViewWidth;
+    private final StartupTrace startupTrace = new StartupTrace(Clock.SYSTEM, STARTUP_BUDGET_MILLIS * 1000000L);
+    private boolean measureStartup;
 
     private int capturePortHeight;
     private int capturePortWidth;
     private boolean cameraPermission;
     private boolean storagePermission;
 
+    //Still images acquired from the reader that haven't been closed yet. The save queue holds more images than the
+    //reader has, so acquiring stops one short of the reader's maxImages and picks up again as images are closed.
+    private final Set<Image> heldStillImages = Collections.newSetFromMap(new ConcurrentHashMap<Image, Boolean>());
+    //Zero shutter lag frames taken out of the ring for a shot that haven't been closed yet. They count against the
+    //same reader as the ring, so both are capped together.
+    private final Set<Image> heldZeroShutterLagFrames = Collections.newSetFromMap(new ConcurrentHashMap<Image, Boolean>());
+
     private final ImageReader.OnImageAvailableListener onImageAvailable = new ImageReader.OnImageAvailableListener(){
 
         @Override
         public void onImageAvailable(ImageReader reader) {
 
-            Image image = reader.acquireLatestImage();
+            //Drain every queued image rather than only the latest one, otherwise the frames of a burst
+            //would be dropped and the reader would run out of images to hand out.
+            Image image;
 
-            ImageSaver imageSaver = createImageSaver(image);
-            backgroundHandler.post(imageSaver);
+            while(heldStillImages.size() < reader.getMaxImages() - 1 && (image = reader.acquireNextImage()) != null){
 
-            turnOffFlash();
-            unlockFocus();
-            capturing = false;
+                heldStillImages.add(image);
+                latencyRecorder.mark(currentShot, ShotLatencyRecorder.Stage.IMAGE_AVAILABLE);
+
+                //Saving happens on the save workers so the camera thread stays free for capture callbacks.
+                queueSave(image);
+
+                if(burstTracker != null && burstTracker.onFrame(System.nanoTime())){
+
+                    finishCapture();
+                }
+            }
         }
 
-        private ImageSaver createImageSaver(Image image){
+        private void finishCapture(){
+
+            if(burstTracker.getBurstSize() > 1){
+
+                Log.d(TAG, burstTracker.toString());
+            }
+
+            if(requestCache.getBuildsThisShot() > 0){
+
+                Log.d(TAG, "Built " + requestCache.getBuildsThisShot() + " capture requests during the shot");
+            }
 
-            return new ImageSaver(image, getContentResolver());
+            burstTracker = null;
+            releaseOrHoldLocks();
+            captureStateMachine.reset();
         }
     };
 
-    //Callback methods for accessing the CameraDevice.
-    private final CameraDevice.StateCallback cameraDeviceStateCallback = new CameraDevice.StateCallback() {
+    private final ImageSaver.ImageClosedListener onHeldImageClosed = new ImageSaver.ImageClosedListener() {
 
         @Override
-        public void onOpened(@NonNull CameraDevice c) {
+        public void onImageClosed(Image image) {
 
-            //This gets called when the camera has been opened.
-            cameraId = c.getId();
-            camera = c;
-            getCameraCharacteristics();
-            createCameraPreview();
+            //Images left waiting in the reader while it was at the cap are only picked up by another drain.
+            if(heldStillImages.remove(image)){
+
+                backgroundHandler.post(drainStillImages);
+
+            }else if(heldZeroShutterLagFrames.remove(image)){
+
+                backgroundHandler.post(drainZeroShutterLagFrames);
+            }
         }
+    };
+
+    private final Runnable drainStillImages = new Runnable() {
 
         @Override
-        public void onDisconnected(@NonNull CameraDevice c) {
+        public void run() {
 
-            //This gets called when the camera has been disconnected.
-            cameraId = null;
-            camera = null;
+            if(cameraImageReader != null){
+
+                onImageAvailable.onImageAvailable(cameraImageReader);
+            }
+        }
+    };
+
+    //Keeps the most recent full resolution frames of the repeating request for zero shutter lag.
+    private final ImageReader.OnImageAvailableListener onZeroShutterLagImageAvailable = new ImageReader.OnImageAvailableListener() {
+
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+
+            Image image;
+
+            //A frame taken for a shot stays open until it is journaled or saved, so a few quick presses could use
+            //up the reader. Like the still reader, acquiring stops one short of maxImages, and a frame being
+            //closed picks it up again.
+            while(zeroShutterLagFrames.size() + heldZeroShutterLagFrames.size() < reader.getMaxImages() - 1 && (image = reader.acquireNextImage()) != null){
+
+                zeroShutterLagFrames.add(image, image.getTimestamp());
+            }
+        }
+    };
+
+    private final Runnable drainZeroShutterLagFrames = new Runnable() {
+
+        @Override
+        public void run() {
+
+            if(zeroShutterLagImageReader != null){
+
+                onZeroShutterLagImageAvailable.onImageAvailable(zeroShutterLagImageReader);
+            }
+        }
+    };
+
+    private final ImageReader.OnImageAvailableListener onAnalysisImageAvailable = new ImageReader.OnImageAvailableListener() {
+
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+
+            //Older frames still in the reader are skipped here already. The planes are copied out so the image
+            //goes straight back to the camera, and the pipeline drops the copy if the analyzers are still busy.
+            Image image = reader.acquireLatestImage();
+
+            if(image == null){
+
+                return;
+            }
+
+            YuvFrame frame = new YuvFrame(image.getWidth(), image.getHeight());
+            Image.Plane[] planes = image.getPlanes();
+            long timestamp = image.getTimestamp();
+
+            for(int i = 0; i < planes.length; i++){
+
+                frame.copyPlane(i, planes[i].getBuffer(), planes[i].getRowStride(), planes[i].getPixelStride(), bufferPool);
+            }
+
+            image.close();
+            analysisPipeline.offer(frame, timestamp);
+        }
+    };
+
+    private final Runnable finishClosingRecordings = new Runnable() {
+
+        @Override
+        public void run() {
+
+            List<VideoRecorder> recorders;
+
+            synchronized(MainActivity.this){
+
+                recorders = new ArrayList<>(closingRecorders);
+                closingRecorders.clear();
+            }
+
+            for(VideoRecorder recorder : recorders){
+
+                finishRecording(recorder);
+            }
         }
+    };
+
+    private final Runnable startCameraPreview = new Runnable() {
 
         @Override
-        public void onError(@NonNull CameraDevice camera, int error) {
+        public void run() {
 
-            //This method gets called when the camera encounters an error.
-            //Should probably disconnect the CameraDevice when this method gets called
-            //and show an error.
-            throw new RuntimeException("Camera Error: " + error);
+            createCameraPreview();
         }
     };
 
+    //Opens the preview session as soon as both the camera and the preview surface are ready, whichever comes last.
+    private final StartupGate startupGate = new StartupGate(STARTUP_CAMERA_READY | STARTUP_SURFACE_READY, new Runnable() {
+
+        @Override
+        public void run() {
+
+            Handler handler = backgroundHandler;
+
+            if(handler != null){
+
+                handler.post(startCameraPreview);
+            }
+        }
+    });
+
     //Listener for TextureView state changes.
     private final TextureView.SurfaceTextureListener surfaceTextureListener = new TextureView.SurfaceTextureListener() {
         @Override
         public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
 
-            //Since the Surface Texture is ready now we can acquire the camera.
-            openCamera();
+            //The camera is opened in parallel, so this only has to say that the preview can be attached.
+            onPreviewSurfaceReady(width, height);
         }
 
         @Override
@@ -156,571 +415,1965 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
 
+            startupGate.clear(STARTUP_SURFACE_READY);
             return true;
         }
 
         @Override
         public void onSurfaceTextureUpdated(SurfaceTexture surface) {
 
+            //The first preview frame has been drawn.
+            if(startupTrace.mark(StartupTrace.Milestone.FIRST_FRAME)){
+
+                reportStartup();
+            }
 
         }
     };
 
-    private CameraCaptureSession.CaptureCallback captureCallbackListener = new CameraCaptureSession.CaptureCallback() {
+    //What the activity adds to the backend's requests: the template for recording and the JPEG settings.
+    private final Camera2Backend.RequestSettings requestSettings = new Camera2Backend.RequestSettings() {
 
         @Override
-        public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
-            super.onCaptureStarted(session, request, timestamp, frameNumber);
+        public int getTemplate(RequestCache.Variant variant) {
+
+            if(Camera2Backend.isStill(variant)){
+
+                return CameraDevice.TEMPLATE_STILL_CAPTURE;
+            }
 
+            return videoRecorder != null ? CameraDevice.TEMPLATE_RECORD : CameraDevice.TEMPLATE_PREVIEW;
         }
 
         @Override
-        public void onCaptureProgressed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureResult partialResult) {
-            super.onCaptureProgressed(session, request, partialResult);
+        public void apply(RequestCache.Variant variant, CaptureRequest.Builder builder) {
 
+            if(Camera2Backend.isStill(variant)){
+
+                builder.set(CaptureRequest.JPEG_ORIENTATION, 90);
+                builder.set(CaptureRequest.JPEG_QUALITY, (byte) qualityController.getSettings().jpegQuality);
+                setThumbnailSize(builder);
+
+            }else if(zeroShutterLagImageReader != null){
+
+                //The repeating request feeds the zero shutter lag ring, whose frames carry a thumbnail too.
+                setThumbnailSize(builder);
+            }
         }
+    };
+
+    //Everything the camera sends back, on the camera thread.
+    private final CameraBackend.Listener cameraListener = new CameraBackend.Listener() {
 
         @Override
-        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
-            super.onCaptureCompleted(session, request, result);
+        public void onOpened(String id) {
 
-            processCapture(result);
+            cameraId = id;
+            startupTrace.mark(StartupTrace.Milestone.CAMERA_OPENED);
+            cameraInfo = cameraInfoCache.get(cameraId);
 
+            //The readers don't need the preview surface, so they are made while the view may still be inflating.
+            createCaptureOutputs();
+            startupTrace.mark(StartupTrace.Milestone.OUTPUTS_READY);
+            startupGate.ready(STARTUP_CAMERA_READY);
         }
 
-        private void processCapture(CaptureResult result){
+        @Override
+        public void onSessionConfigured() {
+
+            sessionReady = true;
+            startupTrace.mark(StartupTrace.Milestone.SESSION_CONFIGURED);
+            cameraBackend.setRepeatingRequest(requestCache.get(RequestCache.Variant.PREVIEW));
 
-            switch(cameraCaptureRequestState){
-                case STATE_PREVIEW:
-                    break;
-                case STATE_WAITING_AUTO_FOCUS:
-                    //autoFocusSet(result);
-                    captureImage();
-                    break;
-                /*case STATE_WAITING_LOCK:
-                    autoFocusLocked(result);
-                    break;
-                case STATE_WAITING_PRECAPTURE:
-                    waitForPreCapture(result);
-                    break;*/
-                default:
-                    break;
+            //Everything else a shot needs is built now, while the user is still framing.
+            requestCache.prebuild();
+
+            backgroundHandler.removeCallbacks(qualityCheck);
+            backgroundHandler.postDelayed(qualityCheck, QUALITY_CHECK_MILLIS);
+
+            if(intervalScheduler != null){
+
+                //Each session starts the interval grid again.
+                intervalScheduler.start();
+                backgroundHandler.removeCallbacks(intervalTick);
+                backgroundHandler.post(intervalTick);
+            }
+
+            //The preview is running, so now the characteristics can be checked against a live query.
+            if(!cameraInfoRefreshed){
+
+                cameraInfoRefreshed = true;
+                backgroundHandler.post(refreshCameraInfo);
             }
         }
 
-        private void autoFocusSet(CaptureResult result){
+        @Override
+        public void onError(String message) {
+
+            //The camera is gone until the activity is resumed again.
+            Log.e(TAG, message);
+            startupGate.clear(STARTUP_CAMERA_READY);
+            sessionReady = false;
+            cameraId = null;
+        }
 
-            //Method used to make sure that the Auto Focus routine is set to Auto.
-            //Once it's set the state will change so that it can begin focusing.
+        @Override
+        public void onClosed(String id) {
 
-            Integer autoFocusMode = result.get(CaptureResult.CONTROL_AF_MODE);
+            finishClosingRecordings.run();
 
-            if(autoFocusMode == CaptureResult.CONTROL_AF_MODE_AUTO){
+            //The preview camera has made way for a multi-camera capture.
+            if(multiCameraPending){
 
-                lockFocus();
+                multiCameraPending = false;
+                runMultiCameraSession();
             }
         }
 
-        private void autoFocusLocked(CaptureResult result){
+        @Override
+        public void onCaptureCompleted(CameraBackend.Request request, CameraBackend.Result result) {
+
+            long sensorTimestamp = result.getTimestamp();
 
-            //Auto Focus is working and we should wait until it is done.
+            if(Camera2Backend.isStill(request.variant)){
 
-            Integer autoFocusState = result.get(CaptureResult.CONTROL_AF_STATE);
+                //The still frames of a shot have been captured.
+                latencyRecorder.mark(currentShot, ShotLatencyRecorder.Stage.CAPTURE_COMPLETED);
 
-            if(autoFocusState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED || autoFocusState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED){
+                if(sensorTimestamp != CaptureMetadata.UNKNOWN){
 
-                //The focus is ready.
-                Integer autoExposureState = result.get(CaptureResult.CONTROL_AE_STATE);
+                    metadataMatcher.offerResult(sensorTimestamp, result.metadata);
+                }
 
-                if(autoExposureState == null || autoExposureState == CaptureResult.CONTROL_AE_STATE_CONVERGED || autoExposureState == CaptureResult.CONTROL_AE_STATE_INACTIVE){
+                return;
+            }
 
-                    //The auto exposure has converged and indicates that a flash is not required.
-                    cameraCaptureRequestState = STATE_PICTURE_TAKEN;
-                    captureImage();
-                }else{
+            if(zeroShutterLagImageReader != null && sensorTimestamp != CaptureMetadata.UNKNOWN){
+
+                //A buffered frame only becomes usable once its result has come back. Its metadata is kept for
+                //a while in case the frame gets saved.
+                zeroShutterLagFrames.onResult(sensorTimestamp);
+                metadataMatcher.offerResult(sensorTimestamp, result.metadata);
+            }
+
+            recordFrameMetadata(result);
+
+            //The state machine only looks at the results while a capture is running.
+            if(captureStateMachine.isCapturing()){
+
+                captureStateMachine.onCaptureResult(captureResultAdapter.wrap(result));
+            }
+        }
+
+        @Override
+        public void onFrameAvailable(int stream, CameraBackend.Frame frame) {
+
+            //Every stream of the session is one of the activity's own surfaces, so the backend has no frames to hand out.
+            frame.close();
+        }
+    };
+
+    //Saves a frame of the multi-camera capture straight from its buffer, with the camera's id in the title.
+    private final MultiCameraSession.SaveFactory multiCameraSaves = new MultiCameraSession.SaveFactory() {
+
+        @Override
+        public SaveTask createSave(final String id, final CameraBackend.Frame frame) {
+
+            return new SaveTask() {
+
+                @Override
+                public void run() {
+
+                    byte[] chunk = bufferPool.acquire(MULTI_CAMERA_CHUNK_SIZE);
+
+                    try{
+
+                        new JpegStreamWriter(imageSink, chunk).write(frame.getPlane(0), ImageSaver.createTitle() + "_cam" + id);
+
+                    }catch(IOException e){
+
+                        e.printStackTrace();
+
+                    }finally{
 
-                    //The auto exposure has determined that more processing needs to be done.
-                    preCaptureImage();
+                        bufferPool.release(chunk);
+                        frame.close();
+                    }
                 }
 
-            }else if(autoFocusState == null){
+                @Override
+                public void discard() {
+
+                    frame.close();
+                }
+            };
+        }
+    };
+
+    private final MultiCameraSession.Listener multiCameraListener = new MultiCameraSession.Listener() {
+
+        @Override
+        public void onCameraError(String id, String message) {
+
+            Log.e(TAG, "Multi-camera capture lost camera " + id + ": " + message);
+        }
+
+        @Override
+        public void onModeChanged(MultiCameraSession.Mode mode) {
+
+            Log.i(TAG, "Multi-camera capture: " + mode);
+        }
+    };
+
+    private final Runnable endMultiCameraCapture = new Runnable() {
+
+        @Override
+        public void run() {
+
+            stopMultiCameraCapture(false);
+        }
+    };
+
+    //Holds each JPEG back until its capture result turns up, so the result's metadata can go into its Exif data.
+    private final TimestampMatcher<PendingSave, CaptureMetadata> metadataMatcher = new TimestampMatcher<>(METADATA_MATCHER_CAPACITY,
+            METADATA_WAIT_MILLIS * 1000000L, Clock.SYSTEM, new TimestampMatcher.Listener<PendingSave, CaptureMetadata>() {
+
+        @Override
+        public void onMatched(PendingSave pending, CaptureMetadata metadata) {
+
+            saveExecutor.submit(pending.toSaveTask(metadata));
+        }
+    });
+
+    private final Runnable metadataTimeoutCheck = new Runnable() {
+
+        @Override
+        public void run() {
+
+            metadataMatcher.expire();
+
+            //A check that ran a little early, or items that came in after it was posted, need another one.
+            scheduleMetadataTimeoutCheck();
+        }
+    };
+
+    //Wakes up for the shots of an interval capture. Every delay is worked out from the schedule rather than from
+    //the previous wake up, so the Handler's lateness never adds up.
+    private final Runnable intervalTick = new Runnable() {
+
+        @Override
+        public void run() {
+
+            IntervalScheduler scheduler = intervalScheduler;
+
+            if(scheduler == null){
+
+                return;
+            }
+
+            if(scheduler.poll(isReadyForIntervalShot())){
+
+                takeIntervalShot();
+            }
+
+            long delayNanos = scheduler.getDelayNanos();
+
+            if(delayNanos >= 0){
+
+                backgroundHandler.postDelayed(this, (delayNanos + 999999) / 1000000);
+            }
+        }
+    };
+
+    //Requests issued by the capture state machine as the precapture sequence moves along.
+    private final CaptureStateMachine.Actions captureActions = new CaptureStateMachine.Actions() {
+
+        @Override
+        public void startAutoFocus() {
+
+            repeatingRequestForAuto();
+            backgroundHandler.postDelayed(captureTimeoutCheck, CAPTURE_TIMEOUT_CHECK_MILLIS);
+        }
+
+        @Override
+        public void lockFocus() {
+
+            MainActivity.this.lockFocus();
+        }
+
+        @Override
+        public void runPrecapture() {
+
+            preCaptureImage();
+        }
+
+        @Override
+        public void captureStill() {
+
+            captureImage();
+        }
+
+        @Override
+        public void abandonCapture() {
+
+            burstTracker = null;
+            releaseOrHoldLocks();
+        }
+    };
+
+    //Turns the state machine's transitions into latency stages for the current shot.
+    private final CaptureStateMachine.StateListener captureStateListener = new CaptureStateMachine.StateListener() {
+
+        @Override
+        public void onStateChanged(int from, int to, boolean timedOut) {
+
+            //A timeout or an abandoned capture never reached the stage, so it isn't marked.
+            if(timedOut || to == CaptureStateMachine.STATE_PREVIEW){
+
+                return;
+            }
+
+            if(from == CaptureStateMachine.STATE_WAITING_LOCK){
 
-                //Focus does not exist for this camera.
-                captureImage();
+                latencyRecorder.mark(currentShot, ShotLatencyRecorder.Stage.AF_LOCKED);
 
+            }else if(to == CaptureStateMachine.STATE_PICTURE_TAKEN && (from == CaptureStateMachine.STATE_WAITING_PRECAPTURE || from == CaptureStateMachine.STATE_WAITING_NON_PRECAPTURE)){
+
+                latencyRecorder.mark(currentShot, ShotLatencyRecorder.Stage.PRECAPTURE_CONVERGED);
             }
         }
+    };
 
-        private void waitForPreCapture(CaptureResult result){
+    //Results stop arriving once the repeating request is stopped for the still, so the timeouts
+    //are also checked on a timer while a capture is running.
+    private final Runnable captureTimeoutCheck = new Runnable() {
 
-            Integer autoExposureState = result.get(CaptureResult.CONTROL_AE_STATE);
+        @Override
+        public void run() {
 
-            if(autoExposureState == null || autoExposureState == CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED || autoExposureState == CaptureResult.CONTROL_AE_STATE_LOCKED || autoExposureState == CaptureResult.CONTROL_AE_STATE_CONVERGED){
+            captureStateMachine.checkTimeout();
 
-                cameraCaptureRequestState = STATE_PICTURE_TAKEN;
-                captureImage();
+            if(captureStateMachine.isCapturing() && backgroundHandler != null){
 
-            }else{
+                backgroundHandler.postDelayed(this, CAPTURE_TIMEOUT_CHECK_MILLIS);
+            }
+        }
+    };
+
+    //Turns the capture quality down while saving can't keep up or the device runs hot, and back up afterwards.
+    private final Runnable qualityCheck = new Runnable() {
 
-                //The Auto Exposure is still working here.
+        @Override
+        public void run() {
+
+            QualityController.Settings before = qualityController.getSettings();
+            QualityController.Settings after = qualityController.update(saveExecutor.getQueueDepth(), getLastSaveLatencyNanos(), thermalSource.getThermalLevel());
+
+            if(!after.equals(before)){
+
+                applyQualitySettings(before, after);
             }
+
+            if(backgroundHandler != null){
+
+                backgroundHandler.postDelayed(this, QUALITY_CHECK_MILLIS);
+            }
+        }
+    };
+
+    private final CameraManager.AvailabilityCallback cameraAvailabilityCallback = new CameraManager.AvailabilityCallback() {
+
+        @Override
+        public void onCameraAvailable(@NonNull String id) {
+
+            cameraInfoCache.onCameraAvailable(id);
         }
     };
 
-    private CameraCaptureSession.StateCallback captureSessionStateCallback = new CameraCaptureSession.StateCallback() {
+    private final Runnable refreshCameraInfo = new Runnable() {
 
         @Override
-        public void onConfigured(@NonNull CameraCaptureSession session) {
+        public void run() {
+
+            //Only rewrites the snapshot when there wasn't one or the live values differ from it. The new
+            //values are used from the next time the camera is opened.
+            if(cameraInfoCache.refresh() || !cameraInfoSnapshotRead){
+
+                writeCameraInfoSnapshot();
+            }
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+
+        super.onCreate(savedInstanceState);
+        startupTrace.begin(true);
+        measureStartup = getIntent().getBooleanExtra(EXTRA_MEASURE_STARTUP, false);
+        long intervalMillis = getIntent().getLongExtra(EXTRA_INTERVAL_MILLIS, 0);
+        setContentView(R.layout.activity_main);
 
-            //This is called if everything was configured correctly.
+        //Setup the way the view will look.
+        hideDecorLayer();
+        moveCaptureButton(getNavigationBarSize(this.getBaseContext()));
+        setupCapturePort();
+        setupBurstCapture();
+
+        cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        setupCameraInfoCache();
+
+        captureStateMachine = new CaptureStateMachine(captureActions, Clock.SYSTEM);
+        captureStateMachine.setStateListener(captureStateListener);
+
+        //Images are streamed to files without being decoded and registered with the MediaStore in batches.
+        setupImageSink();
+        setupCaptureFormat();
+        videoMode = getIntent().getBooleanExtra(EXTRA_VIDEO_RECORDING, false);
+        //Multi-camera mode is a continuous capture of every camera, up to the stream rate of each, not a still per press.
+        multiCameraMode = getIntent().getBooleanExtra(EXTRA_MULTI_CAMERA, false);
+        setupPreviewAnalysis();
+        setupThumbnails();
+        thermalSource = new BatteryThermalSource(getApplicationContext());
+
+        //The camera thread and the save workers outlive this activity, so pausing can't lose a queued save.
+        CameraThreads cameraThreads = CameraThreads.get(SAVE_WORKERS, SAVE_QUEUE_CAPACITY);
+        backgroundHandler = cameraThreads.getCameraHandler();
+        saveExecutor = cameraThreads.getSaveExecutor();
+        cameraBackend = new Camera2Backend(cameraManager, backgroundHandler);
+        cameraBackend.setRequestSettings(requestSettings);
+        setupCaptureJournal();
+
+        //Unattended devices are started straight into interval capture from a script.
+        if(intervalMillis > 0){
+
+            intervalScheduler = newIntervalScheduler(intervalMillis);
+        }
+    }
+
+    private void setupCaptureJournal(){
+
+        //Opening maps the whole file and checks every record the last run left behind, so it happens on a save
+        //worker rather than holding up the launch. Without the journal images are saved straight from the reader.
+        final File file = new File(getFilesDir(), CAPTURE_JOURNAL_NAME);
+
+        saveExecutor.submit(new SaveTask() {
+
+            @Override
+            public void run() {
+
+                CaptureJournal journal = openCaptureJournal(file);
+
+                if(journal != null){
+
+                    journalCompactor = new JournalCompactor(journal, imageSink, bufferPool);
+
+                    //The resume that should have replayed it most likely came before the journal was ready.
+                    replayCaptureJournal();
+                }
+            }
+
+            @Override
+            public void discard() {
+
+                //This activity goes without the journal.
+            }
+        });
+    }
+
+    private static CaptureJournal openCaptureJournal(File file){
+
+        //The journal belongs to the process, like the save workers that promote its entries, so two activities
+        //never map the same file.
+        synchronized(MainActivity.class){
+
+            if(captureJournal == null){
+
+                try{
+
+                    CaptureJournal journal = CaptureJournal.open(file, CAPTURE_JOURNAL_CAPACITY);
+
+                    if(journal.getRecoveredCount() > 0 || journal.hasTornRecord()){
+
+                        Log.i(TAG, "Capture journal: " + journal.getRecoveredCount() + " images left pending by the last run"
+                                + (journal.hasTornRecord() ? ", one lost part way through being journaled" : ""));
+                    }
+
+                    captureJournal = journal;
+
+                }catch(IOException e){
+
+                    Log.e(TAG, "Couldn't open the capture journal", e);
+                }
+            }
+
+            return captureJournal;
+        }
+    }
+
+    private void replayCaptureJournal(){
+
+        //Promotes what an earlier run or a drain left in the journal. Entries whose saves are still queued are
+        //claimed and left to them.
+        if(journalCompactor == null){
+
+            return;
+        }
+
+        saveExecutor.submit(new SaveTask() {
+
+            @Override
+            public void run() {
+
+                int replayed = journalCompactor.replay();
+
+                if(replayed > 0){
+
+                    Log.i(TAG, "Capture journal: replayed " + replayed + " images");
+                }
+            }
+
+            @Override
+            public void discard() {
+
+                //Still in the journal for the next resume.
+            }
+        });
+    }
+
+    private void setupCameraInfoCache(){
+
+        //A snapshot from the last run lets the session be configured without waiting on the camera service.
+        cameraInfoCache = new CameraInfoCache(new CameraManagerInfoLoader(cameraManager));
+        File snapshot = new File(getFilesDir(), CAMERA_INFO_SNAPSHOT_NAME);
+
+        if(!snapshot.exists()){
+
+            return;
+        }
+
+        try{
+
+            FileInputStream in = new FileInputStream(snapshot);
+
+            try{
+
+                cameraInfoSnapshotRead = cameraInfoCache.readSnapshot(in);
+
+            }finally{
+
+                in.close();
+            }
+
+        }catch(IOException e){
+
+            e.printStackTrace();
+        }
+    }
+
+    private void writeCameraInfoSnapshot(){
+
+        try{
+
+            FileOutputStream out = new FileOutputStream(new File(getFilesDir(), CAMERA_INFO_SNAPSHOT_NAME));
+
+            try{
+
+                cameraInfoCache.writeSnapshot(out);
+
+            }finally{
+
+                out.close();
+            }
+
+        }catch(IOException e){
+
+            e.printStackTrace();
+        }
+    }
+
+    private void setupImageSink(){
+
+        File pictures = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
+
+        if(pictures != null && Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())){
+
+            batchedImageWriter = new BatchedImageWriter(new File(pictures, PICTURE_DIRECTORY_NAME), new MediaStoreImageRegistry(getContentResolver()), IMAGE_BATCH_SIZE, IMAGE_BATCH_AGE_MILLIS, Clock.SYSTEM);
+            batchedImageWriter.startFlushTimer(IMAGE_BATCH_AGE_MILLIS / 2);
+            imageSink = batchedImageWriter;
+
+        }else{
+
+            //Without shared storage the images go into the MediaStore one at a time.
+            imageSink = new MediaStoreImageSink(getContentResolver());
+        }
+    }
+
+    private void setupCaptureFormat(){
+
+        //YUV_420_888 capture is optional. Its frames are converted in parallel strips and compressed by us,
+        //which leaves room to process each frame before it is compressed.
+        if(getIntent().getBooleanExtra(EXTRA_YUV_CAPTURE, false)){
+
+            synchronized(MainActivity.class){
+
+                if(yuvPool == null){
+
+                    yuvPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                }
+            }
+
+            captureFormat = ImageFormat.YUV_420_888;
+            yuvEncoder = new YuvJpegEncoder(new YuvConverter(yuvPool, YUV_MIN_STRIP_ROWS), bufferPool, qualityController.getSettings().jpegQuality);
+        }
+    }
+
+    private void setupPreviewAnalysis(){
+
+        //Analyzers get their own thread so they never hold up the camera or the save workers. The analysis
+        //stream is only added to the session while there is an analyzer to feed.
+        analysisExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+
+                Thread thread = new Thread(runnable, analysisThreadName);
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        analysisPipeline = new AnalysisPipeline(analysisExecutor, bufferPool, Clock.SYSTEM);
+
+        if(getIntent().getBooleanExtra(EXTRA_PREVIEW_ANALYSIS, false)){
+
+            analysisPipeline.addAnalyzer(new MeanLumaAnalyzer(MEAN_LUMA_STEP));
+        }
+    }
+
+    private void setupThumbnails(){
+
+        //Thumbnails are decoded on their own thread, so showing the last shot never holds up a save.
+        thumbnailExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+
+                Thread thread = new Thread(runnable, thumbnailThreadName);
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        lastShotThumbnail = (ImageView) findViewById(R.id.last_shot_thumbnail);
+        thumbnailGenerator = new ThumbnailGenerator(thumbnailExecutor, thumbnailCache, bufferPool, THUMBNAIL_LONG_EDGE);
+        thumbnailGenerator.setListener(new ThumbnailGenerator.Listener() {
+
+            @Override
+            public void onThumbnail(final long captureId, final Bitmap thumbnail) {
+
+                runOnUiThread(new Runnable() {
+
+                    @Override
+                    public void run() {
+
+                        //Frames of a burst can finish out of order. Only the newest one is shown.
+                        if(captureId == thumbnailCache.getLatestId()){
+
+                            lastShotThumbnail.setImageBitmap(thumbnail);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    public ThumbnailCache<Bitmap> getThumbnailCache(){
+
+        return thumbnailCache;
+    }
+
+    public void addFrameAnalyzer(FrameAnalyzer analyzer){
+
+        //Takes effect the next time the capture session is created.
+        analysisPipeline.addAnalyzer(analyzer);
+    }
+
+    public void removeFrameAnalyzer(FrameAnalyzer analyzer){
+
+        analysisPipeline.removeAnalyzer(analyzer);
+    }
+
+    public AnalysisPipeline getAnalysisPipeline(){
+
+        //Exposed so the analyzer throughput and drop rate can be checked.
+        return analysisPipeline;
+    }
+
+    @Override
+    protected void onDestroy(){
+
+        //Let the images that are already queued finish saving, then register whatever is left.
+        if(batchedImageWriter != null){
+
+            saveExecutor.submit(new SaveTask() {
+
+                @Override
+                public void run() {
+
+                    batchedImageWriter.close();
+                }
+
+                @Override
+                public void discard() {
+
+                    batchedImageWriter.close();
+                }
+            });
+        }
+
+        analysisExecutor.shutdownNow();
+        thumbnailExecutor.shutdownNow();
+
+        super.onDestroy();
+    }
+
+    public static Point getNavigationBarSize(Context context) {
+        Point appUsableSize = getAppUsableScreenSize(context);
+        Point realScreenSize = getRealScreenSize(context);
+
+        // navigation bar on the right
+        if (appUsableSize.x < realScreenSize.x) {
+            return new Point(realScreenSize.x - appUsableSize.x, appUsableSize.y);
+        }
+
+        // navigation bar at the bottom
+        if (appUsableSize.y < realScreenSize.y) {
+            return new Point(appUsableSize.x, realScreenSize.y - appUsableSize.y);
+        }
+
+        // navigation bar is not present
+        return new Point();
+    }
+
+    public static Point getAppUsableScreenSize(Context context) {
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        Display display = windowManager.getDefaultDisplay();
+        Point size = new Point();
+        display.getSize(size);
+        return size;
+    }
+
+    public static Point getRealScreenSize(Context context) {
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        Display display = windowManager.getDefaultDisplay();
+        Point size = new Point();
+
+        if (Build.VERSION.SDK_INT >= 17) {
+            display.getRealSize(size);
+        } else if (Build.VERSION.SDK_INT >= 14) {
+            try {
+                size.x = (Integer) Display.class.getMethod("getRawWidth").invoke(display);
+                size.y = (Integer) Display.class.getMethod("getRawHeight").invoke(display);
+            } catch (IllegalAccessException e) {} catch (InvocationTargetException e) {} catch (NoSuchMethodException e) {}
+        }
+
+        return size;
+    }
+
+    private void moveCaptureButton(Point point){
+
+        int pushup;
+
+        if(point.y > 0){
+            pushup = point.y + 25;
+        }else{
+            pushup = point.y + 150;
+        }
+
+        //Get the layout.
+        ImageView captureRing = (ImageView) findViewById(R.id.capture_ring);
+
+        RelativeLayout captureButton = (RelativeLayout) findViewById(R.id.capture_ring_layout);
+
+        RelativeLayout.LayoutParams captureButtonLayoutParams = new RelativeLayout.LayoutParams(RelativeLayout.LayoutParams.WRAP_CONTENT, RelativeLayout.LayoutParams.WRAP_CONTENT);
+
+        captureButtonLayoutParams.setMargins(0, 0, 0, pushup);
+        captureButtonLayoutParams.addRule(RelativeLayout.ALIGN_PARENT_BOTTOM, 1);
+
+        captureButton.setLayoutParams(captureButtonLayoutParams);
+    }
+
+    private void setupBurstCapture(){
+
+        //Holding down the capture ring takes a burst instead of a single picture.
+        ImageView captureRing = (ImageView) findViewById(R.id.capture_ring);
+
+        captureRing.setOnLongClickListener(new View.OnLongClickListener() {
+
+            @Override
+            public boolean onLongClick(View view) {
+
+                return startBurstCapture(view);
+            }
+        });
+    }
+
+    private void setupCapturePort(){
+
+        WindowManager manager = getWindowManager();
+        Display display = manager.getDefaultDisplay();
+        ImageView capturePort = (ImageView) findViewById(R.id.capture_port);
+        Point point = new Point();
+
+        display.getSize(point);
+
+        //Need to set the height of the capture port to the width of the display.
+        this.capturePortWidth = point.x;
+        this.capturePortHeight = point.x;
+
+        //Create the Layout Parameters.
+        RelativeLayout.LayoutParams capturePortParams = new RelativeLayout.LayoutParams(RelativeLayout.LayoutParams.WRAP_CONTENT, RelativeLayout.LayoutParams.WRAP_CONTENT);
+
+        //Set the attributes of the layout parameter.
+        capturePortParams.height = this.capturePortHeight;
+        capturePortParams.width = this.capturePortWidth;
+
+        //Use the layout parameters.
+        capturePort.setLayoutParams(capturePortParams);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        //A cold start was already started in onCreate.
+        if(!startupTrace.isStarted() || startupTrace.isComplete()){
+
+            startupTrace.begin(false);
+        }
+
+        //Hide the decor layer
+        hideDecorLayer();
+
+        //Cameras plugged in while we were paused show up through the availability callback.
+        cameraManager.registerAvailabilityCallback(cameraAvailabilityCallback, null);
+        replayCaptureJournal();
+
+        //Find the Texture View to place what the camera is seeing.
+        cameraTextureView = (TextureView) findViewById(R.id.camera_texture_view);
+        cameraTextureView.setSurfaceTextureListener(surfaceTextureListener);
+
+        //The camera is opened without waiting for the surface. Whichever finishes last starts the session.
+        openCamera();
+
+        if(cameraTextureView.isAvailable()){
+
+            onPreviewSurfaceReady(cameraTextureView.getWidth(), cameraTextureView.getHeight());
+        }
+    }
+
+    private void onPreviewSurfaceReady(int width, int height){
+
+        textureViewWidth = width;
+        textureViewHeight = height;
+        startupTrace.mark(StartupTrace.Milestone.SURFACE_READY);
+        startupGate.ready(STARTUP_SURFACE_READY);
+    }
+
+    private void reportStartup(){
+
+        //Every launch appends a row to the trace, so regressions against the budget show up over time.
+        Log.i(TAG, startupTrace.toString());
+
+        final File directory = getExternalFilesDir(null);
+
+        if(directory != null){
+
+            saveExecutor.submit(new SaveTask() {
+
+                @Override
+                public void run() {
+
+                    writeStartupTrace(new File(directory, STARTUP_TRACE_NAME));
+                }
+
+                @Override
+                public void discard() {
+
+                }
+            });
+        }
+
+        //Measurement mode exits after the first frame so launches can be repeated from a script.
+        if(measureStartup){
+
+            runOnUiThread(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    finish();
+                }
+            });
+        }
+    }
+
+    private void writeStartupTrace(File file){
+
+        try{
+
+            boolean newFile = !file.exists();
+            FileWriter writer = new FileWriter(file, true);
+
+            try{
+
+                if(newFile){
+
+                    StartupTrace.writeCsvHeader(writer);
+                }
+
+                startupTrace.writeCsvRow(writer);
+
+            }finally{
+
+                writer.close();
+            }
+
+        }catch(IOException e){
+
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    protected void onPause(){
+
+        cameraManager.unregisterAvailabilityCallback(cameraAvailabilityCallback);
+        closeCamera();
+
+        if(multiCameraMode){
+
+            backgroundHandler.post(endMultiCameraCapture);
+        }
+        dumpShotLatency();
+
+        if(analysisPipeline.getOfferedCount() > 0){
+
+            Log.i(TAG, analysisPipeline.toString());
+        }
+
+        flushImageBatch();
+
+        super.onPause();
+    }
+
+    private void flushImageBatch(){
+
+        //Makes the images taken so far show up in the gallery without waiting for the batch to fill.
+        //The flush is queued behind the pending saves rather than run on the UI thread.
+        if(batchedImageWriter != null){
+
+            saveExecutor.submit(new SaveTask() {
+
+                @Override
+                public void run() {
+
+                    batchedImageWriter.flush();
+                }
+
+                @Override
+                public void discard() {
+
+                }
+            });
+        }
+    }
+
+    private void dumpShotLatency(){
+
+        //Leaves the latency of the recent shots next to the app's files so builds can be compared. The
+        //recorder is safe to read from another thread, so the file is written on a save worker.
+        final File directory = getExternalFilesDir(null);
+
+        if(directory == null){
+
+            return;
+        }
+
+        saveExecutor.submit(new SaveTask() {
+
+            @Override
+            public void run() {
+
+                writeShotLatency(new File(directory, LATENCY_DUMP_NAME));
+            }
+
+            @Override
+            public void discard() {
+
+            }
+        });
+    }
+
+    private void writeShotLatency(File file){
+
+        try{
+
+            FileWriter writer = new FileWriter(file);
+
+            try{
+
+                latencyRecorder.writeCsv(writer);
+
+            }finally{
+
+                writer.close();
+            }
+
+        }catch(IOException e){
+
+            e.printStackTrace();
+        }
+    }
+
+    private void selectStreamSizes(){
+
+        //Scores the sizes the camera supports against the view and the frame rates we need. Falls back to
+        //the old fixed 1920x1080 if the camera doesn't report anything usable.
+        StreamSizeSelector.Selection selection = null;
+
+        if(cameraInfo != null){
+
+            selection = StreamSizeSelector.select(cameraInfo.getPreviewSizes(), cameraInfo.getStillSizes(captureFormat), textureViewWidth, textureViewHeight, MAX_PREVIEW_WIDTH, MAX_PREVIEW_HEIGHT, PREVIEW_FPS, BURST_FPS);
+        }
+
+        if(selection != null){
+
+            previewSize = selection.preview;
+            stillSize = selection.still;
+
+        }else{
+
+            previewSize = new StreamSizeSelector.StreamSize(MAX_PREVIEW_WIDTH, MAX_PREVIEW_HEIGHT, 0, 0);
+            stillSize = previewSize;
+        }
+    }
+
+    private void setupCameraOrientation(){
+
+
+    }
+
+    private boolean openCamera() {
+
+        //Opens the camera if the user has granted this activity permission.
+        if(ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED || ActivityCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED){
+
+            checkPermissions();
+            return false;
+        }
+
+        //Open the camera. Opening the camera will call the listener's onOpened method.
+        if(!cameraLock.tryAcquire()){
+            System.out.println("This thread was unable to open the camera!");
+        }else{
+            String backCameraId = cameraInfoCache.findCameraId(CameraInfo.LENS_FACING_BACK);
+
+            if(cameraId == null && backCameraId != null) {
+
+                cameraBackend.open(backCameraId, cameraListener);
+            }
+
+            cameraLock.release();
+        }
+
+        return true;
+    }
+
+    private void closeCamera(){
+
+        startupGate.clear(STARTUP_CAMERA_READY);
+        cameraId = null;
+
+        //The camera thread keeps running while we're paused, so nothing of this session may still be waiting on it.
+        backgroundHandler.removeCallbacks(captureTimeoutCheck);
+        backgroundHandler.removeCallbacks(startCameraPreview);
+        backgroundHandler.removeCallbacks(qualityCheck);
+        backgroundHandler.removeCallbacks(metadataTimeoutCheck);
+        backgroundHandler.removeCallbacks(intervalTick);
+        captureStateMachine.reset();
+
+        //The locks belong to the session. The interval capture starts over with the next one.
+        intervalLocksHeld = false;
+
+        if(intervalScheduler != null && intervalScheduler.isRunning()){
+
+            Log.i(TAG, intervalScheduler.toString());
+            intervalScheduler.stop();
+        }
+
+        //The recording is taken out before the close, so the next session can't pick it up again.
+        synchronized(this){
+
+            if(videoRecorder != null){
+
+                closingRecorders.add(videoRecorder);
+                videoRecorder = null;
+            }
+        }
+
+        //Closing the camera closes its session too. Only once the close has been answered does nothing draw into
+        //the encoder any more, so the recording is finished then, on the camera thread rather than holding up pausing.
+        sessionReady = false;
+        cameraBackend.close();
+
+        if(cameraBackend.isClosed()){
+
+            backgroundHandler.post(finishClosingRecordings);
+        }
+
+        //No new images arrive once the camera is closed. The ones already handed to the save workers get a grace
+        //period to finish, because their Images become invalid once the reader is closed. The wait happens on the
+        //camera thread rather than holding up the UI thread, and whatever the next session posts there runs after it.
+        final ImageReader stillReader = cameraImageReader;
+        final ImageReader zeroShutterLagReader = zeroShutterLagImageReader;
+        cameraImageReader = null;
+        zeroShutterLagImageReader = null;
+
+        if(stillReader != null){
+
+            stillReader.setOnImageAvailableListener(null, null);
+        }
+
+        backgroundHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+
+                drainSaves();
+
+                if(stillReader != null){
+                    stillReader.close();
+                }
+
+                //Closing the reader closed all of its images.
+                heldStillImages.clear();
+
+                //The buffered frames belong to the reader, so they have to be closed before it is.
+                zeroShutterLagFrames.clear();
+                frameMetadata.clear();
+
+                if(zeroShutterLagReader != null){
+                    zeroShutterLagReader.close();
+                }
+
+                heldZeroShutterLagFrames.clear();
+            }
+        });
+
+        if(analysisImageReader != null){
+            analysisImageReader.close();
+            analysisImageReader = null;
+        }
+
+        //A frame still waiting for the analyzers is released rather than analyzed after the camera is gone.
+        analysisPipeline.clear();
+    }
+
+    private long getLastSaveLatencyNanos(){
+
+        //From the image arriving to it being saved, for the latest shot. -1 while that shot is still saving.
+        long shot = currentShot;
+        long available = latencyRecorder.getElapsedNanos(shot, ShotLatencyRecorder.Stage.IMAGE_AVAILABLE);
+        long persisted = latencyRecorder.getElapsedNanos(shot, ShotLatencyRecorder.Stage.PERSISTED);
+
+        if(available < 0 || persisted < 0){
+
+            return -1;
+        }
+
+        return persisted - available;
+    }
+
+    private void applyQualitySettings(QualityController.Settings before, QualityController.Settings after){
+
+        //The quality applies from the next shot. A new still size needs new readers, so it waits for the next session.
+        if(after.jpegQuality != before.jpegQuality){
+
+            requestCache.invalidate(RequestCache.Variant.STILL);
+            requestCache.invalidate(RequestCache.Variant.LOCKED_STILL);
+
+            if(yuvEncoder != null){
+
+                yuvEncoder.setQuality(after.jpegQuality);
+            }
+        }
+
+        //Only reached when the controller actually changed something, so this doesn't repeat every step.
+        Log.i(TAG, "Capture quality: " + after);
+    }
+
+    private void drainSaves(){
+
+        //No more capture results are coming for the images still waiting on one.
+        metadataMatcher.flush();
+
+        SaveExecutor.DrainResult result = saveExecutor.drain(SAVE_DRAIN_GRACE_MILLIS);
+
+        if(result.completed + result.drained + result.dropped + result.stillRunning > 0){
+
+            Log.i(TAG, result.toString());
+        }
+    }
+
+    private void createCaptureOutputs(){
+
+        //Picks the stream sizes and makes the still readers. Runs as soon as the camera is open, so the view
+        //size may still be unknown, in which case the screen size stands in for it.
+        setDimensions();
+        selectStreamSizes();
+        StreamSizeSelector.StreamSize zeroShutterLagSize = null;
+
+        if(supportsZeroShutterLag()){
+
+            //The ring is on the repeating request, so only its own stream is held to the preview rate. If no JPEG size
+            //can keep up without stalling, the session goes without it rather than giving up the main still's size.
+            zeroShutterLagSize = StreamSizeSelector.selectRepeatingStillSize(cameraInfo.getStillSizes(ImageFormat.JPEG), previewSize.getAspectRatio(), PREVIEW_FPS);
+        }
+
+        if(cameraInfo != null){
+
+            stillSize = StreamSizeSelector.stepDownStillSize(cameraInfo.getStillSizes(captureFormat), stillSize, qualityController.getSettings().stillSizeStep);
+
+            //Asking for an Exif thumbnail lets the last-shot thumbnail skip decoding the JPEG itself.
+            thumbnailSize = StreamSizeSelector.selectAnalysisSize(cameraInfo.getThumbnailSizes(), stillSize.getAspectRatio(), THUMBNAIL_LONG_EDGE, 0);
+        }
+
+        //The reader holds enough images for a whole burst while the save workers catch up.
+        cameraImageReader = ImageReader.newInstance(stillSize.width, stillSize.height, captureFormat, BURST_SIZE + IMAGE_READER_HEADROOM);
+        cameraImageReader.setOnImageAvailableListener(onImageAvailable, backgroundHandler);
+
+        if(zeroShutterLagSize != null){
+
+            //The repeating request also fills the zero shutter lag ring.
+            setupSensorTimestampSource();
+            zeroShutterLagImageReader = ImageReader.newInstance(zeroShutterLagSize.width, zeroShutterLagSize.height, ImageFormat.JPEG, ZERO_SHUTTER_LAG_FRAMES + IMAGE_READER_HEADROOM);
+            zeroShutterLagImageReader.setOnImageAvailableListener(onZeroShutterLagImageAvailable, backgroundHandler);
+
+        }else if(analysisPipeline.hasAnalyzers()){
+
+            //A small YUV stream on the repeating request for the analyzers. It is left out with zero shutter lag,
+            //which already adds a second stream to the repeating request.
+            createAnalysisReader();
+        }
+    }
+
+    private void createAnalysisReader(){
+
+        StreamSizeSelector.StreamSize analysisSize = null;
+
+        if(cameraInfo != null){
+
+            analysisSize = StreamSizeSelector.selectAnalysisSize(cameraInfo.getStillSizes(ImageFormat.YUV_420_888), previewSize.getAspectRatio(), ANALYSIS_MIN_LONG_EDGE, PREVIEW_FPS);
+        }
+
+        if(analysisSize != null){
+
+            analysisImageReader = ImageReader.newInstance(analysisSize.width, analysisSize.height, ImageFormat.YUV_420_888, ANALYSIS_READER_IMAGES);
+            analysisImageReader.setOnImageAvailableListener(onAnalysisImageAvailable, backgroundHandler);
+        }
+    }
+
+    private void createCameraPreview(){
+
+        SurfaceTexture cameraSurfaceTexture = cameraTextureView.getSurfaceTexture();
+
+        if(cameraId == null || cameraImageReader == null || cameraSurfaceTexture == null){
+
+            //The camera or the surface went away after the startup gate opened. The gate opens again once both are back.
+            return;
+        }
+
+        //Set the buffer size of the SurfaceTexture.
+        cameraSurfaceTexture.setDefaultBufferSize(previewSize.width, previewSize.height);
+
+        //Create the Surface object from the SurfaceTexture.
+        surface = new Surface(cameraSurfaceTexture);
+
+        List<Surface> outputs = new ArrayList<>(Arrays.asList(surface, cameraImageReader.getSurface()));
+        List<Integer> previewTargets = new ArrayList<>(Collections.singletonList(0));
+
+        //The repeating streams stay fed while a capture runs.
+        if(zeroShutterLagImageReader != null){
+
+            previewTargets.add(outputs.size());
+            outputs.add(zeroShutterLagImageReader.getSurface());
+        }
+
+        if(analysisImageReader != null){
+
+            previewTargets.add(outputs.size());
+            outputs.add(analysisImageReader.getSurface());
+        }
+
+        //The encoder sits next to the preview while recording, and the preview request feeds both.
+        if(videoRecorder != null){
+
+            previewTargets.add(outputs.size());
+            outputs.add(videoRecorder.getInputSurface());
+        }
+
+        previewStreams = new int[previewTargets.size()];
+
+        for(int i = 0; i < previewStreams.length; i++){
+
+            previewStreams[i] = previewTargets.get(i);
+        }
+
+        stillStreams = new int[]{1};
+
+        //The requests of the last session targeted its surfaces.
+        sessionReady = false;
+        requestCache.clear();
+
+        try{
+
+            cameraBackend.configureSession(Collections.<CameraBackend.Stream>emptyList(), outputs);
+
+        }catch(IllegalStateException e){
+
+            //The camera went away after the startup gate opened.
+            e.printStackTrace();
+        }
+    }
+
+    public ShotLatencyRecorder getLatencyRecorder(){
+
+        //Exposed so the latency of recent shots can be summarised or dumped.
+        return latencyRecorder;
+    }
+
+    public FrameMetadataStore getFrameMetadata(){
+
+        //The 3A state and exposure of the last few seconds of preview frames, for diagnostics.
+        return frameMetadata;
+    }
+
+    public void startImageCapture(View view){
+
+        //In video mode the capture button starts and stops recording instead.
+        if(videoMode){
+
+            toggleVideoRecording();
+            return;
+        }
+
+        //In multi-camera mode it starts and stops continuous capture, which saves every frame of every camera until
+        //it is pressed again.
+        if(multiCameraMode){
+
+            toggleMultiCameraCapture();
+            return;
+        }
+
+        //The frame closest to the press is picked by the time of the press, but journaling it copies the whole
+        //JPEG, so that happens on the camera thread.
+        final long pressTime = SystemClock.elapsedRealtimeNanos();
+
+        backgroundHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+
+                if(!captureZeroShutterLagFrame(pressTime)){
+
+                    startCapture(1);
+                }
+            }
+        });
+    }
+
+    public void toggleVideoRecording(){
+
+        backgroundHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+
+                if(videoRecorder == null){
+
+                    startVideoRecording();
+
+                }else{
+
+                    stopVideoRecording();
+                }
+            }
+        });
+    }
+
+    public void toggleMultiCameraCapture(){
+
+        backgroundHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+
+                if(multiCameraSession == null && !multiCameraPending){
+
+                    startMultiCameraCapture();
+
+                }else{
+
+                    stopMultiCameraCapture(true);
+                }
+            }
+        });
+    }
+
+    private void startMultiCameraCapture(){
+
+        //The preview camera is closed first, so it doesn't take up one of the cameras the device can keep open.
+        closeCamera();
+
+        if(cameraBackend.isClosed()){
+
+            runMultiCameraSession();
+
+        }else{
+
+            multiCameraPending = true;
+        }
+    }
+
+    private void runMultiCameraSession(){
+
+        //Every camera gets a backend with a thread of its own. All of them share the save workers through one fair
+        //queue, so a fast camera can't crowd the others out.
+        FairSaveQueue saveQueue = new FairSaveQueue(saveExecutor, SAVE_WORKERS, MULTI_CAMERA_QUEUE_CAPACITY, Clock.SYSTEM);
+        MultiCameraSession session = new MultiCameraSession(saveQueue, multiCameraSaves, MULTI_CAMERA_FRAMES_PER_TURN, multiCameraListener);
+
+        for(String id : cameraBackend.getCameraIds()){
+
+            Camera2Backend backend = new Camera2Backend(cameraManager, "Camera " + id);
+            multiCameraBackends.add(backend);
+            session.addCamera(id, backend, Collections.singletonList(createMultiCameraStream(id)), new CameraBackend.Request(RequestCache.Variant.PREVIEW, 0), 0);
+        }
+
+        if(multiCameraBackends.isEmpty()){
+
+            Log.e(TAG, "Error: there are no cameras to capture from!");
+            openCamera();
+            return;
+        }
+
+        multiCameraSession = session;
+        session.start();
+        showMessage(R.string.multi_camera_started);
+    }
+
+    private CameraBackend.Stream createMultiCameraStream(String id){
+
+        //A modest JPEG size, so every camera can keep streaming while the workers save.
+        CameraInfo info = cameraInfoCache.get(id);
+        StreamSizeSelector.StreamSize size = null;
+
+        if(info != null){
+
+            size = StreamSizeSelector.selectAnalysisSize(info.getStillSizes(ImageFormat.JPEG), MULTI_CAMERA_ASPECT_RATIO, MULTI_CAMERA_MIN_LONG_EDGE, MULTI_CAMERA_FPS);
+        }
+
+        int width = size != null ? size.width : MULTI_CAMERA_DEFAULT_WIDTH;
+        int height = size != null ? size.height : MULTI_CAMERA_DEFAULT_HEIGHT;
+
+        //Enough buffers for the camera's queue, a save on every worker and the frame being handed over.
+        return new CameraBackend.Stream(CameraBackend.FORMAT_JPEG, width, height, MULTI_CAMERA_QUEUE_CAPACITY + SAVE_WORKERS + 1);
+    }
+
+    private void stopMultiCameraCapture(boolean reopenPreview){
+
+        multiCameraPending = false;
+        MultiCameraSession session = multiCameraSession;
+        multiCameraSession = null;
+
+        if(session != null){
+
+            session.stop();
+
+            for(String id : session.getCameraIds()){
+
+                Log.i(TAG, "Camera " + id + ": " + session.getFrameCount(id) + " frames in " + session.getTurnCount(id) + " turns, " + session.getSaveStats(id));
+            }
+        }
+
+        //Each backend ends its thread once its camera has closed.
+        for(Camera2Backend backend : multiCameraBackends){
+
+            backend.release();
+        }
+
+        multiCameraBackends.clear();
+
+        if(reopenPreview){
+
+            showMessage(R.string.multi_camera_stopped);
+            openCamera();
+        }
+    }
 
-            cameraCaptureSession = session;
+    private void showMessage(final int message){
 
-            try{
+        runOnUiThread(new Runnable() {
 
-                captureRequest = captureRequestBuilder.build();
+            @Override
+            public void run() {
 
-                cameraCaptureSession.setRepeatingRequest(captureRequest, captureCallbackListener, backgroundHandler);
+                Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
 
+    private void startVideoRecording(){
 
-            } catch (CameraAccessException e) {
+        //A new session is made with the encoder's input surface in it, and made again without it once recording stops.
+        if(!sessionReady || captureStateMachine.isCapturing()){
 
-                e.printStackTrace();
-            }
+            return;
         }
 
-        @Override
-        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+        File movies = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES), PICTURE_DIRECTORY_NAME);
 
-            //If the configuration fails.
-            //Throw an error here.
-            //TODO different devices require different sizes. Example, some will not be able to support resolutions as high as 1920 x 1080
+        if(!movies.isDirectory() && !movies.mkdirs()){
 
-            throw new RuntimeException("Error: " + session.getClass().toString() + " was not configured properly!");
+            Log.e(TAG, "Error: couldn't create " + movies);
+            return;
         }
-    };
-
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
 
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main);
+        //Surface frames carry the sensor timestamp, so the encoder latency is measured on the sensor's time base.
+        Clock sensorClock = Clock.SYSTEM;
 
-        //Setup the way the view will look.
-        hideDecorLayer();
-        moveCaptureButton(getNavigationBarSize(this.getBaseContext()));
-        setupCapturePort();
-    }
+        if(cameraInfo != null && cameraInfo.getTimestampSource() == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME){
 
-    public static Point getNavigationBarSize(Context context) {
-        Point appUsableSize = getAppUsableScreenSize(context);
-        Point realScreenSize = getRealScreenSize(context);
+            sensorClock = new Clock() {
 
-        // navigation bar on the right
-        if (appUsableSize.x < realScreenSize.x) {
-            return new Point(realScreenSize.x - appUsableSize.x, appUsableSize.y);
-        }
+                @Override
+                public long nanoTime() {
 
-        // navigation bar at the bottom
-        if (appUsableSize.y < realScreenSize.y) {
-            return new Point(appUsableSize.x, realScreenSize.y - appUsableSize.y);
+                    return SystemClock.elapsedRealtimeNanos();
+                }
+            };
         }
 
-        // navigation bar is not present
-        return new Point();
-    }
+        try{
 
-    public static Point getAppUsableScreenSize(Context context) {
-        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
-        Display display = windowManager.getDefaultDisplay();
-        Point size = new Point();
-        display.getSize(size);
-        return size;
-    }
+            VideoRecorder recorder = new VideoRecorder(new File(movies, "vid" + System.currentTimeMillis() + ".mp4"), previewSize.width, previewSize.height, PREVIEW_FPS,
+                    VIDEO_BIT_RATE, cameraInfo != null ? cameraInfo.getSensorOrientation() : 90, sensorClock);
+            recorder.start();
+            videoRecorder = recorder;
 
-    public static Point getRealScreenSize(Context context) {
-        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
-        Display display = windowManager.getDefaultDisplay();
-        Point size = new Point();
+        }catch(IOException | RuntimeException e){
 
-        if (Build.VERSION.SDK_INT >= 17) {
-            display.getRealSize(size);
-        } else if (Build.VERSION.SDK_INT >= 14) {
-            try {
-                size.x = (Integer) Display.class.getMethod("getRawWidth").invoke(display);
-                size.y = (Integer) Display.class.getMethod("getRawHeight").invoke(display);
-            } catch (IllegalAccessException e) {} catch (InvocationTargetException e) {} catch (NoSuchMethodException e) {}
+            e.printStackTrace();
+            return;
         }
 
-        return size;
+        createCameraPreview();
     }
 
-    private void moveCaptureButton(Point point){
+    private void stopVideoRecording(){
 
-        int pushup;
+        //The camera stops drawing into the encoder first, so the end of the stream really is the last frame.
+        cameraBackend.stopRepeating();
 
-        if(point.y > 0){
-            pushup = point.y + 25;
-        }else{
-            pushup = point.y + 150;
-        }
+        finishVideoRecording();
+        createCameraPreview();
+    }
 
-        //Get the layout.
-        ImageView captureRing = (ImageView) findViewById(R.id.capture_ring);
+    private void finishVideoRecording(){
 
-        RelativeLayout captureButton = (RelativeLayout) findViewById(R.id.capture_ring_layout);
+        VideoRecorder recorder;
 
-        RelativeLayout.LayoutParams captureButtonLayoutParams = new RelativeLayout.LayoutParams(RelativeLayout.LayoutParams.WRAP_CONTENT, RelativeLayout.LayoutParams.WRAP_CONTENT);
+        synchronized(this){
 
-        captureButtonLayoutParams.setMargins(0, 0, 0, pushup);
-        captureButtonLayoutParams.addRule(RelativeLayout.ALIGN_PARENT_BOTTOM, 1);
+            recorder = videoRecorder;
+            videoRecorder = null;
+        }
 
-        captureButton.setLayoutParams(captureButtonLayoutParams);
-    }
+        if(recorder != null){
 
-    private void setupCapturePort(){
+            finishRecording(recorder);
+        }
+    }
 
-        WindowManager manager = getWindowManager();
-        Display display = manager.getDefaultDisplay();
-        ImageView capturePort = (ImageView) findViewById(R.id.capture_port);
-        Point point = new Point();
+    private void finishRecording(VideoRecorder recorder){
 
-        display.getSize(point);
+        //Waits for the encoder to drain, so it only runs on the camera thread.
+        Log.i(TAG, "Recording finished: " + recorder.stop(VIDEO_STOP_TIMEOUT_MILLIS));
 
-        //Need to set the height of the capture port to the width of the display.
-        this.capturePortWidth = point.x;
-        this.capturePortHeight = point.x;
+        if(recorder.isComplete()){
 
-        //Create the Layout Parameters.
-        RelativeLayout.LayoutParams capturePortParams = new RelativeLayout.LayoutParams(RelativeLayout.LayoutParams.WRAP_CONTENT, RelativeLayout.LayoutParams.WRAP_CONTENT);
+            MediaScannerConnection.scanFile(getApplicationContext(), new String[]{recorder.getFile().getPath()}, null, null);
 
-        //Set the attributes of the layout parameter.
-        capturePortParams.height = this.capturePortHeight;
-        capturePortParams.width = this.capturePortWidth;
+        }else if(!recorder.getFile().delete()){
 
-        //Use the layout parameters.
-        capturePort.setLayoutParams(capturePortParams);
+            Log.e(TAG, "Couldn't delete the unfinished recording " + recorder.getFile());
+        }
     }
 
-    @Override
-    protected void onResume() {
-        super.onResume();
+    private boolean captureZeroShutterLagFrame(long pressTime){
 
-        //Hide the decor layer
-        hideDecorLayer();
+        //Saves the buffered frame closest to the button press instead of running the precapture sequence.
+        //Returns false if zero shutter lag isn't running or has no frame to offer yet.
 
-        //Create the Image Reader for acquiring the images and their data.
-        cameraImageReader = ImageReader.newInstance(MAX_PREVIEW_WIDTH, MAX_PREVIEW_HEIGHT, ImageFormat.JPEG, 3);
-        cameraImageReader.setOnImageAvailableListener(onImageAvailable, backgroundHandler);
+        if(zeroShutterLagImageReader == null || captureStateMachine.isCapturing()){
 
-        //Get the CameraManager
-        cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+            return false;
+        }
 
-        //Get the Ids of all possible cameras connected to the device.
-        getCameraIds();
+        Image frame = zeroShutterLagFrames.takeClosest(realtimeSensorTimestamps ? pressTime : Long.MAX_VALUE);
 
-        //Find the Texture View to place what the camera is seeing.
-        cameraTextureView = (TextureView) findViewById(R.id.camera_texture_view);
+        if(frame == null){
 
-        if(cameraTextureView.isAvailable()){
+            return false;
+        }
 
-            openCamera();
-        }else{
+        heldZeroShutterLagFrames.add(frame);
 
-            cameraTextureView.setSurfaceTextureListener(surfaceTextureListener);
-        }
+        //The frame is saved either way, but a soft or badly exposed one should at least show up in the log.
+        long sequence = frameMetadata.findNearest(frame.getTimestamp());
+        long converged = frameMetadata.findLastConverged();
 
-    }
+        if(sequence != FrameMetadataStore.NOT_FOUND && converged < sequence){
 
-    @Override
-    protected void onPause(){
+            Log.w(TAG, "Zero shutter lag frame was taken before 3A converged again, the last converged frame is "
+                    + (converged == FrameMetadataStore.NOT_FOUND ? "gone" : (sequence - converged) + " frames older"));
+        }
 
-        closeCamera();
-        stopBackgroundThread();
+        currentShot = latencyRecorder.beginShot();
+        latencyRecorder.mark(currentShot, ShotLatencyRecorder.Stage.IMAGE_AVAILABLE);
 
-        super.onPause();
+        queueSave(frame);
+
+        return true;
     }
 
-    private void getCameraIds() {
+    private void queueSave(Image image){
 
-        try {
+        //The sensor timestamp has to be read before the Image might get closed.
+        long timestamp = image.getTimestamp();
 
-            cameraIds = cameraManager.getCameraIdList();
+        if(image.getFormat() == ImageFormat.JPEG && JpegStreamWriter.isJpeg(image.getPlanes()[0].getBuffer())){
 
-        } catch (CameraAccessException e) {
+            thumbnailGenerator.submit(captureIds.incrementAndGet(), image.getPlanes()[0].getBuffer());
 
-            e.printStackTrace();
+            //JPEGs wait for their capture result, but never longer than METADATA_WAIT_MILLIS.
+            metadataMatcher.offerItem(timestamp, prepareSave(image));
+            scheduleMetadataTimeoutCheck();
+
+            return;
         }
+
+        //YUV frames are encoded without Exif data, so there is nothing to wait for.
+        saveExecutor.submit(createImageSaver(image, currentShot));
     }
 
-    private void getCameraCharacteristics(){
+    private void scheduleMetadataTimeoutCheck(){
 
-        //Method for getting the particular Camera Characteristics.
+        //A single check is kept posted for whichever waiting JPEG is due first, rounded up to the next millisecond
+        //so it never runs before the deadline.
+        backgroundHandler.removeCallbacks(metadataTimeoutCheck);
+        long remaining = metadataMatcher.getNanosUntilNextTimeout();
 
-        if(cameraManager != null && cameraId != null){
+        if(remaining >= 0){
 
-            try {
+            backgroundHandler.postDelayed(metadataTimeoutCheck, TimeUnit.NANOSECONDS.toMillis(remaining + 999999));
+        }
+    }
 
-                thisCameraCharacteristics = cameraManager.getCameraCharacteristics(cameraId);
+    private PendingSave prepareSave(Image image){
 
-            } catch (CameraAccessException e) {
+        //Encoded JPEGs are journaled before anything else happens to them, which also hands the Image straight
+        //back to its reader. Anything the journal can't take, or that comes before it has been loaded, is saved
+        //from the Image as before.
+        if(journalCompactor == null){
 
-                e.printStackTrace();
-            }
+            return new PendingSave(image, null, currentShot);
+        }
 
-        }else{
+        CaptureJournal.Entry entry = captureJournal.append(ImageSaver.createTitle(), image.getPlanes()[0].getBuffer());
 
-            throw new NullPointerException();
+        if(entry == null){
+
+            return new PendingSave(image, null, currentShot);
         }
+
+        image.close();
+        onHeldImageClosed.onImageClosed(image);
+        latencyRecorder.mark(currentShot, ShotLatencyRecorder.Stage.COPIED);
+
+        return new PendingSave(null, entry, currentShot);
     }
 
-    private void getStreamConfigurationMap(){
+    private ImageSaver createImageSaver(Image image, long shot){
+
+        ImageSaver imageSaver = new ImageSaver(image, imageSink);
+        imageSaver.setBufferPool(bufferPool);
+        imageSaver.setYuvEncoder(yuvEncoder);
+        imageSaver.setLatencyRecorder(latencyRecorder, shot);
+        imageSaver.setImageClosedListener(onHeldImageClosed);
 
-        //Gets the CameraDevices Stream Configuration Map.
-        //TODO this map will be used to more precisely decide how the camera is setup.
+        return imageSaver;
+    }
 
-        if(thisCameraCharacteristics != null){
+    private void recordFrameMetadata(CameraBackend.Result result){
 
-            cameraConfigurationMap = thisCameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        //Only the primitives are kept, rather than holding on to the results.
+        long sensorTimestamp = result.getTimestamp();
 
-        }else{
+        if(sensorTimestamp == CaptureMetadata.UNKNOWN){
 
-            throw new NullPointerException("Error: " + thisCameraCharacteristics.getClass().toString() + " is null!");
+            return;
         }
-    }
-
-    private void setupCameraOrientation(){
 
+        CaptureMetadata metadata = result.metadata;
 
+        frameMetadata.record(sensorTimestamp, result.autoFocusState, result.autoExposureState, metadata.exposureTimeNanos,
+                metadata.sensitivityIso, metadata.focusDistanceDiopters);
     }
 
-    private boolean openCamera() {
+    private boolean supportsZeroShutterLag(){
 
-        //Opens the camera if the user has granted this activity permission.
-        if(ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED || ActivityCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED){
+        //A second JPEG stream on the repeating request is only dependable on FULL devices.
+        //The ring holds JPEG frames, so it is left out when capturing YUV.
+        if(captureFormat != ImageFormat.JPEG){
 
-            checkPermissions();
             return false;
         }
 
-        //Create the background thread and handler.
-        startBackgroundThread();
-
-        try{
-
-            //Open the camera. Opening the camera will call the stateCallback onOpened method.
-            if(!cameraLock.tryAcquire()){
-                System.out.println("This thread was unable to open the camera!");
-            }else{
-                if(camera == null) {
+        return cameraInfo != null && cameraInfo.getHardwareLevel() == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL;
+    }
 
-                    cameraManager.openCamera(cameraIds[0], cameraDeviceStateCallback, backgroundHandler);
-                }
+    private void setupSensorTimestampSource(){
 
-                cameraLock.release();
-            }
+        //Frames can only be matched to the button press when the sensor uses the elapsedRealtime time base.
+        //Otherwise the newest frame is used.
+        realtimeSensorTimestamps = cameraInfo.getTimestampSource() == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+    }
 
-        } catch (CameraAccessException e) {
+    public boolean startBurstCapture(View view){
 
-            //Camera Access denied
-            e.printStackTrace();
-        }
+        //The burst gets shorter while the controller is holding the load down.
+        startCapture(qualityController.getSettings().burstSize);
 
         return true;
     }
 
-    private void closeCamera(){
+    private void startCapture(int burstSize){
 
-        cameraId = null;
+        if(sessionReady && !captureStateMachine.isCapturing()){
 
-        if(camera != null){
-            camera.close();
-            camera = null;
+            //The full sequence takes new locks, so any held for an interval capture are given up.
+            intervalLocksHeld = false;
+            requestedBurstSize = burstSize;
+            currentShot = latencyRecorder.beginShot();
+            requestCache.beginShot();
+            captureStateMachine.start();
         }
+    }
 
-        if(cameraCaptureSession != null){
-            cameraCaptureSession.close();
-            cameraCaptureSession = null;
-        }
+    public void startIntervalCapture(final long intervalMillis){
 
-        if(cameraImageReader != null){
-            cameraImageReader.close();
-            cameraImageReader = null;
-        }
-    }
+        //Takes a still every intervalMillis until stopped or paused. Runs on the camera thread like the captures.
+        backgroundHandler.post(new Runnable() {
 
-    private void createCameraPreview(){
+            @Override
+            public void run() {
 
-        SurfaceTexture cameraSurfaceTexture = cameraTextureView.getSurfaceTexture();
+                stopIntervalCaptureNow();
+                intervalScheduler = newIntervalScheduler(intervalMillis);
 
-        if(cameraSurfaceTexture != null){
+                if(sessionReady){
 
-            try {
+                    intervalScheduler.start();
+                    backgroundHandler.post(intervalTick);
+                }
+            }
+        });
+    }
 
-                //Set the buffer size of the SurfaceTexture.
-                setDimensions();
+    public void stopIntervalCapture(){
 
-                cameraSurfaceTexture.setDefaultBufferSize(MAX_PREVIEW_WIDTH, MAX_PREVIEW_HEIGHT);
+        backgroundHandler.post(new Runnable() {
 
-                //Create the Surface object from the SurfaceTexture.
-                surface = new Surface(cameraSurfaceTexture);
+            @Override
+            public void run() {
 
-                //Create a new Capture Request and also add the Surface as the target.
-                captureRequestBuilder = camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-                captureRequestBuilder.addTarget(surface);
+                stopIntervalCaptureNow();
+            }
+        });
+    }
 
-                captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON_AUTO_FLASH);
+    private void stopIntervalCaptureNow(){
 
-                camera.createCaptureSession(Arrays.asList(surface, cameraImageReader.getSurface()), captureSessionStateCallback, null);
+        IntervalScheduler scheduler = intervalScheduler;
+        intervalScheduler = null;
+        backgroundHandler.removeCallbacks(intervalTick);
 
-            } catch (CameraAccessException e) {
+        if(scheduler != null && scheduler.isRunning()){
 
-                e.printStackTrace();
-            }
+            Log.i(TAG, scheduler.toString());
+            scheduler.stop();
+        }
 
-        }else{
+        //A shot still running releases the locks itself once it is done.
+        if(intervalLocksHeld && !captureStateMachine.isCapturing()){
 
-            //The surface texture wasn't ready yet.
-            throw new NullPointerException("Error: " + SurfaceTexture.class.toString() + " is null!");
+            intervalLocksHeld = false;
+            unlockFocus();
         }
     }
 
-    public void startImageCapture(View view){
+    private IntervalScheduler newIntervalScheduler(long intervalMillis){
 
-        if(captureRequestLock.tryAcquire() && !capturing){
+        //A tick that finds the pipeline busy is taken as soon as it catches up, unless the next one is already due.
+        return new IntervalScheduler(TimeUnit.MILLISECONDS.toNanos(intervalMillis), TimeUnit.MILLISECONDS.toNanos(INTERVAL_RETRY_MILLIS),
+                IntervalScheduler.MissPolicy.COALESCE, Clock.SYSTEM);
+    }
 
-            capturing = true;
-            repeatingRequestForAuto();
+    private boolean isReadyForIntervalShot(){
 
+        //Behind means a shot still in flight, saves queued up beyond the workers, or images still waiting on results.
+        return sessionReady && !captureStateMachine.isCapturing() && burstTracker == null
+                && saveExecutor.getQueueDepth() < INTERVAL_MAX_QUEUE_DEPTH && metadataMatcher.getWaitingItemCount() == 0;
+    }
+
+    private void takeIntervalShot(){
+
+        //The first shot focuses and meters as usual and leaves the locks in place. The rest go straight to the still.
+        if(!intervalLocksHeld){
+
+            startCapture(1);
+            return;
         }
 
-        captureRequestLock.release();
+        requestedBurstSize = 1;
+        currentShot = latencyRecorder.beginShot();
+        requestCache.beginShot();
+
+        if(captureStateMachine.startWithLocks()){
+
+            backgroundHandler.postDelayed(captureTimeoutCheck, CAPTURE_TIMEOUT_CHECK_MILLIS);
+        }
     }
 
-    private void repeatingRequestForAuto(){
+    private void releaseOrHoldLocks(){
 
-        //Starts a repeating request with AUTO as the primary auto focus mode.
+        //After a shot the focus and exposure go back to continuous, unless an interval capture wants to keep them.
+        IntervalScheduler scheduler = intervalScheduler;
 
-        try{
-            cameraCaptureRequestState = STATE_WAITING_AUTO_FOCUS;
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_AUTO);
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON_AUTO_FLASH);
+        if(scheduler == null || !scheduler.isRunning()){
 
-            cameraCaptureSession.stopRepeating();
-            cameraCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), captureCallbackListener, backgroundHandler);
+            intervalLocksHeld = false;
+            turnOffFlash();
+            unlockFocus();
 
-        }catch (CameraAccessException e) {
+        }else if(!intervalLocksHeld){
 
-            e.printStackTrace();
+            intervalLocksHeld = true;
+            turnOffFlash();
+            repeatingRequest(RequestCache.Variant.LOCKED_PREVIEW);
         }
     }
 
-    private void lockFocus(){
+    private CameraBackend.Request buildRequest(RequestCache.Variant variant){
 
-        try{
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_START);
-            cameraCaptureRequestState = STATE_WAITING_LOCK;
-            cameraCaptureSession.capture(captureRequestBuilder.build(), captureCallbackListener, backgroundHandler);
+        //The stills go to the still reader and every other variant feeds the repeating streams. What the variant
+        //asks of the 3A routines is up to the backend, which builds the camera2 request now rather than during the shot.
+        int[] streams = Camera2Backend.isStill(variant) ? stillStreams : previewStreams;
 
-        } catch (CameraAccessException e) {
+        if(streams == null){
 
-            e.printStackTrace();
+            return null;
         }
-    }
 
-    private void preCaptureImage(){
+        CameraBackend.Request request = new CameraBackend.Request(variant, streams);
 
-        try{
+        return cameraBackend.prepare(request) ? request : null;
+    }
 
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_START);
-            cameraCaptureSession.capture(captureRequestBuilder.build(), captureCallbackListener, backgroundHandler);
-            cameraCaptureRequestState = STATE_WAITING_PRECAPTURE;
+    private void setThumbnailSize(CaptureRequest.Builder builder){
 
-        } catch (CameraAccessException e) {
-            
-            e.printStackTrace();
+        if(thumbnailSize != null){
+
+            builder.set(CaptureRequest.JPEG_THUMBNAIL_SIZE, new Size(thumbnailSize.width, thumbnailSize.height));
         }
     }
 
-    private void captureImage(){
+    private void repeatingRequestForAuto(){
 
-        try {
+        //Starts a repeating request with AUTO as the primary auto focus mode.
+        repeatingRequest(RequestCache.Variant.AUTO_FOCUS_PREVIEW);
+    }
 
-            //Create a new builder based off the still capture template.
-            CaptureRequest.Builder imageCaptureBuilder = camera.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+    private void repeatingRequest(RequestCache.Variant variant){
 
-            //Setup the request.
-            int rotation = getWindowManager().getDefaultDisplay().getRotation();
-            imageCaptureBuilder.set(CaptureRequest.JPEG_ORIENTATION, 90);
-            imageCaptureBuilder.addTarget(cameraImageReader.getSurface());
-            CameraCaptureSession.CaptureCallback imageCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        cameraBackend.stopRepeating();
+        cameraBackend.setRepeatingRequest(requestCache.get(variant));
+    }
 
-                @Override
-                public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
-                    super.onCaptureCompleted(session, request, result);
+    private void lockFocus(){
 
-                }
-            };
+        cameraBackend.capture(requestCache.get(RequestCache.Variant.FOCUS_TRIGGER));
+    }
 
-            cameraCaptureSession.stopRepeating();
-            cameraCaptureSession.capture(imageCaptureBuilder.build(), imageCaptureCallback, backgroundHandler);
+    private void preCaptureImage(){
 
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
+        cameraBackend.capture(requestCache.get(RequestCache.Variant.PRECAPTURE_TRIGGER));
     }
 
-    private void turnOffFlash(){
+    private void captureImage(){
 
-        try{
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_CANCEL);
-            cameraCaptureSession.capture(captureRequestBuilder.build(), captureCallbackListener, backgroundHandler);
+        CameraBackend.Request imageCaptureRequest = requestCache.get(intervalLocksHeld ? RequestCache.Variant.LOCKED_STILL : RequestCache.Variant.STILL);
 
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
-    }
+        //The locked preview has to keep running, it is what holds the locks.
+        if(!intervalLocksHeld){
 
-    private void unlockFocus(){
+            cameraBackend.stopRepeating();
+        }
+        burstTracker = new BurstTracker(requestedBurstSize, System.nanoTime());
 
-        try{
+        if(requestedBurstSize > 1){
 
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
-            cameraCaptureSession.capture(captureRequestBuilder.build(), captureCallbackListener, backgroundHandler);
+            //All the frames of the burst go to the camera in a single call so it can pipeline them.
+            List<CameraBackend.Request> burst = new ArrayList<>(requestedBurstSize);
 
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+            for(int i = 0; i < requestedBurstSize; i++){
 
-            cameraCaptureSession.stopRepeating();
-            cameraCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), captureCallbackListener, backgroundHandler);
+                burst.add(imageCaptureRequest);
+            }
 
-            cameraCaptureRequestState = STATE_PREVIEW;
+            cameraBackend.captureBurst(burst);
 
-        } catch (CameraAccessException e) {
+        }else{
 
-            e.printStackTrace();
+            cameraBackend.capture(imageCaptureRequest);
         }
     }
 
-    private void startBackgroundThread(){
-
-        if(backgroundThread == null && backgroundHandler == null){
+    private void turnOffFlash(){
 
-            backgroundThread = new HandlerThread(backgroundThreadName);
-            backgroundThread.start();
-            backgroundHandler = new Handler(backgroundThread.getLooper());
-        }
+        cameraBackend.capture(requestCache.get(RequestCache.Variant.PRECAPTURE_CANCEL));
     }
 
-    private void stopBackgroundThread(){
+    private void unlockFocus(){
 
-        if(backgroundThread != null){
+        //Cancelling the trigger releases the focus lock, then the continuous preview takes over again.
+        cameraBackend.capture(requestCache.get(RequestCache.Variant.FOCUS_CANCEL));
 
-            backgroundThread.quitSafely();
-            backgroundThread = null;
-            backgroundHandler = null;
-        }
+        cameraBackend.stopRepeating();
+        cameraBackend.setRepeatingRequest(requestCache.get(RequestCache.Variant.PREVIEW));
     }
 
     private void hideDecorLayer(){
@@ -796,13 +2449,78 @@ public class MainActivity extends AppCompatActivity {
 
     private void setDimensions(){
 
-        if(cameraTextureView != null && cameraTextureView.getWidth() > 0 && cameraTextureView.getHeight() > 0){
+        //The texture view fills the screen, so before it has been laid out the screen size is used.
+        if(textureViewWidth > 0 && textureViewHeight > 0){
 
-            textureViewWidth = cameraTextureView.getWidth();
-            textureViewHeight = cameraTextureView.getHeight();
-        }else{
+            return;
+        }
+
+        Point screen = getRealScreenSize(this);
+        textureViewWidth = screen.x;
+        textureViewHeight = screen.y;
+    }
+
+    private static class CaptureResultAdapter implements CaptureStateMachine.Result {
+
+        //Reused for every result so the repeating request doesn't allocate an adapter per frame.
+        private CameraBackend.Result result;
+
+        CaptureResultAdapter wrap(CameraBackend.Result captureResult){
+
+            result = captureResult;
+            return this;
+        }
+
+        @Override
+        public Integer getAutoFocusMode() {
+
+            return valueOf(result.autoFocusMode);
+        }
+
+        @Override
+        public Integer getAutoFocusState() {
+
+            return valueOf(result.autoFocusState);
+        }
+
+        @Override
+        public Integer getAutoExposureState() {
+
+            return valueOf(result.autoExposureState);
+        }
+
+        private static Integer valueOf(int value){
+
+            //The state machine takes a missing value as null, like CaptureResult reports it.
+            return value != CameraBackend.Result.UNKNOWN ? value : null;
+        }
+    }
+
+    //A JPEG waiting for its capture result, either still in its Image or already in the journal.
+    private class PendingSave {
+
+        private final Image image;
+        private final CaptureJournal.Entry entry;
+        private final long shot;
+
+        PendingSave(Image image, CaptureJournal.Entry entry, long shot){
+
+            this.image = image;
+            this.entry = entry;
+            this.shot = shot;
+        }
+
+        SaveTask toSaveTask(CaptureMetadata metadata){
+
+            if(entry != null){
+
+                return journalCompactor.newSaveTask(entry, metadata, latencyRecorder, shot);
+            }
+
+            ImageSaver imageSaver = createImageSaver(image, shot);
+            imageSaver.setCaptureMetadata(metadata);
 
-            throw new RuntimeException( );
+            return imageSaver;
         }
     }
 }
@@ -0,0 +1,49 @@
+package com.example.david.simplecamera;
+
+//Description: A FrameAnalyzer that keeps the average brightness of the latest preview frame.
+
+public class MeanLumaAnalyzer implements FrameAnalyzer {
+
+    private final int step;
+    private volatile double meanLuma = -1;
+
+    public MeanLumaAnalyzer(int step){
+
+        //Only every step-th pixel of every step-th row is read. The average hardly changes and it is far cheaper.
+        if(step < 1){
+
+            throw new IllegalArgumentException("Error: the step has to be at least 1");
+        }
+
+        this.step = step;
+    }
+
+    @Override
+    public void analyze(YuvFrame frame, long timestampNanos) {
+
+        byte[] luma = frame.getPlane(YuvFrame.PLANE_Y);
+        int rowStride = frame.getRowStride(YuvFrame.PLANE_Y);
+        int pixelStride = frame.getPixelStride(YuvFrame.PLANE_Y);
+        long sum = 0;
+        int count = 0;
+
+        for(int row = 0; row < frame.getHeight(); row += step){
+
+            int offset = row * rowStride;
+
+            for(int column = 0; column < frame.getWidth(); column += step){
+
+                sum += luma[offset + column * pixelStride] & 0xFF;
+                count++;
+            }
+        }
+
+        meanLuma = (double) sum / count;
+    }
+
+    public double getMeanLuma(){
+
+        //0 to 255, or -1 before the first frame.
+        return meanLuma;
+    }
+}
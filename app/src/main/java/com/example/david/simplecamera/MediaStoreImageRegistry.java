@@ -0,0 +1,55 @@
+package com.example.david.simplecamera;
+
+//Description: An ImageRegistry that adds a batch of image files to the MediaStore with a single bulkInsert.
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.provider.MediaStore;
+
+import java.io.IOException;
+import java.util.List;
+
+public class MediaStoreImageRegistry implements ImageRegistry {
+
+    private final ContentResolver contentResolver;
+
+    public MediaStoreImageRegistry(ContentResolver resolver){
+
+        if(resolver == null){
+
+            throw new NullPointerException();
+        }
+
+        contentResolver = resolver;
+    }
+
+    @Override
+    public int registerAll(List<ImageRecord> records) throws IOException {
+
+        ContentValues[] rows = new ContentValues[records.size()];
+
+        for(int i = 0; i < rows.length; i++){
+
+            ImageRecord record = records.get(i);
+            ContentValues values = new ContentValues();
+
+            values.put(MediaStore.Images.Media.DATA, record.path);
+            values.put(MediaStore.Images.Media.TITLE, record.title);
+            values.put(MediaStore.Images.Media.DISPLAY_NAME, record.title);
+            values.put(MediaStore.Images.Media.MIME_TYPE, record.mimeType);
+            values.put(MediaStore.Images.Media.DATE_TAKEN, record.dateTakenMillis);
+            values.put(MediaStore.Images.Media.SIZE, record.sizeBytes);
+            rows[i] = values;
+        }
+
+        try{
+
+            return contentResolver.bulkInsert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, rows);
+
+        }catch(RuntimeException e){
+
+            //Provider failures come back as runtime exceptions across the binder.
+            throw new IOException("Error: bulk insert of " + rows.length + " images failed!", e);
+        }
+    }
+}
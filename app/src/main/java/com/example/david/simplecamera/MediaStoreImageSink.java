@@ -0,0 +1,86 @@
+package com.example.david.simplecamera;
+
+//Description: An ImageSink that writes images straight into the MediaStore through a ContentResolver.
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class MediaStoreImageSink implements ImageSink {
+
+    private final ContentResolver contentResolver;
+    private final Map<String, Uri> pendingImages = new ConcurrentHashMap<>();
+
+    public MediaStoreImageSink(ContentResolver resolver){
+
+        if(resolver == null){
+
+            throw new NullPointerException();
+        }
+
+        contentResolver = resolver;
+    }
+
+    @Override
+    public OutputStream openStream(final String title, String mimeType) throws IOException {
+
+        //Same row MediaStore.Images.Media.insertImage would create, minus the Bitmap compression.
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Images.Media.TITLE, title);
+        values.put(MediaStore.Images.Media.DISPLAY_NAME, title);
+        values.put(MediaStore.Images.Media.MIME_TYPE, mimeType);
+        values.put(MediaStore.Images.Media.DATE_TAKEN, System.currentTimeMillis());
+
+        Uri uri = contentResolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+
+        if(uri == null){
+
+            throw new IOException("Error: the MediaStore refused to create " + title + "!");
+        }
+
+        OutputStream out = contentResolver.openOutputStream(uri);
+
+        if(out == null){
+
+            contentResolver.delete(uri, null, null);
+            throw new IOException("Error: could not open a stream for " + title + "!");
+        }
+
+        pendingImages.put(title, uri);
+
+        return new FilterOutputStream(out){
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+
+                //FilterOutputStream would otherwise write one byte at a time.
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    @Override
+    public void commit(String title){
+
+        //The row was filled in as the stream was written, so there is only the bookkeeping left.
+        pendingImages.remove(title);
+    }
+
+    @Override
+    public void discard(String title){
+
+        Uri uri = pendingImages.remove(title);
+
+        if(uri != null){
+
+            contentResolver.delete(uri, null, null);
+        }
+    }
+}
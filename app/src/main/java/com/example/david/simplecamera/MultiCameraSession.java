@@ -0,0 +1,417 @@
+package com.example.david.simplecamera;
+
+//Description: Runs several cameras at once, each on its own CameraBackend with its own callback thread and streams,
+//and feeds the frames of their capture streams into one FairSaveQueue. All cameras are opened together. If the
+//device can't keep them all open, the ones that didn't make it wait for a turn and the open cameras hand over to
+//them after a fixed number of frames, so every camera keeps getting frames saved, just not at the same time.
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MultiCameraSession {
+
+    public enum Mode {
+
+        //Every camera is open and streaming at the same time.
+        CONCURRENT,
+
+        //The device refused to open all cameras at once, so they take turns.
+        MULTIPLEXED
+    }
+
+    public enum State {
+
+        IDLE,
+        OPENING,
+        CONFIGURING,
+        STREAMING,
+        CLOSING,
+        FAILED
+    }
+
+    public interface SaveFactory {
+
+        //Makes the save for a frame of a camera's capture stream. The task owns the frame and has to close it
+        //whether it runs or is discarded.
+        SaveTask createSave(String cameraId, CameraBackend.Frame frame);
+    }
+
+    public interface Listener {
+
+        //Called on the failing camera's thread. The other cameras carry on.
+        void onCameraError(String cameraId, String message);
+
+        void onModeChanged(Mode mode);
+    }
+
+    private final FairSaveQueue saveQueue;
+    private final SaveFactory saveFactory;
+    private final int framesPerTurn;
+    private final Listener listener;
+
+    private final Map<String, Camera> cameras = new LinkedHashMap<>();
+    //Cameras in line for a turn, only used once the session is multiplexed.
+    private final ArrayDeque<Camera> waiting = new ArrayDeque<>();
+    private Mode mode = Mode.CONCURRENT;
+    private boolean running;
+
+    public MultiCameraSession(FairSaveQueue saveQueue, SaveFactory saveFactory, int framesPerTurn, Listener listener){
+
+        if(saveQueue == null || saveFactory == null || listener == null){
+
+            throw new NullPointerException();
+        }
+
+        if(framesPerTurn < 1){
+
+            throw new IllegalArgumentException("Error: invalid turn of " + framesPerTurn + " frames");
+        }
+
+        this.saveQueue = saveQueue;
+        this.saveFactory = saveFactory;
+        this.framesPerTurn = framesPerTurn;
+        this.listener = listener;
+    }
+
+    public synchronized void addCamera(String cameraId, CameraBackend backend, List<CameraBackend.Stream> streams, CameraBackend.Request request, int saveStream){
+
+        //Each camera needs a backend of its own. Frames of saveStream are saved, frames of any other stream are
+        //closed straight away.
+        if(cameraId == null || backend == null || streams == null || request == null){
+
+            throw new NullPointerException();
+        }
+
+        if(running){
+
+            throw new IllegalStateException("Error: cameras can't be added to a running session!");
+        }
+
+        if(cameras.containsKey(cameraId)){
+
+            throw new IllegalArgumentException("Error: camera " + cameraId + " is already part of the session");
+        }
+
+        if(saveStream < 0 || saveStream >= streams.size()){
+
+            throw new IllegalArgumentException("Error: the session of camera " + cameraId + " has no stream " + saveStream);
+        }
+
+        cameras.put(cameraId, new Camera(cameraId, backend, new ArrayList<>(streams), request, saveStream));
+    }
+
+    public void start(){
+
+        List<Camera> opening;
+
+        synchronized(this){
+
+            if(running){
+
+                return;
+            }
+
+            running = true;
+            mode = Mode.CONCURRENT;
+            waiting.clear();
+            opening = new ArrayList<>(cameras.values());
+
+            for(Camera camera : opening){
+
+                camera.state = State.OPENING;
+            }
+        }
+
+        //The backends are called outside the lock, since they may call back into the session on another thread.
+        for(Camera camera : opening){
+
+            camera.backend.open(camera.cameraId, camera);
+        }
+    }
+
+    public void stop(){
+
+        //Closes every camera and hands whatever is still queued to the save executor.
+        List<Camera> closing = new ArrayList<>();
+
+        synchronized(this){
+
+            if(!running){
+
+                return;
+            }
+
+            running = false;
+            waiting.clear();
+
+            for(Camera camera : cameras.values()){
+
+                if(camera.state == State.OPENING || camera.state == State.CONFIGURING || camera.state == State.STREAMING){
+
+                    camera.state = State.CLOSING;
+                    closing.add(camera);
+                }
+            }
+        }
+
+        for(Camera camera : closing){
+
+            camera.backend.close();
+        }
+
+        saveQueue.flush();
+    }
+
+    public synchronized Mode getMode(){
+
+        return mode;
+    }
+
+    public synchronized boolean isRunning(){
+
+        return running;
+    }
+
+    public synchronized List<String> getCameraIds(){
+
+        return new ArrayList<>(cameras.keySet());
+    }
+
+    public synchronized State getState(String cameraId){
+
+        return getCamera(cameraId).state;
+    }
+
+    public synchronized long getFrameCount(String cameraId){
+
+        //Frames of the capture stream handed to the save queue.
+        return getCamera(cameraId).frames;
+    }
+
+    public synchronized int getTurnCount(String cameraId){
+
+        //How often the camera has started streaming.
+        return getCamera(cameraId).turns;
+    }
+
+    public FairSaveQueue.Stats getSaveStats(String cameraId){
+
+        return saveQueue.getStats(cameraId);
+    }
+
+    private Camera getCamera(String cameraId){
+
+        Camera camera = cameras.get(cameraId);
+
+        if(camera == null){
+
+            throw new IllegalArgumentException("Error: camera " + cameraId + " is not part of the session");
+        }
+
+        return camera;
+    }
+
+    private boolean isAnyOtherOpen(Camera camera){
+
+        //Cameras still opening count too, since their answer may simply not have arrived yet.
+        for(Camera other : cameras.values()){
+
+            if(other != camera && (other.state == State.OPENING || other.state == State.CONFIGURING || other.state == State.STREAMING)){
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private Camera nextTurn(){
+
+        //The camera that gets the slot just freed, or null if nobody is waiting.
+        if(!running || waiting.isEmpty()){
+
+            return null;
+        }
+
+        Camera next = waiting.poll();
+        next.state = State.OPENING;
+
+        return next;
+    }
+
+    //One camera of the session. Its backend calls it one event at a time on the camera's own thread.
+    private class Camera implements CameraBackend.Listener {
+
+        final String cameraId;
+        final CameraBackend backend;
+        final List<CameraBackend.Stream> streams;
+        final CameraBackend.Request request;
+        final int saveStream;
+
+        State state = State.IDLE;
+        int framesThisTurn;
+        long frames;
+        int turns;
+
+        Camera(String cameraId, CameraBackend backend, List<CameraBackend.Stream> streams, CameraBackend.Request request, int saveStream){
+
+            this.cameraId = cameraId;
+            this.backend = backend;
+            this.streams = streams;
+            this.request = request;
+            this.saveStream = saveStream;
+        }
+
+        @Override
+        public void onOpened(String openedId) {
+
+            synchronized(MultiCameraSession.this){
+
+                if(state != State.OPENING){
+
+                    return;
+                }
+
+                state = State.CONFIGURING;
+            }
+
+            backend.configureSession(streams);
+        }
+
+        @Override
+        public void onSessionConfigured() {
+
+            synchronized(MultiCameraSession.this){
+
+                if(state != State.CONFIGURING){
+
+                    return;
+                }
+
+                state = State.STREAMING;
+                framesThisTurn = 0;
+                turns++;
+            }
+
+            backend.setRepeatingRequest(request);
+        }
+
+        @Override
+        public void onError(String message) {
+
+            Camera next = null;
+            boolean multiplexed = false;
+            boolean failed = false;
+
+            synchronized(MultiCameraSession.this){
+
+                if(state == State.OPENING && running && isAnyOtherOpen(this)){
+
+                    //Taken to mean the device can't have this many cameras open, like ERROR_MAX_CAMERAS_IN_USE.
+                    //The camera waits until one of the open ones hands over its slot.
+                    state = State.IDLE;
+                    waiting.add(this);
+                    multiplexed = mode != Mode.MULTIPLEXED;
+                    mode = Mode.MULTIPLEXED;
+
+                }else{
+
+                    //Any other failure takes the camera out of the session and frees its slot for the next one in line.
+                    failed = state != State.IDLE && state != State.FAILED;
+                    state = State.FAILED;
+                    next = nextTurn();
+                }
+            }
+
+            if(multiplexed){
+
+                listener.onModeChanged(Mode.MULTIPLEXED);
+            }
+
+            if(failed){
+
+                listener.onCameraError(cameraId, message);
+            }
+
+            if(next != null){
+
+                next.backend.open(next.cameraId, next);
+            }
+        }
+
+        @Override
+        public void onClosed(String closedId) {
+
+            Camera next;
+
+            synchronized(MultiCameraSession.this){
+
+                if(state != State.CLOSING){
+
+                    return;
+                }
+
+                state = State.IDLE;
+
+                if(running){
+
+                    waiting.add(this);
+                }
+
+                next = nextTurn();
+            }
+
+            if(next != null){
+
+                next.backend.open(next.cameraId, next);
+            }
+        }
+
+        @Override
+        public void onCaptureCompleted(CameraBackend.Request completed, CameraBackend.Result result) {
+
+        }
+
+        @Override
+        public void onFrameAvailable(int stream, CameraBackend.Frame frame) {
+
+            boolean save;
+            boolean endTurn = false;
+
+            synchronized(MultiCameraSession.this){
+
+                save = stream == saveStream && state == State.STREAMING;
+
+                if(save){
+
+                    frames++;
+                    framesThisTurn++;
+
+                    //A turn only ends if some other camera is waiting for it.
+                    if(mode == Mode.MULTIPLEXED && framesThisTurn >= framesPerTurn && !waiting.isEmpty()){
+
+                        state = State.CLOSING;
+                        endTurn = true;
+                    }
+                }
+            }
+
+            if(!save){
+
+                frame.close();
+                return;
+            }
+
+            //Outside the lock, since the queue hands saves on to the executor and may discard one.
+            saveQueue.submit(cameraId, saveFactory.createSave(cameraId, frame));
+
+            if(endTurn){
+
+                backend.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.david.simplecamera;
+
+//Description: Trades capture quality for throughput when the save queue backs up, saves get slow or the device gets
+//hot, and gives it back once things have calmed down. It only steps one level at a time, so it doesn't oscillate.
+
+import java.util.Locale;
+
+public class QualityController {
+
+    public static class Limits {
+
+        public final int maxJpegQuality;
+        public final int minJpegQuality;
+        public final int jpegQualityStep;
+        public final int maxBurstSize;
+        public final int minBurstSize;
+        public final int maxStillSizeSteps;
+        //Queue depths at or above high count as pressure, at or below low as calm.
+        public final int highQueueDepth;
+        public final int lowQueueDepth;
+        public final long saveLatencyBudgetNanos;
+
+        public Limits(int maxJpegQuality, int minJpegQuality, int jpegQualityStep, int maxBurstSize, int minBurstSize, int maxStillSizeSteps, int highQueueDepth, int lowQueueDepth, long saveLatencyBudgetNanos){
+
+            if(minJpegQuality < 1 || maxJpegQuality > 100 || minJpegQuality > maxJpegQuality || jpegQualityStep < 1
+                    || minBurstSize < 1 || minBurstSize > maxBurstSize || maxStillSizeSteps < 0
+                    || lowQueueDepth < 0 || lowQueueDepth >= highQueueDepth || saveLatencyBudgetNanos <= 0){
+
+                throw new IllegalArgumentException("Error: invalid quality limits!");
+            }
+
+            this.maxJpegQuality = maxJpegQuality;
+            this.minJpegQuality = minJpegQuality;
+            this.jpegQualityStep = jpegQualityStep;
+            this.maxBurstSize = maxBurstSize;
+            this.minBurstSize = minBurstSize;
+            this.maxStillSizeSteps = maxStillSizeSteps;
+            this.highQueueDepth = highQueueDepth;
+            this.lowQueueDepth = lowQueueDepth;
+            this.saveLatencyBudgetNanos = saveLatencyBudgetNanos;
+        }
+    }
+
+    public static class Settings {
+
+        public final int jpegQuality;
+        public final int burstSize;
+        //0 is the selected still size, every step one smaller size with the same aspect ratio.
+        public final int stillSizeStep;
+
+        Settings(int jpegQuality, int burstSize, int stillSizeStep){
+
+            this.jpegQuality = jpegQuality;
+            this.burstSize = burstSize;
+            this.stillSizeStep = stillSizeStep;
+        }
+
+        @Override
+        public boolean equals(Object other){
+
+            if(!(other instanceof Settings)){
+
+                return false;
+            }
+
+            Settings settings = (Settings) other;
+
+            return jpegQuality == settings.jpegQuality && burstSize == settings.burstSize && stillSizeStep == settings.stillSizeStep;
+        }
+
+        @Override
+        public int hashCode(){
+
+            return (jpegQuality * 31 + burstSize) * 31 + stillSizeStep;
+        }
+
+        @Override
+        public String toString(){
+
+            return String.format(Locale.US, "JPEG quality %d, burst of %d, still size step %d", jpegQuality, burstSize, stillSizeStep);
+        }
+    }
+
+    private final Limits limits;
+    private final int qualityLevels;
+    private final int burstLevels;
+    private final int maxLevel;
+    private final int degradeAfter;
+    private final int recoverAfter;
+    private int level;
+    private int pressureCount;
+    private int calmCount;
+    private Settings settings;
+
+    public QualityController(Limits limits, int degradeAfter, int recoverAfter){
+
+        //degradeAfter and recoverAfter are how many updates in a row have to agree before the level moves.
+        //Recovering should take longer than degrading so a short lull doesn't bring the load straight back.
+        if(limits == null){
+
+            throw new NullPointerException();
+        }
+
+        if(degradeAfter < 1 || recoverAfter < 1){
+
+            throw new IllegalArgumentException("Error: the controller needs at least one update per step");
+        }
+
+        this.limits = limits;
+        this.degradeAfter = degradeAfter;
+        this.recoverAfter = recoverAfter;
+
+        //Quality goes first because it costs the least to see, then the burst length, then the still size.
+        qualityLevels = (limits.maxJpegQuality - limits.minJpegQuality + limits.jpegQualityStep - 1) / limits.jpegQualityStep;
+        burstLevels = limits.maxBurstSize - limits.minBurstSize;
+        maxLevel = qualityLevels + burstLevels + limits.maxStillSizeSteps;
+        settings = settingsFor(0);
+    }
+
+    public synchronized Settings update(int queueDepth, long saveLatencyNanos, int thermalLevel){
+
+        //saveLatencyNanos is -1 when there is no recent save to go by.
+        boolean slow = saveLatencyNanos > limits.saveLatencyBudgetNanos;
+        boolean pressure = queueDepth >= limits.highQueueDepth || slow || thermalLevel >= ThermalSource.THERMAL_MODERATE;
+        boolean calm = queueDepth <= limits.lowQueueDepth && saveLatencyNanos <= limits.saveLatencyBudgetNanos / 2 && thermalLevel <= ThermalSource.THERMAL_LIGHT;
+
+        if(thermalLevel >= ThermalSource.THERMAL_SEVERE){
+
+            //Too hot to wait for a trend.
+            pressureCount = 0;
+            calmCount = 0;
+            setLevel(level + 1);
+
+        }else if(pressure){
+
+            calmCount = 0;
+
+            if(++pressureCount >= degradeAfter){
+
+                pressureCount = 0;
+                setLevel(level + 1);
+            }
+
+        }else if(calm){
+
+            pressureCount = 0;
+
+            if(++calmCount >= recoverAfter){
+
+                calmCount = 0;
+                setLevel(level - 1);
+            }
+
+        }else{
+
+            //In between: hold the current level.
+            pressureCount = 0;
+            calmCount = 0;
+        }
+
+        return settings;
+    }
+
+    private void setLevel(int newLevel){
+
+        level = Math.max(0, Math.min(maxLevel, newLevel));
+        settings = settingsFor(level);
+    }
+
+    private Settings settingsFor(int level){
+
+        int qualitySteps = Math.min(level, qualityLevels);
+        int burstSteps = Math.min(level - qualitySteps, burstLevels);
+        int sizeSteps = level - qualitySteps - burstSteps;
+
+        int quality = Math.max(limits.minJpegQuality, limits.maxJpegQuality - qualitySteps * limits.jpegQualityStep);
+
+        return new Settings(quality, limits.maxBurstSize - burstSteps, sizeSteps);
+    }
+
+    public synchronized Settings getSettings(){
+
+        return settings;
+    }
+
+    public synchronized int getLevel(){
+
+        //0 is full quality, getMaxLevel() everything turned down as far as the limits allow.
+        return level;
+    }
+
+    public int getMaxLevel(){
+
+        return maxLevel;
+    }
+}
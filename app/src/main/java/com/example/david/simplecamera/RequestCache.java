@@ -0,0 +1,129 @@
+package com.example.david.simplecamera;
+
+//Description: Holds the capture requests of one capture session. Each variant is built once and then reused, so
+//moving between capture states doesn't rebuild anything and a trigger can't stay set on the next request.
+
+public class RequestCache<R> {
+
+    public enum Variant {
+
+        //The continuous auto focus preview the session starts with.
+        PREVIEW,
+        //The preview with AUTO focus, repeated while a capture is focusing.
+        AUTO_FOCUS_PREVIEW,
+        FOCUS_TRIGGER,
+        PRECAPTURE_TRIGGER,
+        STILL,
+        PRECAPTURE_CANCEL,
+        FOCUS_CANCEL,
+        //The AUTO focus preview with the exposure locked, which holds both locks between the shots of an interval capture.
+        LOCKED_PREVIEW,
+        //A still that keeps the held locks.
+        LOCKED_STILL
+    }
+
+    private final static Variant[] VARIANTS = Variant.values();
+
+    public interface Factory<R> {
+
+        //Returns null if the request couldn't be built. It is tried again on the next get.
+        R build(Variant variant);
+    }
+
+    private final Factory<R> factory;
+    private final Object[] requests = new Object[VARIANTS.length];
+    private int builds;
+    private int reuses;
+    private int buildsAtShotStart;
+
+    public RequestCache(Factory<R> factory){
+
+        if(factory == null){
+
+            throw new NullPointerException();
+        }
+
+        this.factory = factory;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized R get(Variant variant){
+
+        R request = (R) requests[variant.ordinal()];
+
+        if(request != null){
+
+            reuses++;
+            return request;
+        }
+
+        request = factory.build(variant);
+
+        if(request != null){
+
+            requests[variant.ordinal()] = request;
+            builds++;
+        }
+
+        return request;
+    }
+
+    public synchronized void prebuild(){
+
+        //Builds every variant that hasn't been built yet, so the first shot of the session doesn't pay for it.
+        for(Variant variant : VARIANTS){
+
+            if(requests[variant.ordinal()] == null){
+
+                R request = factory.build(variant);
+
+                if(request != null){
+
+                    requests[variant.ordinal()] = request;
+                    builds++;
+                }
+            }
+        }
+    }
+
+    public synchronized boolean isBuilt(Variant variant){
+
+        return requests[variant.ordinal()] != null;
+    }
+
+    public synchronized void invalidate(Variant variant){
+
+        //The variant is built again the next time it is needed, for a setting that changed mid-session.
+        requests[variant.ordinal()] = null;
+    }
+
+    public synchronized void clear(){
+
+        //The requests target the session's surfaces, so they go with the session.
+        for(int i = 0; i < requests.length; i++){
+
+            requests[i] = null;
+        }
+    }
+
+    public synchronized void beginShot(){
+
+        buildsAtShotStart = builds;
+    }
+
+    public synchronized int getBuildsThisShot(){
+
+        //Requests built since beginShot. Zero once the session's requests have all been built.
+        return builds - buildsAtShotStart;
+    }
+
+    public synchronized int getBuildCount(){
+
+        return builds;
+    }
+
+    public synchronized int getReuseCount(){
+
+        return reuses;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.david.simplecamera;
+
+//Description: A container that encoded samples are written into, like a MediaMuxer. F is the format a track is
+//added with.
+
+import java.nio.ByteBuffer;
+
+public interface SampleMuxer<F> {
+
+    //Returns the index of the new track. Tracks can only be added before start.
+    int addTrack(F format);
+
+    void start();
+
+    //The sample is the data between the buffer's position and limit. The buffer belongs to the encoder and is
+    //handed back as soon as this returns, so it must not be kept.
+    void writeSampleData(int track, ByteBuffer data, EncoderOutput.SampleInfo info);
+
+    //Finishes the container. Nothing can be written afterwards.
+    void stop();
+}
@@ -0,0 +1,450 @@
+package com.example.david.simplecamera;
+
+//Description: A bounded pool of worker threads dedicated to saving images, kept apart from the
+//thread that drives the camera callbacks so slow writes can't stall capture.
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SaveExecutor {
+
+    public enum BackpressurePolicy {
+
+        //The submitting thread waits for room in the queue.
+        BLOCK,
+
+        //The oldest queued task is discarded to make room.
+        DROP_OLDEST,
+
+        //The new task is discarded.
+        REJECT
+    }
+
+    public interface RejectionListener {
+
+        //Called with a task that was dropped or rejected, right before it is discarded.
+        void onRejected(SaveTask task);
+    }
+
+    public static class DrainResult {
+
+        //Saves that finished between the previous drain and this one.
+        public final long completed;
+        //Saves that were queued or running when the drain started and finished within the grace period.
+        public final long drained;
+        //Queued saves that were discarded because the grace period ran out.
+        public final int dropped;
+        //Saves still running when the drain gave up on them.
+        public final int stillRunning;
+
+        DrainResult(long completed, long drained, int dropped, int stillRunning){
+
+            this.completed = completed;
+            this.drained = drained;
+            this.dropped = dropped;
+            this.stillRunning = stillRunning;
+        }
+
+        @Override
+        public String toString(){
+
+            return String.format(Locale.US, "Saves: %d completed, %d drained, %d dropped, %d still running", completed, drained, dropped, stillRunning);
+        }
+    }
+
+    private final static long IDLE_POLL_MILLIS = 100;
+
+    private final BlockingQueue<QueuedTask> queue;
+    private final BackpressurePolicy policy;
+    private final Thread[] workers;
+    private volatile RejectionListener rejectionListener;
+    private volatile boolean running = true;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+    private final AtomicLong maxRunNanos = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    //Tasks queued or running. Guarded by idleLock so drain can wait for it to reach zero.
+    private final Object idleLock = new Object();
+    private int outstanding;
+    private long finishedAtLastDrain;
+
+    public SaveExecutor(String name, int workerCount, int queueCapacity, BackpressurePolicy backpressurePolicy){
+
+        if(workerCount < 1 || queueCapacity < 1 || backpressurePolicy == null){
+
+            throw new IllegalArgumentException("Error: invalid save executor configuration!");
+        }
+
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        policy = backpressurePolicy;
+        workers = new Thread[workerCount];
+
+        for(int i = 0; i < workerCount; i++){
+
+            workers[i] = new Thread(new Worker(), name + " " + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    public void setRejectionListener(RejectionListener listener){
+
+        rejectionListener = listener;
+    }
+
+    public boolean submit(SaveTask task){
+
+        //Returns true if the task was queued. Tasks that are not queued have already been discarded.
+
+        if(task == null){
+
+            throw new NullPointerException();
+        }
+
+        if(!running){
+
+            reject(task, rejected);
+            return false;
+        }
+
+        QueuedTask queuedTask = new QueuedTask(task, System.nanoTime());
+        boolean queued;
+
+        //Counted before it is queued so a worker can never finish it before it has been counted.
+        addOutstanding(1);
+
+        switch(policy){
+            case BLOCK:
+                try{
+
+                    queue.put(queuedTask);
+                    queued = true;
+
+                }catch(InterruptedException e){
+
+                    Thread.currentThread().interrupt();
+                    queued = false;
+                }
+                break;
+            case DROP_OLDEST:
+                while(!queue.offer(queuedTask)){
+
+                    QueuedTask oldest = queue.poll();
+
+                    if(oldest != null){
+
+                        addOutstanding(-1);
+                        reject(oldest.task, dropped);
+                    }
+                }
+                queued = true;
+                break;
+            default:
+                queued = queue.offer(queuedTask);
+                break;
+        }
+
+        if(!queued){
+
+            addOutstanding(-1);
+            reject(task, rejected);
+            return false;
+        }
+
+        submitted.incrementAndGet();
+        updateMax(maxQueueDepth, queue.size());
+
+        return true;
+    }
+
+    public void shutdown(){
+
+        //Already queued tasks still run. New tasks are rejected.
+        running = false;
+    }
+
+    public int shutdownNow(){
+
+        //Discards everything still queued and returns how many tasks that was.
+        running = false;
+
+        return discardQueued();
+    }
+
+    private int discardQueued(){
+
+        int discarded = 0;
+        QueuedTask queuedTask;
+
+        while((queuedTask = queue.poll()) != null){
+
+            addOutstanding(-1);
+            reject(queuedTask.task, dropped);
+            discarded++;
+        }
+
+        return discarded;
+    }
+
+    public synchronized DrainResult drain(long graceMillis){
+
+        //Waits up to graceMillis for everything queued or running to finish, then discards whatever is still
+        //queued. Unlike shutdown the executor keeps accepting tasks afterwards.
+        long finishedBefore = getFinishedCount();
+        boolean idle = awaitIdle(graceMillis);
+        int discarded = idle ? 0 : discardQueued();
+        long finishedAfter = getFinishedCount();
+        int stillRunning;
+
+        synchronized(idleLock){
+
+            stillRunning = outstanding;
+        }
+
+        DrainResult result = new DrainResult(finishedBefore - finishedAtLastDrain, finishedAfter - finishedBefore, discarded, stillRunning);
+        finishedAtLastDrain = finishedAfter;
+
+        return result;
+    }
+
+    public boolean awaitIdle(long timeoutMillis){
+
+        //Returns true once nothing is queued or running, false if that didn't happen in time. Timed on the
+        //monotonic clock, so a change of the wall clock can't cut the wait short or stretch it.
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        synchronized(idleLock){
+
+            while(outstanding > 0){
+
+                long remaining = deadline - System.nanoTime();
+
+                if(remaining <= 0){
+
+                    return false;
+                }
+
+                try{
+
+                    TimeUnit.NANOSECONDS.timedWait(idleLock, remaining);
+
+                }catch(InterruptedException e){
+
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private void addOutstanding(int delta){
+
+        synchronized(idleLock){
+
+            outstanding += delta;
+
+            if(outstanding == 0){
+
+                idleLock.notifyAll();
+            }
+        }
+    }
+
+    private long getFinishedCount(){
+
+        return completed.get() + failed.get();
+    }
+
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        for(Thread worker : workers){
+
+            long remaining = deadline - System.nanoTime();
+
+            if(remaining <= 0){
+
+                return false;
+            }
+
+            TimeUnit.NANOSECONDS.timedJoin(worker, remaining);
+
+            if(worker.isAlive()){
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public int getQueueDepth(){
+
+        return queue.size();
+    }
+
+    public long getMaxQueueDepth(){
+
+        return maxQueueDepth.get();
+    }
+
+    public long getSubmittedCount(){
+
+        return submitted.get();
+    }
+
+    public long getCompletedCount(){
+
+        return completed.get();
+    }
+
+    public long getFailedCount(){
+
+        return failed.get();
+    }
+
+    public long getDroppedCount(){
+
+        return dropped.get();
+    }
+
+    public long getRejectedCount(){
+
+        return rejected.get();
+    }
+
+    public long getAverageWaitNanos(){
+
+        long finished = completed.get() + failed.get();
+
+        return finished == 0 ? 0 : totalWaitNanos.get() / finished;
+    }
+
+    public long getMaxWaitNanos(){
+
+        return maxWaitNanos.get();
+    }
+
+    public long getAverageRunNanos(){
+
+        long finished = completed.get() + failed.get();
+
+        return finished == 0 ? 0 : totalRunNanos.get() / finished;
+    }
+
+    public long getMaxRunNanos(){
+
+        return maxRunNanos.get();
+    }
+
+    private void reject(SaveTask task, AtomicLong counter){
+
+        counter.incrementAndGet();
+
+        RejectionListener listener = rejectionListener;
+
+        if(listener != null){
+
+            listener.onRejected(task);
+        }
+
+        task.discard();
+    }
+
+    private void execute(QueuedTask queuedTask){
+
+        long start = System.nanoTime();
+        long wait = start - queuedTask.enqueuedNanos;
+
+        try{
+
+            queuedTask.task.run();
+            completed.incrementAndGet();
+
+        }catch(RuntimeException e){
+
+            failed.incrementAndGet();
+            e.printStackTrace();
+
+        }finally{
+
+            //Even an Error, which still ends the worker, must not leave awaitIdle waiting for this task forever.
+            long run = System.nanoTime() - start;
+
+            totalWaitNanos.addAndGet(wait);
+            totalRunNanos.addAndGet(run);
+            updateMax(maxWaitNanos, wait);
+            updateMax(maxRunNanos, run);
+            addOutstanding(-1);
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value){
+
+        long current;
+
+        while(value > (current = max.get())){
+
+            if(max.compareAndSet(current, value)){
+
+                return;
+            }
+        }
+    }
+
+    private static class QueuedTask {
+
+        final SaveTask task;
+        final long enqueuedNanos;
+
+        QueuedTask(SaveTask task, long enqueuedNanos){
+
+            this.task = task;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run(){
+
+            while(true){
+
+                QueuedTask queuedTask;
+
+                try{
+
+                    queuedTask = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                }catch(InterruptedException e){
+
+                    return;
+                }
+
+                if(queuedTask != null){
+
+                    execute(queuedTask);
+
+                }else if(!running){
+
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.david.simplecamera;
+
+//Description: A unit of work for the SaveExecutor that can be thrown away without being run.
+
+public interface SaveTask extends Runnable {
+
+    //Called instead of run() when the task is dropped, so it can release what it holds (like an Image).
+    void discard();
+}
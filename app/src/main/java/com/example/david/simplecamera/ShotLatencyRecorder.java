@@ -0,0 +1,279 @@
+package com.example.david.simplecamera;
+
+//Description: Records when each shot reaches each stage between the shutter press and the image being
+//persisted. Shots are kept in a fixed size ring so recording never allocates or locks, and the ring can be
+//summarised as percentiles or dumped as CSV or a compact binary file to compare builds.
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class ShotLatencyRecorder {
+
+    public enum Stage {
+
+        BUTTON_PRESS,
+        AF_LOCKED,
+        PRECAPTURE_CONVERGED,
+        CAPTURE_COMPLETED,
+        IMAGE_AVAILABLE,
+        COPIED,
+        PERSISTED
+    }
+
+    public final static int BINARY_MAGIC = 0x534C4154;
+    public final static int BINARY_VERSION = 1;
+    public final static long NO_SHOT = -1;
+
+    private final static Stage[] STAGES = Stage.values();
+    private final static long UNSET = Long.MIN_VALUE;
+
+    private final int capacity;
+    private final Clock clock;
+    private final AtomicLong nextShot = new AtomicLong();
+
+    //One row of stage timestamps per slot, plus the id of the shot that currently owns the slot.
+    private final AtomicLongArray timestamps;
+    private final AtomicLongArray slotOwners;
+
+    public static class Summary {
+
+        public final Stage stage;
+        public final int count;
+        public final long p50Nanos;
+        public final long p95Nanos;
+        public final long p99Nanos;
+
+        Summary(Stage stage, int count, long p50Nanos, long p95Nanos, long p99Nanos){
+
+            this.stage = stage;
+            this.count = count;
+            this.p50Nanos = p50Nanos;
+            this.p95Nanos = p95Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        @Override
+        public String toString(){
+
+            return String.format(Locale.US, "%s n=%d p50=%.1fms p95=%.1fms p99=%.1fms", stage, count, p50Nanos / 1e6, p95Nanos / 1e6, p99Nanos / 1e6);
+        }
+    }
+
+    public ShotLatencyRecorder(int shotCapacity, Clock recorderClock){
+
+        if(shotCapacity < 1 || recorderClock == null){
+
+            throw new IllegalArgumentException("Error: invalid latency recorder configuration!");
+        }
+
+        capacity = shotCapacity;
+        clock = recorderClock;
+        timestamps = new AtomicLongArray(capacity * STAGES.length);
+        slotOwners = new AtomicLongArray(capacity);
+
+        for(int i = 0; i < capacity; i++){
+
+            slotOwners.set(i, NO_SHOT);
+        }
+    }
+
+    public long beginShot(){
+
+        //Starts a new shot at the button press and returns its id. The oldest shot in the ring is overwritten.
+        long shot = nextShot.getAndIncrement();
+        int slot = slotFor(shot);
+
+        slotOwners.set(slot, NO_SHOT);
+
+        for(int i = 0; i < STAGES.length; i++){
+
+            timestamps.set(slot * STAGES.length + i, UNSET);
+        }
+
+        slotOwners.set(slot, shot);
+        mark(shot, Stage.BUTTON_PRESS);
+
+        return shot;
+    }
+
+    public void mark(long shot, Stage stage){
+
+        //Only the first time a stage is reached counts, so for a burst it's the first frame that is measured.
+
+        if(shot < 0){
+
+            return;
+        }
+
+        int slot = slotFor(shot);
+
+        if(slotOwners.get(slot) == shot){
+
+            timestamps.compareAndSet(slot * STAGES.length + stage.ordinal(), UNSET, clock.nanoTime());
+        }
+    }
+
+    public long getElapsedNanos(long shot, Stage stage){
+
+        //Time from the button press to the stage, or -1 if the shot never got there or has been overwritten.
+        int slot = slotFor(shot);
+
+        if(shot < 0 || slotOwners.get(slot) != shot){
+
+            return -1;
+        }
+
+        return elapsed(slot, stage);
+    }
+
+    public Summary summarize(Stage stage){
+
+        long[] values = new long[capacity];
+        int count = 0;
+
+        for(int slot = 0; slot < capacity; slot++){
+
+            if(slotOwners.get(slot) != NO_SHOT){
+
+                long value = elapsed(slot, stage);
+
+                if(value >= 0){
+
+                    values[count++] = value;
+                }
+            }
+        }
+
+        Arrays.sort(values, 0, count);
+
+        return new Summary(stage, count, percentile(values, count, 0.50), percentile(values, count, 0.95), percentile(values, count, 0.99));
+    }
+
+    public Summary[] summarizeAll(){
+
+        Summary[] summaries = new Summary[STAGES.length];
+
+        for(Stage stage : STAGES){
+
+            summaries[stage.ordinal()] = summarize(stage);
+        }
+
+        return summaries;
+    }
+
+    public void writeCsv(Writer writer) throws IOException {
+
+        //One row per shot, oldest first, with every stage in microseconds since the button press.
+        StringBuilder line = new StringBuilder("shot");
+
+        for(Stage stage : STAGES){
+
+            line.append(',').append(stage.name().toLowerCase(Locale.US));
+        }
+
+        writer.write(line.append('\n').toString());
+
+        for(int slot : slotsInOrder()){
+
+            line.setLength(0);
+            line.append(slotOwners.get(slot));
+
+            for(Stage stage : STAGES){
+
+                long value = elapsed(slot, stage);
+
+                line.append(',');
+
+                if(value >= 0){
+
+                    line.append(value / 1000);
+                }
+            }
+
+            writer.write(line.append('\n').toString());
+        }
+
+        writer.flush();
+    }
+
+    public void writeBinary(OutputStream out) throws IOException {
+
+        //Header: magic, version, stage count, shot count. Then per shot its id followed by the
+        //nanoseconds since the button press for every stage, -1 where the stage wasn't reached.
+        int[] slots = slotsInOrder();
+        DataOutputStream data = new DataOutputStream(out);
+
+        data.writeInt(BINARY_MAGIC);
+        data.writeInt(BINARY_VERSION);
+        data.writeInt(STAGES.length);
+        data.writeInt(slots.length);
+
+        for(int slot : slots){
+
+            data.writeLong(slotOwners.get(slot));
+
+            for(Stage stage : STAGES){
+
+                data.writeLong(elapsed(slot, stage));
+            }
+        }
+
+        data.flush();
+    }
+
+    private long elapsed(int slot, Stage stage){
+
+        long start = timestamps.get(slot * STAGES.length);
+        long time = timestamps.get(slot * STAGES.length + stage.ordinal());
+
+        if(start == UNSET || time == UNSET){
+
+            return -1;
+        }
+
+        return time - start;
+    }
+
+    private int[] slotsInOrder(){
+
+        long newest = nextShot.get() - 1;
+        long oldest = Math.max(0, newest - capacity + 1);
+        int[] slots = new int[capacity];
+        int count = 0;
+
+        for(long shot = oldest; shot <= newest; shot++){
+
+            int slot = slotFor(shot);
+
+            if(slotOwners.get(slot) == shot){
+
+                slots[count++] = slot;
+            }
+        }
+
+        return Arrays.copyOf(slots, count);
+    }
+
+    private int slotFor(long shot){
+
+        return (int) (shot % capacity);
+    }
+
+    private static long percentile(long[] sorted, int count, double quantile){
+
+        if(count == 0){
+
+            return -1;
+        }
+
+        int index = (int) Math.ceil(quantile * count) - 1;
+
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
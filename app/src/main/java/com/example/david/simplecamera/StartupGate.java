@@ -0,0 +1,73 @@
+package com.example.david.simplecamera;
+
+//Description: Runs an action once a set of startup steps that can finish in any order are all ready.
+
+public class StartupGate {
+
+    private final int required;
+    private final Runnable action;
+    private int ready;
+    private boolean fired;
+
+    public StartupGate(int required, Runnable action){
+
+        //Every step is one bit of the required mask.
+        if(action == null){
+
+            throw new NullPointerException();
+        }
+
+        if(required == 0){
+
+            throw new IllegalArgumentException("Error: a gate needs at least one step");
+        }
+
+        this.required = required;
+        this.action = action;
+    }
+
+    public void ready(int step){
+
+        //The action runs on the thread that completes the set, outside the lock.
+        boolean fire;
+
+        synchronized(this){
+
+            ready |= step & required;
+            fire = !fired && ready == required;
+
+            if(fire){
+
+                fired = true;
+            }
+        }
+
+        if(fire){
+
+            action.run();
+        }
+    }
+
+    public synchronized void clear(int step){
+
+        //Losing a step re-arms the gate, so the action runs again once it is ready again.
+        ready &= ~step;
+        fired = false;
+    }
+
+    public synchronized void reset(){
+
+        ready = 0;
+        fired = false;
+    }
+
+    public synchronized boolean isReady(int step){
+
+        return (ready & step) == step;
+    }
+
+    public synchronized boolean isOpen(){
+
+        return fired;
+    }
+}
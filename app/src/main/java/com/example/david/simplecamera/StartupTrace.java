@@ -0,0 +1,184 @@
+package com.example.david.simplecamera;
+
+//Description: Records when each step between launch and the first preview frame happened, for one launch at a time.
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+public class StartupTrace {
+
+    public enum Milestone {
+
+        LAUNCH,
+        CAMERA_OPENED,
+        OUTPUTS_READY,
+        SURFACE_READY,
+        SESSION_CONFIGURED,
+        FIRST_FRAME
+    }
+
+    private final static Milestone[] MILESTONES = Milestone.values();
+    private final static long UNSET = Long.MIN_VALUE;
+
+    private final Clock clock;
+    private final long budgetNanos;
+    private final long[] times = new long[MILESTONES.length];
+    private boolean coldStart;
+
+    public StartupTrace(Clock clock, long budgetNanos){
+
+        if(clock == null){
+
+            throw new NullPointerException();
+        }
+
+        if(budgetNanos <= 0){
+
+            throw new IllegalArgumentException("Error: the budget has to be positive");
+        }
+
+        this.clock = clock;
+        this.budgetNanos = budgetNanos;
+        clearTimes();
+    }
+
+    public synchronized void begin(boolean cold){
+
+        //Starts a new launch. Anything marked for the previous one is forgotten.
+        clearTimes();
+        coldStart = cold;
+        times[Milestone.LAUNCH.ordinal()] = clock.nanoTime();
+    }
+
+    public synchronized boolean mark(Milestone milestone){
+
+        //Returns true the first time a milestone is reached in a launch. Marks before begin() are ignored.
+        if(times[Milestone.LAUNCH.ordinal()] == UNSET || times[milestone.ordinal()] != UNSET){
+
+            return false;
+        }
+
+        times[milestone.ordinal()] = clock.nanoTime();
+        return true;
+    }
+
+    public synchronized boolean isStarted(){
+
+        return times[Milestone.LAUNCH.ordinal()] != UNSET;
+    }
+
+    public synchronized boolean isComplete(){
+
+        return times[Milestone.FIRST_FRAME.ordinal()] != UNSET;
+    }
+
+    public synchronized long getElapsedNanos(Milestone milestone){
+
+        //Nanoseconds from the launch to the milestone, or -1 if it hasn't been reached.
+        long start = times[Milestone.LAUNCH.ordinal()];
+        long time = times[milestone.ordinal()];
+
+        if(start == UNSET || time == UNSET){
+
+            return -1;
+        }
+
+        return time - start;
+    }
+
+    public long getTimeToFirstFrameNanos(){
+
+        return getElapsedNanos(Milestone.FIRST_FRAME);
+    }
+
+    public synchronized boolean isOverBudget(){
+
+        //Also true while the first frame is still missing after the whole budget has gone by.
+        long start = times[Milestone.LAUNCH.ordinal()];
+
+        if(start == UNSET){
+
+            return false;
+        }
+
+        long end = times[Milestone.FIRST_FRAME.ordinal()];
+
+        return (end == UNSET ? clock.nanoTime() : end) - start > budgetNanos;
+    }
+
+    public long getBudgetNanos(){
+
+        return budgetNanos;
+    }
+
+    public static void writeCsvHeader(Writer writer) throws IOException {
+
+        writer.write("cold");
+
+        for(Milestone milestone : MILESTONES){
+
+            if(milestone != Milestone.LAUNCH){
+
+                writer.write(",");
+                writer.write(milestone.name().toLowerCase(Locale.US) + "_ms");
+            }
+        }
+
+        writer.write("\n");
+    }
+
+    public synchronized void writeCsvRow(Writer writer) throws IOException {
+
+        //Milliseconds since launch for each milestone, empty where it wasn't reached.
+        writer.write(String.valueOf(coldStart));
+
+        for(Milestone milestone : MILESTONES){
+
+            if(milestone != Milestone.LAUNCH){
+
+                long elapsed = getElapsedNanos(milestone);
+
+                writer.write(",");
+
+                if(elapsed >= 0){
+
+                    writer.write(String.format(Locale.US, "%.2f", elapsed / 1e6));
+                }
+            }
+        }
+
+        writer.write("\n");
+    }
+
+    private void clearTimes(){
+
+        for(int i = 0; i < times.length; i++){
+
+            times[i] = UNSET;
+        }
+    }
+
+    @Override
+    public synchronized String toString(){
+
+        StringBuilder builder = new StringBuilder(coldStart ? "Cold start" : "Warm start");
+
+        for(Milestone milestone : MILESTONES){
+
+            long elapsed = getElapsedNanos(milestone);
+
+            if(milestone != Milestone.LAUNCH && elapsed >= 0){
+
+                builder.append(String.format(Locale.US, " %s=%.1fms", milestone.name().toLowerCase(Locale.US), elapsed / 1e6));
+            }
+        }
+
+        if(isOverBudget()){
+
+            builder.append(String.format(Locale.US, " over the %.0fms budget", budgetNanos / 1e6));
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.david.simplecamera;
+
+//Description: Picks the preview and still sizes from the sizes a camera supports (its StreamConfigurationMap),
+//checking their minimum frame and stall durations against the frame rates we need. Sizes are compared by
+//their long and short sides, so a portrait view matches the landscape sizes the sensor reports.
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class StreamSizeSelector {
+
+    private final static long NANOS_PER_SECOND = 1000000000L;
+    private final static double ASPECT_TOLERANCE = 0.02;
+
+    public static class StreamSize {
+
+        public final int width;
+        public final int height;
+        public final long minFrameDurationNanos;
+        public final long stallDurationNanos;
+
+        public StreamSize(int width, int height, long minFrameDurationNanos, long stallDurationNanos){
+
+            this.width = width;
+            this.height = height;
+            this.minFrameDurationNanos = minFrameDurationNanos;
+            this.stallDurationNanos = stallDurationNanos;
+        }
+
+        public long getArea(){
+
+            return (long) width * height;
+        }
+
+        public double getAspectRatio(){
+
+            return (double) Math.max(width, height) / Math.min(width, height);
+        }
+
+        @Override
+        public String toString(){
+
+            return width + "x" + height;
+        }
+    }
+
+    public static class Selection {
+
+        public final StreamSize preview;
+        public final StreamSize still;
+
+        Selection(StreamSize preview, StreamSize still){
+
+            this.preview = preview;
+            this.still = still;
+        }
+    }
+
+    private StreamSizeSelector(){
+
+    }
+
+    public static Selection select(List<StreamSize> previewSizes, List<StreamSize> stillSizes, int viewWidth, int viewHeight, int maxPreviewWidth, int maxPreviewHeight, int previewFps, int stillFps){
+
+        StreamSize preview = selectPreviewSize(previewSizes, viewWidth, viewHeight, maxPreviewWidth, maxPreviewHeight, previewFps);
+
+        if(preview == null){
+
+            return null;
+        }
+
+        StreamSize still = selectStillSize(stillSizes, preview.getAspectRatio(), stillFps, false);
+
+        return still == null ? null : new Selection(preview, still);
+    }
+
+    public static StreamSize selectRepeatingStillSize(List<StreamSize> sizes, double aspectRatio, int previewFps){
+
+        //A still stream that is part of the repeating request, like the zero shutter lag ring, has to keep up with
+        //the preview and can't stall it. Returns null if no size can, which most devices report for every JPEG size.
+        return selectStillSize(sizes, aspectRatio, previewFps, true);
+    }
+
+    public static StreamSize selectPreviewSize(List<StreamSize> sizes, int viewWidth, int viewHeight, int maxWidth, int maxHeight, int targetFps){
+
+        //The smallest size that covers the view with its aspect ratio, at the target frame rate and no larger
+        //than the maximum. If nothing covers the view, the largest size with the closest aspect ratio.
+
+        int viewLong = Math.max(viewWidth, viewHeight);
+        int viewShort = Math.min(viewWidth, viewHeight);
+        int maxLong = Math.max(maxWidth, maxHeight);
+        int maxShort = Math.min(maxWidth, maxHeight);
+        double viewAspect = viewShort == 0 ? 0 : (double) viewLong / viewShort;
+
+        List<StreamSize> usable = new ArrayList<>();
+
+        for(StreamSize size : sizes){
+
+            int sizeLong = Math.max(size.width, size.height);
+            int sizeShort = Math.min(size.width, size.height);
+
+            if(sizeLong <= maxLong && sizeShort <= maxShort && meetsFrameRate(size, targetFps)){
+
+                usable.add(size);
+            }
+        }
+
+        if(usable.isEmpty()){
+
+            return null;
+        }
+
+        List<StreamSize> closestAspect = closestAspect(usable, viewAspect);
+        StreamSize smallestCovering = null;
+        StreamSize largest = null;
+
+        for(StreamSize size : closestAspect){
+
+            boolean covers = Math.max(size.width, size.height) >= viewLong && Math.min(size.width, size.height) >= viewShort;
+
+            if(covers && (smallestCovering == null || size.getArea() < smallestCovering.getArea())){
+
+                smallestCovering = size;
+            }
+
+            if(largest == null || size.getArea() > largest.getArea()){
+
+                largest = size;
+            }
+        }
+
+        return smallestCovering != null ? smallestCovering : largest;
+    }
+
+    public static StreamSize selectStillSize(List<StreamSize> sizes, double aspectRatio, int targetFps, boolean requireNoStall){
+
+        //The largest size with the preview's aspect ratio (or the closest one there is) that can be
+        //captured at the target rate. Between equal areas the one with the shorter stall wins.
+
+        List<StreamSize> usable = new ArrayList<>();
+
+        for(StreamSize size : sizes){
+
+            if(meetsFrameRate(size, targetFps) && (!requireNoStall || size.stallDurationNanos == 0)){
+
+                usable.add(size);
+            }
+        }
+
+        if(usable.isEmpty()){
+
+            return null;
+        }
+
+        StreamSize best = null;
+
+        for(StreamSize size : closestAspect(usable, aspectRatio)){
+
+            if(best == null || size.getArea() > best.getArea() || (size.getArea() == best.getArea() && size.stallDurationNanos < best.stallDurationNanos)){
+
+                best = size;
+            }
+        }
+
+        return best;
+    }
+
+    public static StreamSize stepDownStillSize(List<StreamSize> sizes, StreamSize still, int steps){
+
+        //The size steps places below the still size among the sizes with its aspect ratio, or the smallest of
+        //them if there aren't that many.
+        if(steps <= 0){
+
+            return still;
+        }
+
+        List<StreamSize> smaller = new ArrayList<>();
+
+        for(StreamSize size : closestAspect(sizes, still.getAspectRatio())){
+
+            if(size.getArea() < still.getArea()){
+
+                smaller.add(size);
+            }
+        }
+
+        if(smaller.isEmpty()){
+
+            return still;
+        }
+
+        Collections.sort(smaller, new Comparator<StreamSize>() {
+
+            @Override
+            public int compare(StreamSize a, StreamSize b) {
+
+                //Largest first.
+                return a.getArea() < b.getArea() ? 1 : (a.getArea() > b.getArea() ? -1 : 0);
+            }
+        });
+
+        return smaller.get(Math.min(steps, smaller.size()) - 1);
+    }
+
+    public static StreamSize selectAnalysisSize(List<StreamSize> sizes, double aspectRatio, int minLongEdge, int targetFps){
+
+        //The smallest stall-free size with the preview's aspect ratio that is still at least minLongEdge
+        //pixels along its long edge and keeps up with the preview. Analysis is cheaper the fewer pixels it
+        //has to look at.
+
+        List<StreamSize> usable = new ArrayList<>();
+
+        for(StreamSize size : sizes){
+
+            if(meetsFrameRate(size, targetFps) && size.stallDurationNanos == 0){
+
+                usable.add(size);
+            }
+        }
+
+        if(usable.isEmpty()){
+
+            return null;
+        }
+
+        StreamSize best = null;
+
+        for(StreamSize size : closestAspect(usable, aspectRatio)){
+
+            boolean bigEnough = Math.max(size.width, size.height) >= minLongEdge;
+            boolean bestBigEnough = best != null && Math.max(best.width, best.height) >= minLongEdge;
+
+            if(best == null || (bigEnough && !bestBigEnough) || (bigEnough == bestBigEnough && (bigEnough ? size.getArea() < best.getArea() : size.getArea() > best.getArea()))){
+
+                best = size;
+            }
+        }
+
+        return best;
+    }
+
+    public static boolean meetsFrameRate(StreamSize size, int targetFps){
+
+        //A still capture has to finish its frame and any stall before the next one is due.
+        //A duration of zero means the camera didn't report one.
+
+        if(targetFps <= 0){
+
+            return true;
+        }
+
+        return size.minFrameDurationNanos + size.stallDurationNanos <= NANOS_PER_SECOND / targetFps;
+    }
+
+    private static List<StreamSize> closestAspect(List<StreamSize> sizes, double aspectRatio){
+
+        if(aspectRatio <= 0){
+
+            return sizes;
+        }
+
+        double bestError = Double.MAX_VALUE;
+
+        for(StreamSize size : sizes){
+
+            bestError = Math.min(bestError, Math.abs(size.getAspectRatio() - aspectRatio));
+        }
+
+        List<StreamSize> closest = new ArrayList<>();
+
+        for(StreamSize size : sizes){
+
+            if(Math.abs(size.getAspectRatio() - aspectRatio) <= bestError + ASPECT_TOLERANCE){
+
+                closest.add(size);
+            }
+        }
+
+        return Collections.unmodifiableList(closest);
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.david.simplecamera;
+
+//Description: Reports how hot the device is running, on the same scale as the platform's thermal status.
+
+public interface ThermalSource {
+
+    int THERMAL_NONE = 0;
+    int THERMAL_LIGHT = 1;
+    int THERMAL_MODERATE = 2;
+    int THERMAL_SEVERE = 3;
+    int THERMAL_CRITICAL = 4;
+
+    int getThermalLevel();
+}
@@ -0,0 +1,163 @@
+package com.example.david.simplecamera;
+
+//Description: A least recently used cache of thumbnails keyed by capture id and bounded by the bytes the thumbnails
+//take up rather than by how many there are. The thumbnail type is left open so the cache stays plain Java.
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public class ThumbnailCache<T> {
+
+    public interface Sizer<T> {
+
+        //The number of bytes the thumbnail holds on to.
+        int sizeOf(T thumbnail);
+    }
+
+    private final int maxBytes;
+    private final Sizer<T> sizer;
+
+    //Access ordered, so iteration starts at the least recently used thumbnail.
+    private final LinkedHashMap<Long, T> thumbnails = new LinkedHashMap<>(16, 0.75f, true);
+    private int bytes;
+    private long latestId = -1;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ThumbnailCache(int maxBytes, Sizer<T> sizer){
+
+        if(maxBytes < 1 || sizer == null){
+
+            throw new IllegalArgumentException("Error: invalid thumbnail cache configuration!");
+        }
+
+        this.maxBytes = maxBytes;
+        this.sizer = sizer;
+    }
+
+    public synchronized T get(long captureId){
+
+        T thumbnail = thumbnails.get(captureId);
+
+        if(thumbnail != null){
+
+            hits++;
+
+        }else{
+
+            misses++;
+        }
+
+        return thumbnail;
+    }
+
+    public synchronized T getLatest(){
+
+        //The thumbnail of the newest capture, if it is still cached. Doesn't count as a use.
+        return latestId < 0 ? null : thumbnails.get(latestId);
+    }
+
+    public synchronized long getLatestId(){
+
+        return latestId;
+    }
+
+    public synchronized boolean put(long captureId, T thumbnail){
+
+        //Returns false if the thumbnail is bigger than the whole cache, in which case it isn't kept.
+        if(thumbnail == null){
+
+            throw new NullPointerException();
+        }
+
+        int size = sizer.sizeOf(thumbnail);
+
+        if(size > maxBytes){
+
+            return false;
+        }
+
+        T previous = thumbnails.put(captureId, thumbnail);
+
+        if(previous != null){
+
+            bytes -= sizer.sizeOf(previous);
+        }
+
+        bytes += size;
+        latestId = Math.max(latestId, captureId);
+        trimTo(maxBytes);
+
+        return true;
+    }
+
+    public synchronized T remove(long captureId){
+
+        T thumbnail = thumbnails.remove(captureId);
+
+        if(thumbnail != null){
+
+            bytes -= sizer.sizeOf(thumbnail);
+        }
+
+        return thumbnail;
+    }
+
+    public synchronized void clear(){
+
+        thumbnails.clear();
+        bytes = 0;
+    }
+
+    private void trimTo(int limit){
+
+        Iterator<Map.Entry<Long, T>> iterator = thumbnails.entrySet().iterator();
+
+        while(bytes > limit && iterator.hasNext()){
+
+            bytes -= sizer.sizeOf(iterator.next().getValue());
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized int getSize(){
+
+        return bytes;
+    }
+
+    public synchronized int getCount(){
+
+        return thumbnails.size();
+    }
+
+    public int getMaxSize(){
+
+        return maxBytes;
+    }
+
+    public synchronized long getHitCount(){
+
+        return hits;
+    }
+
+    public synchronized long getMissCount(){
+
+        return misses;
+    }
+
+    public synchronized long getEvictionCount(){
+
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString(){
+
+        return String.format(Locale.US, "Thumbnails: %d cached in %d of %d bytes, %d hits, %d misses, %d evicted", thumbnails.size(), bytes, maxBytes, hits, misses, evictions);
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.david.simplecamera;
+
+//Description: Makes the last-shot thumbnails off the save path. The thumbnail the camera embeds in the Exif data is
+//used when it is big enough, otherwise the full JPEG is decoded at a reduced scale. Either way the full resolution
+//image is never decoded.
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ThumbnailGenerator {
+
+    public interface Listener {
+
+        //Called on the decode thread once the thumbnail is in the cache.
+        void onThumbnail(long captureId, Bitmap thumbnail);
+    }
+
+    public final static ThumbnailCache.Sizer<Bitmap> BITMAP_SIZER = new ThumbnailCache.Sizer<Bitmap>() {
+
+        @Override
+        public int sizeOf(Bitmap thumbnail) {
+
+            return thumbnail.getByteCount();
+        }
+    };
+
+    private final Executor executor;
+    private final ThumbnailCache<Bitmap> cache;
+    private final BufferPool bufferPool;
+    private final int targetLongEdge;
+    private volatile Listener listener;
+
+    //Full decodes are latest-wins: a copy waiting here is replaced by the next one rather than queued behind it.
+    private final AtomicReference<PendingDecode> pendingFullDecode = new AtomicReference<>();
+
+    private final AtomicLong exifThumbnails = new AtomicLong();
+    private final AtomicLong fullDecodes = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    public ThumbnailGenerator(Executor decodeExecutor, ThumbnailCache<Bitmap> thumbnailCache, BufferPool pool, int targetLongEdge){
+
+        if(decodeExecutor == null || thumbnailCache == null || pool == null || targetLongEdge < 1){
+
+            throw new IllegalArgumentException("Error: invalid thumbnail generator configuration!");
+        }
+
+        executor = decodeExecutor;
+        cache = thumbnailCache;
+        bufferPool = pool;
+        this.targetLongEdge = targetLongEdge;
+    }
+
+    public void setListener(Listener thumbnailListener){
+
+        listener = thumbnailListener;
+    }
+
+    public void submit(long captureId, ByteBuffer jpeg){
+
+        //Called while the Image is still open. Only the bytes the decode needs are copied out, which is a few
+        //kilobytes when the camera embedded a thumbnail.
+        int orientation = ExifThumbnail.readOrientationDegrees(jpeg);
+        ByteBuffer exifThumbnail = ExifThumbnail.find(jpeg);
+
+        if(exifThumbnail != null && isBigEnough(exifThumbnail)){
+
+            byte[] bytes = new byte[exifThumbnail.remaining()];
+            exifThumbnail.get(bytes);
+            exifThumbnails.incrementAndGet();
+            executor.execute(new PendingDecode(captureId, bytes, bytes.length, orientation, false));
+
+            return;
+        }
+
+        int length = jpeg.remaining();
+        byte[] copy = bufferPool.acquire(length);
+        jpeg.duplicate().get(copy, 0, length);
+
+        PendingDecode previous = pendingFullDecode.getAndSet(new PendingDecode(captureId, copy, length, orientation, true));
+
+        if(previous == null){
+
+            executor.execute(drainFullDecode);
+
+        }else{
+
+            //The decode that was already scheduled picks up the newer copy instead.
+            bufferPool.release(previous.jpeg);
+            skipped.incrementAndGet();
+        }
+    }
+
+    private boolean isBigEnough(ByteBuffer thumbnail){
+
+        int[] size = JpegParser.readDimensions(thumbnail);
+
+        return size != null && Math.max(size[0], size[1]) >= targetLongEdge;
+    }
+
+    private final Runnable drainFullDecode = new Runnable() {
+
+        @Override
+        public void run() {
+
+            PendingDecode pending = pendingFullDecode.getAndSet(null);
+
+            if(pending != null){
+
+                fullDecodes.incrementAndGet();
+                pending.run();
+            }
+        }
+    };
+
+    public static int computeSampleSize(int width, int height, int targetLongEdge){
+
+        //The largest power of two that still leaves the long edge at least targetLongEdge pixels. BitmapFactory
+        //rounds other values down to a power of two anyway.
+        int longEdge = Math.max(width, height);
+        int sampleSize = 1;
+
+        while(longEdge / (sampleSize * 2) >= targetLongEdge){
+
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    public long getExifThumbnailCount(){
+
+        return exifThumbnails.get();
+    }
+
+    public long getFullDecodeCount(){
+
+        return fullDecodes.get();
+    }
+
+    public long getSkippedCount(){
+
+        return skipped.get();
+    }
+
+    private class PendingDecode implements Runnable {
+
+        final long captureId;
+        final byte[] jpeg;
+        final int length;
+        final int orientation;
+        final boolean pooled;
+
+        PendingDecode(long captureId, byte[] jpeg, int length, int orientation, boolean pooled){
+
+            this.captureId = captureId;
+            this.jpeg = jpeg;
+            this.length = length;
+            this.orientation = orientation;
+            this.pooled = pooled;
+        }
+
+        @Override
+        public void run() {
+
+            Bitmap thumbnail;
+
+            try{
+
+                thumbnail = decode();
+
+            }finally{
+
+                if(pooled){
+
+                    bufferPool.release(jpeg);
+                }
+            }
+
+            if(thumbnail == null){
+
+                return;
+            }
+
+            cache.put(captureId, thumbnail);
+
+            Listener current = listener;
+
+            if(current != null){
+
+                current.onThumbnail(captureId, thumbnail);
+            }
+        }
+
+        private Bitmap decode(){
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            int[] size = JpegParser.readDimensions(ByteBuffer.wrap(jpeg, 0, length));
+
+            if(size != null){
+
+                options.inSampleSize = computeSampleSize(size[0], size[1], targetLongEdge);
+            }
+
+            Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, length, options);
+
+            if(bitmap == null || orientation == 0){
+
+                return bitmap;
+            }
+
+            //Cameras that only tag the orientation leave the turn to whoever shows the image.
+            Matrix matrix = new Matrix();
+            matrix.postRotate(orientation);
+
+            Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+
+            if(rotated != bitmap){
+
+                bitmap.recycle();
+            }
+
+            return rotated;
+        }
+    }
+}
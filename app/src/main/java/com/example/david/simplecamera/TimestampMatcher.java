@@ -0,0 +1,266 @@
+package com.example.david.simplecamera;
+
+//Description: Pairs images with their capture results by sensor timestamp. Either side can arrive first. An image
+//whose result doesn't turn up in time is handed on without one, so a lost result never holds up a save.
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TimestampMatcher<I, R> {
+
+    public interface Listener<I, R> {
+
+        //Called once per item, outside the matcher's lock. The result is null if it never arrived.
+        void onMatched(I item, R result);
+    }
+
+    private final int capacity;
+    private final long timeoutNanos;
+    private final Clock clock;
+    private final Listener<I, R> listener;
+
+    //Both in arrival order, so the oldest entry is always the first.
+    private final LinkedHashMap<Long, Waiting<I>> items = new LinkedHashMap<>();
+    private final LinkedHashMap<Long, Waiting<R>> results = new LinkedHashMap<>();
+
+    private long matched;
+    private long timedOut;
+    private long droppedResults;
+
+    public TimestampMatcher(int capacity, long timeoutNanos, Clock clock, Listener<I, R> listener){
+
+        if(capacity < 1 || timeoutNanos < 0 || clock == null || listener == null){
+
+            throw new IllegalArgumentException("Error: invalid timestamp matcher configuration!");
+        }
+
+        this.capacity = capacity;
+        this.timeoutNanos = timeoutNanos;
+        this.clock = clock;
+        this.listener = listener;
+    }
+
+    public void offerItem(long timestamp, I item){
+
+        if(item == null){
+
+            throw new NullPointerException();
+        }
+
+        List<Waiting<I>> unmatched = new ArrayList<>();
+        Waiting<R> waitingResult;
+
+        synchronized(this){
+
+            waitingResult = results.remove(timestamp);
+
+            if(waitingResult != null){
+
+                matched++;
+
+            }else{
+
+                Waiting<I> previous = items.remove(timestamp);
+
+                if(previous != null){
+
+                    //Two images can't share a sensor timestamp, so the older one will never get a result.
+                    unmatched.add(previous);
+                }
+
+                items.put(timestamp, new Waiting<>(item, clock.nanoTime() + timeoutNanos));
+
+                while(items.size() > capacity){
+
+                    unmatched.add(removeFirst(items));
+                }
+
+                timedOut += unmatched.size();
+            }
+        }
+
+        if(waitingResult != null){
+
+            listener.onMatched(item, waitingResult.value);
+        }
+
+        handOnUnmatched(unmatched);
+    }
+
+    public void offerResult(long timestamp, R result){
+
+        if(result == null){
+
+            throw new NullPointerException();
+        }
+
+        I item;
+
+        synchronized(this){
+
+            Waiting<I> waitingItem = items.remove(timestamp);
+
+            if(waitingItem == null){
+
+                results.remove(timestamp);
+                results.put(timestamp, new Waiting<>(result, clock.nanoTime() + timeoutNanos));
+
+                while(results.size() > capacity){
+
+                    removeFirst(results);
+                    droppedResults++;
+                }
+
+                return;
+            }
+
+            matched++;
+            item = waitingItem.value;
+        }
+
+        listener.onMatched(item, result);
+    }
+
+    public int expire(){
+
+        //Hands on every item whose deadline has come without its result and forgets results whose deadline has
+        //come. Returns the number of items handed on. Every entry is checked rather than stopping at the first one
+        //still in time, so nothing relies on the entries' deadlines being in arrival order.
+        long now = clock.nanoTime();
+        List<Waiting<I>> unmatched = new ArrayList<>();
+
+        synchronized(this){
+
+            Iterator<Waiting<I>> itemIterator = items.values().iterator();
+
+            while(itemIterator.hasNext()){
+
+                Waiting<I> waiting = itemIterator.next();
+
+                if(waiting.isDue(now)){
+
+                    unmatched.add(waiting);
+                    itemIterator.remove();
+                }
+            }
+
+            Iterator<Waiting<R>> resultIterator = results.values().iterator();
+
+            while(resultIterator.hasNext()){
+
+                if(resultIterator.next().isDue(now)){
+
+                    resultIterator.remove();
+                    droppedResults++;
+                }
+            }
+
+            timedOut += unmatched.size();
+        }
+
+        handOnUnmatched(unmatched);
+
+        return unmatched.size();
+    }
+
+    public int flush(){
+
+        //Hands on every waiting item without waiting for its result, for when no more results are coming.
+        List<Waiting<I>> unmatched;
+
+        synchronized(this){
+
+            unmatched = new ArrayList<>(items.values());
+            items.clear();
+            results.clear();
+            timedOut += unmatched.size();
+        }
+
+        handOnUnmatched(unmatched);
+
+        return unmatched.size();
+    }
+
+    private void handOnUnmatched(List<Waiting<I>> unmatched){
+
+        for(Waiting<I> waiting : unmatched){
+
+            listener.onMatched(waiting.value, null);
+        }
+    }
+
+    private static <T> Waiting<T> removeFirst(LinkedHashMap<Long, Waiting<T>> waiting){
+
+        Iterator<Map.Entry<Long, Waiting<T>>> iterator = waiting.entrySet().iterator();
+        Waiting<T> first = iterator.next().getValue();
+        iterator.remove();
+
+        return first;
+    }
+
+    public synchronized long getNanosUntilNextTimeout(){
+
+        //How long until the next waiting item is due to be handed on, 0 if one is due already, -1 if no item is
+        //waiting. For scheduling the next call to expire.
+        long now = clock.nanoTime();
+        long next = -1;
+
+        for(Waiting<I> waiting : items.values()){
+
+            long remaining = Math.max(0, waiting.deadlineNanos - now);
+
+            if(next < 0 || remaining < next){
+
+                next = remaining;
+            }
+        }
+
+        return next;
+    }
+
+    public synchronized int getWaitingItemCount(){
+
+        return items.size();
+    }
+
+    public synchronized int getWaitingResultCount(){
+
+        return results.size();
+    }
+
+    public synchronized long getMatchedCount(){
+
+        return matched;
+    }
+
+    public synchronized long getTimedOutCount(){
+
+        return timedOut;
+    }
+
+    public synchronized long getDroppedResultCount(){
+
+        return droppedResults;
+    }
+
+    private static class Waiting<T> {
+
+        final T value;
+        final long deadlineNanos;
+
+        Waiting(T value, long deadlineNanos){
+
+            this.value = value;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        boolean isDue(long nowNanos){
+
+            //Compared as a difference, which stays right if the clock's values wrap around.
+            return nowNanos - deadlineNanos >= 0;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.david.simplecamera;
+
+//Description: Records the camera into an MP4 file. The camera draws straight into the encoder's input surface and
+//a thread of the recorder's own moves the encoded samples from the encoder's buffers into a MediaMuxer, so the
+//frames are never copied or touched by the camera thread.
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+public class VideoRecorder {
+
+    private final static String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private final static String THREAD_NAME = "Video Encoder";
+    private final static int I_FRAME_INTERVAL_SECONDS = 1;
+    private final static long DRAIN_TIMEOUT_MICROS = 10000;
+
+    private final File file;
+    private final MediaCodec encoder;
+    private final MediaMuxer muxer;
+    private final Surface inputSurface;
+    private final EncodedVideoWriter<MediaFormat> writer;
+    private Thread encoderThread;
+    private volatile boolean abandoned;
+
+    public VideoRecorder(File outputFile, int width, int height, int frameRate, int bitRate, int orientationHint, Clock timestampClock) throws IOException {
+
+        //The clock has to run on the time base of the camera's sensor timestamps, which become the presentation times.
+        file = outputFile;
+
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_SECONDS);
+
+        encoder = MediaCodec.createEncoderByType(MIME_TYPE);
+
+        try{
+
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = encoder.createInputSurface();
+            muxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            muxer.setOrientationHint(orientationHint);
+
+        }catch(IOException | RuntimeException e){
+
+            encoder.release();
+            throw e;
+        }
+
+        writer = new EncodedVideoWriter<>(new CodecOutput(encoder), new MuxerInput(muxer), TimeUnit.SECONDS.toNanos(1) / frameRate, timestampClock);
+    }
+
+    public Surface getInputSurface(){
+
+        //Has to go into the capture session, and into every request whose frames should be recorded.
+        return inputSurface;
+    }
+
+    public File getFile(){
+
+        return file;
+    }
+
+    public synchronized void start(){
+
+        encoder.start();
+
+        encoderThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                //Blocks in the encoder for up to DRAIN_TIMEOUT_MICROS at a time, so giving up is noticed quickly.
+                try{
+
+                    while(!abandoned){
+
+                        if(writer.drain(DRAIN_TIMEOUT_MICROS)){
+
+                            return;
+                        }
+                    }
+
+                }catch(RuntimeException e){
+
+                    //A failing encoder or muxer ends the recording, not the app. Whatever was written so far is lost.
+                    e.printStackTrace();
+                }
+            }
+        }, THREAD_NAME);
+        encoderThread.start();
+    }
+
+    public synchronized EncodedVideoWriter.Stats stop(long timeoutMillis){
+
+        //Ends the stream and waits for the last samples to be written. The camera should have stopped drawing into
+        //the input surface already. Gives up on whatever the encoder still holds after timeoutMillis.
+        if(encoderThread != null){
+
+            try{
+
+                encoder.signalEndOfInputStream();
+                encoderThread.join(timeoutMillis);
+
+            }catch(InterruptedException e){
+
+                Thread.currentThread().interrupt();
+
+            }catch(IllegalStateException e){
+
+                e.printStackTrace();
+            }
+
+            abandoned = true;
+
+            try{
+
+                encoderThread.join();
+
+            }catch(InterruptedException e){
+
+                Thread.currentThread().interrupt();
+            }
+
+            encoderThread = null;
+        }
+
+        release();
+
+        return writer.getStats();
+    }
+
+    private void release(){
+
+        try{
+
+            encoder.stop();
+
+        }catch(IllegalStateException e){
+
+            //It was never started.
+        }
+
+        encoder.release();
+        inputSurface.release();
+
+        try{
+
+            muxer.release();
+
+        }catch(IllegalStateException e){
+
+            //A muxer that was started but never stopped, because the stream didn't end in time, has no valid file.
+            e.printStackTrace();
+        }
+    }
+
+    public boolean isComplete(){
+
+        //Whether the whole stream made it into the file.
+        return writer.isFinished();
+    }
+
+    public EncodedVideoWriter.Stats getStats(){
+
+        return writer.getStats();
+    }
+
+    private static class CodecOutput implements EncoderOutput<MediaFormat> {
+
+        private final MediaCodec codec;
+        private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+        CodecOutput(MediaCodec codec){
+
+            this.codec = codec;
+        }
+
+        @Override
+        public int dequeueOutputBuffer(SampleInfo info, long timeoutMicros) {
+
+            int index = codec.dequeueOutputBuffer(bufferInfo, timeoutMicros);
+
+            if(index >= 0){
+
+                info.set(bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+            }
+
+            return index;
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+
+            return codec.getOutputBuffer(index);
+        }
+
+        @Override
+        public MediaFormat getOutputFormat() {
+
+            return codec.getOutputFormat();
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index) {
+
+            codec.releaseOutputBuffer(index, false);
+        }
+    }
+
+    private static class MuxerInput implements SampleMuxer<MediaFormat> {
+
+        private final MediaMuxer muxer;
+        private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+        MuxerInput(MediaMuxer muxer){
+
+            this.muxer = muxer;
+        }
+
+        @Override
+        public int addTrack(MediaFormat format) {
+
+            return muxer.addTrack(format);
+        }
+
+        @Override
+        public void start() {
+
+            muxer.start();
+        }
+
+        @Override
+        public void writeSampleData(int track, ByteBuffer data, EncoderOutput.SampleInfo info) {
+
+            bufferInfo.set(info.offset, info.size, info.presentationTimeMicros, info.flags);
+            muxer.writeSampleData(track, data, bufferInfo);
+        }
+
+        @Override
+        public void stop() {
+
+            muxer.stop();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.david.simplecamera;
+
+//Description: Converts a YUV_420_888 frame into NV21 (the layout YuvImage can compress) by splitting it into
+//strips of rows that are converted in parallel with fork/join. An optional StripProcessor gets each strip
+//right after it is converted, which is where per frame processing goes before compression.
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class YuvConverter {
+
+    public interface StripProcessor {
+
+        //Called once per strip, possibly from several threads at once. Rows are [rowStart, rowEnd) of the
+        //luma plane; the strip's chroma rows are [rowStart / 2, rowEnd / 2) of the interleaved VU plane.
+        void process(byte[] nv21, int width, int height, int rowStart, int rowEnd);
+    }
+
+    private final ForkJoinPool pool;
+    private final int minStripRows;
+
+    public YuvConverter(ForkJoinPool forkJoinPool, int minimumStripRows){
+
+        if(forkJoinPool == null || minimumStripRows < 2){
+
+            throw new IllegalArgumentException("Error: invalid converter configuration!");
+        }
+
+        pool = forkJoinPool;
+
+        //Strips always start on an even row so each one owns whole chroma rows.
+        minStripRows = minimumStripRows + (minimumStripRows & 1);
+    }
+
+    public static int nv21Size(int width, int height){
+
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    public void toNv21(YuvFrame frame, byte[] nv21, StripProcessor processor){
+
+        if(nv21.length < nv21Size(frame.getWidth(), frame.getHeight())){
+
+            throw new IllegalArgumentException("Error: output buffer too small for " + frame.getWidth() + "x" + frame.getHeight());
+        }
+
+        pool.invoke(new StripTask(frame, nv21, processor, 0, frame.getHeight()));
+    }
+
+    public static void convertRows(YuvFrame frame, byte[] nv21, int rowStart, int rowEnd){
+
+        //Converts one strip on the calling thread. rowStart has to be even.
+        int width = frame.getWidth();
+        byte[] y = frame.getPlane(YuvFrame.PLANE_Y);
+        int yRowStride = frame.getRowStride(YuvFrame.PLANE_Y);
+        int yPixelStride = frame.getPixelStride(YuvFrame.PLANE_Y);
+
+        for(int row = rowStart; row < rowEnd; row++){
+
+            int in = row * yRowStride;
+            int out = row * width;
+
+            if(yPixelStride == 1){
+
+                System.arraycopy(y, in, nv21, out, width);
+
+            }else{
+
+                for(int column = 0; column < width; column++){
+
+                    nv21[out + column] = y[in + column * yPixelStride];
+                }
+            }
+        }
+
+        byte[] u = frame.getPlane(YuvFrame.PLANE_U);
+        byte[] v = frame.getPlane(YuvFrame.PLANE_V);
+        int uRowStride = frame.getRowStride(YuvFrame.PLANE_U);
+        int vRowStride = frame.getRowStride(YuvFrame.PLANE_V);
+        int uPixelStride = frame.getPixelStride(YuvFrame.PLANE_U);
+        int vPixelStride = frame.getPixelStride(YuvFrame.PLANE_V);
+        int chromaWidth = (width + 1) / 2;
+        int chromaStart = width * frame.getHeight();
+
+        for(int chromaRow = rowStart / 2; chromaRow < (rowEnd + 1) / 2; chromaRow++){
+
+            int uIn = chromaRow * uRowStride;
+            int vIn = chromaRow * vRowStride;
+            int out = chromaStart + chromaRow * chromaWidth * 2;
+
+            for(int column = 0; column < chromaWidth; column++){
+
+                nv21[out++] = v[vIn + column * vPixelStride];
+                nv21[out++] = u[uIn + column * uPixelStride];
+            }
+        }
+    }
+
+    private class StripTask extends RecursiveAction {
+
+        private final YuvFrame frame;
+        private final byte[] nv21;
+        private final StripProcessor processor;
+        private final int rowStart;
+        private final int rowEnd;
+
+        StripTask(YuvFrame frame, byte[] nv21, StripProcessor processor, int rowStart, int rowEnd){
+
+            this.frame = frame;
+            this.nv21 = nv21;
+            this.processor = processor;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+        }
+
+        @Override
+        protected void compute(){
+
+            int rows = rowEnd - rowStart;
+
+            if(rows <= minStripRows * 2){
+
+                convertRows(frame, nv21, rowStart, rowEnd);
+
+                if(processor != null){
+
+                    processor.process(nv21, frame.getWidth(), frame.getHeight(), rowStart, rowEnd);
+                }
+
+                return;
+            }
+
+            int middle = rowStart + ((rows / 2) & ~1);
+
+            invokeAll(new StripTask(frame, nv21, processor, rowStart, middle), new StripTask(frame, nv21, processor, middle, rowEnd));
+        }
+    }
+}
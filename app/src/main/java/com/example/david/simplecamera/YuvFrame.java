@@ -0,0 +1,90 @@
+package com.example.david.simplecamera;
+
+//Description: A YUV_420_888 frame whose three planes have been copied out of an Image once, keeping the
+//row and pixel strides the camera used so nothing has to be repacked during the copy.
+
+import java.nio.ByteBuffer;
+
+public class YuvFrame {
+
+    public final static int PLANE_Y = 0;
+    public final static int PLANE_U = 1;
+    public final static int PLANE_V = 2;
+
+    private final int width;
+    private final int height;
+    private final byte[][] planes = new byte[3][];
+    private final int[] planeLengths = new int[3];
+    private final int[] rowStrides = new int[3];
+    private final int[] pixelStrides = new int[3];
+
+    public YuvFrame(int frameWidth, int frameHeight){
+
+        if(frameWidth < 2 || frameHeight < 2){
+
+            throw new IllegalArgumentException("Error: invalid frame size " + frameWidth + "x" + frameHeight);
+        }
+
+        width = frameWidth;
+        height = frameHeight;
+    }
+
+    public void copyPlane(int plane, ByteBuffer source, int rowStride, int pixelStride, BufferPool pool){
+
+        //Copies the remaining bytes of the plane into a buffer from the pool (or a new one without a pool).
+        //The source buffer is left where it was.
+        ByteBuffer buffer = source.duplicate();
+        int length = buffer.remaining();
+        byte[] bytes = pool != null ? pool.acquire(length) : new byte[length];
+
+        buffer.get(bytes, 0, length);
+
+        planes[plane] = bytes;
+        planeLengths[plane] = length;
+        rowStrides[plane] = rowStride;
+        pixelStrides[plane] = pixelStride;
+    }
+
+    public void release(BufferPool pool){
+
+        for(int i = 0; i < planes.length; i++){
+
+            if(pool != null && planes[i] != null){
+
+                pool.release(planes[i]);
+            }
+
+            planes[i] = null;
+        }
+    }
+
+    public int getWidth(){
+
+        return width;
+    }
+
+    public int getHeight(){
+
+        return height;
+    }
+
+    public byte[] getPlane(int plane){
+
+        return planes[plane];
+    }
+
+    public int getPlaneLength(int plane){
+
+        return planeLengths[plane];
+    }
+
+    public int getRowStride(int plane){
+
+        return rowStrides[plane];
+    }
+
+    public int getPixelStride(int plane){
+
+        return pixelStrides[plane];
+    }
+}
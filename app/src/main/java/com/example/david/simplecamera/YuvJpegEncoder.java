@@ -0,0 +1,70 @@
+package com.example.david.simplecamera;
+
+//Description: Compresses a YUV_420_888 frame into a JPEG. The planes are converted into a pooled NV21
+//buffer by the YuvConverter and then handed to YuvImage for compression.
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class YuvJpegEncoder {
+
+    private final YuvConverter converter;
+    private final BufferPool bufferPool;
+    private volatile int jpegQuality;
+    private volatile YuvConverter.StripProcessor stripProcessor;
+
+    public YuvJpegEncoder(YuvConverter yuvConverter, BufferPool pool, int quality){
+
+        if(yuvConverter == null || pool == null || quality < 1 || quality > 100){
+
+            throw new IllegalArgumentException("Error: invalid encoder configuration!");
+        }
+
+        converter = yuvConverter;
+        bufferPool = pool;
+        jpegQuality = quality;
+    }
+
+    public void setQuality(int quality){
+
+        //Applies from the next frame on.
+        if(quality < 1 || quality > 100){
+
+            throw new IllegalArgumentException("Error: invalid JPEG quality " + quality);
+        }
+
+        jpegQuality = quality;
+    }
+
+    public void setStripProcessor(YuvConverter.StripProcessor processor){
+
+        stripProcessor = processor;
+    }
+
+    public void encode(YuvFrame frame, OutputStream out) throws IOException {
+
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        byte[] nv21 = bufferPool.acquire(YuvConverter.nv21Size(width, height));
+
+        try{
+
+            converter.toNv21(frame, nv21, stripProcessor);
+
+            YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+
+            if(!yuvImage.compressToJpeg(new Rect(0, 0, width, height), jpegQuality, out)){
+
+                throw new IOException("Error: could not compress a " + width + "x" + height + " frame!");
+            }
+
+        }finally{
+
+            bufferPool.release(nv21);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AnalysisPipelineTest {
+
+    //Runs the queued tasks only when the test says so, which stands in for a busy analyzer thread.
+    private static class ManualExecutor implements Executor {
+
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+
+            tasks.add(task);
+        }
+
+        void runAll(){
+
+            Runnable task;
+
+            while((task = tasks.poll()) != null){
+
+                task.run();
+            }
+        }
+    }
+
+    private static class RecordingAnalyzer implements FrameAnalyzer {
+
+        final List<Long> timestamps = new ArrayList<>();
+
+        @Override
+        public void analyze(YuvFrame frame, long timestampNanos) {
+
+            assertNotNull(frame.getPlane(YuvFrame.PLANE_Y));
+            timestamps.add(timestampNanos);
+        }
+    }
+
+    private static YuvFrame frame(BufferPool pool, int luma){
+
+        byte[] y = new byte[16 * 16];
+        byte[] chroma = new byte[8 * 8];
+        Arrays.fill(y, (byte) luma);
+
+        YuvFrame frame = new YuvFrame(16, 16);
+        frame.copyPlane(YuvFrame.PLANE_Y, ByteBuffer.wrap(y), 16, 1, pool);
+        frame.copyPlane(YuvFrame.PLANE_U, ByteBuffer.wrap(chroma), 8, 1, pool);
+        frame.copyPlane(YuvFrame.PLANE_V, ByteBuffer.wrap(chroma), 8, 1, pool);
+
+        return frame;
+    }
+
+    @Test
+    public void busyAnalyzersOnlySeeTheNewestFrame() throws Exception {
+
+        ManualExecutor executor = new ManualExecutor();
+        BufferPool pool = new BufferPool();
+        AnalysisPipeline pipeline = new AnalysisPipeline(executor, pool, new FakeClock(0));
+        RecordingAnalyzer analyzer = new RecordingAnalyzer();
+        pipeline.addAnalyzer(analyzer);
+
+        for(long timestamp = 1; timestamp <= 5; timestamp++){
+
+            pipeline.offer(frame(pool, 0), timestamp);
+        }
+
+        //One drain was scheduled and the four replaced frames are already back in the pool.
+        assertEquals(1, executor.tasks.size());
+        assertEquals(3, pool.getOutstanding());
+
+        executor.runAll();
+
+        assertEquals(Arrays.asList(5L), analyzer.timestamps);
+        assertEquals(5, pipeline.getOfferedCount());
+        assertEquals(1, pipeline.getAnalyzedCount());
+        assertEquals(4, pipeline.getDroppedCount());
+        assertEquals(0.8, pipeline.getDropRate(), 1e-9);
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    @Test
+    public void idleAnalyzersSeeEveryFrame() throws Exception {
+
+        ManualExecutor executor = new ManualExecutor();
+        FakeClock clock = new FakeClock(0);
+        AnalysisPipeline pipeline = new AnalysisPipeline(executor, null, clock);
+        RecordingAnalyzer analyzer = new RecordingAnalyzer();
+        pipeline.addAnalyzer(analyzer);
+
+        for(long timestamp = 1; timestamp <= 10; timestamp++){
+
+            pipeline.offer(frame(null, 0), timestamp);
+            clock.advanceMillis(50);
+            executor.runAll();
+        }
+
+        assertEquals(10, analyzer.timestamps.size());
+        assertEquals(0, pipeline.getDroppedCount());
+
+        //Ten frames from the first offer to the last analysis, 500 ms apart.
+        assertEquals(20, pipeline.getAnalyzedFramesPerSecond(), 0.01);
+    }
+
+    @Test
+    public void brokenAnalyzerDoesNotStopThePipeline() throws Exception {
+
+        ManualExecutor executor = new ManualExecutor();
+        BufferPool pool = new BufferPool();
+        AnalysisPipeline pipeline = new AnalysisPipeline(executor, pool, new FakeClock(0));
+        RecordingAnalyzer analyzer = new RecordingAnalyzer();
+
+        pipeline.addAnalyzer(new FrameAnalyzer() {
+
+            @Override
+            public void analyze(YuvFrame frame, long timestampNanos) {
+
+                throw new IllegalStateException("broken");
+            }
+        });
+
+        pipeline.offer(frame(pool, 0), 1);
+        executor.runAll();
+
+        pipeline.removeAnalyzer(analyzer);
+        pipeline.addAnalyzer(analyzer);
+        pipeline.offer(frame(pool, 0), 2);
+        executor.runAll();
+
+        assertEquals(2, pipeline.getAnalyzedCount());
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    @Test
+    public void clearReleasesTheWaitingFrame() throws Exception {
+
+        ManualExecutor executor = new ManualExecutor();
+        BufferPool pool = new BufferPool();
+        AnalysisPipeline pipeline = new AnalysisPipeline(executor, pool, new FakeClock(0));
+        pipeline.addAnalyzer(new RecordingAnalyzer());
+
+        pipeline.offer(frame(pool, 0), 1);
+        pipeline.clear();
+        executor.runAll();
+
+        assertEquals(0, pipeline.getAnalyzedCount());
+        assertEquals(1, pipeline.getDroppedCount());
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    @Test
+    public void framesFromAnotherThreadAreAllAccountedFor() throws Exception {
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        BufferPool pool = new BufferPool();
+        AnalysisPipeline pipeline = new AnalysisPipeline(executor, pool, Clock.SYSTEM);
+        final CountDownLatch analyzed = new CountDownLatch(1);
+        final MeanLumaAnalyzer luma = new MeanLumaAnalyzer(2);
+
+        pipeline.addAnalyzer(luma);
+
+        for(int i = 0; i < 1000; i++){
+
+            pipeline.offer(frame(pool, 100), i);
+        }
+
+        pipeline.addAnalyzer(new FrameAnalyzer() {
+
+            @Override
+            public void analyze(YuvFrame frame, long timestampNanos) {
+
+                if(timestampNanos == 1000){
+
+                    analyzed.countDown();
+                }
+            }
+        });
+
+        pipeline.offer(frame(pool, 200), 1000);
+
+        assertTrue(analyzed.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        //The last frame is never dropped, and every other frame was either analyzed or dropped.
+        assertEquals(1001, pipeline.getAnalyzedCount() + pipeline.getDroppedCount());
+        assertEquals(200, luma.getMeanLuma(), 1e-9);
+        assertEquals(0, pool.getOutstanding());
+    }
+}
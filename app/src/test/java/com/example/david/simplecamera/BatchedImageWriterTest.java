@@ -0,0 +1,198 @@
+package com.example.david.simplecamera;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchedImageWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeRegistry registry;
+    private FakeClock clock;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+
+        registry = new FakeRegistry();
+        clock = new FakeClock(0);
+        directory = new File(folder.getRoot(), "pictures");
+    }
+
+    @Test
+    public void filesAreWrittenAndRegisteredInBatches() throws Exception {
+
+        BatchedImageWriter writer = new BatchedImageWriter(directory, registry, 3, 1000, clock);
+        byte[] jpeg = SyntheticJpeg.create(640, 480, 50_000, 5);
+
+        for(int i = 0; i < 7; i++){
+
+            new JpegStreamWriter(writer).write(ByteBuffer.wrap(jpeg), "img" + i);
+        }
+
+        //Two full batches went out, the seventh image is still waiting.
+        assertEquals(2, registry.batches.size());
+        assertEquals(3, registry.batches.get(0).size());
+        assertEquals(1, writer.getPendingCount());
+
+        ImageRecord first = registry.batches.get(0).get(0);
+        assertEquals("img0", first.title);
+        assertEquals(jpeg.length, first.sizeBytes);
+        assertArrayEquals(jpeg, readFile(new File(first.path)));
+    }
+
+    @Test
+    public void partialBatchIsFlushedOnceOldEnough() throws Exception {
+
+        BatchedImageWriter writer = new BatchedImageWriter(directory, registry, 10, 500, clock);
+
+        write(writer, "a");
+        clock.advanceMillis(300);
+        write(writer, "b");
+
+        assertFalse(writer.flushIfDue());
+
+        clock.advanceMillis(200);
+        assertTrue(writer.flushIfDue());
+        assertEquals(1, registry.batches.size());
+        assertEquals(2, registry.batches.get(0).size());
+        assertFalse(writer.flushIfDue());
+    }
+
+    @Test
+    public void failedBatchStaysPending() throws Exception {
+
+        BatchedImageWriter writer = new BatchedImageWriter(directory, registry, 2, 500, clock);
+        registry.failNext = true;
+
+        write(writer, "a");
+        write(writer, "b");
+
+        assertEquals(1, writer.getFailedFlushes());
+        assertEquals(2, writer.getPendingCount());
+
+        write(writer, "c");
+        assertEquals(0, writer.getPendingCount());
+        assertEquals(3, registry.batches.get(0).size());
+        assertEquals(3, writer.getImagesRegistered());
+    }
+
+    @Test
+    public void discardDeletesFile() throws Exception {
+
+        BatchedImageWriter writer = new BatchedImageWriter(directory, registry, 10, 500, clock);
+
+        OutputStream out = writer.openStream("broken", JpegStreamWriter.JPEG_MIME_TYPE);
+        out.write(new byte[100]);
+        writer.discard("broken");
+
+        assertFalse(new File(directory, "broken.jpg").exists());
+        assertEquals(0, writer.getPendingCount());
+    }
+
+    @Test
+    public void aWriteThatFailsHalfwayIsNeverRegistered() throws Exception {
+
+        //With a batch of one, a stream that registered itself on close would be in the MediaStore before the
+        //writer found out the image was broken.
+        BatchedImageWriter writer = new BatchedImageWriter(directory, registry, 1, 500, clock);
+        byte[] jpeg = SyntheticJpeg.create(640, 480, 50_000, 6);
+
+        OutputStream out = writer.openStream("half", JpegStreamWriter.JPEG_MIME_TYPE);
+        out.write(jpeg, 0, jpeg.length / 2);
+        out.close();
+        writer.discard("half");
+        writer.close();
+
+        assertTrue(registry.batches.isEmpty());
+        assertEquals(0, writer.getImagesWritten());
+        assertEquals(0, writer.getPendingCount());
+        assertFalse(new File(directory, "half.jpg").exists());
+
+        //The same goes for JpegStreamWriter, which closes the stream before it discards the image.
+        new JpegStreamWriter(writer).write(ByteBuffer.wrap(jpeg), "whole");
+        assertEquals(1, registry.batches.size());
+        assertEquals("whole", registry.batches.get(0).get(0).title);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void onlyClosedStreamsCanBeCommitted() throws Exception {
+
+        BatchedImageWriter writer = new BatchedImageWriter(directory, registry, 10, 500, clock);
+
+        writer.openStream("open", JpegStreamWriter.JPEG_MIME_TYPE).write(new byte[10]);
+        writer.commit("open");
+    }
+
+    @Test
+    public void imagesAfterCloseAreRegisteredImmediately() throws Exception {
+
+        BatchedImageWriter writer = new BatchedImageWriter(directory, registry, 10, 500, clock);
+
+        write(writer, "a");
+        writer.close();
+        assertEquals(1, registry.batches.size());
+
+        write(writer, "b");
+        assertEquals(2, registry.batches.size());
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+        try{
+
+            in.readFully(bytes);
+
+        }finally{
+
+            in.close();
+        }
+
+        return bytes;
+    }
+
+    private static void write(BatchedImageWriter writer, String title) throws IOException {
+
+        OutputStream out = writer.openStream(title, JpegStreamWriter.JPEG_MIME_TYPE);
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9});
+        out.close();
+        writer.commit(title);
+    }
+
+    static class FakeRegistry implements ImageRegistry {
+
+        final List<List<ImageRecord>> batches = new ArrayList<>();
+        boolean failNext;
+
+        @Override
+        public int registerAll(List<ImageRecord> records) throws IOException {
+
+            if(failNext){
+
+                failNext = false;
+                throw new IOException("Provider died");
+            }
+
+            batches.add(new ArrayList<>(records));
+
+            return records.size();
+        }
+    }
+}
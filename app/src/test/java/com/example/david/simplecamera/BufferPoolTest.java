@@ -0,0 +1,135 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void acquire_roundsUpToSizeClass() throws Exception {
+
+        BufferPool pool = new BufferPool();
+
+        assertEquals(4096, pool.acquire(1).length);
+        assertEquals(4096, pool.acquire(4096).length);
+        assertEquals(8192, pool.acquire(4097).length);
+        assertEquals(1 << 20, pool.acquire(700_000).length);
+    }
+
+    @Test
+    public void release_reusesSameArray() throws Exception {
+
+        BufferPool pool = new BufferPool();
+
+        byte[] first = pool.acquire(300_000);
+        pool.release(first);
+        byte[] second = pool.acquire(400_000);
+
+        assertSame(first, second);
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void burstOfFrames_steadyStateAllocatesNothing() throws Exception {
+
+        //Simulates a burst of synthetic 1920x1080 JPEG frames with up to three in flight at once.
+        BufferPool pool = new BufferPool();
+        Random random = new Random(42);
+        ArrayDeque<byte[]> inFlight = new ArrayDeque<>();
+
+        for(int frame = 0; frame < 5000; frame++){
+
+            int jpegSize = 350_000 + random.nextInt(400_000);
+            byte[] buffer = pool.acquire(jpegSize);
+
+            assertTrue(buffer.length >= jpegSize);
+            inFlight.addLast(buffer);
+
+            if(inFlight.size() > 3){
+
+                pool.release(inFlight.removeFirst());
+            }
+        }
+
+        while(!inFlight.isEmpty()){
+
+            pool.release(inFlight.removeFirst());
+        }
+
+        assertEquals(0, pool.getOutstanding());
+        assertEquals(4, pool.getHighWaterMark());
+        assertTrue("Misses " + pool.getMisses(), pool.getMisses() <= 8);
+        assertEquals(5000, pool.getHits() + pool.getMisses());
+    }
+
+    @Test
+    public void bucketsAreBounded() throws Exception {
+
+        BufferPool pool = new BufferPool(20, 2);
+        byte[][] buffers = new byte[5][];
+
+        for(int i = 0; i < buffers.length; i++){
+
+            buffers[i] = pool.acquire(1000);
+        }
+
+        for(byte[] buffer : buffers){
+
+            pool.release(buffer);
+        }
+
+        assertEquals(2 * 4096, pool.getPooledBytes());
+    }
+
+    @Test
+    public void oversizedBuffersAreNotPooled() throws Exception {
+
+        BufferPool pool = new BufferPool(16, 2);
+
+        byte[] big = pool.acquire(100_000);
+        assertEquals(100_000, big.length);
+
+        pool.release(big);
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void leaksAndDoubleReleasesAreDetected() throws Exception {
+
+        BufferPool pool = new BufferPool();
+
+        byte[] leaked = pool.acquire(10);
+        byte[] returned = pool.acquire(10);
+        pool.release(returned);
+
+        assertEquals(1, pool.getOutstanding());
+
+        try{
+
+            pool.release(returned);
+            fail();
+
+        }catch(IllegalArgumentException e){
+
+            //Expected.
+        }
+
+        try{
+
+            pool.release(new byte[4096]);
+            fail();
+
+        }catch(IllegalArgumentException e){
+
+            //Expected.
+        }
+
+        pool.release(leaked);
+        assertEquals(0, pool.getOutstanding());
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BurstTrackerTest {
+
+    private final static long MS = 1000000L;
+
+    @Test
+    public void completesAfterBurstSizeFrames() throws Exception {
+
+        BurstTracker tracker = new BurstTracker(3, 0);
+
+        assertFalse(tracker.onFrame(100 * MS));
+        assertFalse(tracker.onFrame(150 * MS));
+        assertTrue(tracker.onFrame(200 * MS));
+        assertTrue(tracker.isComplete());
+
+        //Extra frames don't count towards the burst.
+        assertTrue(tracker.onFrame(900 * MS));
+        assertEquals(3, tracker.getFramesReceived());
+    }
+
+    @Test
+    public void framesPerSecond() throws Exception {
+
+        BurstTracker tracker = new BurstTracker(5, 0);
+
+        for(int i = 0; i < 5; i++){
+
+            tracker.onFrame(100 * MS + i * 50 * MS);
+        }
+
+        assertEquals(20.0, tracker.getSustainedFramesPerSecond(), 0.001);
+        assertEquals(5 / 0.3, tracker.getOverallFramesPerSecond(), 0.001);
+        assertEquals(100 * MS, tracker.getFirstFrameLatencyNanos());
+    }
+
+    @Test
+    public void singleFrameHasNoSustainedRate() throws Exception {
+
+        BurstTracker tracker = new BurstTracker(1, 0);
+
+        assertTrue(tracker.onFrame(40 * MS));
+        assertEquals(0, tracker.getSustainedFramesPerSecond(), 0);
+        assertEquals(25.0, tracker.getOverallFramesPerSecond(), 0.001);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CameraInfoCacheTest {
+
+    private final static int JPEG = 0x100;
+
+    private static class FakeLoader implements CameraInfoCache.Loader {
+
+        String[] ids = {"0", "1"};
+        final Map<String, CameraInfo> infos = new HashMap<>();
+        int idCalls;
+        int infoCalls;
+
+        FakeLoader(){
+
+            infos.put("0", info("0", CameraInfo.LENS_FACING_FRONT, 4032));
+            infos.put("1", info("1", CameraInfo.LENS_FACING_BACK, 4032));
+        }
+
+        @Override
+        public String[] loadCameraIds() {
+
+            idCalls++;
+            return ids;
+        }
+
+        @Override
+        public CameraInfo loadCameraInfo(String cameraId) {
+
+            infoCalls++;
+            return infos.get(cameraId);
+        }
+    }
+
+    private static CameraInfo info(String id, int facing, int stillWidth){
+
+        CameraInfo info = new CameraInfo(id, facing, 90, 1, 1, new int[]{0, 1, 4}, new int[]{1, 2});
+        info.setPreviewSizes(Arrays.asList(new StreamSizeSelector.StreamSize(1920, 1080, 33333333L, 0), new StreamSizeSelector.StreamSize(1280, 720, 33333333L, 0)));
+        info.setStillSizes(JPEG, Arrays.asList(new StreamSizeSelector.StreamSize(stillWidth, 3024, 50000000L, 100000000L)));
+        info.setThumbnailSizes(Arrays.asList(new StreamSizeSelector.StreamSize(320, 240, 0, 0), new StreamSizeSelector.StreamSize(160, 120, 0, 0)));
+
+        return info;
+    }
+
+    @Test
+    public void loadsLazilyAndOnlyOnce() throws Exception {
+
+        FakeLoader loader = new FakeLoader();
+        CameraInfoCache cache = new CameraInfoCache(loader);
+
+        assertEquals(0, loader.idCalls);
+
+        cache.getCameraIds();
+        cache.getCameraIds();
+        cache.get("1");
+        cache.get("1");
+
+        assertEquals(1, loader.idCalls);
+        assertEquals(1, loader.infoCalls);
+        assertNull(cache.get("9"));
+    }
+
+    @Test
+    public void findsCameraByFacing() throws Exception {
+
+        CameraInfoCache cache = new CameraInfoCache(new FakeLoader());
+
+        assertEquals("1", cache.findCameraId(CameraInfo.LENS_FACING_BACK));
+        assertEquals("0", cache.findCameraId(CameraInfo.LENS_FACING_FRONT));
+
+        //Nothing external, so the first camera is used.
+        assertEquals("0", cache.findCameraId(CameraInfo.LENS_FACING_EXTERNAL));
+    }
+
+    @Test
+    public void snapshotRoundTripsWithoutTouchingTheLoader() throws Exception {
+
+        CameraInfoCache live = new CameraInfoCache(new FakeLoader());
+        live.getCameraIds();
+        live.get("0");
+        live.get("1");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        live.writeSnapshot(out);
+
+        FakeLoader loader = new FakeLoader();
+        CameraInfoCache cache = new CameraInfoCache(loader);
+
+        assertTrue(cache.readSnapshot(new ByteArrayInputStream(out.toByteArray())));
+        assertTrue(cache.isFromSnapshot());
+        assertArrayEquals(new String[]{"0", "1"}, cache.getCameraIds());
+        assertEquals(live.get("1"), cache.get("1"));
+        assertEquals(4032, cache.get("1").getStillSizes(JPEG).get(0).width);
+        assertTrue(cache.get("1").supportsAutoFocusMode(4));
+        assertFalse(cache.get("1").supportsAutoFocusMode(3));
+        assertEquals(0, loader.idCalls + loader.infoCalls);
+    }
+
+    @Test
+    public void refreshReportsChangesFromTheSnapshot() throws Exception {
+
+        FakeLoader loader = new FakeLoader();
+        CameraInfoCache live = new CameraInfoCache(loader);
+        live.refresh();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        live.writeSnapshot(out);
+
+        CameraInfoCache cache = new CameraInfoCache(loader);
+        cache.readSnapshot(new ByteArrayInputStream(out.toByteArray()));
+
+        assertFalse(cache.refresh());
+        assertFalse(cache.isFromSnapshot());
+
+        //The camera got a firmware update with a bigger still size.
+        loader.infos.put("1", info("1", CameraInfo.LENS_FACING_BACK, 4608));
+
+        assertTrue(cache.refresh());
+        assertEquals(4608, cache.get("1").getStillSizes(JPEG).get(0).width);
+    }
+
+    @Test
+    public void rejectsCorruptSnapshots() throws Exception {
+
+        CameraInfoCache cache = new CameraInfoCache(new FakeLoader());
+
+        assertFalse(cache.readSnapshot(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+        assertFalse(cache.readSnapshot(new ByteArrayInputStream(new byte[64])));
+        assertFalse(cache.isFromSnapshot());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CameraInfoCache live = new CameraInfoCache(new FakeLoader());
+        live.refresh();
+        live.writeSnapshot(out);
+
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 10);
+        assertFalse(cache.readSnapshot(new ByteArrayInputStream(truncated)));
+        assertFalse(cache.isFromSnapshot());
+    }
+
+    @Test
+    public void onlyNewCamerasInvalidateTheIds() throws Exception {
+
+        FakeLoader loader = new FakeLoader();
+        CameraInfoCache cache = new CameraInfoCache(loader);
+        cache.getCameraIds();
+
+        cache.onCameraAvailable("1");
+        cache.getCameraIds();
+        assertEquals(1, loader.idCalls);
+
+        loader.ids = new String[]{"0", "1", "2"};
+        loader.infos.put("2", info("2", CameraInfo.LENS_FACING_EXTERNAL, 1920));
+        cache.onCameraAvailable("2");
+
+        assertEquals(3, cache.getCameraIds().length);
+        assertEquals(2, loader.idCalls);
+        assertEquals("2", cache.findCameraId(CameraInfo.LENS_FACING_EXTERNAL));
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.david.simplecamera;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CaptureJournalTest {
+
+    private final static int CAPACITY = 256 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File path;
+
+    @Before
+    public void setUp() throws Exception {
+
+        path = new File(folder.getRoot(), "journal.bin");
+    }
+
+    @Test
+    public void pendingEntriesSurviveReopening() throws Exception {
+
+        byte[] first = SyntheticJpeg.create(640, 480, 20_000, 1);
+        byte[] second = SyntheticJpeg.create(640, 480, 30_000, 2);
+
+        CaptureJournal journal = CaptureJournal.open(path, CAPACITY);
+        ByteBuffer direct = ByteBuffer.allocateDirect(first.length);
+        direct.put(first).flip();
+
+        CaptureJournal.Entry entry = journal.append("img1", direct);
+        journal.append("img2", ByteBuffer.wrap(second));
+
+        assertEquals("The source buffer should not be consumed", 0, direct.position());
+        assertArrayEquals(first, bytes(journal.getPayload(entry)));
+
+        //Dies without marking anything done.
+        journal.close();
+
+        CaptureJournal reopened = CaptureJournal.open(path, CAPACITY);
+        List<CaptureJournal.Entry> pending = reopened.getPendingEntries();
+
+        assertEquals(2, reopened.getRecoveredCount());
+        assertFalse(reopened.hasTornRecord());
+        assertEquals(2, pending.size());
+        assertEquals("img1", pending.get(0).title);
+        assertEquals("img2", pending.get(1).title);
+        assertArrayEquals(first, bytes(reopened.getPayload(pending.get(0))));
+        assertArrayEquals(second, bytes(reopened.getPayload(pending.get(1))));
+        reopened.close();
+    }
+
+    @Test
+    public void doneEntriesAreTrimmedFromTheFront() throws Exception {
+
+        CaptureJournal journal = CaptureJournal.open(path, CAPACITY);
+        CaptureJournal.Entry first = journal.append("img1", ByteBuffer.wrap(new byte[1000]));
+        CaptureJournal.Entry second = journal.append("img2", ByteBuffer.wrap(new byte[1000]));
+        journal.append("img3", ByteBuffer.wrap(new byte[1000]));
+
+        //Finishing out of order can't trim past the first pending entry.
+        journal.markDone(second);
+        assertEquals(0, journal.trim());
+
+        journal.markDone(first);
+        assertEquals(first.getPayloadLength() + second.getPayloadLength() + 2 * (CaptureJournal.RECORD_HEADER_SIZE + 4), journal.trim());
+        assertEquals(1, journal.getPendingEntries().size());
+        journal.close();
+
+        CaptureJournal reopened = CaptureJournal.open(path, CAPACITY);
+        assertEquals(1, reopened.getRecoveredCount());
+        assertEquals("img3", reopened.getPendingEntries().get(0).title);
+
+        //Once everything is done the journal starts over.
+        reopened.markDone(reopened.getPendingEntries().get(0));
+        reopened.trim();
+        assertEquals(0, reopened.getUsedBytes());
+        reopened.close();
+
+        CaptureJournal empty = CaptureJournal.open(path, CAPACITY);
+        assertTrue(empty.getPendingEntries().isEmpty());
+        empty.close();
+    }
+
+    @Test
+    public void staleRecordsFromBeforeAResetAreIgnored() throws Exception {
+
+        CaptureJournal journal = CaptureJournal.open(path, CAPACITY);
+
+        for(int i = 0; i < 4; i++){
+
+            journal.markDone(journal.append("old" + i, ByteBuffer.wrap(new byte[500])));
+        }
+
+        journal.trim();
+
+        //Shorter than the first old record, so the old records still sit in the file right behind it.
+        journal.append("new", ByteBuffer.wrap(new byte[10]));
+        journal.close();
+
+        CaptureJournal reopened = CaptureJournal.open(path, CAPACITY);
+        List<CaptureJournal.Entry> pending = reopened.getPendingEntries();
+
+        assertEquals(1, pending.size());
+        assertEquals("new", pending.get(0).title);
+        reopened.close();
+    }
+
+    @Test
+    public void truncatedPayloadIsDroppedAndItsSpaceReused() throws Exception {
+
+        CaptureJournal journal = CaptureJournal.open(path, CAPACITY);
+        journal.append("whole", ByteBuffer.wrap(SyntheticJpeg.create(640, 480, 10_000, 3)));
+        CaptureJournal.Entry torn = journal.append("torn", ByteBuffer.wrap(SyntheticJpeg.create(640, 480, 10_000, 4)));
+        int tornEnd = CaptureJournal.HEADER_SIZE + journal.getUsedBytes();
+        journal.close();
+
+        //The process died with only the start of the payload written out.
+        zero(tornEnd - torn.getPayloadLength() / 2, torn.getPayloadLength() / 2);
+
+        CaptureJournal reopened = CaptureJournal.open(path, CAPACITY);
+        List<CaptureJournal.Entry> pending = reopened.getPendingEntries();
+
+        assertEquals(1, pending.size());
+        assertEquals("whole", pending.get(0).title);
+        assertTrue(reopened.hasTornRecord());
+
+        CaptureJournal.Entry next = reopened.append("next", ByteBuffer.wrap(new byte[100]));
+        assertEquals(tornEnd - torn.getPayloadLength() - CaptureJournal.RECORD_HEADER_SIZE - 4, CaptureJournal.HEADER_SIZE + reopened.getUsedBytes() - next.getPayloadLength() - CaptureJournal.RECORD_HEADER_SIZE - 4);
+        reopened.close();
+
+        CaptureJournal again = CaptureJournal.open(path, CAPACITY);
+        assertEquals(2, again.getPendingEntries().size());
+        assertEquals("next", again.getPendingEntries().get(1).title);
+        again.close();
+    }
+
+    @Test
+    public void recordCutOffAtEveryPointNeverCorruptsTheOnesBeforeIt() throws Exception {
+
+        byte[] kept = SyntheticJpeg.create(320, 240, 2_000, 5);
+        byte[] lost = SyntheticJpeg.create(320, 240, 2_000, 6);
+        int recordSize = CaptureJournal.RECORD_HEADER_SIZE + 4 + lost.length;
+
+        for(int cut = 0; cut < recordSize; cut += 97){
+
+            File cutPath = new File(folder.getRoot(), "cut" + cut + ".bin");
+            CaptureJournal journal = CaptureJournal.open(cutPath, CAPACITY);
+            journal.append("kept", ByteBuffer.wrap(kept));
+            int start = CaptureJournal.HEADER_SIZE + journal.getUsedBytes();
+            journal.append("lost", ByteBuffer.wrap(lost));
+            journal.close();
+
+            //Simulates a write that stopped after cut bytes, with the rest of the record never written. The magic
+            //goes in last, so it is only there once the whole record is.
+            RandomAccessFile file = new RandomAccessFile(cutPath, "rw");
+            file.seek(start + cut);
+            file.write(new byte[recordSize - cut]);
+            file.close();
+
+            CaptureJournal reopened = CaptureJournal.open(cutPath, CAPACITY);
+            List<CaptureJournal.Entry> pending = reopened.getPendingEntries();
+
+            assertEquals("cut at " + cut, 1, pending.size());
+            assertArrayEquals(kept, bytes(reopened.getPayload(pending.get(0))));
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void fullJournalRefusesAppends() throws Exception {
+
+        CaptureJournal journal = CaptureJournal.open(path, 4096);
+
+        assertNotNull(journal.append("fits", ByteBuffer.wrap(new byte[3000])));
+        assertNull(journal.append("too big", ByteBuffer.wrap(new byte[3000])));
+
+        journal.markDone(journal.getPendingEntries().get(0));
+        journal.trim();
+        assertNotNull(journal.append("fits now", ByteBuffer.wrap(new byte[3000])));
+        journal.close();
+    }
+
+    @Test
+    public void unreadableHeaderStartsOver() throws Exception {
+
+        CaptureJournal journal = CaptureJournal.open(path, CAPACITY);
+        journal.append("img1", ByteBuffer.wrap(new byte[100]));
+        journal.close();
+
+        zero(0, 4);
+
+        CaptureJournal reopened = CaptureJournal.open(path, CAPACITY);
+        assertTrue(reopened.getPendingEntries().isEmpty());
+        assertEquals(0, reopened.getRecoveredCount());
+        reopened.close();
+    }
+
+    @Test
+    public void claimedEntriesAreOnlyPromotedOnce() throws Exception {
+
+        CaptureJournal journal = CaptureJournal.open(path, CAPACITY);
+        CaptureJournal.Entry appended = journal.append("img1", ByteBuffer.wrap(new byte[100]));
+
+        //The entry belongs to whoever appended it until it is unclaimed.
+        assertFalse(journal.claim(appended));
+        journal.unclaim(appended);
+        assertTrue(journal.claim(appended));
+
+        journal.markDone(appended);
+        assertFalse(journal.claim(appended));
+        journal.close();
+    }
+
+    private void zero(long offset, int length) throws Exception {
+
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+
+        try{
+
+            file.seek(offset);
+            file.write(new byte[length]);
+
+        }finally{
+
+            file.close();
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer){
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+
+        return bytes;
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.david.simplecamera;
+
+import android.hardware.camera2.CaptureResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CaptureStateMachineTest {
+
+    private final static Integer AF_AUTO = CaptureResult.CONTROL_AF_MODE_AUTO;
+    private final static Integer AF_SCANNING = CaptureResult.CONTROL_AF_STATE_ACTIVE_SCAN;
+    private final static Integer AF_LOCKED = CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED;
+    private final static Integer AE_SEARCHING = CaptureResult.CONTROL_AE_STATE_SEARCHING;
+    private final static Integer AE_PRECAPTURE = CaptureResult.CONTROL_AE_STATE_PRECAPTURE;
+    private final static Integer AE_CONVERGED = CaptureResult.CONTROL_AE_STATE_CONVERGED;
+
+    private FakeClock clock;
+    private RecordingActions actions;
+    private CaptureStateMachine stateMachine;
+
+    @Before
+    public void setUp(){
+
+        clock = new FakeClock(0);
+        actions = new RecordingActions();
+        stateMachine = new CaptureStateMachine(actions, clock);
+    }
+
+    @Test
+    public void focusLockedAndExposureConverged_capturesWithoutPrecapture() throws Exception {
+
+        assertTrue(stateMachine.start());
+        feed(result(AF_AUTO, AF_SCANNING, AE_SEARCHING),
+                result(AF_AUTO, AF_SCANNING, AE_SEARCHING),
+                result(AF_AUTO, AF_LOCKED, AE_CONVERGED));
+
+        assertEquals(Arrays.asList("startAutoFocus", "lockFocus", "captureStill"), actions.calls);
+        assertEquals(CaptureStateMachine.STATE_PICTURE_TAKEN, stateMachine.getState());
+    }
+
+    @Test
+    public void exposureNotConverged_runsPrecaptureFirst() throws Exception {
+
+        stateMachine.start();
+        feed(result(AF_AUTO, AF_SCANNING, AE_SEARCHING),
+                result(AF_AUTO, AF_LOCKED, AE_SEARCHING),
+                result(AF_AUTO, AF_LOCKED, AE_SEARCHING),
+                result(AF_AUTO, AF_LOCKED, AE_PRECAPTURE),
+                result(AF_AUTO, AF_LOCKED, AE_PRECAPTURE),
+                result(AF_AUTO, AF_LOCKED, AE_CONVERGED));
+
+        assertEquals(Arrays.asList("startAutoFocus", "lockFocus", "runPrecapture", "captureStill"), actions.calls);
+    }
+
+    @Test
+    public void noFocus_capturesStraightAway() throws Exception {
+
+        stateMachine.start();
+        feed(result(null, null, null));
+
+        assertEquals(Arrays.asList("startAutoFocus", "captureStill"), actions.calls);
+    }
+
+    @Test
+    public void focusNeverLocks_timeoutCapturesAnyway() throws Exception {
+
+        stateMachine.setTimeout(CaptureStateMachine.STATE_WAITING_LOCK, 750);
+        stateMachine.start();
+        feed(result(AF_AUTO, AF_SCANNING, AE_SEARCHING));
+
+        for(int frame = 0; frame < 22; frame++){
+
+            clock.advanceMillis(33);
+            feed(result(AF_AUTO, AF_SCANNING, AE_SEARCHING));
+        }
+
+        assertEquals(Arrays.asList("startAutoFocus", "lockFocus"), actions.calls);
+
+        clock.advanceMillis(33);
+        feed(result(AF_AUTO, AF_SCANNING, AE_SEARCHING));
+
+        assertEquals(Arrays.asList("startAutoFocus", "lockFocus", "captureStill"), actions.calls);
+        assertEquals(1, stateMachine.getTimeoutCount());
+    }
+
+    @Test
+    public void onlyTimeoutsAreReportedAsTimedOut() throws Exception {
+
+        final List<String> changes = new ArrayList<>();
+
+        stateMachine.setStateListener(new CaptureStateMachine.StateListener() {
+
+            @Override
+            public void onStateChanged(int from, int to, boolean timedOut) {
+
+                changes.add(from + ">" + to + (timedOut ? " timed out" : ""));
+            }
+        });
+
+        stateMachine.start();
+        feed(result(AF_AUTO, AF_SCANNING, AE_SEARCHING));
+        clock.advanceMillis(1000);
+        assertTrue(stateMachine.checkTimeout());
+        stateMachine.reset();
+
+        assertEquals(Arrays.asList("0>1", "1>2", "2>5 timed out", "5>0"), changes);
+    }
+
+    @Test
+    public void stillNeverArrives_timerAbandonsCapture() throws Exception {
+
+        stateMachine.start();
+        feed(result(null, null, null));
+
+        //No more results arrive once the still is requested, only the timer checks.
+        clock.advanceMillis(2999);
+        assertFalse(stateMachine.checkTimeout());
+
+        clock.advanceMillis(1);
+        assertTrue(stateMachine.checkTimeout());
+
+        assertEquals(Arrays.asList("startAutoFocus", "captureStill", "abandonCapture"), actions.calls);
+        assertFalse(stateMachine.isCapturing());
+        assertTrue(stateMachine.start());
+    }
+
+    @Test
+    public void secondStartWhileCapturing_isIgnored() throws Exception {
+
+        assertTrue(stateMachine.start());
+        assertFalse(stateMachine.start());
+
+        stateMachine.reset();
+        assertTrue(stateMachine.start());
+        assertEquals(Arrays.asList("startAutoFocus", "startAutoFocus"), actions.calls);
+    }
+
+    @Test
+    public void startWithLocks_capturesStraightAwayAndStillTimesOut() throws Exception {
+
+        assertTrue(stateMachine.startWithLocks());
+        assertFalse(stateMachine.start());
+        assertEquals(Arrays.asList("captureStill"), actions.calls);
+        assertEquals(CaptureStateMachine.STATE_PICTURE_TAKEN, stateMachine.getState());
+
+        clock.advanceMillis(3000);
+        assertTrue(stateMachine.checkTimeout());
+        assertEquals(Arrays.asList("captureStill", "abandonCapture"), actions.calls);
+    }
+
+    @Test
+    public void resultsWhilePreviewing_doNothing() throws Exception {
+
+        feed(result(AF_AUTO, AF_LOCKED, AE_CONVERGED));
+        clock.advanceMillis(10000);
+        assertFalse(stateMachine.checkTimeout());
+
+        assertTrue(actions.calls.isEmpty());
+    }
+
+    private void feed(CaptureStateMachine.Result... results){
+
+        for(CaptureStateMachine.Result result : results){
+
+            stateMachine.onCaptureResult(result);
+        }
+    }
+
+    private static CaptureStateMachine.Result result(final Integer afMode, final Integer afState, final Integer aeState){
+
+        return new CaptureStateMachine.Result() {
+
+            @Override
+            public Integer getAutoFocusMode() {
+
+                return afMode;
+            }
+
+            @Override
+            public Integer getAutoFocusState() {
+
+                return afState;
+            }
+
+            @Override
+            public Integer getAutoExposureState() {
+
+                return aeState;
+            }
+        };
+    }
+
+    private static class RecordingActions implements CaptureStateMachine.Actions {
+
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void startAutoFocus() {
+
+            calls.add("startAutoFocus");
+        }
+
+        @Override
+        public void lockFocus() {
+
+            calls.add("lockFocus");
+        }
+
+        @Override
+        public void runPrecapture() {
+
+            calls.add("runPrecapture");
+        }
+
+        @Override
+        public void captureStill() {
+
+            calls.add("captureStill");
+        }
+
+        @Override
+        public void abandonCapture() {
+
+            calls.add("abandonCapture");
+        }
+    }
+}
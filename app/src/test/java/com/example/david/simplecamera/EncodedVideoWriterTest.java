@@ -0,0 +1,274 @@
+package com.example.david.simplecamera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EncodedVideoWriterTest {
+
+    private final static long FRAME_MICROS = 33333;
+    private final static long FRAME_NANOS = FRAME_MICROS * 1000;
+    private final static String FORMAT = "video/avc 1280x720";
+
+    private CannedEncoder encoder;
+    private RecordingMuxer muxer;
+    private FakeClock clock;
+    private EncodedVideoWriter<String> writer;
+
+    @Before
+    public void setUp(){
+
+        encoder = new CannedEncoder();
+        muxer = new RecordingMuxer();
+        clock = new FakeClock(0);
+        writer = new EncodedVideoWriter<>(encoder, muxer, FRAME_NANOS, clock);
+    }
+
+    @Test
+    public void samplesAreWrittenFromTheEncodersBuffers() throws Exception {
+
+        encoder.formatChanged();
+        encoder.sample(new byte[]{1, 2, 3}, 0, EncoderOutput.SampleInfo.FLAG_CODEC_CONFIG);
+        encoder.sample(new byte[]{10, 11, 12, 13}, 0, EncoderOutput.SampleInfo.FLAG_KEY_FRAME);
+        encoder.sample(new byte[]{20, 21}, FRAME_MICROS, 0);
+        clock.advanceNanos(2 * FRAME_NANOS);
+
+        assertFalse(writer.drain(0));
+
+        assertEquals(Arrays.asList("addTrack " + FORMAT, "start"), muxer.calls.subList(0, 2));
+        assertEquals(2, muxer.samples.size());
+        assertArrayEquals(new byte[]{10, 11, 12, 13}, muxer.samples.get(0));
+        assertArrayEquals(new byte[]{20, 21}, muxer.samples.get(1));
+
+        //The muxer got the encoder's own buffers, and every one of them went back to the encoder.
+        assertSame(encoder.buffers.get(1), muxer.buffers.get(0));
+        assertSame(encoder.buffers.get(2), muxer.buffers.get(1));
+        assertEquals(Arrays.asList(0, 1, 2), encoder.released);
+
+        EncodedVideoWriter.Stats stats = writer.getStats();
+        assertEquals(2, stats.frames);
+        assertEquals(1, stats.keyFrames);
+        assertEquals(6, stats.bytes);
+        assertEquals(0, stats.droppedFrames);
+    }
+
+    @Test
+    public void samplesAreCutOutOfTheirBuffer() throws Exception {
+
+        encoder.formatChanged();
+        encoder.sample(new byte[]{0, 0, 7, 8, 9, 0}, 2, 3, 0, EncoderOutput.SampleInfo.FLAG_KEY_FRAME);
+
+        writer.drain(0);
+
+        assertArrayEquals(new byte[]{7, 8, 9}, muxer.samples.get(0));
+        assertEquals(3, muxer.infos.get(0).size);
+    }
+
+    @Test
+    public void endOfStreamStopsTheMuxer() throws Exception {
+
+        encoder.formatChanged();
+        encoder.sample(new byte[]{1}, 0, EncoderOutput.SampleInfo.FLAG_KEY_FRAME);
+        encoder.sample(new byte[0], FRAME_MICROS, EncoderOutput.SampleInfo.FLAG_END_OF_STREAM);
+        encoder.sample(new byte[]{2}, 2 * FRAME_MICROS, 0);
+
+        assertTrue(writer.drain(0));
+        assertTrue(writer.isFinished());
+        assertEquals("stop", muxer.calls.get(muxer.calls.size() - 1));
+        assertEquals(1, muxer.samples.size());
+
+        //Nothing after the end of the stream is taken.
+        assertTrue(writer.drain(0));
+        assertEquals(1, encoder.pending());
+    }
+
+    @Test
+    public void endOfStreamWithoutFormatNeverStartsTheMuxer() throws Exception {
+
+        encoder.sample(new byte[0], 0, EncoderOutput.SampleInfo.FLAG_END_OF_STREAM);
+
+        assertTrue(writer.drain(0));
+        assertTrue(muxer.calls.isEmpty());
+    }
+
+    @Test
+    public void gapsInPresentationTimesCountAsDroppedFrames() throws Exception {
+
+        encoder.formatChanged();
+        encoder.sample(new byte[]{1}, 0, EncoderOutput.SampleInfo.FLAG_KEY_FRAME);
+        encoder.sample(new byte[]{1}, FRAME_MICROS, 0);
+        //Two frames missing, with a little jitter.
+        encoder.sample(new byte[]{1}, 4 * FRAME_MICROS + 2000, 0);
+        encoder.sample(new byte[]{1}, 5 * FRAME_MICROS - 1000, 0);
+
+        writer.drain(0);
+
+        assertEquals(4, writer.getStats().frames);
+        assertEquals(2, writer.getStats().droppedFrames);
+    }
+
+    @Test
+    public void latencyRunsFromCaptureToEncodedSample() throws Exception {
+
+        encoder.formatChanged();
+        encoder.sample(new byte[]{1}, TimeUnit.MILLISECONDS.toMicros(100), EncoderOutput.SampleInfo.FLAG_KEY_FRAME);
+        clock.advanceMillis(120);
+        writer.drain(0);
+
+        encoder.sample(new byte[]{1}, TimeUnit.MILLISECONDS.toMicros(133), 0);
+        clock.advanceMillis(23);
+        writer.drain(0);
+
+        EncodedVideoWriter.Stats stats = writer.getStats();
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(15), stats.averageLatencyNanos);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), stats.maxLatencyNanos);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), stats.p95LatencyNanos);
+    }
+
+    @Test
+    public void onlyTheFirstDequeueWaits() throws Exception {
+
+        encoder.formatChanged();
+        encoder.sample(new byte[]{1}, 0, EncoderOutput.SampleInfo.FLAG_KEY_FRAME);
+
+        assertFalse(writer.drain(10000));
+        assertEquals(Arrays.asList(10000L, 0L, 0L), encoder.timeouts);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void samplesBeforeTheFormatAreRejected() throws Exception {
+
+        encoder.sample(new byte[]{1}, 0, EncoderOutput.SampleInfo.FLAG_KEY_FRAME);
+        writer.drain(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void aSecondFormatChangeIsRejected() throws Exception {
+
+        encoder.formatChanged();
+        encoder.formatChanged();
+        writer.drain(0);
+    }
+
+    //Hands out canned samples one output buffer at a time, like a synchronous MediaCodec.
+    private static class CannedEncoder implements EncoderOutput<String> {
+
+        final List<ByteBuffer> buffers = new ArrayList<>();
+        final List<Integer> released = new ArrayList<>();
+        final List<Long> timeouts = new ArrayList<>();
+        private final ArrayDeque<Object[]> outputs = new ArrayDeque<>();
+
+        void formatChanged(){
+
+            outputs.add(new Object[]{FORMAT_CHANGED});
+        }
+
+        void sample(byte[] data, long presentationTimeMicros, int flags){
+
+            sample(data, 0, data.length, presentationTimeMicros, flags);
+        }
+
+        void sample(byte[] data, int offset, int size, long presentationTimeMicros, int flags){
+
+            //Direct like a codec's buffers, with its position and limit left wherever the codec put them.
+            ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+            buffer.put(data);
+
+            buffers.add(buffer);
+            outputs.add(new Object[]{buffers.size() - 1, offset, size, presentationTimeMicros, flags});
+        }
+
+        int pending(){
+
+            return outputs.size();
+        }
+
+        @Override
+        public int dequeueOutputBuffer(SampleInfo info, long timeoutMicros) {
+
+            timeouts.add(timeoutMicros);
+            Object[] output = outputs.poll();
+
+            if(output == null){
+
+                return TRY_AGAIN_LATER;
+            }
+
+            if(output.length > 1){
+
+                info.set((Integer) output[1], (Integer) output[2], (Long) output[3], (Integer) output[4]);
+            }
+
+            return (Integer) output[0];
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+
+            return buffers.get(index);
+        }
+
+        @Override
+        public String getOutputFormat() {
+
+            return FORMAT;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index) {
+
+            released.add(index);
+        }
+    }
+
+    private static class RecordingMuxer implements SampleMuxer<String> {
+
+        final List<String> calls = new ArrayList<>();
+        final List<byte[]> samples = new ArrayList<>();
+        final List<ByteBuffer> buffers = new ArrayList<>();
+        final List<EncoderOutput.SampleInfo> infos = new ArrayList<>();
+
+        @Override
+        public int addTrack(String format) {
+
+            calls.add("addTrack " + format);
+            return 0;
+        }
+
+        @Override
+        public void start() {
+
+            calls.add("start");
+        }
+
+        @Override
+        public void writeSampleData(int track, ByteBuffer data, EncoderOutput.SampleInfo info) {
+
+            //Copied here only so the test can look at it afterwards.
+            byte[] sample = new byte[data.remaining()];
+            data.duplicate().get(sample);
+
+            EncoderOutput.SampleInfo copy = new EncoderOutput.SampleInfo();
+            copy.set(info.offset, info.size, info.presentationTimeMicros, info.flags);
+
+            calls.add("write " + track);
+            samples.add(sample);
+            buffers.add(data);
+            infos.add(copy);
+        }
+
+        @Override
+        public void stop() {
+
+            calls.add("stop");
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class ExifSplicerTest {
+
+    private final static TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    //2026-10-18 12:34:56 UTC.
+    private final static long CAPTURE_TIME = 1792326896000L;
+
+    private final static CaptureMetadata METADATA = new CaptureMetadata(123456789L, 10_000_000L, 400, 2f, 1.8f, 4.25f, CAPTURE_TIME);
+    private final static CaptureMetadata NOTHING_KNOWN = new CaptureMetadata(1, CaptureMetadata.UNKNOWN, (int) CaptureMetadata.UNKNOWN,
+            CaptureMetadata.UNKNOWN_FLOAT, CaptureMetadata.UNKNOWN_FLOAT, CaptureMetadata.UNKNOWN_FLOAT, CaptureMetadata.UNKNOWN);
+
+    @Test
+    public void buildSegment_writesTheCaptureValues() throws Exception {
+
+        ByteBuffer tiff = tiff(ExifSplicer.buildSegment(METADATA, UTC, 90, null));
+        int ifd0 = tiff.getInt(4);
+        int exifIfd = readLong(tiff, ifd0, 0x8769);
+
+        assertEquals(6, readShort(tiff, ifd0, 0x0112));
+        assertEquals("2026:10:18 12:34:56", readAscii(tiff, ifd0, 0x0132));
+        assertEquals("2026:10:18 12:34:56", readAscii(tiff, exifIfd, 0x9003));
+        assertArrayEquals(new long[]{1, 100}, readRational(tiff, exifIfd, 0x829A));
+        assertArrayEquals(new long[]{9, 5}, readRational(tiff, exifIfd, 0x829D));
+        assertEquals(400, readShort(tiff, exifIfd, 0x8827));
+        assertArrayEquals(new long[]{1, 2}, readRational(tiff, exifIfd, 0x9206));
+        assertArrayEquals(new long[]{17, 4}, readRational(tiff, exifIfd, 0x920A));
+
+        //No thumbnail, so no IFD1.
+        assertEquals(0, nextIfd(tiff, ifd0));
+    }
+
+    @Test
+    public void buildSegment_leavesOutWhatTheCameraDidNotReport() throws Exception {
+
+        ByteBuffer tiff = tiff(ExifSplicer.buildSegment(NOTHING_KNOWN, UTC, 0, null));
+        int ifd0 = tiff.getInt(4);
+        int exifIfd = readLong(tiff, ifd0, 0x8769);
+
+        assertEquals(1, readShort(tiff, ifd0, 0x0112));
+        assertEquals(-1, findEntry(tiff, ifd0, 0x0132));
+
+        //Only the Exif version is left.
+        assertEquals(1, tiff.getShort(exifIfd));
+        assertNotEquals(-1, findEntry(tiff, exifIfd, 0x9000));
+    }
+
+    @Test
+    public void buildSegment_focusAtInfinity() throws Exception {
+
+        CaptureMetadata infinity = new CaptureMetadata(1, 1, 100, 0f, 2f, 4f, CAPTURE_TIME);
+        ByteBuffer tiff = tiff(ExifSplicer.buildSegment(infinity, UTC, 0, null));
+        int exifIfd = readLong(tiff, tiff.getInt(4), 0x8769);
+
+        assertArrayEquals(new long[]{0xFFFFFFFFL, 1}, readRational(tiff, exifIfd, 0x9206));
+    }
+
+    @Test
+    public void splice_replacesTheCameraExifAndKeepsItsThumbnailAndOrientation() throws Exception {
+
+        byte[] thumbnail = SyntheticJpeg.create(320, 240, 6_000, 1);
+        byte[] source = SyntheticJpeg.withExifThumbnail(SyntheticJpeg.create(4000, 3000, 200_000, 2), thumbnail, 6, true);
+        ByteBuffer sourceBuffer = ByteBuffer.wrap(source);
+        int oldExif = ExifThumbnail.findExifSegment(sourceBuffer);
+        int oldExifEnd = oldExif + 2 + JpegParser.segmentLength(sourceBuffer, oldExif);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = ExifSplicer.splice(sourceBuffer, METADATA, UTC, out, new byte[4096]);
+        byte[] spliced = out.toByteArray();
+        ByteBuffer splicedBuffer = ByteBuffer.wrap(spliced);
+
+        assertEquals(spliced.length, written);
+        assertEquals(0, sourceBuffer.position());
+        assertArrayEquals(thumbnail, bytes(ExifThumbnail.find(splicedBuffer)));
+        assertEquals(90, ExifThumbnail.readOrientationDegrees(splicedBuffer));
+
+        //The new segment right after the SOI, then the source without its old Exif segment, byte for byte.
+        byte[] segment = ExifSplicer.buildSegment(METADATA, UTC, 90, ByteBuffer.wrap(thumbnail));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(source, 0, 2);
+        expected.write(segment);
+        expected.write(source, 2, oldExif - 2);
+        expected.write(source, oldExifEnd, source.length - oldExifEnd);
+
+        assertArrayEquals(expected.toByteArray(), spliced);
+        assertEquals(-1, JpegParser.findNextSegment(splicedBuffer, JpegParser.MARKER_APP1, 2));
+    }
+
+    @Test
+    public void splice_insertsExifWhenThereIsNone() throws Exception {
+
+        byte[] source = SyntheticJpeg.create(640, 480, 20_000, 3);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(source.length + 7);
+        buffer.position(7);
+        buffer.put(source);
+        buffer.position(7);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExifSplicer.splice(buffer, METADATA, UTC, out, new byte[1024]);
+        byte[] spliced = out.toByteArray();
+        byte[] segment = ExifSplicer.buildSegment(METADATA, UTC, 0, null);
+
+        assertEquals(source.length + segment.length, spliced.length);
+        assertEquals(2, ExifThumbnail.findExifSegment(ByteBuffer.wrap(spliced)));
+        assertNull(ExifThumbnail.find(ByteBuffer.wrap(spliced)));
+
+        for(int i = 2; i < source.length; i++){
+
+            assertEquals(source[i], spliced[segment.length + i]);
+        }
+    }
+
+    @Test
+    public void splice_dropsAThumbnailThatDoesNotFit() throws Exception {
+
+        //Fits in the camera's segment, but not next to the new tags.
+        byte[] thumbnail = SyntheticJpeg.create(640, 480, 65_400, 4);
+        byte[] source = SyntheticJpeg.withExifThumbnail(SyntheticJpeg.create(4000, 3000, 200_000, 5), thumbnail, 3, false);
+        assertNotNull(ExifThumbnail.find(ByteBuffer.wrap(source)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExifSplicer.splice(ByteBuffer.wrap(source), METADATA, UTC, out, new byte[4096]);
+        ByteBuffer spliced = ByteBuffer.wrap(out.toByteArray());
+
+        assertNull(ExifThumbnail.find(spliced));
+        assertEquals(180, ExifThumbnail.readOrientationDegrees(spliced));
+        assertArrayEquals(new int[]{4000, 3000}, JpegParser.readDimensions(spliced));
+    }
+
+    @Test
+    public void splice_rejectsNonJpeg() throws Exception {
+
+        try{
+
+            ExifSplicer.splice(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), METADATA, UTC, new ByteArrayOutputStream(), new byte[16]);
+            fail();
+
+        }catch(IOException e){
+
+            //Expected.
+        }
+    }
+
+    @Test
+    public void toExifOrientation() throws Exception {
+
+        assertEquals(1, ExifSplicer.toExifOrientation(0));
+        assertEquals(6, ExifSplicer.toExifOrientation(90));
+        assertEquals(3, ExifSplicer.toExifOrientation(180));
+        assertEquals(8, ExifSplicer.toExifOrientation(-90));
+        assertEquals(1, ExifSplicer.toExifOrientation(45));
+    }
+
+    private static ByteBuffer tiff(byte[] segment){
+
+        //Marker, length and "Exif\0\0" come before the TIFF header.
+        assertEquals(0xFF, segment[0] & 0xFF);
+        assertEquals(JpegParser.MARKER_APP1, segment[1] & 0xFF);
+        assertEquals(segment.length - 2, ((segment[2] & 0xFF) << 8) | (segment[3] & 0xFF));
+        assertEquals("MM", new String(segment, 10, 2));
+
+        ByteBuffer tiff = ByteBuffer.wrap(segment, 10, segment.length - 10).slice();
+        assertEquals(42, tiff.getShort(2));
+
+        return tiff;
+    }
+
+    private static int findEntry(ByteBuffer tiff, int ifd, int tag){
+
+        int count = tiff.getShort(ifd) & 0xFFFF;
+
+        for(int i = 0; i < count; i++){
+
+            int entry = ifd + 2 + i * 12;
+
+            if((tiff.getShort(entry) & 0xFFFF) == tag){
+
+                return entry;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int nextIfd(ByteBuffer tiff, int ifd){
+
+        return tiff.getInt(ifd + 2 + (tiff.getShort(ifd) & 0xFFFF) * 12);
+    }
+
+    private static int readShort(ByteBuffer tiff, int ifd, int tag){
+
+        int entry = findEntry(tiff, ifd, tag);
+        assertEquals(3, tiff.getShort(entry + 2));
+
+        return tiff.getShort(entry + 8) & 0xFFFF;
+    }
+
+    private static int readLong(ByteBuffer tiff, int ifd, int tag){
+
+        int entry = findEntry(tiff, ifd, tag);
+        assertEquals(4, tiff.getShort(entry + 2));
+
+        return tiff.getInt(entry + 8);
+    }
+
+    private static long[] readRational(ByteBuffer tiff, int ifd, int tag){
+
+        int entry = findEntry(tiff, ifd, tag);
+        assertEquals(5, tiff.getShort(entry + 2));
+        int offset = tiff.getInt(entry + 8);
+
+        return new long[]{tiff.getInt(offset) & 0xFFFFFFFFL, tiff.getInt(offset + 4) & 0xFFFFFFFFL};
+    }
+
+    private static String readAscii(ByteBuffer tiff, int ifd, int tag){
+
+        int entry = findEntry(tiff, ifd, tag);
+        assertEquals(2, tiff.getShort(entry + 2));
+        int count = tiff.getInt(entry + 4);
+        int offset = tiff.getInt(entry + 8);
+        byte[] text = new byte[count - 1];
+
+        for(int i = 0; i < text.length; i++){
+
+            text[i] = tiff.get(offset + i);
+        }
+
+        assertEquals(0, tiff.get(offset + count - 1));
+
+        return new String(text);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer){
+
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.duplicate().get(copy);
+
+        return copy;
+    }
+}
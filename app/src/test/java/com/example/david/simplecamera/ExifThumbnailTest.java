@@ -0,0 +1,99 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ExifThumbnailTest {
+
+    @Test
+    public void find_returnsTheEmbeddedThumbnail() throws Exception {
+
+        byte[] thumbnail = SyntheticJpeg.create(320, 240, 6_000, 1);
+
+        for(boolean littleEndian : new boolean[]{true, false}){
+
+            byte[] jpeg = SyntheticJpeg.withExifThumbnail(SyntheticJpeg.create(4000, 3000, 200_000, 2), thumbnail, 6, littleEndian);
+            ByteBuffer found = ExifThumbnail.find(ByteBuffer.wrap(jpeg));
+
+            assertNotNull(found);
+            assertArrayEquals(thumbnail, bytes(found));
+            assertArrayEquals(new int[]{320, 240}, JpegParser.readDimensions(found));
+            assertEquals(90, ExifThumbnail.readOrientationDegrees(ByteBuffer.wrap(jpeg)));
+        }
+    }
+
+    @Test
+    public void find_skipsOtherApp1Segments() throws Exception {
+
+        byte[] thumbnail = SyntheticJpeg.create(160, 120, 3_000, 3);
+        byte[] jpeg = SyntheticJpeg.withExifThumbnail(SyntheticJpeg.create(640, 480, 20_000, 4), thumbnail, 1, false);
+
+        //An XMP packet in front of the Exif data.
+        jpeg = SyntheticJpeg.withSegment(jpeg, JpegParser.MARKER_APP1, "http://ns.adobe.com/xap/1.0/\0<x:xmpmeta/>".getBytes("UTF-8"));
+
+        assertArrayEquals(thumbnail, bytes(ExifThumbnail.find(ByteBuffer.wrap(jpeg))));
+        assertEquals(0, ExifThumbnail.readOrientationDegrees(ByteBuffer.wrap(jpeg)));
+    }
+
+    @Test
+    public void offsetsAreRelativeToPosition() throws Exception {
+
+        byte[] thumbnail = SyntheticJpeg.create(160, 120, 3_000, 5);
+        byte[] jpeg = SyntheticJpeg.withExifThumbnail(SyntheticJpeg.create(640, 480, 20_000, 6), thumbnail, 8, true);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(jpeg.length + 5);
+        buffer.position(5);
+        buffer.put(jpeg);
+        buffer.position(5);
+
+        assertArrayEquals(thumbnail, bytes(ExifThumbnail.find(buffer)));
+        assertEquals(270, ExifThumbnail.readOrientationDegrees(buffer));
+        assertEquals(5, buffer.position());
+    }
+
+    @Test
+    public void missingOrBrokenExif() throws Exception {
+
+        byte[] plain = SyntheticJpeg.create(640, 480, 20_000, 7);
+        byte[] jpeg = SyntheticJpeg.withExifThumbnail(plain, SyntheticJpeg.create(160, 120, 3_000, 8), 6, true);
+
+        assertNull(ExifThumbnail.find(ByteBuffer.wrap(plain)));
+        assertEquals(0, ExifThumbnail.readOrientationDegrees(ByteBuffer.wrap(plain)));
+
+        //Thumbnail length pointing past the end of the segment. The length entry's value sits 4 + 6 + 26 + 2 +
+        //2 * 12 + 8 bytes into the segment, after the SOI.
+        byte[] overlong = jpeg.clone();
+        overlong[2 + 4 + 6 + 26 + 2 + 2 * 12 + 8 + 2] = 0x7F;
+        assertNull(ExifThumbnail.find(ByteBuffer.wrap(overlong)));
+
+        //Thumbnail offset so large that adding the length to it overflows. The offset entry's value sits 12 bytes
+        //before the length's.
+        byte[] overflowing = jpeg.clone();
+        overflowing[2 + 4 + 6 + 26 + 2 + 12 + 8] = (byte) 0xF0;
+        overflowing[2 + 4 + 6 + 26 + 2 + 12 + 8 + 1] = (byte) 0xFF;
+        overflowing[2 + 4 + 6 + 26 + 2 + 12 + 8 + 2] = (byte) 0xFF;
+        overflowing[2 + 4 + 6 + 26 + 2 + 12 + 8 + 3] = 0x7F;
+        assertNull(ExifThumbnail.find(ByteBuffer.wrap(overflowing)));
+
+        //Byte order mark that is neither II nor MM.
+        byte[] badOrder = jpeg.clone();
+        badOrder[2 + 4 + 6] = 'X';
+        assertNull(ExifThumbnail.find(ByteBuffer.wrap(badOrder)));
+
+        //Cut off inside the Exif data.
+        assertNull(ExifThumbnail.find(ByteBuffer.wrap(jpeg, 0, 60)));
+
+        //Not a JPEG at all.
+        assertNull(ExifThumbnail.find(ByteBuffer.wrap(new byte[]{1, 2, 3, 4})));
+    }
+
+    private static byte[] bytes(ByteBuffer buffer){
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+
+        return bytes;
+    }
+}
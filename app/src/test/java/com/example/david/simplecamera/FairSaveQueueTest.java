@@ -0,0 +1,187 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class FairSaveQueueTest {
+
+    @Test
+    public void camerasAreServedInTurn() throws Exception {
+
+        SaveExecutor executor = new SaveExecutor("test", 1, 4, SaveExecutor.BackpressurePolicy.BLOCK);
+        FairSaveQueue queue = new FairSaveQueue(executor, 1, 8, new FakeClock(0));
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch gate = new CountDownLatch(1);
+
+        //The first save holds the only slot, so everything after it waits in the camera queues.
+        queue.submit("back", new NamedTask("back0", order, gate));
+
+        for(int i = 1; i <= 4; i++){
+
+            queue.submit("back", new NamedTask("back" + i, order, null));
+        }
+
+        queue.submit("front", new NamedTask("front0", order, null));
+        queue.submit("front", new NamedTask("front1", order, null));
+        assertEquals(1, queue.getInFlightCount());
+
+        gate.countDown();
+        assertTrue(executor.awaitIdle(5000));
+
+        assertEquals(Arrays.asList("back0", "back1", "front0", "back2", "front1", "back3", "back4"), order);
+        assertEquals(Arrays.asList("back", "front"), queue.getSources());
+        assertEquals(5, queue.getStats("back").saved);
+        assertEquals(2, queue.getStats("front").saved);
+    }
+
+    @Test
+    public void fullCameraQueueDropsItsOldestSave() throws Exception {
+
+        SaveExecutor executor = new SaveExecutor("test", 1, 4, SaveExecutor.BackpressurePolicy.BLOCK);
+        FairSaveQueue queue = new FairSaveQueue(executor, 1, 2, new FakeClock(0));
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch gate = new CountDownLatch(1);
+
+        queue.submit("0", new NamedTask("blocker", order, gate));
+        NamedTask first = new NamedTask("first", order, null);
+        assertTrue(queue.submit("0", first));
+        assertTrue(queue.submit("0", new NamedTask("second", order, null)));
+        assertFalse(queue.submit("0", new NamedTask("third", order, null)));
+        assertTrue(first.discarded);
+
+        //Another camera is not affected by the full queue.
+        assertTrue(queue.submit("1", new NamedTask("other", order, null)));
+
+        gate.countDown();
+        assertTrue(executor.awaitIdle(5000));
+
+        assertEquals(Arrays.asList("blocker", "second", "other", "third"), order);
+        FairSaveQueue.Stats stats = queue.getStats("0");
+        assertEquals(4, stats.submitted);
+        assertEquals(3, stats.saved);
+        assertEquals(1, stats.dropped);
+        assertEquals(0, stats.queued);
+    }
+
+    @Test
+    public void failedSavesAreCountedAndFreeTheirSlot() throws Exception {
+
+        SaveExecutor executor = new SaveExecutor("test", 1, 4, SaveExecutor.BackpressurePolicy.BLOCK);
+        FairSaveQueue queue = new FairSaveQueue(executor, 1, 4, new FakeClock(0));
+
+        queue.submit("0", new SaveTask() {
+
+            @Override
+            public void run() {
+
+                throw new IllegalStateException("Expected failure");
+            }
+
+            @Override
+            public void discard() {
+
+            }
+        });
+        queue.submit("0", new NamedTask("after", new ArrayList<String>(), null));
+        assertTrue(executor.awaitIdle(5000));
+
+        FairSaveQueue.Stats stats = queue.getStats("0");
+        assertEquals(1, stats.failed);
+        assertEquals(1, stats.saved);
+        assertEquals(0, queue.getInFlightCount());
+    }
+
+    @Test
+    public void flushHandsOverEverythingQueued() throws Exception {
+
+        SaveExecutor executor = new SaveExecutor("test", 1, 8, SaveExecutor.BackpressurePolicy.BLOCK);
+        FairSaveQueue queue = new FairSaveQueue(executor, 1, 8, new FakeClock(0));
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch gate = new CountDownLatch(1);
+
+        queue.submit("0", new NamedTask("blocker", order, gate));
+        queue.submit("0", new NamedTask("a", order, null));
+        queue.submit("1", new NamedTask("b", order, null));
+        assertEquals(2, queue.getStats("0").queued + queue.getStats("1").queued);
+
+        queue.flush();
+        assertEquals(3, queue.getInFlightCount());
+        assertEquals(0, queue.getStats("0").queued);
+
+        gate.countDown();
+        assertTrue(executor.awaitIdle(5000));
+        assertEquals(3, order.size());
+    }
+
+    @Test
+    public void throughputCoversFirstSubmitToLastSave() throws Exception {
+
+        FakeClock clock = new FakeClock(0);
+        SaveExecutor executor = new SaveExecutor("test", 1, 4, SaveExecutor.BackpressurePolicy.BLOCK);
+        FairSaveQueue queue = new FairSaveQueue(executor, 1, 4, clock);
+
+        assertEquals(0, queue.getStats("0").getSavesPerSecond(), 0);
+
+        queue.submit("0", new NamedTask("a", new ArrayList<String>(), null));
+        assertTrue(executor.awaitIdle(5000));
+        clock.advanceMillis(500);
+        queue.submit("0", new NamedTask("b", new ArrayList<String>(), null));
+        assertTrue(executor.awaitIdle(5000));
+
+        FairSaveQueue.Stats stats = queue.getStats("0");
+        assertEquals(500000000L, stats.elapsedNanos);
+        assertEquals(4, stats.getSavesPerSecond(), 0.001);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyLimits(){
+
+        new FairSaveQueue(new SaveExecutor("test", 1, 1, SaveExecutor.BackpressurePolicy.BLOCK), 0, 1, new FakeClock(0));
+    }
+
+    private static class NamedTask implements SaveTask {
+
+        private final String name;
+        private final List<String> order;
+        private final CountDownLatch gate;
+        volatile boolean discarded;
+
+        NamedTask(String name, List<String> order, CountDownLatch gate){
+
+            this.name = name;
+            this.order = order;
+            this.gate = gate;
+        }
+
+        @Override
+        public void run() {
+
+            if(gate != null){
+
+                try{
+
+                    gate.await();
+
+                }catch(InterruptedException e){
+
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            order.add(name);
+        }
+
+        @Override
+        public void discard() {
+
+            discarded = true;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.david.simplecamera;
+
+import java.util.concurrent.TimeUnit;
+
+//A Clock that only moves when a test tells it to.
+class FakeClock implements Clock {
+
+    private long now;
+
+    FakeClock(long startNanos){
+
+        now = startNanos;
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+
+        return now;
+    }
+
+    synchronized void advanceMillis(long millis){
+
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    synchronized void advanceNanos(long nanos){
+
+        now += nanos;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.david.simplecamera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameMetadataStoreTest {
+
+    private final static int AF_PASSIVE_SCAN = 1;
+    private final static int AF_PASSIVE_FOCUSED = 2;
+    private final static int AF_FOCUSED_LOCKED = 4;
+    private final static int AE_SEARCHING = 1;
+    private final static int AE_CONVERGED = 2;
+
+    private FrameMetadataStore store;
+
+    @Before
+    public void setUp(){
+
+        store = new FrameMetadataStore(4);
+    }
+
+    @Test
+    public void recordedFieldsReadBack() throws Exception {
+
+        long sequence = store.record(1000, AF_PASSIVE_FOCUSED, AE_CONVERGED, 20000000L, 400, 1.5f);
+
+        assertEquals(0, sequence);
+        assertEquals(1000, store.getTimestamp(sequence));
+        assertEquals(AF_PASSIVE_FOCUSED, store.getAutoFocusState(sequence));
+        assertEquals(AE_CONVERGED, store.getAutoExposureState(sequence));
+        assertEquals(20000000L, store.getExposureTime(sequence));
+        assertEquals(400, store.getSensitivity(sequence));
+        assertEquals(1.5f, store.getFocusDistance(sequence), 0);
+    }
+
+    @Test
+    public void oldestFramesFallOutWhenFull() throws Exception {
+
+        for(int i = 0; i < 6; i++){
+
+            store.record(i * 33, AF_PASSIVE_SCAN, AE_SEARCHING, 10, 100, 0);
+        }
+
+        assertEquals(4, store.size());
+        assertEquals(6, store.getRecordedCount());
+        assertFalse(store.contains(1));
+        assertTrue(store.contains(2));
+        assertEquals(5, store.findNewest());
+        assertEquals(2 * 33, store.getTimestamp(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void framesThatFellOutCantBeRead() throws Exception {
+
+        for(int i = 0; i < 5; i++){
+
+            store.record(i, AF_PASSIVE_SCAN, AE_SEARCHING, 10, 100, 0);
+        }
+
+        store.getTimestamp(0);
+    }
+
+    @Test
+    public void lastConvergedFrameIsFound() throws Exception {
+
+        store.record(0, AF_PASSIVE_SCAN, AE_SEARCHING, 10, 100, 0);
+        long converged = store.record(33, AF_PASSIVE_FOCUSED, AE_CONVERGED, 10, 100, 0);
+        store.record(66, AF_FOCUSED_LOCKED, AE_SEARCHING, 10, 100, 0);
+        store.record(99, AF_PASSIVE_SCAN, AE_CONVERGED, 10, 100, 0);
+
+        assertEquals(converged, store.findLastConverged());
+        assertEquals(2, store.findLast(FrameMetadataStore.stateBit(AF_FOCUSED_LOCKED), FrameMetadataStore.stateBit(AE_SEARCHING)));
+
+        //Pushing the converged frame out leaves nothing that matches.
+        store.record(132, FrameMetadataStore.UNKNOWN, FrameMetadataStore.UNKNOWN, 10, 100, 0);
+        store.record(165, AF_PASSIVE_SCAN, AE_SEARCHING, 10, 100, 0);
+        assertEquals(FrameMetadataStore.NOT_FOUND, store.findLastConverged());
+    }
+
+    @Test
+    public void nearestFrameToATimestampIsFound() throws Exception {
+
+        assertEquals(FrameMetadataStore.NOT_FOUND, store.findNearest(0));
+
+        //Wrapped around once, so the search has to cross the end of the buffer.
+        for(int i = 0; i < 6; i++){
+
+            store.record(i * 100, AF_PASSIVE_SCAN, AE_SEARCHING, 10, 100, 0);
+        }
+
+        assertEquals(2, store.findNearest(0));
+        assertEquals(3, store.findNearest(320));
+        assertEquals(4, store.findNearest(360));
+        assertEquals(3, store.findNearest(350));
+        assertEquals(5, store.findNearest(500));
+        assertEquals(5, store.findNearest(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void strayOlderResultsAreLeftOut() throws Exception {
+
+        store.record(100, AF_PASSIVE_SCAN, AE_SEARCHING, 10, 100, 0);
+
+        assertEquals(FrameMetadataStore.NOT_FOUND, store.record(50, AF_PASSIVE_SCAN, AE_SEARCHING, 10, 100, 0));
+        assertEquals(1, store.size());
+        assertEquals(1, store.record(100, AF_PASSIVE_SCAN, AE_SEARCHING, 10, 100, 0));
+    }
+
+    @Test
+    public void clearKeepsCounting() throws Exception {
+
+        store.record(0, AF_PASSIVE_SCAN, AE_SEARCHING, 10, 100, 0);
+        store.clear();
+
+        assertEquals(FrameMetadataStore.NOT_FOUND, store.findNewest());
+        assertFalse(store.contains(0));
+        assertEquals(1, store.record(0, AF_PASSIVE_SCAN, AE_SEARCHING, 10, 100, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyCapacity(){
+
+        new FrameMetadataStore(0);
+    }
+}
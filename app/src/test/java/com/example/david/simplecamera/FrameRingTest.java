@@ -0,0 +1,109 @@
+package com.example.david.simplecamera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameRingTest {
+
+    private List<String> recycled;
+    private FrameRing<String> ring;
+
+    @Before
+    public void setUp(){
+
+        recycled = new ArrayList<>();
+        ring = new FrameRing<>(3, new FrameRing.Recycler<String>() {
+
+            @Override
+            public void recycle(String frame) {
+
+                recycled.add(frame);
+            }
+        });
+    }
+
+    @Test
+    public void oldestFramesAreRecycledWhenFull() throws Exception {
+
+        for(int i = 0; i < 5; i++){
+
+            ring.add("f" + i, i * 33);
+        }
+
+        assertEquals(3, ring.size());
+        assertEquals(Arrays.asList("f0", "f1"), recycled);
+    }
+
+    @Test
+    public void onlyMatchedFramesCanBeTaken() throws Exception {
+
+        ring.add("f0", 0);
+        ring.add("f1", 33);
+
+        assertNull(ring.takeClosest(33));
+
+        ring.onResult(0);
+        assertEquals("f0", ring.takeClosest(33));
+        assertEquals(1, ring.size());
+    }
+
+    @Test
+    public void resultsBeforeFramesAreRemembered() throws Exception {
+
+        ring.onResult(66);
+        ring.add("f2", 66);
+
+        assertEquals("f2", ring.takeClosest(0));
+    }
+
+    @Test
+    public void closestFrameToPressTimeIsTaken() throws Exception {
+
+        for(int i = 0; i < 3; i++){
+
+            ring.add("f" + i, i * 100);
+            ring.onResult(i * 100);
+        }
+
+        assertEquals("f1", ring.takeClosest(120));
+        assertEquals("f2", ring.takeClosest(Long.MAX_VALUE));
+        assertEquals("f0", ring.takeClosest(Long.MAX_VALUE));
+        assertNull(ring.takeClosest(0));
+        assertTrue(recycled.isEmpty());
+    }
+
+    @Test
+    public void takenFrameLeavesRingInOrder() throws Exception {
+
+        for(int i = 0; i < 3; i++){
+
+            ring.add("f" + i, i * 100);
+            ring.onResult(i * 100);
+        }
+
+        ring.takeClosest(100);
+        ring.add("f3", 300);
+        ring.add("f4", 400);
+
+        //f0 is the oldest left, so it is the one that makes room for f4.
+        assertEquals(Arrays.asList("f0"), recycled);
+        assertEquals(3, ring.size());
+    }
+
+    @Test
+    public void clearRecyclesEverything() throws Exception {
+
+        ring.add("f0", 0);
+        ring.add("f1", 33);
+        ring.clear();
+
+        assertEquals(0, ring.size());
+        assertEquals(Arrays.asList("f0", "f1"), recycled);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void recordsIntoBucketsAndOutOfRange() throws Exception {
+
+        Histogram histogram = new Histogram(10, 5, 4);
+
+        for(long value : new long[]{3, 10, 14, 15, 29, 30, 100}){
+
+            histogram.record(value);
+        }
+
+        assertEquals(7, histogram.getCount());
+        assertEquals(1, histogram.getBelowCount());
+        assertEquals(2, histogram.getBucketCount(0));
+        assertEquals(1, histogram.getBucketCount(1));
+        assertEquals(1, histogram.getBucketCount(3));
+        assertEquals(2, histogram.getAboveCount());
+        assertEquals(3, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(28, histogram.getMean());
+        assertEquals("n=7 mean=28 min=3 max=100 [<10:1 10:2 15:1 25:1 >=30:2]", histogram.toString());
+    }
+
+    @Test
+    public void percentilesNeverUnderstate() throws Exception {
+
+        Histogram histogram = new Histogram(0, 10, 10);
+
+        for(int value = 0; value < 100; value++){
+
+            histogram.record(value);
+        }
+
+        assertEquals(49, histogram.getPercentile(50));
+        assertEquals(99, histogram.getPercentile(95));
+        assertEquals(9, histogram.getPercentile(1));
+        assertEquals(99, histogram.getPercentile(100));
+
+        histogram.record(1000);
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void copiesAreIndependent() throws Exception {
+
+        Histogram histogram = new Histogram(0, 1, 10);
+        histogram.record(4);
+
+        Histogram copy = new Histogram(histogram);
+        histogram.clear();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(1, copy.getCount());
+        assertEquals(1, copy.getBucketCount(4));
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.david.simplecamera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class IntervalSchedulerTest {
+
+    private final static long INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private final static long RETRY = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private FakeClock clock;
+
+    @Before
+    public void setUp() throws Exception {
+
+        clock = new FakeClock(5_000_000_000L);
+    }
+
+    @Test
+    public void lateWakeUpsDoNotDrift() throws Exception {
+
+        IntervalScheduler scheduler = new IntervalScheduler(INTERVAL, RETRY, IntervalScheduler.MissPolicy.SKIP, clock);
+        scheduler.start();
+        assertTrue(scheduler.poll(true));
+
+        //Every wake up comes 30 ms late, like a Handler delay would, but the grid stays where it was.
+        for(int shot = 1; shot <= 100; shot++){
+
+            clock.advanceNanos(scheduler.getDelayNanos() + TimeUnit.MILLISECONDS.toNanos(30));
+            assertTrue(scheduler.poll(true));
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(970), scheduler.getDelayNanos());
+        }
+
+        //Only the first interval is shorter. The rest are exactly on target.
+        assertEquals(101, scheduler.getShotCount());
+        assertEquals(INTERVAL + TimeUnit.MILLISECONDS.toNanos(30) / 100, scheduler.getAchievedIntervalNanos());
+        assertEquals(30, scheduler.getJitterMillis().getPercentile(95));
+        assertEquals(0, scheduler.getSkippedCount());
+    }
+
+    @Test
+    public void doesNotFireEarly() throws Exception {
+
+        IntervalScheduler scheduler = new IntervalScheduler(INTERVAL, RETRY, IntervalScheduler.MissPolicy.SKIP, clock);
+        scheduler.start();
+        assertTrue(scheduler.poll(true));
+
+        clock.advanceMillis(999);
+        assertFalse(scheduler.poll(true));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), scheduler.getDelayNanos());
+
+        clock.advanceMillis(1);
+        assertTrue(scheduler.poll(true));
+    }
+
+    @Test
+    public void skipDropsTicksThatFindThePipelineBusy() throws Exception {
+
+        IntervalScheduler scheduler = new IntervalScheduler(INTERVAL, RETRY, IntervalScheduler.MissPolicy.SKIP, clock);
+        scheduler.start();
+        assertTrue(scheduler.poll(true));
+
+        clock.advanceMillis(1000);
+        assertFalse(scheduler.poll(false));
+
+        //Ready again right after, but that tick is gone.
+        clock.advanceMillis(10);
+        assertFalse(scheduler.poll(true));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(990), scheduler.getDelayNanos());
+
+        clock.advanceMillis(990);
+        assertTrue(scheduler.poll(true));
+        assertEquals(1, scheduler.getSkippedCount());
+        assertEquals(2, scheduler.getShotCount());
+        assertEquals(3, scheduler.getTickCount());
+    }
+
+    @Test
+    public void coalesceTakesABusyTickOnceThePipelineCatchesUp() throws Exception {
+
+        IntervalScheduler scheduler = new IntervalScheduler(INTERVAL, RETRY, IntervalScheduler.MissPolicy.COALESCE, clock);
+        scheduler.start();
+        assertTrue(scheduler.poll(true));
+
+        clock.advanceMillis(1000);
+        assertFalse(scheduler.poll(false));
+        assertEquals(RETRY, scheduler.getDelayNanos());
+
+        clock.advanceMillis(50);
+        assertFalse(scheduler.poll(false));
+
+        clock.advanceMillis(50);
+        assertTrue(scheduler.poll(true));
+        assertEquals(100, scheduler.getJitterMillis().getMax());
+
+        //The next tick is still on the grid.
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(900), scheduler.getDelayNanos());
+        assertEquals(0, scheduler.getCoalescedCount());
+    }
+
+    @Test
+    public void coalesceMergesTicksWhileThePipelineStaysBusy() throws Exception {
+
+        IntervalScheduler scheduler = new IntervalScheduler(INTERVAL, RETRY, IntervalScheduler.MissPolicy.COALESCE, clock);
+        scheduler.start();
+        assertTrue(scheduler.poll(true));
+
+        //Busy for three ticks, then one shot instead of three.
+        for(int i = 0; i < 3; i++){
+
+            clock.advanceMillis(1000);
+            assertFalse(scheduler.poll(false));
+        }
+
+        clock.advanceMillis(200);
+        assertTrue(scheduler.poll(true));
+        assertFalse(scheduler.poll(true));
+
+        assertEquals(2, scheduler.getShotCount());
+        assertEquals(2, scheduler.getCoalescedCount());
+        assertEquals(200, scheduler.getJitterMillis().getMax());
+    }
+
+    @Test
+    public void aLongSleepFiresOnceAndKeepsTheGrid() throws Exception {
+
+        IntervalScheduler scheduler = new IntervalScheduler(INTERVAL, RETRY, IntervalScheduler.MissPolicy.COALESCE, clock);
+        scheduler.start();
+        assertTrue(scheduler.poll(true));
+
+        //Nothing woke the scheduler for ten and a half intervals.
+        clock.advanceMillis(10500);
+        assertTrue(scheduler.poll(true));
+        assertFalse(scheduler.poll(true));
+
+        assertEquals(9, scheduler.getCoalescedCount());
+        assertEquals(500, scheduler.getJitterMillis().getMax());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), scheduler.getDelayNanos());
+    }
+
+    @Test
+    public void intervalHistogramAndStop() throws Exception {
+
+        IntervalScheduler scheduler = new IntervalScheduler(INTERVAL, RETRY, IntervalScheduler.MissPolicy.SKIP, clock);
+        scheduler.start();
+        assertTrue(scheduler.poll(true));
+
+        clock.advanceMillis(1000);
+        assertTrue(scheduler.poll(true));
+        clock.advanceMillis(1080);
+        assertTrue(scheduler.poll(true));
+
+        Histogram intervals = scheduler.getIntervalMillis();
+        assertEquals(2, intervals.getCount());
+        assertEquals(1000, intervals.getMin());
+        assertEquals(1080, intervals.getMax());
+
+        scheduler.stop();
+        clock.advanceMillis(5000);
+        assertFalse(scheduler.poll(true));
+        assertEquals(-1, scheduler.getDelayNanos());
+        assertTrue(scheduler.toString().contains("3 shots"));
+
+        //Starting again begins a new grid from now.
+        scheduler.start();
+        assertEquals(0, scheduler.getShotCount());
+        assertTrue(scheduler.poll(true));
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.david.simplecamera;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class JournalCompactorTest {
+
+    private final static int CAPACITY = 256 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File path;
+    private JpegStreamWriterTest.MemoryImageSink sink;
+
+    @Before
+    public void setUp() throws Exception {
+
+        path = new File(folder.getRoot(), "journal.bin");
+        sink = new JpegStreamWriterTest.MemoryImageSink();
+    }
+
+    @Test
+    public void saveTaskPromotesAndTrims() throws Exception {
+
+        byte[] jpeg = SyntheticJpeg.create(640, 480, 40_000, 1);
+        CaptureJournal journal = CaptureJournal.open(path, CAPACITY);
+        JournalCompactor compactor = new JournalCompactor(journal, sink, new BufferPool());
+
+        compactor.newSaveTask(journal.append("img1", ByteBuffer.wrap(jpeg)), null, null, ShotLatencyRecorder.NO_SHOT).run();
+
+        assertArrayEquals(jpeg, sink.images.get("img1"));
+        assertEquals(1, compactor.getPromotedCount());
+        assertEquals(0, journal.getUsedBytes());
+        journal.close();
+    }
+
+    @Test
+    public void replayPromotesWhatACrashLeftBehind() throws Exception {
+
+        byte[] first = SyntheticJpeg.create(640, 480, 20_000, 2);
+        byte[] second = SyntheticJpeg.create(640, 480, 20_000, 3);
+        CaptureJournal journal = CaptureJournal.open(path, CAPACITY);
+
+        journal.append("img1", ByteBuffer.wrap(first));
+        journal.append("img2", ByteBuffer.wrap(second));
+        journal.close();
+
+        CaptureJournal reopened = CaptureJournal.open(path, CAPACITY);
+        JournalCompactor compactor = new JournalCompactor(reopened, sink, null);
+
+        assertEquals(2, compactor.replay());
+        assertArrayEquals(first, sink.images.get("img1"));
+        assertArrayEquals(second, sink.images.get("img2"));
+        assertEquals(0, compactor.replay());
+        reopened.close();
+
+        CaptureJournal empty = CaptureJournal.open(path, CAPACITY);
+        assertTrue(empty.getPendingEntries().isEmpty());
+        empty.close();
+    }
+
+    @Test
+    public void replaySkipsEntriesWithAQueuedSave() throws Exception {
+
+        CaptureJournal journal = CaptureJournal.open(path, CAPACITY);
+        JournalCompactor compactor = new JournalCompactor(journal, sink, null);
+        SaveTask queued = compactor.newSaveTask(journal.append("img1", ByteBuffer.wrap(SyntheticJpeg.create(640, 480, 10_000, 4))), null, null, ShotLatencyRecorder.NO_SHOT);
+
+        assertEquals(0, compactor.replay());
+        assertTrue(sink.images.isEmpty());
+
+        //A dropped save leaves the image to the next replay.
+        queued.discard();
+        assertEquals(1, compactor.replay());
+        assertTrue(sink.images.containsKey("img1"));
+        journal.close();
+    }
+
+    @Test
+    public void failedWriteStaysPending() throws Exception {
+
+        CaptureJournal journal = CaptureJournal.open(path, CAPACITY);
+        JournalCompactor compactor = new JournalCompactor(journal, sink, null);
+        sink.failAfter = 100;
+
+        compactor.newSaveTask(journal.append("img1", ByteBuffer.wrap(SyntheticJpeg.create(640, 480, 10_000, 5))), null, null, ShotLatencyRecorder.NO_SHOT).run();
+
+        assertEquals(1, compactor.getFailedCount());
+        assertEquals(1, journal.getPendingEntries().size());
+
+        sink.failAfter = -1;
+        assertEquals(1, compactor.replay());
+        assertTrue(journal.getPendingEntries().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void nonJpegEntriesAreDropped() throws Exception {
+
+        CaptureJournal journal = CaptureJournal.open(path, CAPACITY);
+        JournalCompactor compactor = new JournalCompactor(journal, sink, null);
+        journal.append("garbage", ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+        journal.unclaim(journal.getPendingEntries().get(0));
+
+        assertEquals(0, compactor.replay());
+        assertEquals(1, compactor.getCorruptCount());
+        assertTrue(journal.getPendingEntries().isEmpty());
+        journal.close();
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class JpegParserTest {
+
+    @Test
+    public void readDimensions_fromFrameHeader() throws Exception {
+
+        byte[] jpeg = SyntheticJpeg.create(1920, 1080, 500_000, 1);
+
+        assertEquals(500_000, jpeg.length);
+        assertArrayEquals(new int[]{1920, 1080}, JpegParser.readDimensions(ByteBuffer.wrap(jpeg)));
+    }
+
+    @Test
+    public void offsetsAreRelativeToPosition() throws Exception {
+
+        byte[] jpeg = SyntheticJpeg.create(640, 480, 10_000, 2);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(jpeg.length + 7);
+        buffer.position(7);
+        buffer.put(jpeg);
+        buffer.position(7);
+
+        assertEquals(2, JpegParser.findSegment(buffer, JpegParser.MARKER_APP0));
+        assertArrayEquals(new int[]{640, 480}, JpegParser.readDimensions(buffer));
+        assertEquals(7, buffer.position());
+    }
+
+    @Test
+    public void missingSegment() throws Exception {
+
+        byte[] jpeg = SyntheticJpeg.create(640, 480, 10_000, 3);
+
+        assertEquals(-1, JpegParser.findSegment(ByteBuffer.wrap(jpeg), JpegParser.MARKER_APP1));
+    }
+
+    @Test
+    public void findNextSegment_walksRepeatedMarkers() throws Exception {
+
+        byte[] jpeg = SyntheticJpeg.create(640, 480, 10_000, 5);
+        jpeg = SyntheticJpeg.withSegment(jpeg, JpegParser.MARKER_APP1, new byte[10]);
+        jpeg = SyntheticJpeg.withSegment(jpeg, JpegParser.MARKER_APP1, new byte[20]);
+        ByteBuffer buffer = ByteBuffer.wrap(jpeg);
+
+        int first = JpegParser.findSegment(buffer, JpegParser.MARKER_APP1);
+        int second = JpegParser.findNextSegment(buffer, JpegParser.MARKER_APP1, first);
+
+        assertEquals(2, first);
+        assertEquals(2 + 2 + 22, second);
+        assertEquals(22, JpegParser.segmentLength(buffer, first));
+        assertEquals(12, JpegParser.segmentLength(buffer, second));
+        assertEquals(-1, JpegParser.findNextSegment(buffer, JpegParser.MARKER_APP1, second));
+    }
+
+    @Test
+    public void truncatedOrBrokenHeaders() throws Exception {
+
+        byte[] jpeg = SyntheticJpeg.create(640, 480, 10_000, 4);
+
+        assertNull(JpegParser.readDimensions(ByteBuffer.wrap(jpeg, 0, 40)));
+        assertNull(JpegParser.readDimensions(ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xD8, 0x12, 0x34})));
+        assertNull(JpegParser.readDimensions(ByteBuffer.wrap(new byte[]{1, 2, 3})));
+
+        //A frame header whose length is fine but whose dimensions were cut off.
+        assertNull(JpegParser.readDimensions(ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xC0, 0x00, 0x11})));
+        assertNull(JpegParser.readDimensions(ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xC0, 0x00, 0x11, 0x08, 0x04, 0x38, 0x07})));
+    }
+}
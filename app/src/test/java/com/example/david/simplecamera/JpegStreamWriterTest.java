@@ -0,0 +1,165 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JpegStreamWriterTest {
+
+    @Test
+    public void write_directBufferIsCopiedUnchanged() throws Exception {
+
+        byte[] jpeg = fakeJpeg(200_000);
+        ByteBuffer direct = ByteBuffer.allocateDirect(jpeg.length);
+        direct.put(jpeg);
+        direct.flip();
+
+        MemoryImageSink sink = new MemoryImageSink();
+        long written = new JpegStreamWriter(sink, new byte[4096]).write(direct, "img1");
+
+        assertEquals(jpeg.length, written);
+        assertArrayEquals(jpeg, sink.images.get("img1"));
+        assertEquals("The source buffer should not be consumed", 0, direct.position());
+    }
+
+    @Test
+    public void write_heapBufferIsCopiedUnchanged() throws Exception {
+
+        byte[] jpeg = fakeJpeg(10_000);
+        MemoryImageSink sink = new MemoryImageSink();
+
+        new JpegStreamWriter(sink).write(ByteBuffer.wrap(jpeg), "img2");
+
+        assertArrayEquals(jpeg, sink.images.get("img2"));
+        assertEquals(JpegStreamWriter.JPEG_MIME_TYPE, sink.mimeTypes.get("img2"));
+    }
+
+    @Test
+    public void write_rejectsNonJpeg() throws Exception {
+
+        MemoryImageSink sink = new MemoryImageSink();
+
+        try{
+
+            new JpegStreamWriter(sink).write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), "img3");
+            fail();
+
+        }catch(IOException e){
+
+            //Expected.
+        }
+
+        assertTrue(sink.images.isEmpty());
+    }
+
+    @Test
+    public void write_failedStreamIsDiscarded() throws Exception {
+
+        MemoryImageSink sink = new MemoryImageSink();
+        sink.failAfter = 100;
+
+        try{
+
+            new JpegStreamWriter(sink, new byte[16]).write(ByteBuffer.wrap(fakeJpeg(1000)), "img4");
+            fail();
+
+        }catch(IOException e){
+
+            //Expected.
+        }
+
+        assertEquals(1, sink.discarded.size());
+        assertEquals("img4", sink.discarded.get(0));
+        assertFalse(sink.images.containsKey("img4"));
+    }
+
+    static byte[] fakeJpeg(int length){
+
+        byte[] jpeg = new byte[length];
+
+        for(int i = 0; i < length; i++){
+
+            jpeg[i] = (byte) (i * 31);
+        }
+
+        jpeg[0] = (byte) 0xFF;
+        jpeg[1] = (byte) 0xD8;
+        jpeg[length - 2] = (byte) 0xFF;
+        jpeg[length - 1] = (byte) 0xD9;
+
+        return jpeg;
+    }
+
+    static class MemoryImageSink implements ImageSink {
+
+        final Map<String, byte[]> images = new HashMap<>();
+        final Map<String, byte[]> closed = new HashMap<>();
+        final Map<String, String> mimeTypes = new HashMap<>();
+        final List<String> discarded = new ArrayList<>();
+        int failAfter = -1;
+
+        @Override
+        public OutputStream openStream(final String title, String mimeType) throws IOException {
+
+            mimeTypes.put(title, mimeType);
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+            return new OutputStream(){
+
+                @Override
+                public void write(int b) throws IOException {
+
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+
+                    if(failAfter >= 0 && bytes.size() + len > failAfter){
+
+                        throw new IOException("Disk full");
+                    }
+
+                    bytes.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+
+                    closed.put(title, bytes.toByteArray());
+                }
+            };
+        }
+
+        @Override
+        public void commit(String title){
+
+            byte[] image = closed.remove(title);
+
+            if(image == null){
+
+                throw new IllegalArgumentException("Error: " + title + " has no closed stream to commit!");
+            }
+
+            images.put(title, image);
+        }
+
+        @Override
+        public void discard(String title){
+
+            discarded.add(title);
+            closed.remove(title);
+            images.remove(title);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.david.simplecamera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MultiCameraSessionTest {
+
+    private final static long STEP = TimeUnit.MILLISECONDS.toNanos(10);
+    private final static int PREVIEW_STREAM = 0;
+    private final static int STILL_STREAM = 1;
+    private final static int FRAMES_PER_TURN = 5;
+
+    private SaveExecutor executor;
+    private FairSaveQueue saveQueue;
+    private RecordingListener listener;
+    private final List<String> saved = Collections.synchronizedList(new ArrayList<String>());
+    private final List<SimulatedCameraBackend> backends = new ArrayList<>();
+
+    private final MultiCameraSession.SaveFactory saveFactory = new MultiCameraSession.SaveFactory() {
+
+        @Override
+        public SaveTask createSave(final String cameraId, final CameraBackend.Frame frame) {
+
+            return new SaveTask() {
+
+                @Override
+                public void run() {
+
+                    frame.getPlane(0);
+                    frame.close();
+                    saved.add(cameraId);
+                }
+
+                @Override
+                public void discard() {
+
+                    frame.close();
+                }
+            };
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+
+        executor = new SaveExecutor("test", 2, 16, SaveExecutor.BackpressurePolicy.BLOCK);
+        saveQueue = new FairSaveQueue(executor, 4, 8, Clock.SYSTEM);
+        listener = new RecordingListener();
+    }
+
+    @Test
+    public void camerasStreamConcurrentlyWhenTheDeviceAllowsIt() throws Exception {
+
+        MultiCameraSession session = createSession(new SimulatedCameraBackend.OpenLimit(2), "0", "1");
+
+        session.start();
+        advance(TimeUnit.SECONDS.toNanos(1));
+
+        assertEquals(MultiCameraSession.Mode.CONCURRENT, session.getMode());
+        assertEquals(MultiCameraSession.State.STREAMING, session.getState("0"));
+        assertEquals(MultiCameraSession.State.STREAMING, session.getState("1"));
+        assertEquals(1, session.getTurnCount("0"));
+        assertTrue(session.getFrameCount("0") > 20);
+        assertTrue(session.getFrameCount("1") > 20);
+        assertTrue(listener.modes.isEmpty());
+
+        for(SimulatedCameraBackend backend : backends){
+
+            assertEquals(0, backend.getOutstandingCount(STILL_STREAM));
+        }
+
+        session.stop();
+        advance(STEP);
+
+        for(String cameraId : session.getCameraIds()){
+
+            FairSaveQueue.Stats stats = session.getSaveStats(cameraId);
+            assertEquals(session.getFrameCount(cameraId), stats.submitted);
+            assertEquals(stats.submitted, stats.saved);
+            assertEquals(MultiCameraSession.State.IDLE, session.getState(cameraId));
+        }
+    }
+
+    @Test
+    public void camerasTakeTurnsWhenOnlyOneCanBeOpen() throws Exception {
+
+        SimulatedCameraBackend.OpenLimit limit = new SimulatedCameraBackend.OpenLimit(1);
+        MultiCameraSession session = createSession(limit, "0", "1", "2");
+
+        session.start();
+
+        for(int i = 0; i < 300; i++){
+
+            advance(STEP);
+            assertTrue(limit.getOpenCount() <= 1);
+        }
+
+        assertEquals(MultiCameraSession.Mode.MULTIPLEXED, session.getMode());
+        assertEquals(Collections.singletonList(MultiCameraSession.Mode.MULTIPLEXED), listener.modes);
+        assertTrue(listener.errors.isEmpty());
+
+        for(String cameraId : session.getCameraIds()){
+
+            assertTrue(session.getTurnCount(cameraId) >= 2);
+            assertTrue(session.getFrameCount(cameraId) >= 2 * FRAMES_PER_TURN);
+        }
+
+        session.stop();
+        advance(STEP);
+        assertEquals(0, limit.getOpenCount());
+    }
+
+    @Test
+    public void aLoneCameraThatCantOpenFails() throws Exception {
+
+        //The backend has no camera 9, and with nothing else open that can't be put down to a camera limit.
+        SimulatedCameraBackend backend = new SimulatedCameraBackend(3, "0");
+        backends.add(backend);
+        MultiCameraSession session = new MultiCameraSession(saveQueue, saveFactory, FRAMES_PER_TURN, listener);
+        session.addCamera("9", backend, streams(), new CameraBackend.Request(RequestCache.Variant.PREVIEW, PREVIEW_STREAM, STILL_STREAM), STILL_STREAM);
+
+        session.start();
+        advance(TimeUnit.SECONDS.toNanos(1));
+
+        assertEquals(MultiCameraSession.State.FAILED, session.getState("9"));
+        assertEquals(Collections.singletonList("9"), listener.errors);
+        assertEquals(MultiCameraSession.Mode.CONCURRENT, session.getMode());
+    }
+
+    @Test
+    public void framesOfOtherStreamsAreNotSaved() throws Exception {
+
+        MultiCameraSession session = createSession(null, "0");
+
+        session.start();
+        advance(TimeUnit.SECONDS.toNanos(1));
+
+        SimulatedCameraBackend backend = backends.get(0);
+        assertEquals(0, backend.getOutstandingCount(PREVIEW_STREAM));
+        assertTrue(backend.getDeliveredCount(PREVIEW_STREAM) > 0);
+        assertEquals(session.getFrameCount("0"), backend.getDeliveredCount(STILL_STREAM));
+        assertEquals(session.getFrameCount("0"), saved.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsACameraAddedTwice(){
+
+        MultiCameraSession session = createSession(null, "0");
+        session.addCamera("0", new SimulatedCameraBackend(1, "0"), streams(), new CameraBackend.Request(RequestCache.Variant.PREVIEW, PREVIEW_STREAM), PREVIEW_STREAM);
+    }
+
+    private MultiCameraSession createSession(SimulatedCameraBackend.OpenLimit limit, String... cameraIds){
+
+        //Every camera has a backend of its own, like it would have its own thread and readers on a device.
+        MultiCameraSession session = new MultiCameraSession(saveQueue, saveFactory, FRAMES_PER_TURN, listener);
+
+        for(int i = 0; i < cameraIds.length; i++){
+
+            SimulatedCameraBackend backend = new SimulatedCameraBackend(11 + i, cameraIds);
+            backend.setJpegBytes(20_000);
+            backend.setOpenLimit(limit);
+            backends.add(backend);
+
+            session.addCamera(cameraIds[i], backend, streams(), new CameraBackend.Request(RequestCache.Variant.PREVIEW, PREVIEW_STREAM, STILL_STREAM), STILL_STREAM);
+        }
+
+        return session;
+    }
+
+    private void advance(long nanos){
+
+        //The cameras run side by side in small steps, so their turns interleave like they would in real time, and
+        //the saves of each step get to finish before virtual time moves on.
+        for(long elapsed = 0; elapsed < nanos; elapsed += STEP){
+
+            for(SimulatedCameraBackend backend : backends){
+
+                backend.advance(Math.min(STEP, nanos - elapsed));
+            }
+
+            assertTrue(executor.awaitIdle(5000));
+        }
+    }
+
+    private static List<CameraBackend.Stream> streams(){
+
+        List<CameraBackend.Stream> streams = new ArrayList<>();
+        streams.add(new CameraBackend.Stream(CameraBackend.FORMAT_YUV_420_888, 64, 48, 2));
+        streams.add(new CameraBackend.Stream(CameraBackend.FORMAT_JPEG, 320, 240, 4));
+
+        return streams;
+    }
+
+    private static class RecordingListener implements MultiCameraSession.Listener {
+
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        final List<MultiCameraSession.Mode> modes = Collections.synchronizedList(new ArrayList<MultiCameraSession.Mode>());
+
+        @Override
+        public void onCameraError(String cameraId, String message) {
+
+            errors.add(cameraId);
+        }
+
+        @Override
+        public void onModeChanged(MultiCameraSession.Mode mode) {
+
+            modes.add(mode);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class QualityControllerTest {
+
+    private final static long BUDGET = TimeUnit.MILLISECONDS.toNanos(1500);
+
+    //Quality 95 to 70 in steps of 5, bursts of 8 down to 3, two still sizes down. Queue depth 8 is pressure, 1 is calm.
+    private static QualityController controller(){
+
+        return new QualityController(new QualityController.Limits(95, 70, 5, 8, 3, 2, 8, 1, BUDGET), 2, 4);
+    }
+
+    @Test
+    public void startsAtFullQuality() throws Exception {
+
+        QualityController controller = controller();
+
+        assertEquals(95, controller.getSettings().jpegQuality);
+        assertEquals(8, controller.getSettings().burstSize);
+        assertEquals(0, controller.getSettings().stillSizeStep);
+        assertEquals(5 + 5 + 2, controller.getMaxLevel());
+    }
+
+    @Test
+    public void backedUpQueueTurnsQualityDownFirstThenBurstThenSize() throws Exception {
+
+        QualityController controller = controller();
+        QualityController.Settings settings = null;
+
+        //Two updates per step: 5 quality steps and 5 burst steps take 20 updates.
+        for(int i = 0; i < 20; i++){
+
+            settings = controller.update(12, -1, ThermalSource.THERMAL_NONE);
+        }
+
+        assertEquals(70, settings.jpegQuality);
+        assertEquals(3, settings.burstSize);
+        assertEquals(0, settings.stillSizeStep);
+
+        for(int i = 0; i < 20; i++){
+
+            settings = controller.update(12, -1, ThermalSource.THERMAL_NONE);
+        }
+
+        //Bounded by the limits however long the pressure lasts.
+        assertEquals(2, settings.stillSizeStep);
+        assertEquals(controller.getMaxLevel(), controller.getLevel());
+    }
+
+    @Test
+    public void shortSpikesAreIgnored() throws Exception {
+
+        QualityController controller = controller();
+
+        for(int i = 0; i < 50; i++){
+
+            //A spike every other update never adds up to two in a row.
+            controller.update(i % 2 == 0 ? 12 : 4, -1, ThermalSource.THERMAL_NONE);
+        }
+
+        assertEquals(0, controller.getLevel());
+    }
+
+    @Test
+    public void slowSavesAndHeatAlsoCountAsPressure() throws Exception {
+
+        QualityController controller = controller();
+
+        controller.update(0, BUDGET * 2, ThermalSource.THERMAL_NONE);
+        controller.update(0, BUDGET * 2, ThermalSource.THERMAL_NONE);
+        assertEquals(1, controller.getLevel());
+
+        controller.update(0, -1, ThermalSource.THERMAL_MODERATE);
+        controller.update(0, -1, ThermalSource.THERMAL_MODERATE);
+        assertEquals(2, controller.getLevel());
+
+        //Severe heat steps down on every update.
+        controller.update(0, -1, ThermalSource.THERMAL_SEVERE);
+        controller.update(0, -1, ThermalSource.THERMAL_SEVERE);
+        controller.update(0, -1, ThermalSource.THERMAL_CRITICAL);
+        assertEquals(5, controller.getLevel());
+    }
+
+    @Test
+    public void recoversSlowerThanItDegrades() throws Exception {
+
+        QualityController controller = controller();
+
+        for(int i = 0; i < 6; i++){
+
+            controller.update(12, -1, ThermalSource.THERMAL_NONE);
+        }
+
+        assertEquals(3, controller.getLevel());
+
+        //Between the thresholds the level holds.
+        for(int i = 0; i < 10; i++){
+
+            controller.update(4, -1, ThermalSource.THERMAL_NONE);
+        }
+
+        assertEquals(3, controller.getLevel());
+
+        for(int i = 0; i < 8; i++){
+
+            controller.update(0, BUDGET / 4, ThermalSource.THERMAL_LIGHT);
+        }
+
+        assertEquals(1, controller.getLevel());
+        assertEquals(90, controller.getSettings().jpegQuality);
+    }
+
+    @Test
+    public void sameTraceGivesTheSameSettings() throws Exception {
+
+        //A burst-heavy session: the queue fills, saves slow down, the phone heats up and cools off again.
+        int[] depths = new int[200];
+        long[] latencies = new long[200];
+        int[] thermal = new int[200];
+
+        for(int i = 0; i < depths.length; i++){
+
+            depths[i] = i < 60 ? (i * 7) % 16 : (i < 120 ? 10 : 0);
+            latencies[i] = i < 100 ? BUDGET * (i % 3) : BUDGET / 10;
+            thermal[i] = i < 80 ? ThermalSource.THERMAL_LIGHT : (i < 140 ? ThermalSource.THERMAL_SEVERE - (i / 10) % 2 : ThermalSource.THERMAL_NONE);
+        }
+
+        List<QualityController.Settings> first = replay(depths, latencies, thermal);
+        List<QualityController.Settings> second = replay(depths, latencies, thermal);
+
+        assertEquals(first, second);
+
+        //The trace ends calm for long enough to get everything back.
+        assertEquals(95, first.get(first.size() - 1).jpegQuality);
+        assertEquals(8, first.get(first.size() - 1).burstSize);
+    }
+
+    private static List<QualityController.Settings> replay(int[] depths, long[] latencies, int[] thermal){
+
+        QualityController controller = controller();
+        List<QualityController.Settings> settings = new ArrayList<>();
+
+        for(int i = 0; i < depths.length; i++){
+
+            settings.add(controller.update(depths[i], latencies[i], thermal[i]));
+        }
+
+        return settings;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedLimits() throws Exception {
+
+        new QualityController.Limits(70, 95, 5, 8, 3, 2, 8, 1, BUDGET);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RequestCacheTest {
+
+    private static class CountingFactory implements RequestCache.Factory<String> {
+
+        final Map<RequestCache.Variant, Integer> builds = new EnumMap<>(RequestCache.Variant.class);
+        boolean failing;
+        int session;
+
+        @Override
+        public String build(RequestCache.Variant variant) {
+
+            if(failing){
+
+                return null;
+            }
+
+            Integer count = builds.get(variant);
+            builds.put(variant, count == null ? 1 : count + 1);
+
+            return variant + "@" + session;
+        }
+    }
+
+    @Test
+    public void buildsEachVariantOnce() throws Exception {
+
+        CountingFactory factory = new CountingFactory();
+        RequestCache<String> cache = new RequestCache<>(factory);
+
+        String preview = cache.get(RequestCache.Variant.PREVIEW);
+
+        assertSame(preview, cache.get(RequestCache.Variant.PREVIEW));
+        assertEquals("FOCUS_TRIGGER@0", cache.get(RequestCache.Variant.FOCUS_TRIGGER));
+        assertEquals(Integer.valueOf(1), factory.builds.get(RequestCache.Variant.PREVIEW));
+        assertEquals(2, cache.getBuildCount());
+        assertEquals(1, cache.getReuseCount());
+    }
+
+    @Test
+    public void prebuiltSessionBuildsNothingPerShot() throws Exception {
+
+        CountingFactory factory = new CountingFactory();
+        RequestCache<String> cache = new RequestCache<>(factory);
+
+        cache.get(RequestCache.Variant.PREVIEW);
+        cache.prebuild();
+
+        assertEquals(RequestCache.Variant.values().length, cache.getBuildCount());
+
+        //A whole shot: focus, precapture, still, then back to the preview.
+        cache.beginShot();
+
+        for(RequestCache.Variant variant : RequestCache.Variant.values()){
+
+            assertNotNull(cache.get(variant));
+        }
+
+        assertEquals(0, cache.getBuildsThisShot());
+    }
+
+    @Test
+    public void clearStartsANewSession() throws Exception {
+
+        CountingFactory factory = new CountingFactory();
+        RequestCache<String> cache = new RequestCache<>(factory);
+
+        cache.prebuild();
+        cache.clear();
+        factory.session = 1;
+
+        assertFalse(cache.isBuilt(RequestCache.Variant.STILL));
+
+        cache.beginShot();
+        assertEquals("STILL@1", cache.get(RequestCache.Variant.STILL));
+        assertEquals(1, cache.getBuildsThisShot());
+    }
+
+    @Test
+    public void failedBuildsAreRetried() throws Exception {
+
+        CountingFactory factory = new CountingFactory();
+        RequestCache<String> cache = new RequestCache<>(factory);
+
+        factory.failing = true;
+        assertNull(cache.get(RequestCache.Variant.STILL));
+        cache.prebuild();
+        assertEquals(0, cache.getBuildCount());
+
+        factory.failing = false;
+        assertEquals("STILL@0", cache.get(RequestCache.Variant.STILL));
+        assertTrue(cache.isBuilt(RequestCache.Variant.STILL));
+    }
+}
@@ -0,0 +1,335 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SaveExecutorTest {
+
+    @Test
+    public void submittedTasksRunOnWorkers() throws Exception {
+
+        SaveExecutor executor = new SaveExecutor("test", 2, 4, SaveExecutor.BackpressurePolicy.BLOCK);
+        List<RecordingTask> tasks = new ArrayList<>();
+
+        for(int i = 0; i < 20; i++){
+
+            RecordingTask task = new RecordingTask(null);
+            tasks.add(task);
+            assertTrue(executor.submit(task));
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5000));
+
+        for(RecordingTask task : tasks){
+
+            assertTrue(task.ran);
+            assertFalse(task.discarded);
+        }
+
+        assertEquals(20, executor.getCompletedCount());
+        assertEquals(0, executor.getQueueDepth());
+    }
+
+    @Test
+    public void dropOldest_discardsQueuedTasks() throws Exception {
+
+        CountDownLatch gate = new CountDownLatch(1);
+        SaveExecutor executor = new SaveExecutor("test", 1, 2, SaveExecutor.BackpressurePolicy.DROP_OLDEST);
+        final List<SaveTask> rejected = Collections.synchronizedList(new ArrayList<SaveTask>());
+
+        executor.setRejectionListener(new SaveExecutor.RejectionListener() {
+            @Override
+            public void onRejected(SaveTask task) {
+
+                rejected.add(task);
+            }
+        });
+
+        RecordingTask blocker = new RecordingTask(gate);
+        executor.submit(blocker);
+        waitForQueueDepth(executor, 0);
+
+        RecordingTask first = new RecordingTask(null);
+        RecordingTask second = new RecordingTask(null);
+        RecordingTask third = new RecordingTask(null);
+        executor.submit(first);
+        executor.submit(second);
+        executor.submit(third);
+
+        gate.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5000));
+
+        assertTrue(first.discarded);
+        assertFalse(first.ran);
+        assertTrue(second.ran);
+        assertTrue(third.ran);
+        assertEquals(1, executor.getDroppedCount());
+        assertEquals(Collections.<SaveTask>singletonList(first), rejected);
+    }
+
+    @Test
+    public void reject_discardsNewTask() throws Exception {
+
+        CountDownLatch gate = new CountDownLatch(1);
+        SaveExecutor executor = new SaveExecutor("test", 1, 1, SaveExecutor.BackpressurePolicy.REJECT);
+
+        executor.submit(new RecordingTask(gate));
+        waitForQueueDepth(executor, 0);
+
+        RecordingTask queued = new RecordingTask(null);
+        RecordingTask overflow = new RecordingTask(null);
+
+        assertTrue(executor.submit(queued));
+        assertFalse(executor.submit(overflow));
+        assertTrue(overflow.discarded);
+        assertEquals(1, executor.getRejectedCount());
+
+        gate.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5000));
+        assertTrue(queued.ran);
+    }
+
+    @Test
+    public void shutdownNow_discardsQueuedAndRejectsNew() throws Exception {
+
+        CountDownLatch gate = new CountDownLatch(1);
+        SaveExecutor executor = new SaveExecutor("test", 1, 4, SaveExecutor.BackpressurePolicy.BLOCK);
+
+        executor.submit(new RecordingTask(gate));
+        waitForQueueDepth(executor, 0);
+
+        RecordingTask queued = new RecordingTask(null);
+        executor.submit(queued);
+
+        assertEquals(1, executor.shutdownNow());
+        assertTrue(queued.discarded);
+
+        RecordingTask late = new RecordingTask(null);
+        assertFalse(executor.submit(late));
+        assertTrue(late.discarded);
+
+        gate.countDown();
+        assertTrue(executor.awaitTermination(5000));
+    }
+
+    @Test
+    public void latencyMetricsAreRecorded() throws Exception {
+
+        CountDownLatch gate = new CountDownLatch(1);
+        SaveExecutor executor = new SaveExecutor("test", 1, 4, SaveExecutor.BackpressurePolicy.BLOCK);
+
+        //Holds the only worker so the next task is guaranteed to sit in the queue.
+        executor.submit(new RecordingTask(gate));
+        waitForQueueDepth(executor, 0);
+
+        executor.submit(new SaveTask() {
+            @Override
+            public void discard() {
+
+            }
+
+            @Override
+            public void run() {
+
+                try{
+
+                    Thread.sleep(20);
+
+                }catch(InterruptedException e){
+
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(1, executor.getMaxQueueDepth());
+
+        Thread.sleep(10);
+        gate.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5000));
+
+        assertTrue(executor.getMaxRunNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(executor.getMaxWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(2, executor.getCompletedCount());
+    }
+
+    @Test
+    public void awaitIdle_returnsAfterATaskThrowsAnError() throws Exception {
+
+        SaveExecutor executor = new SaveExecutor("test", 1, 4, SaveExecutor.BackpressurePolicy.BLOCK);
+
+        executor.submit(new SaveTask() {
+
+            @Override
+            public void run() {
+
+                throw new Error("Expected failure");
+            }
+
+            @Override
+            public void discard() {
+
+            }
+        });
+
+        assertTrue(executor.awaitIdle(5000));
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void drain_waitsForQueuedSavesAndKeepsRunning() throws Exception {
+
+        SaveExecutor executor = new SaveExecutor("test", 1, 4, SaveExecutor.BackpressurePolicy.BLOCK);
+
+        executor.submit(new RecordingTask(null));
+        assertTrue(executor.awaitIdle(5000));
+
+        SaveExecutor.DrainResult first = executor.drain(5000);
+        assertEquals(1, first.completed);
+        assertEquals(0, first.drained);
+
+        //Saves still queued at the next pause get to finish within the grace period.
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        RecordingTask slow = new RecordingTask(gate, started);
+        RecordingTask queued = new RecordingTask(null);
+        executor.submit(slow);
+        executor.submit(queued);
+
+        //Opened only once the slow save is running and the drain is waiting on it, otherwise both saves could
+        //finish before the drain starts.
+        final Thread drainer = Thread.currentThread();
+        Thread opener = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                try{
+
+                    started.await();
+
+                    while(drainer.getState() != Thread.State.TIMED_WAITING){
+
+                        Thread.yield();
+                    }
+
+                }catch(InterruptedException e){
+
+                    Thread.currentThread().interrupt();
+                }
+
+                gate.countDown();
+            }
+        });
+        opener.start();
+
+        SaveExecutor.DrainResult second = executor.drain(5000);
+        opener.join();
+        assertEquals(0, second.completed);
+        assertEquals(2, second.drained);
+        assertEquals(0, second.dropped);
+        assertTrue(queued.ran);
+
+        //Unlike shutdown, the executor is still usable afterwards.
+        RecordingTask later = new RecordingTask(null);
+        assertTrue(executor.submit(later));
+        assertTrue(executor.awaitIdle(5000));
+        assertTrue(later.ran);
+    }
+
+    @Test
+    public void drain_dropsWhatDoesNotFitTheGracePeriod() throws Exception {
+
+        CountDownLatch gate = new CountDownLatch(1);
+        SaveExecutor executor = new SaveExecutor("test", 1, 4, SaveExecutor.BackpressurePolicy.BLOCK);
+        RecordingTask stuck = new RecordingTask(gate);
+        RecordingTask queued = new RecordingTask(null);
+
+        executor.submit(stuck);
+        waitForQueueDepth(executor, 0);
+        executor.submit(queued);
+
+        SaveExecutor.DrainResult result = executor.drain(50);
+
+        assertEquals(0, result.drained);
+        assertEquals(1, result.dropped);
+        assertEquals(1, result.stillRunning);
+        assertTrue(queued.discarded);
+        assertFalse(queued.ran);
+
+        gate.countDown();
+        assertTrue(executor.awaitIdle(5000));
+        assertEquals(1, executor.drain(0).completed);
+    }
+
+    private static void waitForQueueDepth(SaveExecutor executor, int depth) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while(executor.getQueueDepth() != depth && System.currentTimeMillis() < deadline){
+
+            Thread.sleep(1);
+        }
+    }
+
+    static class RecordingTask implements SaveTask {
+
+        private final CountDownLatch gate;
+        private final CountDownLatch started;
+        volatile boolean ran;
+        volatile boolean discarded;
+
+        RecordingTask(CountDownLatch gate){
+
+            this(gate, null);
+        }
+
+        RecordingTask(CountDownLatch gate, CountDownLatch started){
+
+            //Counts started down as soon as it runs, before waiting for the gate.
+            this.gate = gate;
+            this.started = started;
+        }
+
+        @Override
+        public void run() {
+
+            if(started != null){
+
+                started.countDown();
+            }
+
+            if(gate != null){
+
+                try{
+
+                    gate.await();
+
+                }catch(InterruptedException e){
+
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            ran = true;
+        }
+
+        @Override
+        public void discard() {
+
+            discarded = true;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class ShotLatencyRecorderTest {
+
+    @Test
+    public void stagesAreMeasuredFromButtonPress() throws Exception {
+
+        FakeClock clock = new FakeClock(0);
+        ShotLatencyRecorder recorder = new ShotLatencyRecorder(8, clock);
+
+        long shot = recorder.beginShot();
+        clock.advanceMillis(120);
+        recorder.mark(shot, ShotLatencyRecorder.Stage.AF_LOCKED);
+        clock.advanceMillis(80);
+        recorder.mark(shot, ShotLatencyRecorder.Stage.PERSISTED);
+
+        //Later marks of the same stage are ignored.
+        clock.advanceMillis(500);
+        recorder.mark(shot, ShotLatencyRecorder.Stage.AF_LOCKED);
+
+        assertEquals(120000000L, recorder.getElapsedNanos(shot, ShotLatencyRecorder.Stage.AF_LOCKED));
+        assertEquals(200000000L, recorder.getElapsedNanos(shot, ShotLatencyRecorder.Stage.PERSISTED));
+        assertEquals(-1, recorder.getElapsedNanos(shot, ShotLatencyRecorder.Stage.COPIED));
+    }
+
+    @Test
+    public void percentiles() throws Exception {
+
+        FakeClock clock = new FakeClock(1000);
+        ShotLatencyRecorder recorder = new ShotLatencyRecorder(100, clock);
+
+        for(int i = 1; i <= 100; i++){
+
+            long shot = recorder.beginShot();
+            clock.advanceMillis(i);
+            recorder.mark(shot, ShotLatencyRecorder.Stage.PERSISTED);
+        }
+
+        ShotLatencyRecorder.Summary summary = recorder.summarize(ShotLatencyRecorder.Stage.PERSISTED);
+
+        assertEquals(100, summary.count);
+        assertEquals(50000000L, summary.p50Nanos);
+        assertEquals(95000000L, summary.p95Nanos);
+        assertEquals(99000000L, summary.p99Nanos);
+        assertEquals(0, recorder.summarize(ShotLatencyRecorder.Stage.COPIED).count);
+    }
+
+    @Test
+    public void ringOverwritesOldestShots() throws Exception {
+
+        FakeClock clock = new FakeClock(0);
+        ShotLatencyRecorder recorder = new ShotLatencyRecorder(4, clock);
+
+        long first = recorder.beginShot();
+
+        for(int i = 0; i < 4; i++){
+
+            recorder.beginShot();
+        }
+
+        //Marks for a shot that has been overwritten must not land on the new owner of the slot.
+        clock.advanceMillis(10);
+        recorder.mark(first, ShotLatencyRecorder.Stage.PERSISTED);
+
+        assertEquals(-1, recorder.getElapsedNanos(first, ShotLatencyRecorder.Stage.PERSISTED));
+        assertEquals(0, recorder.summarize(ShotLatencyRecorder.Stage.PERSISTED).count);
+        assertEquals(4, recorder.summarize(ShotLatencyRecorder.Stage.BUTTON_PRESS).count);
+    }
+
+    @Test
+    public void csvDump() throws Exception {
+
+        FakeClock clock = new FakeClock(0);
+        ShotLatencyRecorder recorder = new ShotLatencyRecorder(4, clock);
+
+        long shot = recorder.beginShot();
+        clock.advanceMillis(3);
+        recorder.mark(shot, ShotLatencyRecorder.Stage.IMAGE_AVAILABLE);
+
+        StringWriter writer = new StringWriter();
+        recorder.writeCsv(writer);
+
+        String[] lines = writer.toString().split("\n");
+
+        assertEquals("shot,button_press,af_locked,precapture_converged,capture_completed,image_available,copied,persisted", lines[0]);
+        assertEquals("0,0,,,,3000,,", lines[1]);
+        assertEquals(2, lines.length);
+    }
+
+    @Test
+    public void binaryDump() throws Exception {
+
+        FakeClock clock = new FakeClock(0);
+        ShotLatencyRecorder recorder = new ShotLatencyRecorder(4, clock);
+
+        for(int i = 0; i < 6; i++){
+
+            long shot = recorder.beginShot();
+            clock.advanceMillis(1);
+            recorder.mark(shot, ShotLatencyRecorder.Stage.PERSISTED);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        recorder.writeBinary(bytes);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        int stages = ShotLatencyRecorder.Stage.values().length;
+
+        assertEquals(ShotLatencyRecorder.BINARY_MAGIC, in.readInt());
+        assertEquals(ShotLatencyRecorder.BINARY_VERSION, in.readInt());
+        assertEquals(stages, in.readInt());
+        assertEquals(4, in.readInt());
+        assertEquals(16 + 4 * (8 + 8 * stages), bytes.size());
+
+        //Oldest surviving shot comes first.
+        assertEquals(2, in.readLong());
+        assertEquals(0, in.readLong());
+    }
+}
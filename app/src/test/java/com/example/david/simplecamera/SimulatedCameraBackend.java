@@ -0,0 +1,762 @@
+package com.example.david.simplecamera;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//A CameraBackend that runs on virtual time. Nothing happens until advance is called, which delivers everything due
+//by then in timestamp order on the calling thread. Frames come at a fixed rate with seeded jitter and carry
+//synthetic JPEG or YUV data, and the 3A states follow a short script, so the same seed always plays out the same
+//way. Shared with the benchmarks.
+public class SimulatedCameraBackend implements CameraBackend {
+
+    //Same values as CaptureResult.
+    public final static int AF_MODE_AUTO = 1;
+    public final static int AF_MODE_CONTINUOUS_PICTURE = 4;
+    public final static int AF_STATE_INACTIVE = 0;
+    public final static int AF_STATE_PASSIVE_SCAN = 1;
+    public final static int AF_STATE_PASSIVE_FOCUSED = 2;
+    public final static int AF_STATE_ACTIVE_SCAN = 3;
+    public final static int AF_STATE_FOCUSED_LOCKED = 4;
+    public final static int AF_STATE_NOT_FOCUSED_LOCKED = 5;
+    public final static int AE_STATE_SEARCHING = 1;
+    public final static int AE_STATE_CONVERGED = 2;
+    public final static int AE_STATE_LOCKED = 3;
+    public final static int AE_STATE_FLASH_REQUIRED = 4;
+    public final static int AE_STATE_PRECAPTURE = 5;
+
+    //Wall clock time of sensor timestamp zero, for the capture times in the results.
+    private final static long WALL_CLOCK_START_MILLIS = 1500000000000L;
+    private final static float APERTURE = 1.8f;
+    private final static float FOCAL_LENGTH = 4.25f;
+    private final static float FOCUS_DISTANCE = 2f;
+    private final static int ALWAYS_DELIVERED = -1;
+
+    //How many cameras a device can have open at once, shared by the simulated cameras of one device.
+    public static class OpenLimit {
+
+        private final int maxOpen;
+        private int open;
+
+        public OpenLimit(int maxOpen){
+
+            this.maxOpen = maxOpen;
+        }
+
+        synchronized boolean acquire(){
+
+            if(open >= maxOpen){
+
+                return false;
+            }
+
+            open++;
+            return true;
+        }
+
+        synchronized void release(){
+
+            open--;
+        }
+
+        public synchronized int getOpenCount(){
+
+            return open;
+        }
+    }
+
+    private final String[] cameraIds;
+    private final long seed;
+    private final Random random;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long now;
+    private long nextSequence;
+
+    private long frameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / 30;
+    private long jitterNanos;
+    private long setupLatencyNanos = TimeUnit.MILLISECONDS.toNanos(50);
+    private long resultLatencyNanos = TimeUnit.MILLISECONDS.toNanos(5);
+    private long yuvLatencyNanos = TimeUnit.MILLISECONDS.toNanos(2);
+    private long jpegLatencyNanos = TimeUnit.MILLISECONDS.toNanos(30);
+    private int jpegBytes = -1;
+    private long exposureTimeNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private int sensitivityIso = 100;
+    private int passiveScanFrames = 3;
+    private int activeScanFrames = 4;
+    private boolean focusSucceeds = true;
+    private int exposureConvergeFrames = 3;
+    private int precaptureFrames = 3;
+    private boolean flashRequired;
+    private OpenLimit openLimit;
+
+    //Events of an earlier camera or session are dropped when they come due.
+    private int generation;
+    private Listener listener;
+    private String openCameraId;
+    private boolean openPending;
+    private boolean opened;
+    private boolean configured;
+    private final List<StreamState> streams = new ArrayList<>();
+    private Request repeating;
+    private final ArrayDeque<Request> captures = new ArrayDeque<>();
+
+    private long frameNumber;
+    private long idleFrames;
+    private int autoFocusMode;
+    private int autoFocusState;
+    private int autoFocusFrames;
+    private int autoExposureState;
+    private int autoExposureFrames;
+
+    public SimulatedCameraBackend(long seed, String... cameraIds){
+
+        if(cameraIds.length == 0){
+
+            throw new IllegalArgumentException("Error: a simulated camera needs at least one camera id!");
+        }
+
+        this.cameraIds = cameraIds.clone();
+        this.seed = seed;
+        random = new Random(seed);
+    }
+
+    public synchronized void setFrameRate(int framesPerSecond){
+
+        if(framesPerSecond < 1){
+
+            throw new IllegalArgumentException("Error: invalid frame rate " + framesPerSecond);
+        }
+
+        frameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+        jitterNanos = Math.min(jitterNanos, frameIntervalNanos - 1);
+    }
+
+    public synchronized void setJitter(long nanos){
+
+        //Each frame interval is moved by up to this much either way.
+        if(nanos < 0 || nanos >= frameIntervalNanos){
+
+            throw new IllegalArgumentException("Error: jitter has to be shorter than the frame interval!");
+        }
+
+        jitterNanos = nanos;
+    }
+
+    public synchronized void setLatencies(long setupNanos, long resultNanos, long yuvNanos, long jpegNanos){
+
+        //How long opening and configuring take, and how long after its sensor timestamp each part of a frame arrives.
+        if(setupNanos < 0 || resultNanos < 0 || yuvNanos < 0 || jpegNanos < 0){
+
+            throw new IllegalArgumentException("Error: latencies can't be negative!");
+        }
+
+        setupLatencyNanos = setupNanos;
+        resultLatencyNanos = resultNanos;
+        yuvLatencyNanos = yuvNanos;
+        jpegLatencyNanos = jpegNanos;
+    }
+
+    public synchronized void setJpegBytes(int bytes){
+
+        //Applies from the next session. By default a JPEG takes a quarter byte per pixel.
+        jpegBytes = bytes;
+    }
+
+    public synchronized void setExposure(long exposureNanos, int iso){
+
+        exposureTimeNanos = exposureNanos;
+        sensitivityIso = iso;
+    }
+
+    public synchronized void setFocusScript(int passiveScan, int activeScan, boolean succeeds){
+
+        //Frames continuous focus scans for at the start of a session, frames a focus trigger scans for, and how it ends.
+        passiveScanFrames = passiveScan;
+        activeScanFrames = activeScan;
+        focusSucceeds = succeeds;
+    }
+
+    public synchronized void setExposureScript(int converge, int precapture, boolean needsFlash){
+
+        //Frames auto exposure searches for at the start of a session, frames a precapture trigger runs for, and
+        //whether the converged scene asks for a flash, which is what makes the precapture sequence run at all.
+        exposureConvergeFrames = converge;
+        precaptureFrames = precapture;
+        flashRequired = needsFlash;
+    }
+
+    public synchronized void setOpenLimit(OpenLimit limit){
+
+        //Opening fails once the limit is reached, like it does with ERROR_MAX_CAMERAS_IN_USE.
+        openLimit = limit;
+    }
+
+    @Override
+    public String[] getCameraIds() {
+
+        return cameraIds.clone();
+    }
+
+    @Override
+    public synchronized void open(final String cameraId, Listener cameraListener) {
+
+        if(cameraListener == null){
+
+            throw new NullPointerException();
+        }
+
+        close();
+        listener = cameraListener;
+        openCameraId = cameraId;
+        openPending = true;
+
+        schedule(now + setupLatencyNanos, new Event() {
+
+            @Override
+            void run() {
+
+                openPending = false;
+
+                if(!Arrays.asList(cameraIds).contains(cameraId)){
+
+                    listener.onError("Error: there is no camera " + cameraId);
+                    return;
+                }
+
+                if(openLimit != null && !openLimit.acquire()){
+
+                    listener.onError("Error: too many cameras are open to open camera " + cameraId);
+                    return;
+                }
+
+                opened = true;
+                listener.onOpened(cameraId);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void configureSession(List<Stream> sessionStreams) {
+
+        if(!opened){
+
+            throw new IllegalStateException("Error: the camera isn't open!");
+        }
+
+        generation++;
+        configured = false;
+        repeating = null;
+        captures.clear();
+        streams.clear();
+
+        for(Stream stream : sessionStreams){
+
+            streams.add(new StreamState(stream, streams.size()));
+        }
+
+        schedule(now + setupLatencyNanos, new Event() {
+
+            @Override
+            void run() {
+
+                configured = true;
+                autoFocusMode = AF_MODE_CONTINUOUS_PICTURE;
+                setAutoFocusState(AF_STATE_PASSIVE_SCAN);
+                setAutoExposureState(AE_STATE_SEARCHING);
+                scheduleFrame(now + frameIntervalNanos);
+                listener.onSessionConfigured();
+            }
+        });
+    }
+
+    @Override
+    public synchronized void setRepeatingRequest(Request request) {
+
+        checkRequest(request);
+        repeating = request;
+    }
+
+    @Override
+    public synchronized void stopRepeating() {
+
+        repeating = null;
+    }
+
+    @Override
+    public synchronized void capture(Request request) {
+
+        checkRequest(request);
+        captures.add(request);
+    }
+
+    @Override
+    public synchronized void captureBurst(List<Request> requests) {
+
+        for(Request request : requests){
+
+            checkRequest(request);
+        }
+
+        captures.addAll(requests);
+    }
+
+    @Override
+    public synchronized void close() {
+
+        final boolean release = opened;
+        final boolean answer = opened || openPending;
+        final Listener closedListener = listener;
+        final String closedCameraId = openCameraId;
+
+        generation++;
+        openPending = false;
+        opened = false;
+        configured = false;
+        repeating = null;
+        captures.clear();
+        streams.clear();
+
+        if(!answer){
+
+            return;
+        }
+
+        //The camera only counts as released once onClosed has been delivered, which no later session can cancel.
+        schedule(now, ALWAYS_DELIVERED, new Event() {
+
+            @Override
+            void run() {
+
+                if(release && openLimit != null){
+
+                    openLimit.release();
+                }
+
+                closedListener.onClosed(closedCameraId);
+            }
+        });
+    }
+
+    public synchronized void advance(long nanos){
+
+        advanceTo(now + nanos);
+    }
+
+    public void advanceTo(long time){
+
+        //Delivers everything due by then. Listeners may issue new requests from their callbacks.
+        while(true){
+
+            Event event;
+
+            synchronized(this){
+
+                event = events.peek();
+
+                if(event == null || event.time > time){
+
+                    now = Math.max(now, time);
+                    return;
+                }
+
+                events.poll();
+                now = event.time;
+
+                if(event.generation == generation || event.generation == ALWAYS_DELIVERED){
+
+                    event.run();
+                }
+            }
+        }
+    }
+
+    public synchronized long getNow(){
+
+        return now;
+    }
+
+    public Clock getClock(){
+
+        //The virtual time, for anything in the pipeline that has to agree with the sensor timestamps.
+        return new Clock() {
+
+            @Override
+            public long nanoTime() {
+
+                return getNow();
+            }
+        };
+    }
+
+    public synchronized long getFrameCount(){
+
+        return frameNumber;
+    }
+
+    public synchronized long getIdleFrameCount(){
+
+        //Frames that went by while there was no request.
+        return idleFrames;
+    }
+
+    public synchronized int getDeliveredCount(int stream){
+
+        return streams.get(stream).delivered;
+    }
+
+    public synchronized int getDroppedCount(int stream){
+
+        return streams.get(stream).dropped;
+    }
+
+    public synchronized int getOutstandingCount(int stream){
+
+        return streams.get(stream).outstanding.get();
+    }
+
+    private void checkRequest(Request request){
+
+        if(!configured){
+
+            throw new IllegalStateException("Error: there is no configured session!");
+        }
+
+        for(int i = 0; i < request.getStreamCount(); i++){
+
+            if(request.getStream(i) < 0 || request.getStream(i) >= streams.size()){
+
+                throw new IllegalArgumentException("Error: the session has no stream " + request.getStream(i));
+            }
+        }
+    }
+
+    private void schedule(long time, Event event){
+
+        schedule(time, generation, event);
+    }
+
+    private void schedule(long time, int eventGeneration, Event event){
+
+        event.time = time;
+        event.sequence = nextSequence++;
+        event.generation = eventGeneration;
+        events.add(event);
+    }
+
+    private void scheduleFrame(final long timestamp){
+
+        schedule(timestamp, new Event() {
+
+            @Override
+            void run() {
+
+                captureFrame(timestamp);
+
+                long jitter = jitterNanos > 0 ? (long) ((random.nextDouble() * 2 - 1) * jitterNanos) : 0;
+                scheduleFrame(timestamp + frameIntervalNanos + jitter);
+            }
+        });
+    }
+
+    private void captureFrame(final long timestamp){
+
+        //Single captures go first, like on a real camera. A frame without a request is still exposed, just not sent anywhere.
+        final Request request = captures.isEmpty() ? repeating : captures.poll();
+
+        if(request == null){
+
+            idleFrames++;
+            return;
+        }
+
+        frameNumber++;
+        runAutoFocus(request.variant);
+        runAutoExposure(request.variant);
+
+        CaptureMetadata metadata = new CaptureMetadata(timestamp, exposureTimeNanos, sensitivityIso, FOCUS_DISTANCE, APERTURE, FOCAL_LENGTH,
+                WALL_CLOCK_START_MILLIS + TimeUnit.NANOSECONDS.toMillis(timestamp));
+        final Result result = new Result(frameNumber, autoFocusMode, autoFocusState, autoExposureState, metadata);
+
+        schedule(timestamp + resultLatencyNanos, new Event() {
+
+            @Override
+            void run() {
+
+                listener.onCaptureCompleted(request, result);
+            }
+        });
+
+        for(int i = 0; i < request.getStreamCount(); i++){
+
+            final StreamState stream = streams.get(request.getStream(i));
+
+            schedule(timestamp + (stream.stream.format == FORMAT_JPEG ? jpegLatencyNanos : yuvLatencyNanos), new Event() {
+
+                @Override
+                void run() {
+
+                    deliverFrame(stream, timestamp);
+                }
+            });
+        }
+    }
+
+    private void deliverFrame(StreamState stream, long timestamp){
+
+        //A stream whose buffers are all still out can't take another frame, so the camera drops it.
+        if(stream.outstanding.get() >= stream.stream.maxImages){
+
+            stream.dropped++;
+            return;
+        }
+
+        stream.outstanding.incrementAndGet();
+        stream.delivered++;
+        listener.onFrameAvailable(stream.index, new SimulatedFrame(stream, timestamp));
+    }
+
+    private void runAutoFocus(RequestCache.Variant variant){
+
+        switch(variant){
+            case PREVIEW:
+                if(autoFocusMode != AF_MODE_CONTINUOUS_PICTURE){
+
+                    autoFocusMode = AF_MODE_CONTINUOUS_PICTURE;
+                    setAutoFocusState(AF_STATE_PASSIVE_SCAN);
+                }
+                break;
+            case AUTO_FOCUS_PREVIEW:
+                if(autoFocusMode != AF_MODE_AUTO){
+
+                    autoFocusMode = AF_MODE_AUTO;
+                    setAutoFocusState(AF_STATE_INACTIVE);
+                }
+                break;
+            case FOCUS_TRIGGER:
+                autoFocusMode = AF_MODE_AUTO;
+                setAutoFocusState(AF_STATE_ACTIVE_SCAN);
+                break;
+            case FOCUS_CANCEL:
+                setAutoFocusState(AF_STATE_INACTIVE);
+                break;
+            default:
+                break;
+        }
+
+        if(autoFocusState == AF_STATE_PASSIVE_SCAN && autoFocusFrames >= passiveScanFrames){
+
+            setAutoFocusState(AF_STATE_PASSIVE_FOCUSED);
+
+        }else if(autoFocusState == AF_STATE_ACTIVE_SCAN && autoFocusFrames >= activeScanFrames){
+
+            setAutoFocusState(focusSucceeds ? AF_STATE_FOCUSED_LOCKED : AF_STATE_NOT_FOCUSED_LOCKED);
+        }
+
+        autoFocusFrames++;
+    }
+
+    private void runAutoExposure(RequestCache.Variant variant){
+
+        int converged = flashRequired ? AE_STATE_FLASH_REQUIRED : AE_STATE_CONVERGED;
+
+        if(variant == RequestCache.Variant.PRECAPTURE_TRIGGER){
+
+            setAutoExposureState(AE_STATE_PRECAPTURE);
+
+        }else if(variant == RequestCache.Variant.PRECAPTURE_CANCEL){
+
+            setAutoExposureState(converged);
+
+        }else if(variant == RequestCache.Variant.LOCKED_PREVIEW || variant == RequestCache.Variant.LOCKED_STILL){
+
+            //Only requests that ask for the lock hold it.
+            setAutoExposureState(AE_STATE_LOCKED);
+
+        }else if(autoExposureState == AE_STATE_LOCKED){
+
+            setAutoExposureState(converged);
+        }
+
+        if(autoExposureState == AE_STATE_SEARCHING && autoExposureFrames >= exposureConvergeFrames){
+
+            setAutoExposureState(converged);
+
+        }else if(autoExposureState == AE_STATE_PRECAPTURE && autoExposureFrames >= precaptureFrames){
+
+            //The flash has been metered for, so the scene counts as converged from here on.
+            setAutoExposureState(AE_STATE_CONVERGED);
+        }
+
+        autoExposureFrames++;
+    }
+
+    private void setAutoFocusState(int state){
+
+        autoFocusState = state;
+        autoFocusFrames = 0;
+    }
+
+    private void setAutoExposureState(int state){
+
+        autoExposureState = state;
+        autoExposureFrames = 0;
+    }
+
+    private abstract static class Event implements Comparable<Event> {
+
+        long time;
+        long sequence;
+        int generation;
+
+        abstract void run();
+
+        @Override
+        public int compareTo(Event other){
+
+            if(time != other.time){
+
+                return time < other.time ? -1 : 1;
+            }
+
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private class StreamState {
+
+        final Stream stream;
+        final int index;
+        final ByteBuffer[] planes;
+        final int[] rowStrides;
+        final int[] pixelStrides;
+        final AtomicInteger outstanding = new AtomicInteger();
+        int delivered;
+        int dropped;
+
+        StreamState(Stream stream, int index){
+
+            this.stream = stream;
+            this.index = index;
+
+            //Every frame of a stream shares one read only copy of the data, so a long run costs no more memory than a short one.
+            if(stream.format == FORMAT_JPEG){
+
+                int size = jpegBytes > 0 ? jpegBytes : stream.width * stream.height / 4;
+                byte[] jpeg = SyntheticJpeg.create(stream.width, stream.height, size, seed + index);
+
+                planes = new ByteBuffer[]{readOnlyDirect(jpeg, 0, jpeg.length)};
+                rowStrides = new int[]{0};
+                pixelStrides = new int[]{0};
+
+            }else{
+
+                //Semi-planar chroma, as most cameras deliver it: U and V share one interleaved plane, one byte apart.
+                byte[] luma = new byte[stream.width * stream.height];
+                byte[] chroma = new byte[stream.width * stream.height / 2];
+
+                for(int i = 0; i < luma.length; i++){
+
+                    luma[i] = (byte) ((i % stream.width) * 256 / stream.width);
+                }
+
+                Arrays.fill(chroma, (byte) 128);
+
+                planes = new ByteBuffer[]{readOnlyDirect(luma, 0, luma.length), readOnlyDirect(chroma, 0, chroma.length - 1),
+                        readOnlyDirect(chroma, 1, chroma.length - 1)};
+                rowStrides = new int[]{stream.width, stream.width, stream.width};
+                pixelStrides = new int[]{1, 2, 2};
+            }
+        }
+
+        private ByteBuffer readOnlyDirect(byte[] bytes, int offset, int length){
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+            buffer.put(bytes, offset, length);
+            buffer.flip();
+
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+
+    private static class SimulatedFrame implements Frame {
+
+        private final StreamState stream;
+        private final long timestamp;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        SimulatedFrame(StreamState stream, long timestamp){
+
+            this.stream = stream;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public int getFormat() {
+
+            return stream.stream.format;
+        }
+
+        @Override
+        public int getWidth() {
+
+            return stream.stream.width;
+        }
+
+        @Override
+        public int getHeight() {
+
+            return stream.stream.height;
+        }
+
+        @Override
+        public long getTimestamp() {
+
+            return timestamp;
+        }
+
+        @Override
+        public int getPlaneCount() {
+
+            return stream.planes.length;
+        }
+
+        @Override
+        public ByteBuffer getPlane(int plane) {
+
+            if(closed.get()){
+
+                throw new IllegalStateException("Error: the frame has been closed!");
+            }
+
+            return stream.planes[plane].duplicate();
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+
+            return stream.rowStrides[plane];
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+
+            return stream.pixelStrides[plane];
+        }
+
+        @Override
+        public void close() {
+
+            if(closed.compareAndSet(false, true)){
+
+                stream.outstanding.decrementAndGet();
+            }
+        }
+    }
+}
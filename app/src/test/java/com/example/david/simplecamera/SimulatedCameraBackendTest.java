@@ -0,0 +1,417 @@
+package com.example.david.simplecamera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SimulatedCameraBackendTest {
+
+    private final static long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private final static int PREVIEW_STREAM = 0;
+    private final static int STILL_STREAM = 1;
+
+    private SimulatedCameraBackend camera;
+    private RecordingListener listener;
+
+    @Before
+    public void setUp() throws Exception {
+
+        camera = new SimulatedCameraBackend(7, "0", "1");
+        camera.setJpegBytes(50_000);
+        listener = new RecordingListener();
+    }
+
+    @Test
+    public void opensAndConfiguresAfterTheSetupLatency() throws Exception {
+
+        camera.open("1", listener);
+        assertTrue(listener.events.isEmpty());
+
+        camera.advance(TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(Collections.singletonList("opened 1"), listener.events);
+
+        camera.configureSession(streams());
+        camera.advance(TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals("configured", listener.events.get(1));
+
+        //Opening another camera closes this one first.
+        camera.open("2", listener);
+        camera.advance(SECOND);
+        assertEquals("closed 1", listener.events.get(2));
+        assertEquals("error", listener.events.get(3));
+    }
+
+    @Test
+    public void repeatingRequestRunsAtTheFrameRate() throws Exception {
+
+        startPreview(30, 0);
+        listener.clear();
+        camera.advance(SECOND);
+
+        assertEquals(30, listener.results.size());
+        assertEquals(30, listener.frames.size());
+
+        for(int i = 1; i < listener.results.size(); i++){
+
+            assertEquals(SECOND / 30, listener.results.get(i).getTimestamp() - listener.results.get(i - 1).getTimestamp());
+            assertEquals(listener.results.get(i - 1).frameNumber + 1, listener.results.get(i).frameNumber);
+        }
+
+        //Images and results of a frame share its sensor timestamp.
+        assertEquals(listener.results.get(0).getTimestamp(), listener.frames.get(0).getTimestamp());
+        assertEquals(CameraBackend.FORMAT_YUV_420_888, listener.frames.get(0).getFormat());
+        assertEquals(3, listener.frames.get(0).getPlaneCount());
+        assertEquals(2, listener.frames.get(0).getPixelStride(1));
+    }
+
+    @Test
+    public void jitterIsBoundedAndTheSameSeedPlaysOutTheSameWay() throws Exception {
+
+        long jitter = TimeUnit.MILLISECONDS.toNanos(5);
+        long[] first = previewTimestamps(7, jitter);
+        long[] second = previewTimestamps(7, jitter);
+        long[] otherSeed = previewTimestamps(8, jitter);
+
+        assertArrayEquals(first, second);
+        assertFalse(Arrays.equals(first, otherSeed));
+
+        for(int i = 1; i < first.length; i++){
+
+            long interval = first[i] - first[i - 1];
+            assertTrue(interval >= SECOND / 30 - jitter && interval <= SECOND / 30 + jitter);
+        }
+    }
+
+    @Test
+    public void streamsDropFramesWhileAllTheirImagesAreOut() throws Exception {
+
+        listener.closeFrames = false;
+        startPreview(30, 0);
+        camera.advance(SECOND);
+
+        //The preview stream has three images.
+        assertEquals(3, camera.getDeliveredCount(PREVIEW_STREAM));
+        assertEquals(3, camera.getOutstandingCount(PREVIEW_STREAM));
+        assertTrue(camera.getDroppedCount(PREVIEW_STREAM) > 20);
+
+        listener.frames.get(0).close();
+        listener.frames.get(0).close();
+        assertEquals(2, camera.getOutstandingCount(PREVIEW_STREAM));
+
+        camera.advance(SECOND / 30);
+        assertEquals(4, camera.getDeliveredCount(PREVIEW_STREAM));
+    }
+
+    @Test
+    public void burstGoesAheadOfTheRepeatingRequest() throws Exception {
+
+        listener.closeFrames = false;
+        startPreview(30, 0);
+        List<CameraBackend.Request> burst = new ArrayList<>();
+
+        for(int i = 0; i < 3; i++){
+
+            burst.add(new CameraBackend.Request(RequestCache.Variant.STILL, STILL_STREAM));
+        }
+
+        camera.captureBurst(burst);
+        listener.clear();
+        camera.advance(SECOND / 30 * 4);
+
+        assertEquals(4, listener.results.size());
+        assertEquals(RequestCache.Variant.STILL, listener.requests.get(0).variant);
+        assertEquals(RequestCache.Variant.STILL, listener.requests.get(2).variant);
+        assertEquals(RequestCache.Variant.PREVIEW, listener.requests.get(3).variant);
+
+        //JPEGs take longer than results, but still come in order.
+        List<CameraBackend.Frame> stills = listener.framesOf(STILL_STREAM);
+        assertEquals(3, stills.size());
+        assertEquals(listener.results.get(0).getTimestamp(), stills.get(0).getTimestamp());
+        assertTrue(JpegStreamWriter.isJpeg(stills.get(0).getPlane(0)));
+        assertEquals(50_000, stills.get(0).getPlane(0).remaining());
+    }
+
+    @Test
+    public void precaptureSequenceRunsAgainstTheScriptedCamera() throws Exception {
+
+        camera.setFocusScript(2, 4, true);
+        camera.setExposureScript(2, 3, true);
+        startPreview(30, 0);
+
+        final CaptureStateMachine stateMachine = new CaptureStateMachine(new CaptureStateMachine.Actions() {
+
+            @Override
+            public void startAutoFocus() {
+
+                camera.setRepeatingRequest(new CameraBackend.Request(RequestCache.Variant.AUTO_FOCUS_PREVIEW, PREVIEW_STREAM));
+            }
+
+            @Override
+            public void lockFocus() {
+
+                camera.capture(new CameraBackend.Request(RequestCache.Variant.FOCUS_TRIGGER, PREVIEW_STREAM));
+            }
+
+            @Override
+            public void runPrecapture() {
+
+                camera.capture(new CameraBackend.Request(RequestCache.Variant.PRECAPTURE_TRIGGER, PREVIEW_STREAM));
+            }
+
+            @Override
+            public void captureStill() {
+
+                camera.capture(new CameraBackend.Request(RequestCache.Variant.STILL, STILL_STREAM));
+            }
+
+            @Override
+            public void abandonCapture() {
+
+            }
+        }, camera.getClock());
+
+        final List<Integer> states = new ArrayList<>();
+
+        stateMachine.setStateListener(new CaptureStateMachine.StateListener() {
+
+            @Override
+            public void onStateChanged(int from, int to, boolean timedOut) {
+
+                states.add(to);
+            }
+        });
+
+        listener.stateMachine = stateMachine;
+        assertTrue(stateMachine.start());
+        camera.advance(SECOND);
+
+        assertEquals(Arrays.asList(CaptureStateMachine.STATE_WAITING_AUTO_FOCUS, CaptureStateMachine.STATE_WAITING_LOCK,
+                CaptureStateMachine.STATE_WAITING_PRECAPTURE, CaptureStateMachine.STATE_WAITING_NON_PRECAPTURE,
+                CaptureStateMachine.STATE_PICTURE_TAKEN), states);
+        assertEquals(0, stateMachine.getTimeoutCount());
+        assertEquals(1, listener.framesOf(STILL_STREAM).size());
+    }
+
+    @Test
+    public void burstSavesHeadlessThroughTheSavePipeline() throws Exception {
+
+        //Stills are matched with their results and written with Exif data, the way the activity saves them.
+        final JpegStreamWriterTest.MemoryImageSink sink = new JpegStreamWriterTest.MemoryImageSink();
+        final SaveExecutor saveExecutor = new SaveExecutor("Simulated Save", 1, 8, SaveExecutor.BackpressurePolicy.BLOCK);
+        final TimestampMatcher<CameraBackend.Frame, CaptureMetadata> matcher = new TimestampMatcher<>(8, SECOND, camera.getClock(),
+                new TimestampMatcher.Listener<CameraBackend.Frame, CaptureMetadata>() {
+
+            @Override
+            public void onMatched(final CameraBackend.Frame frame, final CaptureMetadata metadata) {
+
+                saveExecutor.submit(new SaveTask() {
+
+                    @Override
+                    public void run() {
+
+                        try{
+
+                            new JpegStreamWriter(sink).write(frame.getPlane(0), "img" + frame.getTimestamp(), metadata);
+
+                        }catch(IOException e){
+
+                            e.printStackTrace();
+
+                        }finally{
+
+                            frame.close();
+                        }
+                    }
+
+                    @Override
+                    public void discard() {
+
+                        frame.close();
+                    }
+                });
+            }
+        });
+
+        listener.closeFrames = false;
+        listener.matcher = matcher;
+        startPreview(30, TimeUnit.MILLISECONDS.toNanos(3));
+
+        List<CameraBackend.Request> burst = new ArrayList<>();
+
+        for(int i = 0; i < 8; i++){
+
+            burst.add(new CameraBackend.Request(RequestCache.Variant.STILL, STILL_STREAM));
+        }
+
+        camera.captureBurst(burst);
+        camera.advance(SECOND);
+
+        assertTrue(saveExecutor.awaitIdle(5000));
+        saveExecutor.shutdown();
+
+        assertEquals(8, matcher.getMatchedCount());
+        assertEquals(8, sink.images.size());
+        assertEquals(0, camera.getOutstandingCount(STILL_STREAM));
+
+        for(byte[] image : sink.images.values()){
+
+            assertEquals(2, ExifThumbnail.findExifSegment(ByteBuffer.wrap(image)));
+        }
+    }
+
+    private List<CameraBackend.Stream> streams(){
+
+        return Arrays.asList(new CameraBackend.Stream(CameraBackend.FORMAT_YUV_420_888, 64, 48, 3),
+                new CameraBackend.Stream(CameraBackend.FORMAT_JPEG, 640, 480, 10));
+    }
+
+    private void startPreview(int framesPerSecond, long jitterNanos){
+
+        camera.setFrameRate(framesPerSecond);
+        camera.setJitter(jitterNanos);
+        camera.open("0", listener);
+        camera.advance(SECOND / 10);
+        camera.configureSession(streams());
+        camera.advance(SECOND / 10);
+        camera.setRepeatingRequest(new CameraBackend.Request(RequestCache.Variant.PREVIEW, PREVIEW_STREAM));
+    }
+
+    private long[] previewTimestamps(long seed, long jitterNanos){
+
+        camera = new SimulatedCameraBackend(seed, "0");
+        listener = new RecordingListener();
+        startPreview(30, jitterNanos);
+        listener.clear();
+        camera.advance(SECOND);
+
+        long[] timestamps = new long[listener.results.size()];
+
+        for(int i = 0; i < timestamps.length; i++){
+
+            timestamps[i] = listener.results.get(i).getTimestamp();
+        }
+
+        return timestamps;
+    }
+
+    private static class RecordingListener implements CameraBackend.Listener {
+
+        final List<String> events = new ArrayList<>();
+        final List<CameraBackend.Request> requests = new ArrayList<>();
+        final List<CameraBackend.Result> results = new ArrayList<>();
+        final List<CameraBackend.Frame> frames = new ArrayList<>();
+        final List<Integer> frameStreams = new ArrayList<>();
+        boolean closeFrames = true;
+        CaptureStateMachine stateMachine;
+        TimestampMatcher<CameraBackend.Frame, CaptureMetadata> matcher;
+
+        @Override
+        public void onOpened(String cameraId) {
+
+            events.add("opened " + cameraId);
+        }
+
+        @Override
+        public void onSessionConfigured() {
+
+            events.add("configured");
+        }
+
+        @Override
+        public void onError(String message) {
+
+            events.add("error");
+        }
+
+        @Override
+        public void onClosed(String cameraId) {
+
+            events.add("closed " + cameraId);
+        }
+
+        @Override
+        public void onCaptureCompleted(CameraBackend.Request request, final CameraBackend.Result result) {
+
+            requests.add(request);
+            results.add(result);
+
+            if(stateMachine != null && stateMachine.isCapturing()){
+
+                stateMachine.onCaptureResult(new CaptureStateMachine.Result() {
+
+                    @Override
+                    public Integer getAutoFocusMode() {
+
+                        return result.autoFocusMode;
+                    }
+
+                    @Override
+                    public Integer getAutoFocusState() {
+
+                        return result.autoFocusState;
+                    }
+
+                    @Override
+                    public Integer getAutoExposureState() {
+
+                        return result.autoExposureState;
+                    }
+                });
+            }
+
+            if(matcher != null && request.variant == RequestCache.Variant.STILL){
+
+                matcher.offerResult(result.getTimestamp(), result.metadata);
+            }
+        }
+
+        @Override
+        public void onFrameAvailable(int stream, CameraBackend.Frame frame) {
+
+            frames.add(frame);
+            frameStreams.add(stream);
+
+            if(matcher != null && stream == STILL_STREAM){
+
+                matcher.offerItem(frame.getTimestamp(), frame);
+
+            }else if(closeFrames || matcher != null){
+
+                frame.close();
+            }
+        }
+
+        List<CameraBackend.Frame> framesOf(int stream){
+
+            List<CameraBackend.Frame> ofStream = new ArrayList<>();
+
+            for(int i = 0; i < frames.size(); i++){
+
+                if(frameStreams.get(i) == stream){
+
+                    ofStream.add(frames.get(i));
+                }
+            }
+
+            return ofStream;
+        }
+
+        void clear(){
+
+            events.clear();
+            requests.clear();
+            results.clear();
+            frames.clear();
+            frameStreams.clear();
+        }
+    }
+}
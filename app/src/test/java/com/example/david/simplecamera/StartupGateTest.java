@@ -0,0 +1,105 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StartupGateTest {
+
+    private final static int CAMERA = 1;
+    private final static int SURFACE = 2;
+
+    private final AtomicInteger runs = new AtomicInteger();
+    private final Runnable count = new Runnable() {
+
+        @Override
+        public void run() {
+
+            runs.incrementAndGet();
+        }
+    };
+
+    @Test
+    public void opensOnceBothStepsAreReadyInEitherOrder() throws Exception {
+
+        StartupGate gate = new StartupGate(CAMERA | SURFACE, count);
+
+        gate.ready(SURFACE);
+        assertEquals(0, runs.get());
+        assertFalse(gate.isOpen());
+
+        gate.ready(CAMERA);
+        assertEquals(1, runs.get());
+        assertTrue(gate.isOpen());
+
+        //Repeats don't run the action again.
+        gate.ready(CAMERA);
+        gate.ready(SURFACE);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void clearingAStepReArmsTheGate() throws Exception {
+
+        StartupGate gate = new StartupGate(CAMERA | SURFACE, count);
+
+        gate.ready(CAMERA);
+        gate.ready(SURFACE);
+        gate.clear(CAMERA);
+
+        assertFalse(gate.isOpen());
+        assertTrue(gate.isReady(SURFACE));
+
+        gate.ready(CAMERA);
+        assertEquals(2, runs.get());
+
+        gate.reset();
+        gate.ready(CAMERA);
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void racingStepsRunTheActionExactlyOnce() throws Exception {
+
+        for(int i = 0; i < 200; i++){
+
+            final StartupGate gate = new StartupGate(CAMERA | SURFACE, count);
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread camera = readyOn(gate, CAMERA, start);
+            Thread surface = readyOn(gate, SURFACE, start);
+
+            start.countDown();
+            camera.join(TimeUnit.SECONDS.toMillis(5));
+            surface.join(TimeUnit.SECONDS.toMillis(5));
+        }
+
+        assertEquals(200, runs.get());
+    }
+
+    private static Thread readyOn(final StartupGate gate, final int step, final CountDownLatch start){
+
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                try{
+
+                    start.await();
+                    gate.ready(step);
+
+                }catch(InterruptedException e){
+
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        thread.start();
+        return thread;
+    }
+}
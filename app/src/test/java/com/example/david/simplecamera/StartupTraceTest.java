@@ -0,0 +1,95 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StartupTraceTest {
+
+    private final static long BUDGET = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    public void measuresEachMilestoneFromLaunch() throws Exception {
+
+        FakeClock clock = new FakeClock(1000);
+        StartupTrace trace = new StartupTrace(clock, BUDGET);
+
+        trace.begin(true);
+        clock.advanceMillis(120);
+        assertTrue(trace.mark(StartupTrace.Milestone.CAMERA_OPENED));
+        clock.advanceMillis(30);
+        assertTrue(trace.mark(StartupTrace.Milestone.SURFACE_READY));
+        clock.advanceMillis(200);
+        assertTrue(trace.mark(StartupTrace.Milestone.FIRST_FRAME));
+
+        //The first mark wins.
+        clock.advanceMillis(100);
+        assertFalse(trace.mark(StartupTrace.Milestone.FIRST_FRAME));
+
+        assertTrue(trace.isComplete());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(120), trace.getElapsedNanos(StartupTrace.Milestone.CAMERA_OPENED));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(350), trace.getTimeToFirstFrameNanos());
+        assertEquals(-1, trace.getElapsedNanos(StartupTrace.Milestone.SESSION_CONFIGURED));
+        assertFalse(trace.isOverBudget());
+    }
+
+    @Test
+    public void flagsSlowAndStuckLaunches() throws Exception {
+
+        FakeClock clock = new FakeClock(0);
+        StartupTrace trace = new StartupTrace(clock, BUDGET);
+
+        trace.begin(false);
+        clock.advanceMillis(400);
+        assertFalse(trace.isOverBudget());
+
+        //No first frame yet, but the budget is already gone.
+        clock.advanceMillis(200);
+        assertTrue(trace.isOverBudget());
+
+        trace.mark(StartupTrace.Milestone.FIRST_FRAME);
+        assertTrue(trace.isOverBudget());
+        assertTrue(trace.toString().contains("over the 500ms budget"));
+    }
+
+    @Test
+    public void ignoresMarksBeforeBeginAndForgetsTheLastLaunch() throws Exception {
+
+        FakeClock clock = new FakeClock(0);
+        StartupTrace trace = new StartupTrace(clock, BUDGET);
+
+        assertFalse(trace.mark(StartupTrace.Milestone.CAMERA_OPENED));
+        assertFalse(trace.isStarted());
+
+        trace.begin(true);
+        clock.advanceMillis(50);
+        trace.mark(StartupTrace.Milestone.FIRST_FRAME);
+
+        trace.begin(false);
+        assertFalse(trace.isComplete());
+        assertEquals(-1, trace.getTimeToFirstFrameNanos());
+    }
+
+    @Test
+    public void writesCsvRows() throws Exception {
+
+        FakeClock clock = new FakeClock(0);
+        StartupTrace trace = new StartupTrace(clock, BUDGET);
+        StringWriter writer = new StringWriter();
+
+        trace.begin(true);
+        clock.advanceMillis(80);
+        trace.mark(StartupTrace.Milestone.CAMERA_OPENED);
+        clock.advanceNanos(1500000);
+        trace.mark(StartupTrace.Milestone.FIRST_FRAME);
+
+        StartupTrace.writeCsvHeader(writer);
+        trace.writeCsvRow(writer);
+
+        assertEquals("cold,camera_opened_ms,outputs_ready_ms,surface_ready_ms,session_configured_ms,first_frame_ms\n"
+                + "true,80.00,,,,81.50\n", writer.toString());
+    }
+}
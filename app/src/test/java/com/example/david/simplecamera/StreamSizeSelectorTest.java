@@ -0,0 +1,155 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StreamSizeSelectorTest {
+
+    private final static long FPS_30 = 33333333L;
+    private final static long FPS_15 = 66666666L;
+    private final static long FPS_10 = 100000000L;
+
+    //Recorded from a FULL device: {width, height, min frame duration, stall duration}.
+    private final static long[][] FULL_PREVIEW_SIZES = {
+            {4032, 3024, FPS_15, 0}, {1920, 1080, FPS_30, 0}, {1440, 1080, FPS_30, 0}, {1280, 720, FPS_30, 0},
+            {1280, 960, FPS_30, 0}, {960, 720, FPS_30, 0}, {800, 600, FPS_30, 0}, {640, 480, FPS_30, 0}, {320, 240, FPS_30, 0}};
+    private final static long[][] FULL_JPEG_SIZES = {
+            {4032, 3024, FPS_30, 38000000L}, {4032, 2268, FPS_30, 29000000L}, {3264, 2448, FPS_30, 26000000L},
+            {1920, 1080, FPS_30, 11000000L}, {1280, 720, FPS_30, 5000000L}, {640, 480, FPS_30, 0}};
+
+    //Recorded from a LEGACY device that can't run large sizes at speed.
+    private final static long[][] LEGACY_PREVIEW_SIZES = {
+            {1920, 1080, FPS_15, 0}, {1280, 720, FPS_30, 0}, {960, 540, FPS_30, 0}, {640, 480, FPS_30, 0}};
+    private final static long[][] LEGACY_JPEG_SIZES = {
+            {3264, 1836, FPS_10, 250000000L}, {2592, 1458, FPS_10, 150000000L}, {1920, 1080, FPS_30, 50000000L}, {1280, 720, FPS_30, 20000000L}};
+
+    @Test
+    public void fullDevice_portraitPhone() throws Exception {
+
+        StreamSizeSelector.Selection selection = StreamSizeSelector.select(sizes(FULL_PREVIEW_SIZES), sizes(FULL_JPEG_SIZES), 1080, 1920, 1920, 1080, 30, 5);
+
+        assertEquals("1920x1080", selection.preview.toString());
+        assertEquals("4032x2268", selection.still.toString());
+    }
+
+    @Test
+    public void fullDevice_smallView_usesSmallestCoveringPreview() throws Exception {
+
+        StreamSizeSelector.Selection selection = StreamSizeSelector.select(sizes(FULL_PREVIEW_SIZES), sizes(FULL_JPEG_SIZES), 600, 800, 1920, 1080, 30, 5);
+
+        assertEquals("800x600", selection.preview.toString());
+        assertEquals("4032x3024", selection.still.toString());
+    }
+
+    @Test
+    public void legacyDevice_dropsSizesThatCantKeepUp() throws Exception {
+
+        StreamSizeSelector.Selection selection = StreamSizeSelector.select(sizes(LEGACY_PREVIEW_SIZES), sizes(LEGACY_JPEG_SIZES), 1080, 1920, 1920, 1080, 30, 5);
+
+        //1920x1080 only previews at 15 fps, and the larger stills stall for longer than a 5 fps burst allows.
+        assertEquals("1280x720", selection.preview.toString());
+        assertEquals("1920x1080", selection.still.toString());
+
+        selection = StreamSizeSelector.select(sizes(LEGACY_PREVIEW_SIZES), sizes(LEGACY_JPEG_SIZES), 1080, 1920, 1920, 1080, 30, 4);
+        assertEquals("2592x1458", selection.still.toString());
+    }
+
+    @Test
+    public void stillInRepeatingRequest_mustNotStall() throws Exception {
+
+        StreamSizeSelector.StreamSize repeating = StreamSizeSelector.selectRepeatingStillSize(sizes(FULL_JPEG_SIZES), 16.0 / 9, 30);
+
+        assertEquals("640x480", repeating.toString());
+
+        //Only the repeating stream is held to that, the preview and the main still are picked as usual.
+        StreamSizeSelector.Selection selection = StreamSizeSelector.select(sizes(FULL_PREVIEW_SIZES), sizes(FULL_JPEG_SIZES), 1080, 1920, 1920, 1080, 30, 5);
+
+        assertEquals("1920x1080", selection.preview.toString());
+        assertEquals("4032x2268", selection.still.toString());
+    }
+
+    @Test
+    public void stillInRepeatingRequest_nothingStallFree_keepsTheSelection() throws Exception {
+
+        //Like most real devices, where every JPEG size stalls.
+        List<StreamSizeSelector.StreamSize> stalling = sizes(new long[][]{
+                {4032, 2268, FPS_30, 29000000L}, {1920, 1080, FPS_30, 11000000L}, {640, 480, FPS_30, 2000000L}});
+
+        assertNull(StreamSizeSelector.selectRepeatingStillSize(stalling, 16.0 / 9, 30));
+
+        StreamSizeSelector.Selection selection = StreamSizeSelector.select(sizes(FULL_PREVIEW_SIZES), stalling, 1080, 1920, 1920, 1080, 30, 5);
+
+        assertEquals("1920x1080", selection.preview.toString());
+        assertEquals("4032x2268", selection.still.toString());
+    }
+
+    @Test
+    public void nothingCoversView_usesLargestWithClosestAspect() throws Exception {
+
+        StreamSizeSelector.StreamSize preview = StreamSizeSelector.selectPreviewSize(sizes(LEGACY_PREVIEW_SIZES), 1440, 2560, 1920, 1080, 30);
+
+        assertEquals("1280x720", preview.toString());
+    }
+
+    @Test
+    public void analysisSize_smallestThatIsBigEnough() throws Exception {
+
+        //16:9 preview: 320x240 is too far off in aspect, and 1280x720 is bigger than needed.
+        StreamSizeSelector.StreamSize size = StreamSizeSelector.selectAnalysisSize(sizes(LEGACY_PREVIEW_SIZES), 16.0 / 9, 320, 30);
+        assertEquals("960x540", size.toString());
+
+        size = StreamSizeSelector.selectAnalysisSize(sizes(FULL_PREVIEW_SIZES), 4.0 / 3, 320, 30);
+        assertEquals("320x240", size.toString());
+
+        //Nothing is big enough, so the largest there is will do.
+        size = StreamSizeSelector.selectAnalysisSize(sizes(FULL_PREVIEW_SIZES), 4.0 / 3, 8000, 30);
+        assertEquals("1440x1080", size.toString());
+    }
+
+    @Test
+    public void stepDownStillSize_keepsTheAspectRatio() throws Exception {
+
+        List<StreamSizeSelector.StreamSize> jpegSizes = sizes(FULL_JPEG_SIZES);
+        StreamSizeSelector.StreamSize full = jpegSizes.get(0);
+
+        assertSame(full, StreamSizeSelector.stepDownStillSize(jpegSizes, full, 0));
+        assertEquals("3264x2448", StreamSizeSelector.stepDownStillSize(jpegSizes, full, 1).toString());
+        assertEquals("640x480", StreamSizeSelector.stepDownStillSize(jpegSizes, full, 2).toString());
+        assertEquals("640x480", StreamSizeSelector.stepDownStillSize(jpegSizes, full, 5).toString());
+
+        //Nothing smaller with the same aspect ratio.
+        StreamSizeSelector.StreamSize smallest = jpegSizes.get(jpegSizes.size() - 1);
+        assertSame(smallest, StreamSizeSelector.stepDownStillSize(jpegSizes, smallest, 1));
+    }
+
+    @Test
+    public void nothingUsable() throws Exception {
+
+        assertNull(StreamSizeSelector.select(sizes(LEGACY_PREVIEW_SIZES), sizes(LEGACY_JPEG_SIZES), 1080, 1920, 1920, 1080, 60, 5));
+        assertNull(StreamSizeSelector.selectStillSize(new ArrayList<StreamSizeSelector.StreamSize>(), 1.5, 5, false));
+    }
+
+    @Test
+    public void unknownDurationsAreAccepted() throws Exception {
+
+        List<StreamSizeSelector.StreamSize> unknown = sizes(new long[][]{{1920, 1080, 0, 0}});
+
+        assertEquals("1920x1080", StreamSizeSelector.selectStillSize(unknown, 16 / 9.0, 30, true).toString());
+    }
+
+    private static List<StreamSizeSelector.StreamSize> sizes(long[][] table){
+
+        List<StreamSizeSelector.StreamSize> sizes = new ArrayList<>();
+
+        for(long[] row : table){
+
+            sizes.add(new StreamSizeSelector.StreamSize((int) row[0], (int) row[1], row[2], row[3]));
+        }
+
+        return sizes;
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.david.simplecamera;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+//Builds byte streams with the structure of a baseline JPEG (JFIF header, quantisation and huffman tables,
+//frame header, scan header and entropy coded data) without being decodable. Shared with the benchmarks.
+public class SyntheticJpeg {
+
+    private SyntheticJpeg(){
+
+    }
+
+    public static byte[] create(int width, int height, int totalSize, long seed){
+
+        Random random = new Random(seed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(totalSize);
+
+        out.write(0xFF);
+        out.write(0xD8);
+
+        //APP0 JFIF.
+        segment(out, 0xE0, new byte[]{'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+
+        //Two quantisation tables.
+        for(int table = 0; table < 2; table++){
+
+            byte[] dqt = new byte[65];
+            dqt[0] = (byte) table;
+
+            for(int i = 1; i < dqt.length; i++){
+
+                dqt[i] = (byte) (1 + random.nextInt(100));
+            }
+
+            segment(out, 0xDB, dqt);
+        }
+
+        //Baseline frame header with three components.
+        segment(out, 0xC0, new byte[]{8, (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width, 3,
+                1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1});
+
+        //Four huffman tables.
+        for(int table = 0; table < 4; table++){
+
+            byte[] dht = new byte[1 + 16 + 12];
+            dht[0] = (byte) (((table / 2) << 4) | (table % 2));
+
+            for(int i = 1; i <= 12; i++){
+
+                dht[i] = 1;
+            }
+
+            segment(out, 0xC4, dht);
+        }
+
+        segment(out, 0xDA, new byte[]{3, 1, 0x00, 2, 0x11, 3, 0x11, 0, 63, 0});
+
+        //Entropy coded data, where every 0xFF has to be stuffed with a 0x00.
+        int scanBytes = Math.max(0, totalSize - out.size() - 2);
+
+        for(int i = 0; i < scanBytes; i++){
+
+            int value = random.nextInt(256);
+
+            if(value == 0xFF){
+
+                if(i + 1 >= scanBytes){
+
+                    value = 0;
+
+                }else{
+
+                    out.write(0xFF);
+                    value = 0;
+                    i++;
+                }
+            }
+
+            out.write(value);
+        }
+
+        out.write(0xFF);
+        out.write(0xD9);
+
+        return out.toByteArray();
+    }
+
+    public static byte[] withSegment(byte[] jpeg, int marker, byte[] payload){
+
+        //Inserts a header segment straight after the SOI marker.
+        ByteArrayOutputStream out = new ByteArrayOutputStream(jpeg.length + payload.length + 4);
+
+        out.write(jpeg, 0, 2);
+        segment(out, marker, payload);
+        out.write(jpeg, 2, jpeg.length - 2);
+
+        return out.toByteArray();
+    }
+
+    public static byte[] withExifThumbnail(byte[] jpeg, byte[] thumbnail, int orientation, boolean littleEndian){
+
+        //An Exif APP1 segment laid out the way cameras write it: IFD0 with the orientation, then IFD1 pointing
+        //at the thumbnail, which follows straight after it.
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+
+        tiff.write(littleEndian ? 'I' : 'M');
+        tiff.write(littleEndian ? 'I' : 'M');
+        tiffShort(tiff, 42, littleEndian);
+        tiffInt(tiff, 8, littleEndian);
+
+        //IFD0 at 8: one entry, then the offset of IFD1.
+        tiffShort(tiff, 1, littleEndian);
+        tiffEntry(tiff, 0x0112, 3, orientation, littleEndian);
+        tiffInt(tiff, 26, littleEndian);
+
+        //IFD1 at 26: compression, thumbnail offset and length, then no next IFD. The thumbnail starts at 68.
+        tiffShort(tiff, 3, littleEndian);
+        tiffEntry(tiff, 0x0103, 3, 6, littleEndian);
+        tiffEntry(tiff, 0x0201, 4, 68, littleEndian);
+        tiffEntry(tiff, 0x0202, 4, thumbnail.length, littleEndian);
+        tiffInt(tiff, 0, littleEndian);
+        tiff.write(thumbnail, 0, thumbnail.length);
+
+        ByteArrayOutputStream app1 = new ByteArrayOutputStream();
+        app1.write('E');
+        app1.write('x');
+        app1.write('i');
+        app1.write('f');
+        app1.write(0);
+        app1.write(0);
+
+        byte[] tiffBytes = tiff.toByteArray();
+        app1.write(tiffBytes, 0, tiffBytes.length);
+
+        return withSegment(jpeg, 0xE1, app1.toByteArray());
+    }
+
+    private static void tiffEntry(ByteArrayOutputStream out, int tag, int type, int value, boolean littleEndian){
+
+        tiffShort(out, tag, littleEndian);
+        tiffShort(out, type, littleEndian);
+        tiffInt(out, 1, littleEndian);
+
+        //SHORT values sit in the first two bytes of the value field.
+        if(type == 3){
+
+            tiffShort(out, value, littleEndian);
+            tiffShort(out, 0, littleEndian);
+
+        }else{
+
+            tiffInt(out, value, littleEndian);
+        }
+    }
+
+    private static void tiffShort(ByteArrayOutputStream out, int value, boolean littleEndian){
+
+        out.write(littleEndian ? value : value >> 8);
+        out.write(littleEndian ? value >> 8 : value);
+    }
+
+    private static void tiffInt(ByteArrayOutputStream out, int value, boolean littleEndian){
+
+        tiffShort(out, littleEndian ? value : value >>> 16, littleEndian);
+        tiffShort(out, littleEndian ? value >>> 16 : value, littleEndian);
+    }
+
+    private static void segment(ByteArrayOutputStream out, int marker, byte[] payload){
+
+        int length = payload.length + 2;
+
+        out.write(0xFF);
+        out.write(marker);
+        out.write(length >> 8);
+        out.write(length);
+        out.write(payload, 0, payload.length);
+    }
+}
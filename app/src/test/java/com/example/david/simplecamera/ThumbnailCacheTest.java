@@ -0,0 +1,90 @@
+package com.example.david.simplecamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailCacheTest {
+
+    private final static ThumbnailCache.Sizer<byte[]> SIZER = new ThumbnailCache.Sizer<byte[]>() {
+
+        @Override
+        public int sizeOf(byte[] thumbnail) {
+
+            return thumbnail.length;
+        }
+    };
+
+    @Test
+    public void evictsLeastRecentlyUsedOnceOverTheByteLimit() throws Exception {
+
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(300, SIZER);
+
+        cache.put(1, new byte[100]);
+        cache.put(2, new byte[100]);
+        cache.put(3, new byte[100]);
+
+        //Using 1 makes 2 the least recently used.
+        assertNotNull(cache.get(1));
+        cache.put(4, new byte[100]);
+
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(3));
+        assertNotNull(cache.get(4));
+        assertEquals(300, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+
+        //A big thumbnail can push out several small ones.
+        cache.put(5, new byte[250]);
+        assertEquals(1, cache.getCount());
+        assertEquals(250, cache.getSize());
+    }
+
+    @Test
+    public void replacingAThumbnailKeepsTheSizeRight() throws Exception {
+
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(1000, SIZER);
+
+        cache.put(1, new byte[100]);
+        cache.put(1, new byte[300]);
+
+        assertEquals(300, cache.getSize());
+        assertEquals(1, cache.getCount());
+
+        assertEquals(300, cache.remove(1).length);
+        assertEquals(0, cache.getSize());
+        assertNull(cache.remove(1));
+    }
+
+    @Test
+    public void oversizedThumbnailsAreNotKept() throws Exception {
+
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(100, SIZER);
+        cache.put(1, new byte[50]);
+
+        assertFalse(cache.put(2, new byte[101]));
+        assertNotNull(cache.get(1));
+        assertEquals(50, cache.getSize());
+    }
+
+    @Test
+    public void latestIsTheNewestCaptureNotTheLastPut() throws Exception {
+
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(1000, SIZER);
+        byte[] newest = new byte[10];
+
+        //Frames of a burst can finish decoding out of order.
+        cache.put(2, newest);
+        cache.put(1, new byte[10]);
+
+        assertEquals(2, cache.getLatestId());
+        assertSame(newest, cache.getLatest());
+        assertEquals(0, cache.getHitCount());
+
+        cache.get(1);
+        cache.get(7);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+}
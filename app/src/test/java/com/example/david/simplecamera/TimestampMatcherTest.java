@@ -0,0 +1,155 @@
+package com.example.david.simplecamera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TimestampMatcherTest {
+
+    private final static long TIMEOUT_NANOS = 300_000_000L;
+
+    private FakeClock clock;
+    private List<String> handedOn;
+    private TimestampMatcher<String, String> matcher;
+
+    @Before
+    public void setUp() throws Exception {
+
+        clock = new FakeClock(1_000_000_000L);
+        handedOn = new ArrayList<>();
+        matcher = new TimestampMatcher<>(4, TIMEOUT_NANOS, clock, new TimestampMatcher.Listener<String, String>() {
+
+            @Override
+            public void onMatched(String item, String result) {
+
+                handedOn.add(item + "=" + result);
+            }
+        });
+    }
+
+    @Test
+    public void matchesInEitherOrder() throws Exception {
+
+        matcher.offerItem(100, "image1");
+        assertTrue(handedOn.isEmpty());
+        matcher.offerResult(100, "result1");
+
+        matcher.offerResult(200, "result2");
+        assertEquals(1, handedOn.size());
+        matcher.offerItem(200, "image2");
+
+        assertEquals(2, handedOn.size());
+        assertEquals("image1=result1", handedOn.get(0));
+        assertEquals("image2=result2", handedOn.get(1));
+        assertEquals(2, matcher.getMatchedCount());
+        assertEquals(0, matcher.getWaitingItemCount());
+        assertEquals(0, matcher.getWaitingResultCount());
+    }
+
+    @Test
+    public void itemsAreHandedOnWithoutAResultAfterTheTimeout() throws Exception {
+
+        matcher.offerItem(100, "image1");
+        clock.advanceMillis(200);
+        matcher.offerItem(200, "image2");
+
+        assertEquals(0, matcher.expire());
+
+        clock.advanceMillis(100);
+        assertEquals(1, matcher.expire());
+        assertEquals("image1=null", handedOn.get(0));
+
+        //A result for an image that has been handed on already is of no use anymore.
+        matcher.offerResult(100, "late");
+        assertEquals(1, handedOn.size());
+        assertEquals(1, matcher.getWaitingResultCount());
+
+        clock.advanceMillis(300);
+        assertEquals(1, matcher.expire());
+        assertEquals("image2=null", handedOn.get(1));
+        assertEquals(0, matcher.getWaitingResultCount());
+        assertEquals(2, matcher.getTimedOutCount());
+        assertEquals(1, matcher.getDroppedResultCount());
+    }
+
+    @Test
+    public void nextTimeoutFollowsTheEarliestWaitingItem() throws Exception {
+
+        assertEquals(-1, matcher.getNanosUntilNextTimeout());
+
+        matcher.offerItem(100, "image1");
+        clock.advanceMillis(200);
+        matcher.offerItem(200, "image2");
+        assertEquals(100_000_000L, matcher.getNanosUntilNextTimeout());
+
+        //A check that runs a little early hands on nothing, and is told to come back for the rest of the wait.
+        clock.advanceMillis(99);
+        assertEquals(0, matcher.expire());
+        assertEquals(1_000_000L, matcher.getNanosUntilNextTimeout());
+
+        //Due exactly at the deadline.
+        clock.advanceMillis(1);
+        assertEquals(0, matcher.getNanosUntilNextTimeout());
+        assertEquals(1, matcher.expire());
+        assertEquals(200_000_000L, matcher.getNanosUntilNextTimeout());
+
+        clock.advanceMillis(200);
+        assertEquals(1, matcher.expire());
+        assertEquals(-1, matcher.getNanosUntilNextTimeout());
+    }
+
+    @Test
+    public void flushHandsOnEveryWaitingItem() throws Exception {
+
+        matcher.offerItem(100, "image1");
+        matcher.offerItem(200, "image2");
+        matcher.offerResult(300, "result3");
+
+        assertEquals(2, matcher.flush());
+        assertEquals("image1=null", handedOn.get(0));
+        assertEquals("image2=null", handedOn.get(1));
+        assertEquals(0, matcher.getWaitingResultCount());
+
+        //The waiting results went with them.
+        matcher.offerItem(300, "image3");
+        assertEquals(1, matcher.getWaitingItemCount());
+        assertEquals(1, matcher.flush());
+        assertEquals("image3=null", handedOn.get(2));
+    }
+
+    @Test
+    public void overflowHandsOnTheOldestItem() throws Exception {
+
+        for(int i = 1; i <= 5; i++){
+
+            matcher.offerItem(i, "image" + i);
+        }
+
+        assertEquals(1, handedOn.size());
+        assertEquals("image1=null", handedOn.get(0));
+        assertEquals(4, matcher.getWaitingItemCount());
+
+        for(int i = 1; i <= 6; i++){
+
+            matcher.offerResult(100 + i, "result" + i);
+        }
+
+        assertEquals(4, matcher.getWaitingResultCount());
+        assertEquals(2, matcher.getDroppedResultCount());
+    }
+
+    @Test
+    public void aRepeatedTimestampHandsOnTheOlderItem() throws Exception {
+
+        matcher.offerItem(100, "image1");
+        matcher.offerItem(100, "image2");
+        matcher.offerResult(100, "result");
+
+        assertEquals("image1=null", handedOn.get(0));
+        assertEquals("image2=result", handedOn.get(1));
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.david.simplecamera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class YuvConverterTest {
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp(){
+
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown(){
+
+        pool.shutdown();
+    }
+
+    @Test
+    public void semiPlanarChromaWithRowPadding() throws Exception {
+
+        //The common device layout: U and V interleaved (pixel stride 2) and rows padded out.
+        assertConverts(64, 48, 80, 2, 80);
+    }
+
+    @Test
+    public void planarChroma() throws Exception {
+
+        assertConverts(64, 48, 64, 1, 32);
+    }
+
+    @Test
+    public void tallFrameIsSplitIntoStrips() throws Exception {
+
+        YuvFrame frame = syntheticFrame(32, 480, 48, 2, 48, null);
+        byte[] nv21 = new byte[YuvConverter.nv21Size(32, 480)];
+        final AtomicInteger rows = new AtomicInteger();
+        final AtomicInteger strips = new AtomicInteger();
+
+        new YuvConverter(pool, 16).toNv21(frame, nv21, new YuvConverter.StripProcessor() {
+
+            @Override
+            public void process(byte[] nv21, int width, int height, int rowStart, int rowEnd) {
+
+                assertEquals(0, rowStart % 2);
+                rows.addAndGet(rowEnd - rowStart);
+                strips.incrementAndGet();
+            }
+        });
+
+        assertEquals(480, rows.get());
+        assertTrue(strips.get() > 1);
+        assertArrayEquals(expectedNv21(32, 480), nv21);
+    }
+
+    @Test
+    public void planesArePooled() throws Exception {
+
+        BufferPool bufferPool = new BufferPool();
+        YuvFrame frame = syntheticFrame(64, 48, 64, 2, 64, bufferPool);
+
+        assertEquals(3, bufferPool.getOutstanding());
+
+        frame.release(bufferPool);
+        assertEquals(0, bufferPool.getOutstanding());
+    }
+
+    private void assertConverts(int width, int height, int yRowStride, int chromaPixelStride, int chromaRowStride){
+
+        YuvFrame frame = syntheticFrame(width, height, yRowStride, chromaPixelStride, chromaRowStride, null);
+        byte[] nv21 = new byte[YuvConverter.nv21Size(width, height)];
+
+        new YuvConverter(pool, 2).toNv21(frame, nv21, null);
+
+        assertArrayEquals(expectedNv21(width, height), nv21);
+    }
+
+    //Luma is (x + y), U is (x + 2y + 100) and V is (3x + y + 50), each wrapped to a byte.
+    private static YuvFrame syntheticFrame(int width, int height, int yRowStride, int chromaPixelStride, int chromaRowStride, BufferPool bufferPool){
+
+        byte[] y = new byte[yRowStride * height];
+
+        for(int row = 0; row < height; row++){
+
+            for(int column = 0; column < width; column++){
+
+                y[row * yRowStride + column] = (byte) (column + row);
+            }
+        }
+
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        byte[] u;
+        byte[] v;
+
+        if(chromaPixelStride == 2){
+
+            //One interleaved UV buffer that both planes look into, offset by one byte.
+            byte[] uv = new byte[chromaRowStride * chromaHeight + 1];
+
+            for(int row = 0; row < chromaHeight; row++){
+
+                for(int column = 0; column < chromaWidth; column++){
+
+                    uv[row * chromaRowStride + column * 2] = (byte) (column + 2 * row + 100);
+                    uv[row * chromaRowStride + column * 2 + 1] = (byte) (3 * column + row + 50);
+                }
+            }
+
+            u = uv;
+            v = new byte[uv.length - 1];
+            System.arraycopy(uv, 1, v, 0, v.length);
+
+        }else{
+
+            u = new byte[chromaRowStride * chromaHeight];
+            v = new byte[chromaRowStride * chromaHeight];
+
+            for(int row = 0; row < chromaHeight; row++){
+
+                for(int column = 0; column < chromaWidth; column++){
+
+                    u[row * chromaRowStride + column] = (byte) (column + 2 * row + 100);
+                    v[row * chromaRowStride + column] = (byte) (3 * column + row + 50);
+                }
+            }
+        }
+
+        YuvFrame frame = new YuvFrame(width, height);
+
+        frame.copyPlane(YuvFrame.PLANE_Y, ByteBuffer.wrap(y), yRowStride, 1, bufferPool);
+        frame.copyPlane(YuvFrame.PLANE_U, ByteBuffer.wrap(u), chromaRowStride, chromaPixelStride, bufferPool);
+        frame.copyPlane(YuvFrame.PLANE_V, ByteBuffer.wrap(v), chromaRowStride, chromaPixelStride, bufferPool);
+
+        return frame;
+    }
+
+    private static byte[] expectedNv21(int width, int height){
+
+        byte[] nv21 = new byte[YuvConverter.nv21Size(width, height)];
+        int out = 0;
+
+        for(int row = 0; row < height; row++){
+
+            for(int column = 0; column < width; column++){
+
+                nv21[out++] = (byte) (column + row);
+            }
+        }
+
+        for(int row = 0; row < height / 2; row++){
+
+            for(int column = 0; column < width / 2; column++){
+
+                nv21[out++] = (byte) (3 * column + row + 50);
+                nv21[out++] = (byte) (column + 2 * row + 100);
+            }
+        }
+
+        return nv21;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.david.simplecamera.benchmarks;
+
+import com.example.david.simplecamera.AnalysisPipeline;
+import com.example.david.simplecamera.BufferPool;
+import com.example.david.simplecamera.Clock;
+import com.example.david.simplecamera.FrameAnalyzer;
+import com.example.david.simplecamera.MeanLumaAnalyzer;
+import com.example.david.simplecamera.YuvFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+//What handing a 640x480 preview frame to the analyzers costs the camera thread, however slow the analyzers are.
+//The drop rate of each run is printed at the end of the trial.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalysisPipelineBenchmark {
+
+    private final static int WIDTH = 640;
+    private final static int HEIGHT = 480;
+
+    @State(Scope.Thread)
+    public static class PipelineState {
+
+        //Blackhole.consumeCPU tokens burnt per analyzed frame, from an idle to a badly overloaded analyzer.
+        @Param({"0", "10000", "1000000"})
+        public long analyzerWork;
+
+        ByteBuffer lumaPlane;
+        ByteBuffer chromaPlane;
+        BufferPool pool;
+        ExecutorService executor;
+        AnalysisPipeline pipeline;
+        long timestamp;
+
+        @Setup(Level.Trial)
+        public void setup(){
+
+            lumaPlane = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+            chromaPlane = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 2 - 1);
+            pool = new BufferPool();
+            executor = Executors.newSingleThreadExecutor();
+            pipeline = new AnalysisPipeline(executor, pool, Clock.SYSTEM);
+
+            pipeline.addAnalyzer(new FrameAnalyzer() {
+
+                @Override
+                public void analyze(YuvFrame frame, long timestampNanos) {
+
+                    Blackhole.consumeCPU(analyzerWork);
+                }
+            });
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            System.out.println();
+            System.out.println(pipeline);
+        }
+    }
+
+    @Benchmark
+    public void copyAndOffer(PipelineState state){
+
+        //What the analysis reader's listener does for every frame.
+        YuvFrame frame = new YuvFrame(WIDTH, HEIGHT);
+
+        frame.copyPlane(YuvFrame.PLANE_Y, state.lumaPlane, WIDTH, 1, state.pool);
+        frame.copyPlane(YuvFrame.PLANE_U, state.chromaPlane, WIDTH, 2, state.pool);
+        frame.copyPlane(YuvFrame.PLANE_V, state.chromaPlane, WIDTH, 2, state.pool);
+
+        state.pipeline.offer(frame, state.timestamp++);
+    }
+
+    @State(Scope.Thread)
+    public static class LumaState {
+
+        @Param({"1", "4"})
+        public int step;
+
+        YuvFrame frame;
+        MeanLumaAnalyzer analyzer;
+
+        @Setup
+        public void setup(){
+
+            frame = new YuvFrame(WIDTH, HEIGHT);
+            frame.copyPlane(YuvFrame.PLANE_Y, ByteBuffer.allocate(WIDTH * HEIGHT), WIDTH, 1, null);
+            analyzer = new MeanLumaAnalyzer(step);
+        }
+    }
+
+    @Benchmark
+    public double meanLuma(LumaState state){
+
+        state.analyzer.analyze(state.frame, 0);
+
+        return state.analyzer.getMeanLuma();
+    }
+}
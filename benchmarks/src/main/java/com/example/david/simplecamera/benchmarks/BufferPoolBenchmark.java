@@ -0,0 +1,80 @@
+package com.example.david.simplecamera.benchmarks;
+
+import com.example.david.simplecamera.BufferPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//Borrowing from the pool against allocating, with JPEG-sized requests that vary from frame to frame.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx512m"})
+public class BufferPoolBenchmark {
+
+    @Param({"400000", "3000000"})
+    public int averageSize;
+
+    private BufferPool pool;
+    private int[] sizes;
+
+    @Setup
+    public void setup(){
+
+        Random random = new Random(3);
+
+        pool = new BufferPool();
+        sizes = new int[1024];
+
+        for(int i = 0; i < sizes.length; i++){
+
+            sizes[i] = averageSize / 2 + random.nextInt(averageSize);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next;
+    }
+
+    @Benchmark
+    public byte[] allocate(Cursor cursor){
+
+        return new byte[sizes[cursor.next++ & 1023]];
+    }
+
+    @Benchmark
+    public int pooled(Cursor cursor){
+
+        byte[] buffer = pool.acquire(sizes[cursor.next++ & 1023]);
+        int length = buffer.length;
+
+        pool.release(buffer);
+
+        return length;
+    }
+
+    @Benchmark
+    @Threads(2)
+    public int pooledContended(Cursor cursor){
+
+        //The two save workers sharing one pool.
+        return pooled(cursor);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.david.simplecamera.benchmarks;
+
+import com.example.david.simplecamera.CaptureMetadata;
+import com.example.david.simplecamera.ExifSplicer;
+import com.example.david.simplecamera.JpegStreamWriter;
+import com.example.david.simplecamera.SyntheticJpeg;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+//Splicing the Exif data happens during the copy a save does anyway, so a spliced save should cost about the same
+//as a plain copy of the same JPEG. Building the segment on its own is what the splice adds.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExifSpliceBenchmark {
+
+    private final static int CHUNK_SIZE = 64 * 1024;
+
+    @State(Scope.Thread)
+    public static class JpegState {
+
+        ByteBuffer directJpeg;
+        ByteBuffer thumbnail;
+        CaptureMetadata metadata;
+        TimeZone timeZone;
+        OutputStream out;
+        byte[] chunk;
+
+        @Setup
+        public void setup(){
+
+            byte[] thumbnailJpeg = SyntheticJpeg.create(320, 240, 12000, 31);
+            byte[] jpeg = SyntheticJpeg.withExifThumbnail(SyntheticJpeg.create(4000, 3000, 3000000, 32), thumbnailJpeg, 6, true);
+
+            directJpeg = ByteBuffer.allocateDirect(jpeg.length);
+            directJpeg.put(jpeg);
+            directJpeg.flip();
+            thumbnail = ByteBuffer.wrap(thumbnailJpeg);
+            metadata = new CaptureMetadata(1, 10000000L, 400, 2f, 1.8f, 4.25f, System.currentTimeMillis());
+            timeZone = TimeZone.getDefault();
+            chunk = new byte[CHUNK_SIZE];
+
+            //Stands in for the sink, so only the copy itself is measured.
+            out = new OutputStream() {
+
+                @Override
+                public void write(int b) {
+
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+
+                }
+            };
+        }
+    }
+
+    @Benchmark
+    public long plainCopy(JpegState state) throws IOException {
+
+        return JpegStreamWriter.copy(state.directJpeg.duplicate(), state.out, state.chunk);
+    }
+
+    @Benchmark
+    public long splicedCopy(JpegState state) throws IOException {
+
+        return ExifSplicer.splice(state.directJpeg, state.metadata, state.timeZone, state.out, state.chunk);
+    }
+
+    @Benchmark
+    public byte[] buildSegment(JpegState state){
+
+        return ExifSplicer.buildSegment(state.metadata, state.timeZone, 90, state.thumbnail);
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.david.simplecamera.benchmarks;
+
+import com.example.david.simplecamera.FrameMetadataStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//Recording and querying per-frame 3A state in the primitive column store against keeping every frame as a map of
+//boxed values, the way the fields come out of a CaptureResult. Run with -prof gc to see the allocation per frame.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx512m"})
+public class FrameMetadataBenchmark {
+
+    private final static long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / 30;
+    private final static int FRAMES = 1024;
+    private final static String AF_STATE = "android.control.afState";
+    private final static String AE_STATE = "android.control.aeState";
+    private final static String EXPOSURE_TIME = "android.sensor.exposureTime";
+    private final static String SENSITIVITY = "android.sensor.sensitivity";
+    private final static String FOCUS_DISTANCE = "android.lens.focusDistance";
+
+    //4 seconds and 32 seconds of history at 30 fps.
+    @Param({"120", "960"})
+    public int capacity;
+
+    private FrameMetadataStore store;
+    private LinkedHashMap<Long, Map<String, Object>> boxed;
+    private final int[] autoFocusStates = new int[FRAMES];
+    private final int[] autoExposureStates = new int[FRAMES];
+    private final long[] exposureTimes = new long[FRAMES];
+    private final int[] sensitivities = new int[FRAMES];
+    private final float[] focusDistances = new float[FRAMES];
+    private long timestamp;
+    private int next;
+
+    @Setup
+    public void setup(){
+
+        Random random = new Random(5);
+
+        //Mostly converged, with the odd scan, so "last converged" is usually found a few frames back.
+        for(int i = 0; i < FRAMES; i++){
+
+            autoFocusStates[i] = random.nextInt(8) == 0 ? 1 : 2;
+            autoExposureStates[i] = random.nextInt(8) == 0 ? 1 : 2;
+            exposureTimes[i] = 10000000L + random.nextInt(20000000);
+            sensitivities[i] = 100 + random.nextInt(1500);
+            focusDistances[i] = random.nextFloat() * 10;
+        }
+
+        final int limit = capacity;
+
+        store = new FrameMetadataStore(capacity);
+        boxed = new LinkedHashMap<Long, Map<String, Object>>(){
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Map<String, Object>> eldest){
+
+                return size() > limit;
+            }
+        };
+
+        for(int i = 0; i < capacity; i++){
+
+            recordStore();
+            recordBoxed();
+        }
+    }
+
+    @Benchmark
+    public long recordStore(){
+
+        int frame = next++ & (FRAMES - 1);
+        timestamp += FRAME_NANOS;
+
+        return store.record(timestamp, autoFocusStates[frame], autoExposureStates[frame], exposureTimes[frame], sensitivities[frame], focusDistances[frame]);
+    }
+
+    @Benchmark
+    public int recordBoxed(){
+
+        int frame = next++ & (FRAMES - 1);
+        timestamp += FRAME_NANOS;
+
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(AF_STATE, autoFocusStates[frame]);
+        fields.put(AE_STATE, autoExposureStates[frame]);
+        fields.put(EXPOSURE_TIME, exposureTimes[frame]);
+        fields.put(SENSITIVITY, sensitivities[frame]);
+        fields.put(FOCUS_DISTANCE, focusDistances[frame]);
+        boxed.put(timestamp, fields);
+
+        return boxed.size();
+    }
+
+    @Benchmark
+    public long lastConvergedStore(){
+
+        return store.findLastConverged();
+    }
+
+    @Benchmark
+    public long lastConvergedBoxed(){
+
+        //A LinkedHashMap can only be walked oldest first, so the whole history is scanned for the newest match.
+        long found = -1;
+
+        for(Map.Entry<Long, Map<String, Object>> entry : boxed.entrySet()){
+
+            Integer autoFocus = (Integer) entry.getValue().get(AF_STATE);
+            Integer autoExposure = (Integer) entry.getValue().get(AE_STATE);
+
+            if(autoFocus != null && autoFocus == 2 && autoExposure != null && autoExposure == 2){
+
+                found = entry.getKey();
+            }
+        }
+
+        return found;
+    }
+
+    @Benchmark
+    public long nearestStore(){
+
+        //Somewhere in the middle of the history.
+        return store.findNearest(timestamp - capacity / 2 * FRAME_NANOS + FRAME_NANOS / 3);
+    }
+
+    @Benchmark
+    public long nearestBoxed(){
+
+        long target = timestamp - capacity / 2 * FRAME_NANOS + FRAME_NANOS / 3;
+        long nearest = -1;
+        long nearestDistance = Long.MAX_VALUE;
+        Iterator<Long> timestamps = boxed.keySet().iterator();
+
+        while(timestamps.hasNext()){
+
+            long candidate = timestamps.next();
+            long distance = Math.abs(candidate - target);
+
+            if(distance < nearestDistance){
+
+                nearest = candidate;
+                nearestDistance = distance;
+            }
+        }
+
+        return nearest;
+    }
+}
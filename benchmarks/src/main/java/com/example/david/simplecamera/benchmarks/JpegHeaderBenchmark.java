@@ -0,0 +1,67 @@
+package com.example.david.simplecamera.benchmarks;
+
+import com.example.david.simplecamera.JpegParser;
+import com.example.david.simplecamera.SyntheticJpeg;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+//Reading the header of a JPEG should cost nothing next to copying it.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JpegHeaderBenchmark {
+
+    private ByteBuffer heapJpeg;
+    private ByteBuffer directJpeg;
+
+    @Setup
+    public void setup(){
+
+        byte[] jpeg = SyntheticJpeg.create(4000, 3000, 3000000, 11);
+
+        heapJpeg = ByteBuffer.wrap(jpeg);
+        directJpeg = ByteBuffer.allocateDirect(jpeg.length);
+        directJpeg.put(jpeg);
+        directJpeg.flip();
+    }
+
+    @Benchmark
+    public boolean soiCheck(){
+
+        return JpegParser.hasSoi(directJpeg);
+    }
+
+    @Benchmark
+    public int[] dimensionsHeap(){
+
+        return JpegParser.readDimensions(heapJpeg);
+    }
+
+    @Benchmark
+    public int[] dimensionsDirect(){
+
+        return JpegParser.readDimensions(directJpeg);
+    }
+
+    @Benchmark
+    public int missingSegmentDirect(){
+
+        //Walks the whole header before giving up.
+        return JpegParser.findSegment(directJpeg, JpegParser.MARKER_APP1);
+    }
+}
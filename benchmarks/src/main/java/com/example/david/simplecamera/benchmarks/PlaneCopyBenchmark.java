@@ -0,0 +1,125 @@
+package com.example.david.simplecamera.benchmarks;
+
+import com.example.david.simplecamera.BufferPool;
+import com.example.david.simplecamera.JpegStreamWriter;
+import com.example.david.simplecamera.SyntheticJpeg;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+//Ways of getting the JPEG out of an Image plane, which is a direct ByteBuffer on the device.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaneCopyBenchmark {
+
+    //Roughly a 1080p, a 12 megapixel and a 16 megapixel JPEG.
+    @Param({"400000", "3000000", "5000000"})
+    public int jpegSize;
+
+    private ByteBuffer plane;
+    private BufferPool pool;
+    private byte[] scratch;
+    private BlackholeOutputStream out;
+
+    @Setup
+    public void setup(Blackhole blackhole){
+
+        byte[] jpeg = SyntheticJpeg.create(1920, 1080, jpegSize, 7);
+
+        plane = ByteBuffer.allocateDirect(jpeg.length);
+        plane.put(jpeg);
+        plane.flip();
+
+        pool = new BufferPool();
+        scratch = new byte[64 * 1024];
+        out = new BlackholeOutputStream(blackhole);
+    }
+
+    @Benchmark
+    public byte[] freshArray(){
+
+        //What ImageSaver.getBitmapFromImage() did: a new array per image.
+        ByteBuffer buffer = plane.duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+
+        buffer.get(bytes);
+
+        return bytes;
+    }
+
+    @Benchmark
+    public void pooledArray(Blackhole blackhole){
+
+        ByteBuffer buffer = plane.duplicate();
+        int length = buffer.remaining();
+        byte[] bytes = pool.acquire(length);
+
+        buffer.get(bytes, 0, length);
+        blackhole.consume(bytes);
+        pool.release(bytes);
+    }
+
+    @Benchmark
+    public long chunkedStream() throws IOException {
+
+        //The streaming save path: straight from the plane into the sink a chunk at a time.
+        return JpegStreamWriter.copy(plane, out, scratch);
+    }
+
+    @Benchmark
+    public int byteAtATime(){
+
+        //Baseline for how slow a naive loop over the direct buffer is.
+        ByteBuffer buffer = plane.duplicate();
+        int checksum = 0;
+
+        while(buffer.hasRemaining()){
+
+            checksum += buffer.get();
+        }
+
+        return checksum;
+    }
+
+    static class BlackholeOutputStream extends OutputStream {
+
+        private final Blackhole blackhole;
+
+        BlackholeOutputStream(Blackhole blackhole){
+
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b){
+
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len){
+
+            blackhole.consume(b);
+            blackhole.consume(len);
+        }
+    }
+}
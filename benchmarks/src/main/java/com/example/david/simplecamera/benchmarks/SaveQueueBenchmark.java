@@ -0,0 +1,86 @@
+package com.example.david.simplecamera.benchmarks;
+
+import com.example.david.simplecamera.SaveExecutor;
+import com.example.david.simplecamera.SaveTask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+//How long it takes to hand an image from the camera thread to a save worker and hear back.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaveQueueBenchmark {
+
+    @Param({"1", "2", "4"})
+    public int workers;
+
+    @Param({"BLOCK", "DROP_OLDEST"})
+    public SaveExecutor.BackpressurePolicy policy;
+
+    private SaveExecutor executor;
+    private final Semaphore done = new Semaphore(0);
+    private final SaveTask task = new SaveTask() {
+
+        @Override
+        public void run() {
+
+            done.release();
+        }
+
+        @Override
+        public void discard() {
+
+            done.release();
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setup(){
+
+        executor = new SaveExecutor("Benchmark Save Worker", workers, 16, policy);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+
+        executor.shutdownNow();
+        executor.awaitTermination(1000);
+    }
+
+    @Benchmark
+    public void roundTrip() throws InterruptedException {
+
+        executor.submit(task);
+        done.acquire();
+    }
+
+    @Benchmark
+    public void burstOfEight() throws InterruptedException {
+
+        //A whole burst queued at once, then waiting for all of it.
+        for(int i = 0; i < 8; i++){
+
+            executor.submit(task);
+        }
+
+        done.acquire(8);
+    }
+}
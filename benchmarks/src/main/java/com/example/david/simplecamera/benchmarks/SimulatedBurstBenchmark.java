@@ -0,0 +1,209 @@
+package com.example.david.simplecamera.benchmarks;
+
+import com.example.david.simplecamera.CameraBackend;
+import com.example.david.simplecamera.CaptureMetadata;
+import com.example.david.simplecamera.ImageSink;
+import com.example.david.simplecamera.JpegStreamWriter;
+import com.example.david.simplecamera.RequestCache;
+import com.example.david.simplecamera.SaveExecutor;
+import com.example.david.simplecamera.SaveTask;
+import com.example.david.simplecamera.SimulatedCameraBackend;
+import com.example.david.simplecamera.TimestampMatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//A burst of 12 MP JPEGs from the simulated camera, each matched with its result and saved with Exif data into a
+//sink that throws the bytes away. The camera runs on virtual time, so this is the time the save path needs to take
+//in a whole burst, with nothing from a real camera in the way.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulatedBurstBenchmark {
+
+    private final static int BURST_SIZE = 8;
+    private final static int STILL_STREAM = 1;
+    private final static long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Param({"1", "2"})
+    public int workers;
+
+    private SimulatedCameraBackend camera;
+    private SaveExecutor saveExecutor;
+    private TimestampMatcher<CameraBackend.Frame, CaptureMetadata> matcher;
+    private List<CameraBackend.Request> burst;
+
+    private final ImageSink sink = new ImageSink() {
+
+        @Override
+        public OutputStream openStream(String title, String mimeType) {
+
+            return new OutputStream() {
+
+                @Override
+                public void write(int b) {
+
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+
+                }
+            };
+        }
+
+        @Override
+        public void commit(String title) {
+
+        }
+
+        @Override
+        public void discard(String title) {
+
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setup(){
+
+        saveExecutor = new SaveExecutor("Benchmark Save Worker", workers, BURST_SIZE * 2, SaveExecutor.BackpressurePolicy.BLOCK);
+        camera = new SimulatedCameraBackend(1, "0");
+        camera.setJpegBytes(3000000);
+
+        matcher = new TimestampMatcher<>(BURST_SIZE * 2, SECOND, camera.getClock(), new TimestampMatcher.Listener<CameraBackend.Frame, CaptureMetadata>() {
+
+            @Override
+            public void onMatched(CameraBackend.Frame frame, CaptureMetadata metadata) {
+
+                saveExecutor.submit(newSaveTask(frame, metadata));
+            }
+        });
+
+        camera.open("0", new CameraBackend.Listener() {
+
+            @Override
+            public void onOpened(String cameraId) {
+
+            }
+
+            @Override
+            public void onSessionConfigured() {
+
+            }
+
+            @Override
+            public void onError(String message) {
+
+                throw new IllegalStateException(message);
+            }
+
+            @Override
+            public void onClosed(String cameraId) {
+
+            }
+
+            @Override
+            public void onCaptureCompleted(CameraBackend.Request request, CameraBackend.Result result) {
+
+                if(request.variant == RequestCache.Variant.STILL){
+
+                    matcher.offerResult(result.getTimestamp(), result.metadata);
+                }
+            }
+
+            @Override
+            public void onFrameAvailable(int stream, CameraBackend.Frame frame) {
+
+                if(stream == STILL_STREAM){
+
+                    matcher.offerItem(frame.getTimestamp(), frame);
+
+                }else{
+
+                    frame.close();
+                }
+            }
+        });
+
+        camera.advance(SECOND);
+        camera.configureSession(Arrays.asList(new CameraBackend.Stream(CameraBackend.FORMAT_YUV_420_888, 640, 480, 3),
+                new CameraBackend.Stream(CameraBackend.FORMAT_JPEG, 4000, 3000, BURST_SIZE + 2)));
+        camera.advance(SECOND);
+        camera.setRepeatingRequest(new CameraBackend.Request(RequestCache.Variant.PREVIEW, 0));
+
+        burst = new ArrayList<>();
+
+        for(int i = 0; i < BURST_SIZE; i++){
+
+            burst.add(new CameraBackend.Request(RequestCache.Variant.STILL, STILL_STREAM));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+
+        camera.close();
+        saveExecutor.shutdownNow();
+        saveExecutor.awaitTermination(1000);
+    }
+
+    private SaveTask newSaveTask(final CameraBackend.Frame frame, final CaptureMetadata metadata){
+
+        return new SaveTask() {
+
+            @Override
+            public void run() {
+
+                try{
+
+                    new JpegStreamWriter(sink).write(frame.getPlane(0), "burst", metadata);
+
+                }catch(IOException e){
+
+                    e.printStackTrace();
+
+                }finally{
+
+                    frame.close();
+                }
+            }
+
+            @Override
+            public void discard() {
+
+                frame.close();
+            }
+        };
+    }
+
+    @Benchmark
+    public long burstOfEight(){
+
+        camera.captureBurst(burst);
+        camera.advance(SECOND / 2);
+        saveExecutor.awaitIdle(10000);
+
+        return camera.getDroppedCount(STILL_STREAM);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.david.simplecamera.benchmarks;
+
+import com.example.david.simplecamera.ExifThumbnail;
+import com.example.david.simplecamera.SyntheticJpeg;
+import com.example.david.simplecamera.ThumbnailCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+//Finding the Exif thumbnail is what the camera thread pays for a last-shot thumbnail, so it has to stay in the
+//same league as reading the JPEG header. Copying the whole JPEG is the fallback it saves.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThumbnailBenchmark {
+
+    private final static int CACHE_BYTES = 4 * 1024 * 1024;
+    private final static int THUMBNAIL_BYTES = 256 * 192 * 4;
+
+    @State(Scope.Thread)
+    public static class JpegState {
+
+        ByteBuffer directJpeg;
+        byte[] copy;
+
+        @Setup
+        public void setup(){
+
+            byte[] thumbnail = SyntheticJpeg.create(320, 240, 12000, 21);
+            byte[] jpeg = SyntheticJpeg.withExifThumbnail(SyntheticJpeg.create(4000, 3000, 3000000, 22), thumbnail, 6, true);
+
+            directJpeg = ByteBuffer.allocateDirect(jpeg.length);
+            directJpeg.put(jpeg);
+            directJpeg.flip();
+            copy = new byte[jpeg.length];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CacheState {
+
+        ThumbnailCache<byte[]> cache;
+        byte[] thumbnail;
+        long nextId;
+
+        @Setup
+        public void setup(){
+
+            cache = new ThumbnailCache<>(CACHE_BYTES, new ThumbnailCache.Sizer<byte[]>() {
+
+                @Override
+                public int sizeOf(byte[] thumbnail) {
+
+                    return thumbnail.length;
+                }
+            });
+            thumbnail = new byte[THUMBNAIL_BYTES];
+
+            while(cache.getEvictionCount() == 0){
+
+                cache.put(nextId++, thumbnail);
+            }
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer findExifThumbnail(JpegState state){
+
+        return ExifThumbnail.find(state.directJpeg);
+    }
+
+    @Benchmark
+    public int readOrientation(JpegState state){
+
+        return ExifThumbnail.readOrientationDegrees(state.directJpeg);
+    }
+
+    @Benchmark
+    public byte[] copyWholeJpeg(JpegState state){
+
+        state.directJpeg.duplicate().get(state.copy);
+
+        return state.copy;
+    }
+
+    @Benchmark
+    public byte[] cachePutEvicting(CacheState state){
+
+        //Every put pushes out the least recently used thumbnail.
+        state.cache.put(state.nextId++, state.thumbnail);
+
+        return state.cache.get(state.nextId - 2);
+    }
+
+    @Benchmark
+    public byte[] cacheGetLatest(CacheState state){
+
+        return state.cache.getLatest();
+    }
+}